@@ -0,0 +1,22 @@
+package io.github.timemachinelab.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 管理接口配置
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "prompto-lab.admin")
+public class AdminProperties {
+
+    /**
+     * 管理接口令牌，请求头X-Admin-Token须与之一致；为空时管理接口全部拒绝
+     */
+    private String token = "";
+}
@@ -0,0 +1,47 @@
+package io.github.timemachinelab.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * AI响应精确缓存配置
+ * 以 操作名 + 模型 + 最终提示词 的哈希作为缓存键
+ *
+ * @author suifeng
+ * 日期: 2025/8/28
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "prompto-lab.ai.cache")
+public class AiCacheProperties {
+
+    /**
+     * 是否启用缓存
+     */
+    private boolean enabled = true;
+
+    /**
+     * 最大缓存条目数，超出后按LRU淘汰
+     */
+    private int maxEntries = 1000;
+
+    /**
+     * 缓存有效期（秒）
+     */
+    private long ttlSeconds = 1800;
+
+    /**
+     * 启用缓存的AI操作名（按操作显式开启）
+     */
+    private Set<String> operations = new HashSet<>(Set.of("PromptGenMaster"));
+
+    /**
+     * 只在首轮（对话树只有根节点）开启缓存的AI操作名
+     * 首轮提示词只由根节点的回答决定，不同会话的相同开场可直接复用
+     */
+    private Set<String> firstTurnOperations = new HashSet<>(Set.of("QUESTION_GENERATION_OP"));
+}
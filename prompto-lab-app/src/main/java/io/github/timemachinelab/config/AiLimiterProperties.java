@@ -0,0 +1,62 @@
+package io.github.timemachinelab.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * AI调用自适应并发限制配置
+ *
+ * @author suifeng
+ * 日期: 2025/8/30
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "prompto-lab.ai.limiter")
+public class AiLimiterProperties {
+
+    /**
+     * 是否启用限流
+     */
+    private boolean enabled = true;
+
+    /**
+     * 初始并发上限
+     */
+    private int initialLimit = 8;
+
+    /**
+     * 并发上限的下界
+     */
+    private int minLimit = 1;
+
+    /**
+     * 并发上限的上界
+     */
+    private int maxLimit = 64;
+
+    /**
+     * 等待队列长度，满时直接拒绝
+     */
+    private int maxQueueSize = 100;
+
+    /**
+     * 排队最长等待时间（毫秒）
+     */
+    private long maxWaitMs = 30000;
+
+    /**
+     * 收到限流（429）时并发上限的乘性衰减系数
+     */
+    private double backoffRatio = 0.5;
+
+    /**
+     * 延迟超过最小延迟的倍数时视为拥塞
+     */
+    private double latencyTolerance = 2.0;
+
+    /**
+     * 被限流后重新排队重试的次数
+     */
+    private int rateLimitRetries = 1;
+}
@@ -0,0 +1,96 @@
+package io.github.timemachinelab.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AI操作多模型路由配置
+ *
+ * @author suifeng
+ * 日期: 2025/8/30
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "prompto-lab.ai.routing")
+public class AiRoutingProperties {
+
+    /**
+     * 是否启用路由，关闭时使用操作声明的默认模型
+     */
+    private boolean enabled = false;
+
+    /**
+     * 操作名 -> 可用模型列表（未配置的操作使用默认模型）
+     */
+    private Map<String, List<String>> operations = new HashMap<>();
+
+    /**
+     * 延迟EWMA的平滑系数
+     */
+    private double ewmaAlpha = 0.3;
+
+    /**
+     * 连续失败多少次后熔断
+     */
+    private int failureThreshold = 3;
+
+    /**
+     * 熔断持续时间（秒），之后放行一次试探请求
+     */
+    private long openSeconds = 30;
+
+    /**
+     * 是否启用离群剔除：延迟或错误率明显差于同操作其他模型的端点暂时不参与路由
+     */
+    private boolean outlierDetectionEnabled = true;
+
+    /**
+     * 参与离群判断所需的最近请求数，样本不足的端点既不被剔除也不作为比较基准
+     */
+    private int outlierMinRequests = 20;
+
+    /**
+     * EWMA延迟超过其他模型中位数的倍数时视为离群
+     */
+    private double outlierLatencyFactor = 3.0;
+
+    /**
+     * 错误率高出其他模型中位数的差值达到该值时视为离群
+     */
+    private double outlierErrorRateDelta = 0.3;
+
+    /**
+     * 离群剔除持续时间（秒）
+     */
+    private long outlierEjectSeconds = 30;
+
+    /**
+     * 每个模型保留的最近延迟样本数，用于计算对冲阈值；同样大小的窗口用于统计错误率
+     */
+    private int latencyWindow = 100;
+
+    /**
+     * 是否启用对冲请求
+     */
+    private boolean hedgeEnabled = false;
+
+    /**
+     * 对冲阈值的延迟分位
+     */
+    private double hedgePercentile = 0.9;
+
+    /**
+     * 对冲阈值下限（毫秒），样本不足时也使用该值
+     */
+    private long minHedgeDelayMs = 2000;
+
+    /**
+     * 对冲请求线程数
+     */
+    private int hedgeThreads = 16;
+}
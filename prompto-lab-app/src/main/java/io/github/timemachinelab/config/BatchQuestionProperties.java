@@ -0,0 +1,32 @@
+package io.github.timemachinelab.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 批量提问配置
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "prompto-lab.ai.batch-questions")
+public class BatchQuestionProperties {
+
+    /**
+     * 是否允许模型单轮返回多个问题（默认关闭）
+     */
+    private boolean enabled = false;
+
+    /**
+     * 单轮最多返回的问题数
+     */
+    private int maxQuestions = 3;
+
+    /**
+     * 是否只在开场阶段批量提问（开场阶段需要收集的独立维度最多）
+     */
+    private boolean openingOnly = true;
+}
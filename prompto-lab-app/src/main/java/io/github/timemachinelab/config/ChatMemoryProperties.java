@@ -0,0 +1,43 @@
+package io.github.timemachinelab.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 有状态会话记忆模式配置
+ * 开启后问题生成由 langchain4j 维护会话记忆，每轮只追加增量，模型沿用问题生成操作的配置
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "prompto-lab.ai.chat-memory")
+public class ChatMemoryProperties {
+
+    /**
+     * 是否启用（默认关闭，沿用每轮全量发送）
+     */
+    private boolean enabled = false;
+
+    /**
+     * 每个会话保留的消息窗口大小（系统消息始终保留）
+     */
+    private int maxMessages = 24;
+
+    /**
+     * 距上次重建超过该轮数后，用最新的对话树重建记忆，避免窗口丢弃早期轮次后上下文不完整
+     */
+    private int rebuildAfterTurns = 10;
+
+    /**
+     * 同时保留记忆的会话数上限，超出时淘汰最久未使用的会话
+     */
+    private int maxSessions = 500;
+
+    /**
+     * 会话空闲超过该时间（分钟）后淘汰记忆
+     */
+    private long idleMinutes = 30;
+}
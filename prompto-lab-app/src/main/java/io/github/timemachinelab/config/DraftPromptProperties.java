@@ -0,0 +1,57 @@
+package io.github.timemachinelab.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 最终提示词后台草稿配置
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "prompto-lab.ai.draft-prompt")
+public class DraftPromptProperties {
+
+    /**
+     * 是否在对话过程中后台维护提示词草稿（默认关闭）
+     */
+    private boolean enabled = false;
+
+    /**
+     * 防抖时间（毫秒），连续回答时只在最后一次回答后刷新草稿
+     */
+    private long debounceMs = 5000;
+
+    /**
+     * 至少回答多少个节点后才开始生成草稿
+     */
+    private int minAnsweredNodes = 3;
+
+    /**
+     * 每个会话后台刷新草稿的次数上限
+     */
+    private int maxDraftsPerSession = 10;
+
+    /**
+     * 每个会话后台刷新草稿消耗的token上限（估算值）
+     */
+    private long maxTokensPerSession = 200000;
+
+    /**
+     * 变化节点占比不超过该值时在草稿基础上增量修订，否则全量生成
+     */
+    private double maxRefineRatio = 0.5;
+
+    /**
+     * 用户请求生成提示词的前台线程数，线程大部分时间在等待模型返回
+     */
+    private int generateThreads = 8;
+
+    /**
+     * 前台生成的排队长度，已满时拒绝请求
+     */
+    private int generateQueueCapacity = 64;
+}
@@ -0,0 +1,32 @@
+package io.github.timemachinelab.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 多选题并行追问配置
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "prompto-lab.ai.fan-out")
+public class FanOutProperties {
+
+    /**
+     * 是否为多选题的每个已选选项并行生成追问（默认关闭）
+     */
+    private boolean enabled = false;
+
+    /**
+     * 单次回答最多并行追问的选项数，超出的选项合并为一次普通追问
+     */
+    private int maxBranches = 4;
+
+    /**
+     * 并行追问线程数上限，包括超时后仍在等待模型返回的分支；线程不足时回退为普通追问（实际并发仍受限流器约束）
+     */
+    private int threads = 8;
+}
@@ -0,0 +1,41 @@
+package io.github.timemachinelab.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 问题生成提示词裁剪配置
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "prompto-lab.ai.prompt-slimming")
+public class PromptSlimmingProperties {
+
+    /**
+     * 是否启用裁剪，关闭时始终使用完整的全局提示词
+     */
+    private boolean enabled = true;
+
+    /**
+     * 会话节点数不超过该值时处于开场阶段
+     */
+    private int openingNodes = 3;
+
+    /**
+     * 开场阶段允许的题型段落（form / select / input）
+     */
+    private List<String> openingQuestionTypes = new ArrayList<>(Arrays.asList("form", "select", "input"));
+
+    /**
+     * 开场之后允许的题型段落（form / select / input）
+     */
+    private List<String> exploringQuestionTypes = new ArrayList<>(Arrays.asList("select", "input"));
+}
@@ -0,0 +1,66 @@
+package io.github.timemachinelab.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 问题近似匹配缓存配置
+ * 基于MinHash/LSH对（根节点回答 + 祖先路径文本）做相似度匹配
+ *
+ * @author suifeng
+ * 日期: 2025/8/29
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "prompto-lab.ai.similarity-cache")
+public class SimilarityCacheProperties {
+
+    /**
+     * 总开关，默认关闭
+     */
+    private boolean enabled = false;
+
+    /**
+     * 按操作的开关（kill switch），未配置的操作视为关闭
+     */
+    private Map<String, Boolean> operations = new HashMap<>(Map.of("QUESTION_GENERATION_OP", true));
+
+    /**
+     * 命中所需的最小相似度（Jaccard估计值）
+     */
+    private double threshold = 0.8;
+
+    /**
+     * LSH分带数，签名长度 = bands * rows
+     */
+    private int bands = 16;
+
+    /**
+     * 每个分带的行数
+     */
+    private int rows = 4;
+
+    /**
+     * n-gram长度
+     */
+    private int shingleSize = 2;
+
+    /**
+     * 参与匹配的最大路径深度，只缓存会话早期的问题
+     */
+    private int maxPathDepth = 2;
+
+    /**
+     * 最大缓存条目数
+     */
+    private int maxEntries = 2000;
+
+    /**
+     * 缓存有效期（秒）
+     */
+    private long ttlSeconds = 3600;
+}
@@ -0,0 +1,47 @@
+package io.github.timemachinelab.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 单选题追问预生成配置
+ *
+ * @author suifeng
+ * 日期: 2025/8/29
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "prompto-lab.ai.speculation")
+public class SpeculationProperties {
+
+    /**
+     * 是否启用预生成（默认关闭）
+     */
+    private boolean enabled = false;
+
+    /**
+     * 每道单选题预生成的选项数
+     */
+    private int topK = 2;
+
+    /**
+     * 每个会话允许消耗的预生成token上限（估算值）
+     */
+    private long maxTokensPerSession = 60000;
+
+    /**
+     * 预生成线程数
+     */
+    private int concurrency = 4;
+
+    /**
+     * 预生成任务队列容量，满时直接放弃预生成
+     */
+    private int queueCapacity = 32;
+
+    /**
+     * 用户回答时等待进行中的预生成结果的最长时间（秒）
+     */
+    private long maxWaitSeconds = 60;
+}
@@ -0,0 +1,113 @@
+package io.github.timemachinelab.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * SSE连接配置
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "prompto-lab.sse")
+public class SseProperties {
+
+    /**
+     * 是否定期向所有SSE连接发送心跳，写入失败的连接批量清理
+     */
+    private boolean heartbeatEnabled = true;
+
+    /**
+     * 心跳间隔（毫秒），应小于代理和浏览器的空闲断开时间
+     */
+    private long heartbeatIntervalMs = 15000;
+
+    /**
+     * 超过该时间（毫秒）没有业务消息的连接计为空闲
+     */
+    private long idleThresholdMs = 300000;
+
+    /**
+     * 单个会话最多同时订阅的连接数，超出时淘汰最早的连接
+     */
+    private int maxSubscribersPerSession = 8;
+
+    /**
+     * 每个会话保留的最近事件数，客户端重连时据此补发断线期间错过的事件，超出后退化为全量同步
+     */
+    private int replayBufferSize = 256;
+
+    /**
+     * 响应式SSE连接的发送缓冲区大小，满时丢弃非关键事件，关键事件溢出则断开连接由客户端重连补发
+     */
+    private int reactiveBufferSize = 256;
+
+    /**
+     * 每个SSE或WebSocket连接的发送队列长度，满时丢弃非关键事件，关键事件溢出则断开连接由客户端重连补发；
+     * 应大于补发缓冲区，保证重连补发的事件能一次入队
+     */
+    private int outboundQueueSize = 512;
+
+    /**
+     * 发送队列的合并窗口（毫秒），窗口内入队的事件合并为一次写入和flush；关键事件不等待窗口，0表示不合并等待
+     */
+    private long batchWindowMs = 10;
+
+    /**
+     * 发送队列的写线程数，SSE和WebSocket各自使用一组，网络写入只在这些线程上进行
+     */
+    private int writerThreads = 4;
+
+    /**
+     * 单次网络写入的时限（毫秒），SSE和WebSocket共用，超过时看门狗将连接移出注册表并中断写线程，SSE在写入返回后关闭连接，WebSocket立即关闭；0表示不限制
+     */
+    private long writeTimeoutMs = 10000;
+
+    /**
+     * 广播线程数，目标按分区在这些线程上并行写入
+     */
+    private int broadcastThreads = 4;
+
+    /**
+     * 单个目标的写入时限（毫秒），超过的目标视为慢连接并断开
+     */
+    private long broadcastClientTimeoutMs = 2000;
+
+    /**
+     * 单次广播的总时限（毫秒），超过后剩余目标跳过
+     */
+    private long broadcastTimeoutMs = 10000;
+
+    /**
+     * 长轮询请求的最长挂起时间（毫秒），超时返回空结果由客户端再次请求；应小于代理的空闲超时
+     */
+    private long longPollTimeoutMs = 25000;
+
+    /**
+     * WebSocket连接的ping间隔（毫秒）
+     */
+    private long webSocketPingIntervalMs = 20000;
+
+    /**
+     * WebSocket连接超过该时间（毫秒）没有pong或其他消息时视为失效并关闭
+     */
+    private long webSocketPongTimeoutMs = 60000;
+
+    /**
+     * WebSocket连接待发送数据的上限（字节），超过时关闭连接由客户端重连补发
+     */
+    private int webSocketBufferSizeLimit = 512 * 1024;
+
+    /**
+     * 执行WebSocket客户端命令（回答、重试）的线程数，命令不在接收线程上执行，不影响pong等消息的处理
+     */
+    private int webSocketCommandThreads = 8;
+
+    /**
+     * WebSocket命令的排队上限，超出时拒绝并通过result事件告知客户端
+     */
+    private int webSocketCommandQueueSize = 64;
+}
@@ -0,0 +1,37 @@
+package io.github.timemachinelab.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 空闲分支后台摘要配置
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "prompto-lab.ai.summarization")
+public class SummarizationProperties {
+
+    /**
+     * 是否启用后台摘要（默认关闭）
+     */
+    private boolean enabled = false;
+
+    /**
+     * 子树至少包含的节点数，过小的分支直接保留原文
+     */
+    private int minNodes = 3;
+
+    /**
+     * 摘要线程数
+     */
+    private int threads = 1;
+
+    /**
+     * 摘要任务队列容量，满时放弃本次摘要
+     */
+    private int queueCapacity = 64;
+}
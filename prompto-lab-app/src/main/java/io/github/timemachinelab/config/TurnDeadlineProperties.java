@@ -0,0 +1,22 @@
+package io.github.timemachinelab.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 单轮对话超时配置
+ *
+ * @author suifeng
+ * 日期: 2025/8/30
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "prompto-lab.ai.deadline")
+public class TurnDeadlineProperties {
+
+    /**
+     * 单轮对话总预算（毫秒），从收到请求到推送结果，不大于0表示不限时
+     */
+    private long turnBudgetMs = 90000;
+}
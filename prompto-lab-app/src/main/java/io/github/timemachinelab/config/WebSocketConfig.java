@@ -0,0 +1,31 @@
+package io.github.timemachinelab.config;
+
+import io.github.timemachinelab.controller.UserInteractionWebSocketHandler;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+import javax.annotation.Resource;
+
+/**
+ * WebSocket配置
+ * 用户交互WebSocket与HTTP接口使用相同的允许源
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    @Resource
+    private UserInteractionWebSocketHandler userInteractionWebSocketHandler;
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(userInteractionWebSocketHandler, "/api/user-interaction/ws")
+                .setAllowedOriginPatterns("http://localhost:*", "http://127.0.0.1:*",
+                        "https://localhost:*", "https://127.0.0.1:*");
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.timemachinelab.controller;
+
+import io.github.timemachinelab.config.AdminProperties;
+import io.github.timemachinelab.core.session.application.SseNotificationService;
+import io.github.timemachinelab.core.session.infrastructure.web.SseBroadcastEngine;
+import io.github.timemachinelab.entity.resp.ApiResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * 管理控制器
+ * 影响所有在线会话的操作，须携带管理令牌
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/admin")
+public class AdminController {
+
+    @Resource
+    private AdminProperties adminProperties;
+    @Resource
+    private SseNotificationService sseNotificationService;
+
+    /**
+     * 发送全局公告（如维护通知）到所有在线会话
+     */
+    @PostMapping("/announcement")
+    public ResponseEntity<ApiResult<SseBroadcastEngine.BroadcastResult>> sendAnnouncement(
+            @RequestHeader(value = "X-Admin-Token", required = false) String token,
+            @RequestParam String message,
+            @RequestParam(defaultValue = "maintenance") String type) {
+        if (!authorized(token)) {
+            log.warn("管理令牌无效，拒绝发送公告");
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(ApiResult.error(403, "无权执行管理操作"));
+        }
+        return ResponseEntity.ok(ApiResult.success(sseNotificationService.sendAnnouncement(type, message)));
+    }
+
+    private boolean authorized(String token) {
+        String expected = adminProperties.getToken();
+        if (expected == null || expected.isEmpty() || token == null) {
+            return false;
+        }
+        // 定长比较，避免按耗时猜测令牌
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,190 @@
+package io.github.timemachinelab.controller;
+
+import io.github.timemachinelab.core.prompt.PromptAssembler;
+import io.github.timemachinelab.core.prompt.PromptTemplateRegistry;
+import io.github.timemachinelab.core.session.application.BatchQuestionQueue;
+import io.github.timemachinelab.core.session.application.DraftPromptService;
+import io.github.timemachinelab.core.session.application.MultiSelectFanOutService;
+import io.github.timemachinelab.core.session.application.SpeculativeQuestionService;
+import io.github.timemachinelab.core.session.application.SubtreeSummarizer;
+import io.github.timemachinelab.core.session.application.TurnTimingRecorder;
+import io.github.timemachinelab.core.session.infrastructure.ai.cache.AiResponseCache;
+import io.github.timemachinelab.core.session.infrastructure.ai.cache.SimilarQuestionCache;
+import io.github.timemachinelab.core.session.infrastructure.ai.limiter.AdaptiveConcurrencyLimiter;
+import io.github.timemachinelab.core.session.infrastructure.ai.memory.ChatMemoryQuestionGenerator;
+import io.github.timemachinelab.core.session.infrastructure.ai.routing.ModelRouter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.Map;
+
+/**
+ * AI调用指标控制器
+ * 暴露AI操作执行链路上各组件的运行指标
+ *
+ * @author suifeng
+ * 日期: 2025/8/28
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/ai-metrics")
+public class AiMetricsController {
+
+    @Resource
+    private AiResponseCache aiResponseCache;
+    @Resource
+    private SimilarQuestionCache similarQuestionCache;
+    @Resource
+    private SpeculativeQuestionService speculativeQuestionService;
+    @Resource
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+    @Resource
+    private ModelRouter modelRouter;
+    @Resource
+    private TurnTimingRecorder turnTimingRecorder;
+    @Resource
+    private PromptTemplateRegistry promptTemplateRegistry;
+    @Resource
+    private PromptAssembler promptAssembler;
+    @Resource
+    private ChatMemoryQuestionGenerator chatMemoryQuestionGenerator;
+    @Resource
+    private SubtreeSummarizer subtreeSummarizer;
+    @Resource
+    private BatchQuestionQueue batchQuestionQueue;
+    @Resource
+    private MultiSelectFanOutService multiSelectFanOutService;
+    @Resource
+    private DraftPromptService draftPromptService;
+
+    /**
+     * 获取响应缓存指标
+     */
+    @GetMapping("/cache")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        return ResponseEntity.ok(aiResponseCache.getStats());
+    }
+
+    /**
+     * 清空响应缓存
+     */
+    @PostMapping("/cache/clear")
+    public ResponseEntity<String> clearCache() {
+        aiResponseCache.clear();
+        log.info("AI响应缓存已清空");
+        return ResponseEntity.ok("缓存已清空");
+    }
+
+    /**
+     * 获取近似匹配缓存指标（命中率、节省耗时）
+     */
+    @GetMapping("/similarity-cache")
+    public ResponseEntity<Map<String, Object>> getSimilarityCacheStats() {
+        return ResponseEntity.ok(similarQuestionCache.getStats());
+    }
+
+    /**
+     * 按操作开关近似匹配缓存
+     */
+    @PostMapping("/similarity-cache/{operationType}")
+    public ResponseEntity<Map<String, Object>> switchSimilarityCache(@PathVariable String operationType,
+                                                                     @RequestParam boolean enabled) {
+        similarQuestionCache.setEnabled(operationType, enabled);
+        return ResponseEntity.ok(similarQuestionCache.getStats());
+    }
+
+    /**
+     * 获取追问预生成指标（命中率、浪费token）
+     */
+    @GetMapping("/speculation")
+    public ResponseEntity<Map<String, Object>> getSpeculationStats() {
+        return ResponseEntity.ok(speculativeQuestionService.getStats());
+    }
+
+    /**
+     * 获取AI调用并发限制器状态
+     */
+    @GetMapping("/limiter")
+    public ResponseEntity<Map<String, Object>> getLimiterStats() {
+        return ResponseEntity.ok(concurrencyLimiter.getStats());
+    }
+
+    /**
+     * 获取多模型路由状态
+     */
+    @GetMapping("/routing")
+    public ResponseEntity<Map<String, Object>> getRoutingStats() {
+        return ResponseEntity.ok(modelRouter.getStats());
+    }
+
+    /**
+     * 获取单轮对话分阶段耗时统计
+     */
+    @GetMapping("/turns")
+    public ResponseEntity<Map<String, Object>> getTurnStats() {
+        return ResponseEntity.ok(turnTimingRecorder.getStats());
+    }
+
+    /**
+     * 获取提示词模板渲染统计和前缀缓存命中率估算
+     */
+    @GetMapping("/prompts")
+    public ResponseEntity<Map<String, Object>> getPromptStats() {
+        return ResponseEntity.ok(promptTemplateRegistry.getStats());
+    }
+
+    /**
+     * 获取问题生成提示词裁剪效果
+     */
+    @GetMapping("/prompt-slimming")
+    public ResponseEntity<Map<String, Object>> getPromptSlimmingStats() {
+        return ResponseEntity.ok(promptAssembler.getStats());
+    }
+
+    /**
+     * 获取会话记忆模式统计
+     */
+    @GetMapping("/chat-memory")
+    public ResponseEntity<Map<String, Object>> getChatMemoryStats() {
+        return ResponseEntity.ok(chatMemoryQuestionGenerator.getStats());
+    }
+
+    /**
+     * 获取空闲分支后台摘要统计
+     */
+    @GetMapping("/summarization")
+    public ResponseEntity<Map<String, Object>> getSummarizationStats() {
+        return ResponseEntity.ok(subtreeSummarizer.getStats());
+    }
+
+    /**
+     * 获取批量提问统计
+     */
+    @GetMapping("/batch-questions")
+    public ResponseEntity<Map<String, Object>> getBatchQuestionStats() {
+        return ResponseEntity.ok(batchQuestionQueue.getStats());
+    }
+
+    /**
+     * 获取多选题并行追问统计
+     */
+    @GetMapping("/fan-out")
+    public ResponseEntity<Map<String, Object>> getFanOutStats() {
+        return ResponseEntity.ok(multiSelectFanOutService.getStats());
+    }
+
+    /**
+     * 获取最终提示词草稿统计
+     */
+    @GetMapping("/draft-prompt")
+    public ResponseEntity<Map<String, Object>> getDraftPromptStats() {
+        return ResponseEntity.ok(draftPromptService.getStats());
+    }
+}
@@ -1,11 +1,18 @@
 package io.github.timemachinelab.controller;
 
+import io.github.timemachinelab.core.session.infrastructure.web.SseBroadcastEngine;
+import io.github.timemachinelab.core.session.infrastructure.web.SseFrame;
+import io.github.timemachinelab.core.session.infrastructure.web.SseHeartbeatScheduler;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.annotation.Resource;
 import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -19,6 +26,10 @@ public class SSEDemoController {
     
     private final Map<String, SseEmitter> emitters = new ConcurrentHashMap<>();
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    @Resource
+    private SseHeartbeatScheduler sseHeartbeatScheduler;
+    @Resource
+    private SseBroadcastEngine sseBroadcastEngine;
     
     /**
      * 建立SSE连接
@@ -29,6 +40,7 @@ public class SSEDemoController {
         
         SseEmitter emitter = new SseEmitter(Long.MAX_VALUE);
         emitters.put(clientId, emitter);
+        sseHeartbeatScheduler.register(clientId, emitter, () -> emitters.remove(clientId, emitter));
         
         // 连接建立时发送欢迎消息
         try {
@@ -42,17 +54,20 @@ public class SSEDemoController {
         // 设置连接事件处理
         emitter.onCompletion(() -> {
             log.info("SSE连接完成: {}", clientId);
-            emitters.remove(clientId);
+            emitters.remove(clientId, emitter);
+            sseHeartbeatScheduler.unregister(emitter);
         });
         
         emitter.onTimeout(() -> {
             log.info("SSE连接超时: {}", clientId);
-            emitters.remove(clientId);
+            emitters.remove(clientId, emitter);
+            sseHeartbeatScheduler.unregister(emitter);
         });
         
         emitter.onError((ex) -> {
             log.error("SSE连接错误: {} - {}", clientId, ex.getMessage());
-            emitters.remove(clientId);
+            emitters.remove(clientId, emitter);
+            sseHeartbeatScheduler.unregister(emitter);
         });
         
         return emitter;
@@ -79,33 +94,30 @@ public class SSEDemoController {
             
         } catch (IOException e) {
             log.error("发送消息失败: {}", e.getMessage());
-            emitters.remove(clientId);
+            emitters.remove(clientId, emitter);
+            sseHeartbeatScheduler.unregister(emitter);
             return "发送失败: " + e.getMessage();
         }
     }
     
     /**
      * 广播消息到所有连接的客户端
+     * 消息只编码一次，由广播引擎分区并行写入，写入失败或超时的客户端被断开
      */
     @PostMapping("/broadcast")
-    public String broadcast(@RequestParam String message) {
-        int successCount = 0;
-        int failCount = 0;
-        
-        for (Map.Entry<String, SseEmitter> entry : emitters.entrySet()) {
-            try {
-                entry.getValue().send(SseEmitter.event()
-                    .name("broadcast")
-                    .data(message));
-                successCount++;
-            } catch (IOException e) {
-                log.error("广播消息失败，客户端: {} - {}", entry.getKey(), e.getMessage());
-                emitters.remove(entry.getKey());
-                failCount++;
-            }
-        }
-        
-        return String.format("广播完成 - 成功: %d, 失败: %d", successCount, failCount);
+    public SseBroadcastEngine.BroadcastResult broadcast(@RequestParam String message) {
+        SseFrame frame = SseFrame.ofEvent("broadcast", message);
+        List<Map.Entry<String, SseEmitter>> targets = new ArrayList<>(emitters.size());
+        emitters.forEach((clientId, emitter) -> targets.add(new AbstractMap.SimpleImmutableEntry<>(clientId, emitter)));
+
+        SseBroadcastEngine.BroadcastResult result = sseBroadcastEngine.broadcast(targets, target -> {
+            target.getValue().send(frame.toEvent());
+            return true;
+        }, target -> disconnect(target.getKey(), target.getValue()));
+
+        log.info("广播完成 - 目标: {}, 成功: {}, 失败: {}, 超时: {}, 耗时: {} ms",
+                result.getTargets(), result.getDelivered(), result.getFailed(), result.getTimedOut(), result.getElapsedMs());
+        return result;
     }
     
     /**
@@ -122,36 +134,32 @@ public class SSEDemoController {
         
         // 真实流式传输：连续推送数据，每秒一条，共10条
         // 这就是SSE的本质 - 服务器主动推送数据流
-        scheduler.schedule(() -> {
-            for (int i = 1; i <= 10; i++) {
-                final int count = i;
-                scheduler.schedule(() -> {
-                    try {
-                        // 直接通过SSE流式推送数据
-                        emitter.send(SseEmitter.event()
-                            .name("stream")
-                            .data("实时数据流 #" + count + " - 时间戳: " + System.currentTimeMillis()));
-                        
-                        // 最后一条数据后发送完成通知
-                        if (count == 10) {
-                            scheduler.schedule(() -> {
-                                try {
-                                    emitter.send(SseEmitter.event()
-                                        .name("stream_complete")
-                                        .data("数据流传输完成"));
-                                } catch (IOException e) {
-                                    log.error("发送完成通知失败: {}", e.getMessage());
-                                }
-                            }, 1, TimeUnit.SECONDS);
-                        }
-                        
-                    } catch (IOException e) {
-                        log.error("流式数据推送失败: {}", e.getMessage());
-                        emitters.remove(clientId);
-                    }
-                }, count, TimeUnit.SECONDS);
+        // 调度线程只负责计时，网络写入交给广播线程池，慢客户端不会拖慢其他客户端的数据流
+        for (int i = 1; i <= 10; i++) {
+            final int count = i;
+            scheduler.schedule(() -> sseBroadcastEngine.execute(() -> {
+                try {
+                    // 直接通过SSE流式推送数据
+                    emitter.send(SseEmitter.event()
+                        .name("stream")
+                        .data("实时数据流 #" + count + " - 时间戳: " + System.currentTimeMillis()));
+                } catch (IOException | IllegalStateException e) {
+                    log.error("流式数据推送失败: {}", e.getMessage());
+                    disconnect(clientId, emitter);
+                }
+            }), count, TimeUnit.SECONDS);
+        }
+
+        // 最后一条数据后发送完成通知
+        scheduler.schedule(() -> sseBroadcastEngine.execute(() -> {
+            try {
+                emitter.send(SseEmitter.event()
+                    .name("stream_complete")
+                    .data("数据流传输完成"));
+            } catch (IOException | IllegalStateException e) {
+                log.error("发送完成通知失败: {}", e.getMessage());
             }
-        }, 0, TimeUnit.SECONDS);
+        }), 11, TimeUnit.SECONDS);
         
         return "SSE数据流已开始推送";
     }
@@ -164,7 +172,22 @@ public class SSEDemoController {
         Map<String, Object> status = new ConcurrentHashMap<>();
         status.put("connectedClients", emitters.keySet());
         status.put("totalConnections", emitters.size());
+        status.put("heartbeat", sseHeartbeatScheduler.getStats());
+        status.put("broadcast", sseBroadcastEngine.getStats());
         status.put("timestamp", System.currentTimeMillis());
         return status;
     }
-}
\ No newline at end of file
+
+    /**
+     * 断开客户端连接
+     */
+    private void disconnect(String clientId, SseEmitter emitter) {
+        emitters.remove(clientId, emitter);
+        sseHeartbeatScheduler.unregister(emitter);
+        try {
+            emitter.complete();
+        } catch (Exception ignored) {
+            // 连接可能已断开
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package io.github.timemachinelab.controller;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONB;
+import com.alibaba.fastjson2.JSONException;
+import com.alibaba.fastjson2.JSONObject;
+import io.github.timemachinelab.config.SseProperties;
+import io.github.timemachinelab.core.session.application.RoundTripRecorder;
+import io.github.timemachinelab.core.session.application.SseNotificationService;
+import io.github.timemachinelab.core.session.application.UserInteractionService;
+import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.infrastructure.web.SseEventEncoder;
+import io.github.timemachinelab.core.session.infrastructure.web.SseFrame;
+import io.github.timemachinelab.core.session.infrastructure.web.WebSocketSessionRegistry;
+import io.github.timemachinelab.core.session.infrastructure.web.dto.UnifiedAnswerRequest;
+import io.github.timemachinelab.entity.req.RetryRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 用户交互WebSocket处理器
+ * 一个连接同时承载双向消息：客户端提交回答和重试，服务端推送与SSE相同的会话事件。
+ * 握手参数同/sse（sessionId、userId、treeVersion、lastEventId），encoding=json时使用文本帧，默认JSONB二进制帧。
+ * 客户端消息格式为{type: answer|retry, requestId, payload}，payload与/message、/retry的请求体相同，
+ * 处理与HTTP接口共用UserInteractionService的校验与消息处理流程。命令通过校验后立即回复ack，
+ * 之后在命令线程池上处理，结果以result事件推送；接收线程不等待AI调用，处理期间pong照常刷新连接活跃时间。
+ * 无法解析或校验失败的消息回复失败的ack。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Component
+@Slf4j
+public class UserInteractionWebSocketHandler extends AbstractWebSocketHandler {
+
+    private static final String CONNECTION = "connection";
+
+    @Resource
+    private UserInteractionService userInteractionService;
+    @Resource
+    private SseNotificationService sseNotificationService;
+    @Resource
+    private WebSocketSessionRegistry webSocketSessionRegistry;
+    @Resource
+    private Validator validator;
+
+    private final ThreadPoolExecutor commandExecutor;
+
+    public UserInteractionWebSocketHandler(SseProperties properties) {
+        int threads = Math.max(1, properties.getWebSocketCommandThreads());
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.commandExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, properties.getWebSocketCommandQueueSize())), r -> {
+            Thread thread = new Thread(r, "websocket-command-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.commandExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        commandExecutor.shutdownNow();
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        MultiValueMap<String, String> params = UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams();
+        String userId = param(params, "userId");
+        if (userId == null) {
+            log.warn("WebSocket连接缺少userId");
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("userId参数是必需的"));
+            return;
+        }
+        String sessionId = param(params, "sessionId");
+        String treeVersion = param(params, "treeVersion");
+        SseEventEncoder.Encoding encoding = "json".equalsIgnoreCase(param(params, "encoding"))
+                ? SseEventEncoder.Encoding.JSON : SseEventEncoder.Encoding.JSONB;
+
+        ConversationSession conversation = userInteractionService.resolveSession(sessionId, userId);
+        boolean isNewSession = !conversation.getSessionId().equals(sessionId);
+        WebSocketSessionRegistry.Connection connection = sseNotificationService.registerWebSocketConnection(
+                conversation.getSessionId(), conversation.getUserId(), session, param(params, "lastEventId"), encoding,
+                replayable -> userInteractionService.buildConnectionData(conversation, isNewSession, treeVersion, replayable));
+        session.getAttributes().put(CONNECTION, connection);
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        handleCommand(session, () -> JSON.parseObject(message.getPayload()));
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        ByteBuffer payload = message.getPayload();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        handleCommand(session, () -> JSONB.parseObject(bytes));
+    }
+
+    @Override
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+        WebSocketSessionRegistry.Connection connection = connection(session);
+        if (connection != null) {
+            webSocketSessionRegistry.touch(connection);
+        }
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        log.warn("WebSocket传输错误 - 连接: {}, 错误: {}", session.getId(), exception.getMessage());
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        WebSocketSessionRegistry.Connection connection = connection(session);
+        if (connection != null) {
+            sseNotificationService.removeWebSocketConnection(connection);
+        }
+    }
+
+    /**
+     * 处理客户端消息，sessionId和userId以连接所属会话为准，防止通过连接操作其他会话
+     */
+    private void handleCommand(WebSocketSession session, Supplier<JSONObject> parser) {
+        WebSocketSessionRegistry.Connection connection = connection(session);
+        if (connection == null) {
+            return;
+        }
+        webSocketSessionRegistry.touch(connection);
+        String type = null;
+        String requestId = null;
+        try {
+            JSONObject command = parser.get();
+            if (command == null) {
+                ack(connection, null, false, "消息为空");
+                return;
+            }
+            type = command.getString("type");
+            requestId = command.getString("requestId");
+            JSONObject payload = command.getJSONObject("payload");
+            if (payload == null) {
+                payload = new JSONObject();
+            }
+
+            if ("answer".equals(type)) {
+                UnifiedAnswerRequest request = payload.to(UnifiedAnswerRequest.class);
+                request.setSessionId(connection.getSessionId());
+                request.setUserId(connection.getUserId());
+                String violation = validate(request);
+                if (violation != null) {
+                    ack(connection, requestId, false, violation);
+                    return;
+                }
+                dispatch(connection, requestId, type,
+                        () -> userInteractionService.processAnswer(request, RoundTripRecorder.Transport.WEBSOCKET));
+            } else if ("retry".equals(type)) {
+                RetryRequest request = payload.to(RetryRequest.class);
+                request.setSessionId(connection.getSessionId());
+                String violation = validate(request);
+                if (violation != null) {
+                    ack(connection, requestId, false, violation);
+                    return;
+                }
+                dispatch(connection, requestId, type, () -> userInteractionService.retry(request.getSessionId(),
+                        request.getNodeId(), request.getWhyretry(), RoundTripRecorder.Transport.WEBSOCKET));
+            } else {
+                ack(connection, requestId, false, "未知的消息类型: " + type);
+            }
+        } catch (JSONException e) {
+            log.warn("WebSocket消息解析失败 - 会话: {}, 错误: {}", connection.getSessionId(), e.getMessage());
+            ack(connection, requestId, false, "消息格式不正确: " + e.getMessage());
+        } catch (Exception e) {
+            log.error("WebSocket消息处理失败 - 会话: {}, 类型: {}, 错误: {}", connection.getSessionId(), type, e.getMessage(), e);
+            ack(connection, requestId, false, "消息处理失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 先确认收到命令，再交给命令线程池处理，处理结果以result事件推送
+     * 排队已满时不处理，同样以失败的result告知客户端
+     */
+    private void dispatch(WebSocketSessionRegistry.Connection connection, String requestId, String type,
+                          Supplier<UserInteractionService.Outcome> command) {
+        ack(connection, requestId, true, "已受理");
+        try {
+            commandExecutor.execute(() -> {
+                UserInteractionService.Outcome outcome;
+                try {
+                    outcome = command.get();
+                } catch (Exception e) {
+                    log.error("WebSocket命令处理失败 - 会话: {}, 类型: {}, 错误: {}", connection.getSessionId(), type, e.getMessage(), e);
+                    reply(connection, "result", requestId, false, "消息处理失败: " + e.getMessage());
+                    return;
+                }
+                reply(connection, "result", requestId, outcome.isSuccess(), outcome.getMessage());
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("WebSocket命令排队已满 - 会话: {}, 类型: {}", connection.getSessionId(), type);
+            reply(connection, "result", requestId, false, "请求过多，请稍后再试");
+        }
+    }
+
+    private void ack(WebSocketSessionRegistry.Connection connection, String requestId, boolean success, String message) {
+        reply(connection, "ack", requestId, success, message);
+    }
+
+    /**
+     * 确认和结果只发给提交请求的连接，不记入会话事件
+     */
+    private void reply(WebSocketSessionRegistry.Connection connection, String event, String requestId,
+                       boolean success, String message) {
+        Map<String, Object> reply = new LinkedHashMap<>();
+        reply.put("requestId", requestId);
+        reply.put("success", success);
+        reply.put("message", message);
+        webSocketSessionRegistry.write(connection, SseFrame.ofEvent(event, JSON.toJSONString(reply)));
+    }
+
+    /**
+     * 与HTTP接口的@Valid一致地校验请求，返回首个错误信息
+     */
+    private <T> String validate(T request) {
+        Set<ConstraintViolation<T>> violations = validator.validate(request);
+        return violations.isEmpty() ? null : violations.iterator().next().getMessage();
+    }
+
+    private WebSocketSessionRegistry.Connection connection(WebSocketSession session) {
+        return (WebSocketSessionRegistry.Connection) session.getAttributes().get(CONNECTION);
+    }
+
+    private static String param(MultiValueMap<String, String> params, String name) {
+        String value = params.getFirst(name);
+        return value == null || value.isEmpty() ? null : UriUtils.decode(value, StandardCharsets.UTF_8);
+    }
+}
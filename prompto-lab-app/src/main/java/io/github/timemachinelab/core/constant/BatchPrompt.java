@@ -0,0 +1,26 @@
+package io.github.timemachinelab.core.constant;
+
+public class BatchPrompt {
+
+    /**
+     * 批量提问规则，%d 为单轮最多返回的问题数
+     */
+    public final static String BATCH_PROMPT = """
+            # 批量提问
+            当还有多个相互独立、回答互不影响的需求维度（如需求、场景、约束、输出、角色）尚未明确时，你可以一次返回多个问题，按提问顺序排列，最多%d个。
+            ##规则
+            - 只有彼此独立的问题才能放在同一批，后一个问题不能依赖前一个问题的回答
+            - 需要根据用户回答决定下一步方向时，只返回一个问题
+            - 每个问题都必须符合上述题型的格式规范
+            ##输出格式规范
+            批量提问时按以下格式返回，parentId 为第一个问题的父节点ID，其余问题依次挂在前一个问题下：
+            {
+              "parentId": "对话ID",
+              "questions": [
+                { "question": "问题描述", "type": "input" },
+                { "question": "选择问题描述", "type": "single", "options": [ { "id": "选项标识", "label": "选项显示文本" } ] }
+              ]
+            }
+            只返回一个问题时仍使用单个问题的格式
+            """;
+}
@@ -0,0 +1,24 @@
+package io.github.timemachinelab.core.constant;
+
+public class DraftPrompt {
+
+    public final static String DRAFT_HEADER = "【已有提示词草稿】\n";
+
+    public final static String CHANGES_HEADER = "\n【新增或变化的沟通节点】\n";
+
+    /**
+     * 增量修订规则，追加在提示词生成Agent提示词之后
+     */
+    public final static String REFINE_PROMPT = """
+            
+            # 增量修订
+            当沟通详情以“【已有提示词草稿】”开头时，说明你之前已经基于较早的沟通详情生成过提示词草稿。
+            此时“【新增或变化的沟通节点】”中只包含草稿生成之后新增或修改过的沟通节点（格式与沟通详情相同）。
+            ##规则
+            - 以草稿为基础，只根据新增或变化的沟通节点修改、补充相关内容，草稿中未受影响的部分保持不变
+            - 新信息与草稿冲突时以新信息为准
+            - 输出修订后的完整提示词，格式要求与直接生成时相同
+            """;
+
+    public final static String REFINE_AGENT_PROMPT = AllPrompt.GEN_PROMPT_AGENT_PROMPT + REFINE_PROMPT;
+}
@@ -0,0 +1,188 @@
+package io.github.timemachinelab.core.prompt;
+
+import io.github.timemachinelab.config.BatchQuestionProperties;
+import io.github.timemachinelab.config.PromptSlimmingProperties;
+import io.github.timemachinelab.core.constant.AllPrompt;
+import io.github.timemachinelab.core.constant.BatchPrompt;
+import io.github.timemachinelab.core.constant.QATreePrompt;
+import io.github.timemachinelab.core.constant.QFormPrompt;
+import io.github.timemachinelab.core.constant.QSelectPrompt;
+import io.github.timemachinelab.core.constant.QuestionPrompt;
+import io.github.timemachinelab.core.constant.RetryPrompt;
+import io.github.timemachinelab.util.TokenEstimator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 问题生成提示词装配
+ * 按本轮需要只拼入必要的段落：重试规则只在重试时加入，题型说明按会话阶段限定，批量提问规则只在允许批量的阶段加入。
+ * 段落顺序与完整提示词一致，同一组合的结果是同一个字符串，静态前缀保持稳定。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Component
+@Slf4j
+public class PromptAssembler {
+
+    public static final String PHASE_OPENING = "opening";
+    public static final String PHASE_EXPLORING = "exploring";
+
+    private static final long FULL_PROMPT_TOKENS = TokenEstimator.estimate(AllPrompt.GLOBAL_PROMPT);
+
+    private final PromptSlimmingProperties properties;
+    private final BatchQuestionProperties batchProperties;
+
+    /**
+     * 阶段 + 是否重试 + 是否批量 -> 装配结果
+     */
+    private final Map<String, String> assembled = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> turnsByPhase = new ConcurrentHashMap<>();
+    private final LongAdder turns = new LongAdder();
+    private final LongAdder fullTokens = new LongAdder();
+    private final LongAdder sentTokens = new LongAdder();
+
+    public PromptAssembler(PromptSlimmingProperties properties) {
+        this(properties, new BatchQuestionProperties());
+    }
+
+    @Autowired
+    public PromptAssembler(PromptSlimmingProperties properties, BatchQuestionProperties batchProperties) {
+        this.properties = properties;
+        this.batchProperties = batchProperties;
+    }
+
+    /**
+     * 装配本轮的问题生成提示词
+     *
+     * @param nodeCount 会话当前的节点数
+     * @param retry 是否为重试
+     * @return 提示词
+     */
+    public String questionPrompt(int nodeCount, boolean retry) {
+        String phase = phase(nodeCount);
+        // 重试只重新生成被重试的那一个问题
+        boolean batch = !retry && isBatch(phase);
+        if (!properties.isEnabled()) {
+            String prompt = fullPrompt(batch);
+            record("full", batch ? TokenEstimator.estimate(prompt) : FULL_PROMPT_TOKENS);
+            return prompt;
+        }
+        String prompt = assembled.computeIfAbsent(phase + (retry ? ":retry" : "") + (batch ? ":batch" : ""),
+                k -> assemble(phase, retry, batch));
+        record(phase, TokenEstimator.estimate(prompt));
+        return prompt;
+    }
+
+    /**
+     * 本轮的非重试提示词（不计入统计），供按会话维持上下文的调用方作为系统提示词
+     *
+     * @param nodeCount 会话当前的节点数
+     * @return 提示词
+     */
+    public String basePrompt(int nodeCount) {
+        String phase = phase(nodeCount);
+        boolean batch = isBatch(phase);
+        if (!properties.isEnabled()) {
+            return fullPrompt(batch);
+        }
+        return assembled.computeIfAbsent(phase + (batch ? ":batch" : ""), k -> assemble(phase, false, batch));
+    }
+
+    /**
+     * 获取裁剪效果统计
+     */
+    public Map<String, Object> getStats() {
+        long full = fullTokens.sum();
+        long sent = sentTokens.sum();
+        long count = turns.sum();
+        Map<String, Object> byPhase = new HashMap<>();
+        turnsByPhase.forEach((phase, n) -> byPhase.put(phase, n.sum()));
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", properties.isEnabled());
+        stats.put("turns", count);
+        stats.put("turnsByPhase", byPhase);
+        stats.put("fullPromptTokens", FULL_PROMPT_TOKENS);
+        stats.put("avgSentTokens", count == 0 ? 0.0 : (double) sent / count);
+        stats.put("avgSavedTokens", count == 0 ? 0.0 : (double) (full - sent) / count);
+        stats.put("reductionRatio", full == 0 ? 0.0 : (double) (full - sent) / full);
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+
+    private String phase(int nodeCount) {
+        return nodeCount <= properties.getOpeningNodes() ? PHASE_OPENING : PHASE_EXPLORING;
+    }
+
+    private boolean isBatch(String phase) {
+        return batchProperties.isEnabled() && batchProperties.getMaxQuestions() > 1
+                && (!batchProperties.isOpeningOnly() || PHASE_OPENING.equals(phase));
+    }
+
+    private String fullPrompt(boolean batch) {
+        return batch
+                ? assembled.computeIfAbsent("full:batch", k -> AllPrompt.GLOBAL_PROMPT + batchSection())
+                : AllPrompt.GLOBAL_PROMPT;
+    }
+
+    private String batchSection() {
+        return BatchPrompt.BATCH_PROMPT.formatted(batchProperties.getMaxQuestions());
+    }
+
+    private void record(String phase, long tokens) {
+        turns.increment();
+        fullTokens.add(FULL_PROMPT_TOKENS);
+        sentTokens.add(tokens);
+        turnsByPhase.computeIfAbsent(phase, k -> new LongAdder()).increment();
+    }
+
+    private String assemble(String phase, boolean retry, boolean batch) {
+        List<String> types = PHASE_OPENING.equals(phase)
+                ? properties.getOpeningQuestionTypes()
+                : properties.getExploringQuestionTypes();
+
+        StringBuilder prompt = new StringBuilder(AllPrompt.GLOBAL_PROMPT.length());
+        prompt.append(AllPrompt.ALL_PROMPT);
+        StringBuilder allowed = new StringBuilder();
+        if (types.contains("form")) {
+            prompt.append(QFormPrompt.Q_FROM_PROMPT);
+            allowed.append("form/");
+        }
+        if (types.contains("select")) {
+            prompt.append(QSelectPrompt.Q_SELECT_PROMPT);
+            allowed.append("single/multi/");
+        }
+        if (types.contains("input") || allowed.length() == 0) {
+            // input 是兜底题型，至少保留
+            prompt.append(QuestionPrompt.QUESTION_PROMPT);
+            allowed.append("input/");
+        }
+        prompt.append(QATreePrompt.QATreePrompt);
+        if (retry) {
+            prompt.append(RetryPrompt.RETRY_PROMPT);
+        }
+        if (batch) {
+            prompt.append(batchSection());
+        }
+        if (!types.containsAll(Arrays.asList("form", "select", "input"))) {
+            prompt.append("\n## 本轮可用题型\n本轮只能使用以下题型：")
+                    .append(allowed, 0, allowed.length() - 1)
+                    .append("\n");
+        }
+
+        String result = prompt.toString();
+        log.info("已装配问题生成提示词 - 阶段: {}, 重试: {}, 批量: {}, 估算token: {} (完整: {})",
+                phase, retry, batch, TokenEstimator.estimate(result), FULL_PROMPT_TOKENS);
+        return result;
+    }
+}
@@ -0,0 +1,194 @@
+package io.github.timemachinelab.core.prompt;
+
+import com.alibaba.fastjson2.JSON;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 预编译的提示词模板
+ * 模板文本在编译时切分为静态片段和插槽（{{name}} 按文本插入，{{name:json}} 按JSON插入），
+ * 渲染时只填充插槽，静态片段原样复用；第一个插槽之前的静态前缀每次渲染字节一致，
+ * 便于模型提供方的前缀缓存命中。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+public class PromptTemplate {
+
+    private static final String SLOT_OPEN = "{{";
+    private static final String SLOT_CLOSE = "}}";
+
+    /**
+     * 超过该容量的渲染缓冲区不保留，避免线程长期占用大数组
+     */
+    private static final int MAX_RETAINED_BUFFER = 256 * 1024;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<>();
+
+    private final String name;
+    private final List<String> segments;
+    private final List<Slot> slots;
+    private final int staticLength;
+    private final String prefixHash;
+
+    private final LongAdder renders = new LongAdder();
+    private final LongAdder renderNanos = new LongAdder();
+    private final LongAdder renderedChars = new LongAdder();
+
+    private PromptTemplate(String name, List<String> segments, List<Slot> slots) {
+        this.name = name;
+        this.segments = segments;
+        this.slots = slots;
+        this.staticLength = segments.stream().mapToInt(String::length).sum();
+        this.prefixHash = DigestUtils.sha256Hex(segments.get(0).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 编译模板
+     *
+     * @param name 模板名（用于统计）
+     * @param source 模板文本
+     * @return 编译后的模板
+     * @throws IllegalArgumentException 插槽未闭合或插槽类型未知
+     */
+    public static PromptTemplate compile(String name, String source) {
+        return compile(name, "", source);
+    }
+
+    /**
+     * 编译模板，静态前缀原样使用，不解析其中的插槽语法
+     * 适用于以大段固定提示词开头的模板（提示词中的JSON示例可能包含花括号）
+     *
+     * @param name 模板名（用于统计）
+     * @param staticPrefix 静态前缀
+     * @param source 前缀之后的模板文本
+     * @return 编译后的模板
+     */
+    public static PromptTemplate compile(String name, String staticPrefix, String source) {
+        List<String> segments = new ArrayList<>();
+        List<Slot> slots = new ArrayList<>();
+        int from = 0;
+        while (true) {
+            int open = source.indexOf(SLOT_OPEN, from);
+            if (open < 0) {
+                segments.add(source.substring(from));
+                break;
+            }
+            int close = source.indexOf(SLOT_CLOSE, open + SLOT_OPEN.length());
+            if (close < 0) {
+                throw new IllegalArgumentException("模板 " + name + " 的插槽未闭合，位置: " + open);
+            }
+            segments.add(source.substring(from, open));
+            slots.add(Slot.parse(name, source.substring(open + SLOT_OPEN.length(), close).trim()));
+            from = close + SLOT_CLOSE.length();
+        }
+        segments.set(0, staticPrefix + segments.get(0));
+        return new PromptTemplate(name, segments, slots);
+    }
+
+    /**
+     * 渲染模板
+     *
+     * @param values 插槽名 -> 值，null按空串处理
+     * @return 渲染结果
+     * @throws IllegalArgumentException 缺少插槽的值
+     */
+    public String render(Map<String, ?> values) {
+        long start = System.nanoTime();
+        StringBuilder buffer = BUFFER.get();
+        if (buffer == null) {
+            buffer = new StringBuilder(staticLength + 4096);
+            BUFFER.set(buffer);
+        }
+        buffer.setLength(0);
+        buffer.ensureCapacity(staticLength + 4096);
+
+        buffer.append(segments.get(0));
+        for (int i = 0; i < slots.size(); i++) {
+            Slot slot = slots.get(i);
+            if (!values.containsKey(slot.name)) {
+                throw new IllegalArgumentException("模板 " + name + " 缺少插槽: " + slot.name);
+            }
+            slot.append(buffer, values.get(slot.name));
+            buffer.append(segments.get(i + 1));
+        }
+
+        String result = buffer.toString();
+        if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+            BUFFER.remove();
+        }
+        renders.increment();
+        renderNanos.add(System.nanoTime() - start);
+        renderedChars.add(result.length());
+        return result;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 第一个插槽之前的静态前缀
+     */
+    public String getStaticPrefix() {
+        return segments.get(0);
+    }
+
+    /**
+     * 静态前缀的SHA-256，用于判断两次渲染是否共享前缀缓存
+     */
+    public String getPrefixHash() {
+        return prefixHash;
+    }
+
+    /**
+     * 获取渲染统计
+     */
+    public Map<String, Object> getStats() {
+        long count = renders.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("renders", count);
+        stats.put("avgRenderMicros", count == 0 ? 0.0 : renderNanos.sum() / 1000.0 / count);
+        stats.put("avgRenderedChars", count == 0 ? 0.0 : (double) renderedChars.sum() / count);
+        stats.put("staticPrefixChars", segments.get(0).length());
+        stats.put("staticChars", staticLength);
+        stats.put("slots", slots.size());
+        return stats;
+    }
+
+    private static final class Slot {
+        private final String name;
+        private final boolean json;
+
+        private Slot(String name, boolean json) {
+            this.name = name;
+            this.json = json;
+        }
+
+        private static Slot parse(String template, String spec) {
+            int colon = spec.indexOf(':');
+            if (colon < 0) {
+                return new Slot(spec, false);
+            }
+            String type = spec.substring(colon + 1).trim();
+            if (!"json".equals(type)) {
+                throw new IllegalArgumentException("模板 " + template + " 的插槽类型未知: " + type);
+            }
+            return new Slot(spec.substring(0, colon).trim(), true);
+        }
+
+        private void append(StringBuilder buffer, Object value) {
+            if (json) {
+                buffer.append(JSON.toJSONString(value));
+            } else if (value != null) {
+                buffer.append(value);
+            }
+        }
+    }
+}
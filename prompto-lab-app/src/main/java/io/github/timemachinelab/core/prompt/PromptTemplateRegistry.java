@@ -0,0 +1,130 @@
+package io.github.timemachinelab.core.prompt;
+
+import io.github.timemachinelab.core.constant.AllPrompt;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 提示词模板注册表
+ * 启动时编译内置模板，按（模板名 + 静态前缀）缓存编译结果；
+ * 同时按静态前缀估算模型提供方的前缀缓存命中率。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Component
+@Slf4j
+public class PromptTemplateRegistry {
+
+    public static final String QUESTION_GENERATION = "questionGeneration";
+    public static final String QUESTION_GENERATION_NO_TREE = "questionGenerationNoTree";
+    public static final String GEN_PROMPT = "genPrompt";
+
+    private static final String QUESTION_GENERATION_BODY = "## 对话树结构\n{{tree}}\n\n## 当前用户输入\n{{input}}";
+    private static final String QUESTION_GENERATION_NO_TREE_BODY = "## 当前用户输入\n{{input}}";
+    private static final String GEN_PROMPT_BODY = "user: {{user}}\naiModel: {{aiModel}}\nuserTarget: {{userTarget}}\nuserConversation: {{userConversation}}";
+
+    /**
+     * 缓存的模板数上限，超出后不再缓存（静态前缀通常只有内置的几种）
+     */
+    private static final int MAX_TEMPLATES = 64;
+
+    /**
+     * 提供方前缀缓存的典型存活时间
+     */
+    private static final long PREFIX_CACHE_TTL_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private final Map<String, PromptTemplate> templates = new ConcurrentHashMap<>();
+
+    /**
+     * 静态前缀哈希 -> 最近一次发送时间
+     */
+    private final Map<String, Long> prefixLastSent = new ConcurrentHashMap<>();
+    private final LongAdder prefixHits = new LongAdder();
+    private final LongAdder prefixMisses = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        questionGeneration(AllPrompt.GLOBAL_PROMPT, true);
+        questionGeneration(AllPrompt.GLOBAL_PROMPT, false);
+        genPrompt(AllPrompt.GEN_PROMPT_AGENT_PROMPT);
+        log.info("提示词模板已编译: {}", templates.size());
+    }
+
+    /**
+     * 问题生成模板：全局提示词 + 对话树 + 用户输入
+     *
+     * @param globalPrompt 全局提示词，为空时不输出
+     * @param withTree 是否包含对话树段落
+     */
+    public PromptTemplate questionGeneration(String globalPrompt, boolean withTree) {
+        String prefix = globalPrompt != null && !globalPrompt.trim().isEmpty() ? globalPrompt + "\n\n" : "";
+        return withTree
+                ? get(QUESTION_GENERATION, prefix, QUESTION_GENERATION_BODY)
+                : get(QUESTION_GENERATION_NO_TREE, prefix, QUESTION_GENERATION_NO_TREE_BODY);
+    }
+
+    /**
+     * 最终提示词生成模板：固定的Agent提示词在前，会话相关的输入在后
+     *
+     * @param agentPrompt Agent提示词
+     */
+    public PromptTemplate genPrompt(String agentPrompt) {
+        String prefix = (agentPrompt != null ? agentPrompt : "") + "\n\n## 输入数据\n";
+        return get(GEN_PROMPT, prefix, GEN_PROMPT_BODY);
+    }
+
+    /**
+     * 记录一次实际发送给模型的渲染，按静态前缀估算提供方的前缀缓存是否命中
+     *
+     * @param template 使用的模板
+     */
+    public void recordSent(PromptTemplate template) {
+        long now = System.currentTimeMillis();
+        Long last = prefixLastSent.put(template.getPrefixHash(), now);
+        if (last != null && now - last <= PREFIX_CACHE_TTL_MS) {
+            prefixHits.increment();
+        } else {
+            prefixMisses.increment();
+        }
+    }
+
+    /**
+     * 获取模板渲染统计和前缀缓存命中率估算
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> templateStats = new HashMap<>();
+        templates.values().forEach(template ->
+                templateStats.put(template.getName() + "@" + template.getPrefixHash().substring(0, 8), template.getStats()));
+
+        long hits = prefixHits.sum();
+        long total = hits + prefixMisses.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("templates", templateStats);
+        stats.put("compiledTemplates", templates.size());
+        stats.put("prefixCacheHits", hits);
+        stats.put("prefixCacheMisses", prefixMisses.sum());
+        stats.put("prefixCacheHitRate", total == 0 ? 0.0 : (double) hits / total);
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+
+    private PromptTemplate get(String name, String prefix, String body) {
+        String key = name + '\0' + prefix;
+        PromptTemplate template = templates.get(key);
+        if (template != null) {
+            return template;
+        }
+        if (templates.size() >= MAX_TEMPLATES) {
+            return PromptTemplate.compile(name, prefix, body);
+        }
+        return templates.computeIfAbsent(key, k -> PromptTemplate.compile(name, prefix, body));
+    }
+}
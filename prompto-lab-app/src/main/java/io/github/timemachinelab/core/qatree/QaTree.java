@@ -2,44 +2,142 @@ package io.github.timemachinelab.core.qatree;
 
 import lombok.Getter;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class QaTree {
 
+    /**
+     * 保留的树版本和已移除节点记录数，超出后更早的版本只能全量获取
+     */
+    private static final int MAX_TRACKED_VERSIONS = 64;
+    private static final int MAX_TOMBSTONES = 1024;
+
     @Getter
     private QaTreeNode root;
 
     private Map<String, QaTreeNode> nodeMap = new HashMap<>();
 
+    /**
+     * 节点ID -> 父节点ID，用于按深度而非节点总数查找路径
+     */
+    private Map<String, String> parentIds = new HashMap<>();
+
+    /**
+     * 修订号，每次节点增删改时递增，用于计算某个版本之后的变化
+     */
+    private long revision;
+
+    /**
+     * 已对外发布的树版本 -> 发布时的修订号
+     */
+    private final Map<String, Long> versionRevisions = new LinkedHashMap<String, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_TRACKED_VERSIONS;
+        }
+    };
+
+    /**
+     * 已移除节点ID -> 移除时的修订号
+     */
+    private final Map<String, Long> removedRevisions = new LinkedHashMap<>();
+
+    /**
+     * 不晚于此修订号的移除记录已被淘汰
+     */
+    private long tombstoneFloor;
+
     public QaTree(QaTreeNode root) {
         this.root = root;
         nodeMap.put(root.getId(), root);
     }
 
-    public void addNode(String parentId, QaTreeNode node) {
+    public synchronized void addNode(String parentId, QaTreeNode node) {
         QaTreeNode parent = nodeMap.get(parentId);
         if (parent == null) {
             return;
         }
         parent.append(node);
         nodeMap.put(node.getId(), node);
+        parentIds.put(node.getId(), parentId);
+        node.markModified(++revision);
+    }
+
+    /**
+     * 标记节点内容（如回答）已修改
+     * @param id 节点ID
+     */
+    public synchronized void markModified(String id) {
+        QaTreeNode node = nodeMap.get(id);
+        if (node != null) {
+            node.markModified(++revision);
+        }
     }
 
     public QaTreeNode getNodeById(String id) {
         return nodeMap.get(id);
     }
+
+    /**
+     * 获取父节点
+     * @param id 节点ID
+     * @return 父节点，根节点或节点不存在时返回null
+     */
+    public QaTreeNode getParent(String id) {
+        String parentId = parentIds.get(id);
+        return parentId != null ? nodeMap.get(parentId) : null;
+    }
+
+    /**
+     * 树版本：根节点的Merkle哈希，任一节点增删改后变化，内容相同的树版本相同
+     * @return 版本哈希
+     */
+    public synchronized String getVersion() {
+        String version = root.getHash();
+        versionRevisions.putIfAbsent(version, revision);
+        return version;
+    }
+
+    /**
+     * 获取指定版本之后新增、修改和移除的节点
+     * @param version 此前获取的树版本
+     * @return 变化内容，版本未知或记录已淘汰时返回null
+     */
+    public synchronized Changes changesSince(String version) {
+        Long since = version != null ? versionRevisions.get(version) : null;
+        if (since == null || since < tombstoneFloor) {
+            return null;
+        }
+        List<QaTreeNode> changed = new ArrayList<>();
+        for (QaTreeNode node : nodeMap.values()) {
+            if (node.getModifiedRevision() > since) {
+                changed.add(node);
+            }
+        }
+        List<String> removedIds = new ArrayList<>();
+        removedRevisions.forEach((id, removedAt) -> {
+            if (removedAt > since) {
+                removedIds.add(id);
+            }
+        });
+        return new Changes(changed, removedIds);
+    }
     
     /**
      * 移除指定节点及其所有子节点
      * @param nodeId 要移除的节点ID
      * @return 是否移除成功
      */
-    public boolean removeNode(String nodeId) {
+    public synchronized boolean removeNode(String nodeId) {
         QaTreeNode nodeToRemove = nodeMap.get(nodeId);
         if (nodeToRemove == null) {
             return false;
         }
+        revision++;
         
         // 递归移除所有子节点
         removeNodeAndChildren(nodeToRemove);
@@ -63,11 +161,22 @@ public class QaTree {
         if (node.getChildren() != null) {
             for (QaTreeNode child : node.getChildren().values()) {
                 removeNodeAndChildren(child);
+                parentIds.remove(child.getId());
             }
         }
         
         // 从nodeMap中移除当前节点
         nodeMap.remove(node.getId());
+        recordRemoved(node.getId());
+    }
+
+    private void recordRemoved(String id) {
+        removedRevisions.put(id, revision);
+        if (removedRevisions.size() > MAX_TOMBSTONES) {
+            Map.Entry<String, Long> eldest = removedRevisions.entrySet().iterator().next();
+            tombstoneFloor = Math.max(tombstoneFloor, eldest.getValue());
+            removedRevisions.remove(eldest.getKey());
+        }
     }
     
     /**
@@ -75,7 +184,13 @@ public class QaTree {
      * @param nodeToRemove 要移除的节点
      */
     private void removeFromParent(QaTreeNode nodeToRemove) {
-        // 遍历所有节点找到父节点
+        QaTreeNode parent = getParent(nodeToRemove.getId());
+        parentIds.remove(nodeToRemove.getId());
+        if (parent != null) {
+            parent.removeChild(nodeToRemove.getId());
+            return;
+        }
+        // 没有父节点记录时遍历所有节点找到父节点
         for (QaTreeNode node : nodeMap.values()) {
             if (node.getChildren() != null && node.getChildren().containsKey(nodeToRemove.getId())) {
                 node.removeChild(nodeToRemove.getId());
@@ -84,4 +199,17 @@ public class QaTree {
         }
     }
 
+    /**
+     * 某个版本之后的树变化
+     */
+    @Getter
+    public static class Changes {
+        private final List<QaTreeNode> changed;
+        private final List<String> removedIds;
+
+        private Changes(List<QaTreeNode> changed, List<String> removedIds) {
+            this.changed = changed;
+            this.removedIds = removedIds;
+        }
+    }
 }
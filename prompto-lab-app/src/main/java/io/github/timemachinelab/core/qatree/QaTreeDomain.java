@@ -8,6 +8,8 @@ import io.github.timemachinelab.core.question.FormQuestion;
 import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 @Component
@@ -39,7 +41,10 @@ public class QaTreeDomain {
     }
 
     public QaTree appendNode(QaTree tree, String parentId, BaseQuestion qa) {
-        tree.addNode(parentId, new QaTreeNode(qa));
+        synchronized (tree) {
+            tree.addNode(parentId, new QaTreeNode(qa));
+            touchPath(tree, parentId, false);
+        }
         return tree;
     }
     
@@ -53,10 +58,36 @@ public class QaTreeDomain {
      */
     public QaTree appendNode(QaTree tree, String parentId, BaseQuestion qa, ConversationSession session) {
         String nodeId = session.getNextNodeId();
-        tree.addNode(parentId, new QaTreeNode(qa, nodeId));
+        synchronized (tree) {
+            tree.addNode(parentId, new QaTreeNode(qa, nodeId));
+            touchPath(tree, parentId, false);
+        }
         return tree;
     }
 
+    /**
+     * 将一批问题作为链依次追加到QaTree：第一个问题挂在父节点下，其余问题挂在前一个问题下
+     * @param tree QA树
+     * @param parentId 第一个问题的父节点ID
+     * @param questions 按顺序排列的问题
+     * @param session 会话对象，用于获取自增ID
+     * @return 新节点ID，与问题顺序一致
+     */
+    public List<String> appendChain(QaTree tree, String parentId, List<BaseQuestion> questions, ConversationSession session) {
+        List<String> nodeIds = new ArrayList<>(questions.size());
+        String currentParentId = parentId;
+        synchronized (tree) {
+            for (BaseQuestion qa : questions) {
+                String nodeId = session.getNextNodeId();
+                tree.addNode(currentParentId, new QaTreeNode(qa, nodeId));
+                nodeIds.add(nodeId);
+                currentParentId = nodeId;
+            }
+            touchPath(tree, currentParentId, false);
+        }
+        return nodeIds;
+    }
+
     /**
      * 更新指定节点的答案
      * @param tree QA树
@@ -75,15 +106,19 @@ public class QaTreeDomain {
             return false;
         }
         
-        // 根据问题类型设置答案
-        if (qa instanceof InputQuestion) {
-            ((InputQuestion) qa).setAnswer((String) answer);
-        } else if (qa instanceof SingleChoiceQuestion) {
-            ((SingleChoiceQuestion) qa).setAnswer((List<String>) answer);
-        } else if (qa instanceof MultipleChoiceQuestion) {
-            ((MultipleChoiceQuestion) qa).setAnswer((List<String>) answer);
-        } else if (qa instanceof FormQuestion) {
-            ((FormQuestion) qa).setAnswer((List<FormQuestion.AnswerItem>) answer);
+        // 根据问题类型设置答案，树的版本与内容一同更新
+        synchronized (tree) {
+            if (qa instanceof InputQuestion) {
+                ((InputQuestion) qa).setAnswer((String) answer);
+            } else if (qa instanceof SingleChoiceQuestion) {
+                ((SingleChoiceQuestion) qa).setAnswer((List<String>) answer);
+            } else if (qa instanceof MultipleChoiceQuestion) {
+                ((MultipleChoiceQuestion) qa).setAnswer((List<String>) answer);
+            } else if (qa instanceof FormQuestion) {
+                ((FormQuestion) qa).setAnswer((List<FormQuestion.AnswerItem>) answer);
+            }
+            tree.markModified(nodeId);
+            touchPath(tree, nodeId, true);
         }
         
         return true;
@@ -122,6 +157,47 @@ public class QaTreeDomain {
         return tree.getNodeById(nodeId) != null;
     }
     
+    /**
+     * 获取从根节点到指定节点的路径
+     * @param tree QA树
+     * @param nodeId 目标节点ID
+     * @return 路径节点列表（根节点在前），节点不存在时返回空列表
+     */
+    public List<QaTreeNode> getPath(QaTree tree, String nodeId) {
+        List<QaTreeNode> path = new ArrayList<>();
+        if (tree == null || tree.getRoot() == null || nodeId == null) {
+            return path;
+        }
+        // 通过父节点记录向上查找，耗时与深度成正比
+        for (QaTreeNode node = tree.getNodeById(nodeId); node != null; node = tree.getParent(node.getId())) {
+            path.add(node);
+        }
+        if (!path.isEmpty() && path.get(path.size() - 1) == tree.getRoot()) {
+            Collections.reverse(path);
+            return path;
+        }
+        // 未登记在树中的节点退化为从根节点遍历
+        path.clear();
+        collectPath(tree.getRoot(), nodeId, path);
+        return path;
+    }
+
+    private boolean collectPath(QaTreeNode node, String nodeId, List<QaTreeNode> path) {
+        path.add(node);
+        if (node.getId().equals(nodeId)) {
+            return true;
+        }
+        if (node.getChildren() != null) {
+            for (QaTreeNode child : node.getChildren().values()) {
+                if (collectPath(child, nodeId, path)) {
+                    return true;
+                }
+            }
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
     /**
      * 移除指定节点及其所有子节点
      * @param tree QA树
@@ -144,6 +220,38 @@ public class QaTreeDomain {
         }
         
         // 从树中移除节点（包括从父节点的children中移除和从nodeMap中移除）
-        return tree.removeNode(nodeId);
+        synchronized (tree) {
+            List<QaTreeNode> path = getPath(tree, nodeId);
+            boolean removed = tree.removeNode(nodeId);
+            if (removed) {
+                for (int i = path.size() - 2; i >= 0; i--) {
+                    path.get(i).touch();
+                    path.get(i).rehash(false);
+                }
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * 获取树版本（根节点的Merkle哈希），可用于判断树是否变化
+     * @param tree QA树
+     * @return 版本哈希，树为空时返回null
+     */
+    public String treeVersion(QaTree tree) {
+        return tree != null && tree.getRoot() != null ? tree.getVersion() : null;
+    }
+
+    /**
+     * 标记从根节点到指定节点路径上的所有子树已变化，并自底向上更新路径上的Merkle哈希
+     * @param contentChanged 指定节点自身的内容是否变化
+     */
+    private void touchPath(QaTree tree, String nodeId, boolean contentChanged) {
+        List<QaTreeNode> path = getPath(tree, nodeId);
+        for (int i = path.size() - 1; i >= 0; i--) {
+            QaTreeNode node = path.get(i);
+            node.touch();
+            node.rehash(contentChanged && i == path.size() - 1);
+        }
     }
 }
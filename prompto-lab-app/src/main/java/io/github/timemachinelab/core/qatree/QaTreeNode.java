@@ -1,8 +1,17 @@
 package io.github.timemachinelab.core.qatree;
 
+import com.alibaba.fastjson2.JSON;
 import io.github.timemachinelab.core.question.BaseQuestion;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Setter;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -15,6 +24,38 @@ public class QaTreeNode {
 
     private BaseQuestion qa;
 
+    /**
+     * 子树版本，本节点或任一后代发生增删改时递增
+     */
+    @Setter(AccessLevel.NONE)
+    private volatile long version;
+
+    /**
+     * 子树摘要及其对应的子树版本，版本不一致时摘要失效
+     */
+    @Setter(AccessLevel.NONE)
+    private volatile String summary;
+    @Setter(AccessLevel.NONE)
+    private volatile long summaryVersion = -1;
+
+    /**
+     * 节点内容（问题及回答）的摘要，内容变化时重算
+     */
+    @Setter(AccessLevel.NONE)
+    private volatile String contentHash;
+
+    /**
+     * Merkle哈希：节点内容摘要与子节点哈希的组合，任一后代变化时沿路径更新
+     */
+    @Setter(AccessLevel.NONE)
+    private volatile String hash;
+
+    /**
+     * 本节点新增或内容最后一次修改时树的修订号
+     */
+    @Setter(AccessLevel.NONE)
+    private volatile long modifiedRevision;
+
     public QaTreeNode(BaseQuestion qa) {
         this.id = UUID.randomUUID().toString();
         this.children = new HashMap<>();
@@ -42,6 +83,71 @@ public class QaTreeNode {
         this.append(node);
     }
 
+    /**
+     * 标记子树已变化，已有摘要随之失效
+     */
+    public synchronized void touch() {
+        version++;
+    }
+
+    /**
+     * 保存子树摘要，子树在摘要生成期间发生变化时放弃
+     *
+     * @param summary 摘要
+     * @param expectedVersion 生成摘要时的子树版本
+     * @return 是否保存成功
+     */
+    public synchronized boolean applySummary(String summary, long expectedVersion) {
+        if (version != expectedVersion) {
+            return false;
+        }
+        this.summary = summary;
+        this.summaryVersion = expectedVersion;
+        return true;
+    }
+
+    /**
+     * 获取仍然有效的子树摘要
+     *
+     * @return 摘要，没有或已失效时返回null
+     */
+    public synchronized String getValidSummary() {
+        return summary != null && summaryVersion == version ? summary : null;
+    }
+
+    /**
+     * 获取Merkle哈希，尚未计算时按当前内容计算
+     */
+    public String getHash() {
+        String current = hash;
+        return current != null ? current : rehash(false);
+    }
+
+    /**
+     * 重算Merkle哈希，子节点只取已缓存的哈希，不重新遍历子树
+     *
+     * @param contentChanged 本节点的问题或回答是否变化
+     * @return 新的哈希
+     */
+    public synchronized String rehash(boolean contentChanged) {
+        if (contentChanged || contentHash == null) {
+            contentHash = DigestUtils.sha256Hex(JSON.toJSONString(qa).getBytes(StandardCharsets.UTF_8));
+        }
+        // children无序，按ID排序保证同一棵树的哈希稳定
+        List<String> childIds = new ArrayList<>(children.keySet());
+        Collections.sort(childIds);
+        StringBuilder material = new StringBuilder(id).append('|').append(contentHash);
+        for (String childId : childIds) {
+            material.append('|').append(children.get(childId).getHash());
+        }
+        hash = DigestUtils.sha256Hex(material.toString().getBytes(StandardCharsets.UTF_8));
+        return hash;
+    }
+
+    void markModified(long revision) {
+        this.modifiedRevision = revision;
+    }
+
     public void append(QaTreeNode node) {
         children.put(node.getId(), node);
     }
@@ -1,6 +1,7 @@
 package io.github.timemachinelab.core.question;
 
 import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
 import com.alibaba.fastjson2.JSONException;
 import com.alibaba.fastjson2.JSONObject;
 import io.github.timemachinelab.core.session.infrastructure.ai.QuestionGenerationOperation;
@@ -51,9 +52,72 @@ public class QuestionParser {
             throw new QuestionParseException("JSON格式错误", jsonStr, "JSON语法不正确: " + e.getMessage(), e);
         }
         
+        String parentId = jsonObject.getString("parentId");
+        return new QuestionGenerationOperation.QuestionGenerationResponse(parseQuestionObject(jsonStr, jsonObject), parentId);
+    }
+
+    /**
+     * 解析单个问题或批量问题
+     * 批量格式为 {"parentId": "...", "questions": [...]}，第一个问题挂在parentId下，其余问题依次挂在前一个问题下；
+     * 任一问题无法解析时整批失败
+     *
+     * @param jsonStr JSON字符串
+     * @return 第一个问题及其后续问题
+     * @throws QuestionParseException 解析失败时抛出异常
+     */
+    public static QuestionGenerationOperation.QuestionGenerationResponse parseQuestions(String jsonStr) throws QuestionParseException {
+        if (jsonStr == null || jsonStr.trim().isEmpty()) {
+            throw new QuestionParseException("JSON字符串不能为空", jsonStr, "输入为空或null");
+        }
+
+        JSONObject jsonObject;
+        try {
+            jsonObject = JSON.parseObject(jsonStr);
+        } catch (JSONException e) {
+            throw new QuestionParseException("JSON格式错误", jsonStr, "JSON语法不正确: " + e.getMessage(), e);
+        }
+        if (!jsonObject.containsKey("questions")) {
+            return new QuestionGenerationOperation.QuestionGenerationResponse(
+                    parseQuestionObject(jsonStr, jsonObject), jsonObject.getString("parentId"));
+        }
+
+        JSONArray questions;
+        try {
+            questions = jsonObject.getJSONArray("questions");
+        } catch (JSONException e) {
+            throw new QuestionParseException("批量问题格式错误", jsonStr, "questions字段不是数组: " + e.getMessage(), e);
+        }
+        if (questions == null || questions.isEmpty()) {
+            throw new QuestionParseException("批量问题为空", jsonStr, "questions字段为空");
+        }
+
+        List<BaseQuestion> parsed = new ArrayList<>(questions.size());
+        for (int i = 0; i < questions.size(); i++) {
+            JSONObject item = questions.getJSONObject(i);
+            if (item == null) {
+                throw new QuestionParseException("批量问题格式错误", jsonStr, "第" + (i + 1) + "个问题不是对象");
+            }
+            try {
+                parsed.add(parseQuestionObject(item.toJSONString(), item));
+            } catch (QuestionParseException e) {
+                throw new QuestionParseException("批量问题解析失败", jsonStr,
+                        "第" + (i + 1) + "个问题: " + e.getFailureReason(), e);
+            }
+        }
+
+        QuestionGenerationOperation.QuestionGenerationResponse response =
+                new QuestionGenerationOperation.QuestionGenerationResponse(parsed.get(0), jsonObject.getString("parentId"));
+        response.setFollowUps(new ArrayList<>(parsed.subList(1, parsed.size())));
+        log.info("成功解析批量问题: {}个", parsed.size());
+        return response;
+    }
+
+    /**
+     * 依次尝试将JSON对象解析为各类问题
+     */
+    private static BaseQuestion parseQuestionObject(String jsonStr, JSONObject jsonObject) throws QuestionParseException {
         // 收集所有解析失败的原因
         List<String> failureReasons = new ArrayList<>();
-        String parentId = jsonObject.getString("parentId");
         // 依次尝试解析成不同类型
         for (Class<? extends BaseQuestion> questionType : QUESTION_TYPES) {
             try {
@@ -62,7 +126,7 @@ public class QuestionParser {
                     String validationResult = validateQuestion(question, jsonObject);
                     if (validationResult == null) {
                         log.info("成功解析为: {}", questionType.getSimpleName());
-                        return new QuestionGenerationOperation.QuestionGenerationResponse(question,parentId);
+                        return question;
                     } else {
                         failureReasons.add(questionType.getSimpleName() + ": " + validationResult);
                     }
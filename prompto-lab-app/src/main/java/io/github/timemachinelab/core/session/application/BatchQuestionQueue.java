@@ -0,0 +1,157 @@
+package io.github.timemachinelab.core.session.application;
+
+import io.github.timemachinelab.config.BatchQuestionProperties;
+import io.github.timemachinelab.core.qatree.QaTreeDomain;
+import io.github.timemachinelab.core.qatree.QaTreeNode;
+import io.github.timemachinelab.core.question.BaseQuestion;
+import io.github.timemachinelab.core.serializable.JsonNode;
+import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.domain.event.SessionRemovedEvent;
+import io.github.timemachinelab.core.session.infrastructure.ai.QuestionGenerationOperation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 批量问题队列
+ * 模型一次返回的多个问题在一次树操作中追加为一条链，并在同一条SSE消息中下发；
+ * 用户依次回答链上的问题时，直接取出下一个已生成的问题，不再调用模型。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Service
+@Slf4j
+public class BatchQuestionQueue {
+
+    private final BatchQuestionProperties properties;
+    private final QaTreeDomain qaTreeDomain;
+
+    /**
+     * 会话ID -> 最近一批问题的节点ID链
+     */
+    private final Map<String, List<String>> chains = new ConcurrentHashMap<>();
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedQuestions = new LongAdder();
+    private final LongAdder served = new LongAdder();
+    private final LongAdder truncated = new LongAdder();
+
+    public BatchQuestionQueue(BatchQuestionProperties properties, QaTreeDomain qaTreeDomain) {
+        this.properties = properties;
+        this.qaTreeDomain = qaTreeDomain;
+    }
+
+    /**
+     * 将模型返回的问题（含后续问题）追加到对话树
+     * 响应可能来自缓存或被其他轮次共享，只读取不修改；超出上限的后续问题不加入对话树，
+     * 调用方按返回的节点ID数量截取后续问题
+     *
+     * @param session 会话对象
+     * @param response 模型返回的问题
+     * @return 新节点ID，与问题顺序一致
+     */
+    public List<String> append(ConversationSession session, QuestionGenerationOperation.QuestionGenerationResponse response) {
+        List<BaseQuestion> questions = new ArrayList<>();
+        questions.add(response.getQuestion());
+        List<BaseQuestion> followUps = response.getFollowUps();
+        if (followUps != null && !followUps.isEmpty()) {
+            int max = Math.max(0, properties.getMaxQuestions() - 1);
+            if (followUps.size() > max) {
+                truncated.add(followUps.size() - max);
+                followUps = followUps.subList(0, max);
+            }
+            questions.addAll(followUps);
+        }
+
+        List<String> nodeIds = qaTreeDomain.appendChain(session.getQaTree(), response.getParentId(), questions, session);
+        if (nodeIds.size() > 1) {
+            chains.put(session.getSessionId(), Collections.unmodifiableList(nodeIds));
+            batches.increment();
+            batchedQuestions.add(nodeIds.size());
+            log.info("批量问题已加入对话树 - 会话: {}, 节点: {}", session.getSessionId(), nodeIds);
+        } else {
+            chains.remove(session.getSessionId());
+        }
+        return nodeIds;
+    }
+
+    /**
+     * 用户回答链上的问题时取出下一个已生成的问题
+     *
+     * @param session 会话对象
+     * @param answeredNodeId 刚回答的节点ID
+     * @return 下一个问题，没有排队的问题时返回null
+     */
+    public QuestionGenerationOperation.QuestionGenerationResponse take(ConversationSession session, String answeredNodeId) {
+        List<String> chain = chains.get(session.getSessionId());
+        if (chain == null || answeredNodeId == null) {
+            return null;
+        }
+        int index = chain.indexOf(answeredNodeId);
+        if (index < 0 || index == chain.size() - 1) {
+            // 用户离开了这条链或已答完，剩余的排队问题作废
+            chains.remove(session.getSessionId(), chain);
+            return null;
+        }
+        if (index == chain.size() - 2) {
+            chains.remove(session.getSessionId(), chain);
+        }
+
+        String nextNodeId = chain.get(index + 1);
+        QaTreeNode next = session.getQaTree().getNodeById(nextNodeId);
+        if (next == null || !JsonNode.Convert2JsonNode(next, answeredNodeId).getAnswer().isEmpty()) {
+            chains.remove(session.getSessionId(), chain);
+            return null;
+        }
+
+        QuestionGenerationOperation.QuestionGenerationResponse response =
+                new QuestionGenerationOperation.QuestionGenerationResponse(next.getQa(), answeredNodeId);
+        response.setNodeId(nextNodeId);
+        served.increment();
+        return response;
+    }
+
+    /**
+     * 会话移除时丢弃其排队问题
+     */
+    @EventListener
+    public void onSessionRemoved(SessionRemovedEvent event) {
+        clear(event.getSessionId());
+    }
+
+    /**
+     * 丢弃会话的排队问题（重试或会话结束时）
+     *
+     * @param sessionId 会话ID
+     */
+    public void clear(String sessionId) {
+        chains.remove(sessionId);
+    }
+
+    /**
+     * 获取批量提问统计信息
+     */
+    public Map<String, Object> getStats() {
+        long count = batches.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", properties.isEnabled());
+        stats.put("batches", count);
+        stats.put("batchedQuestions", batchedQuestions.sum());
+        stats.put("avgBatchSize", count == 0 ? 0.0 : (double) batchedQuestions.sum() / count);
+        // 每个直接取出的问题省去一次模型往返
+        stats.put("savedRoundTrips", served.sum());
+        stats.put("truncated", truncated.sum());
+        stats.put("pendingSessions", chains.size());
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+}
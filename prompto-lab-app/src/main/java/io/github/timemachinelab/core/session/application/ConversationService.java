@@ -3,17 +3,26 @@ package io.github.timemachinelab.core.session.application;
 
 import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.JSONObject;
-import io.github.timemachinelab.core.constant.AllPrompt;
-import com.suifeng.sfchain.core.AIService;
+import io.github.timemachinelab.config.TurnDeadlineProperties;
+import io.github.timemachinelab.core.qatree.QaTreeDomain;
+import io.github.timemachinelab.core.qatree.QaTreeNode;
+import io.github.timemachinelab.core.serializable.JsonNode;
 import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.domain.turn.DeadlineExceededException;
+import io.github.timemachinelab.core.session.domain.turn.TurnContext;
+import io.github.timemachinelab.core.session.infrastructure.ai.AiOperationExecutor;
 import io.github.timemachinelab.core.session.infrastructure.ai.GenPromptOperation;
 import io.github.timemachinelab.core.session.infrastructure.ai.QuestionGenerationOperation;
-import io.github.timemachinelab.util.QaTreeSerializeUtil;
+import io.github.timemachinelab.core.session.infrastructure.ai.cache.SimilarQuestionCache;
+import io.github.timemachinelab.core.session.infrastructure.ai.memory.ChatMemoryQuestionGenerator;
+import io.github.timemachinelab.core.session.infrastructure.ai.limiter.QueueListener;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 
 @Service
@@ -21,62 +30,250 @@ import java.util.function.Consumer;
 @Slf4j
 public class ConversationService {
 
+    private static final String QUESTION_GENERATION_OP = "QUESTION_GENERATION_OP";
+
     @Resource
-    private final AIService aiService;
+    private final AiOperationExecutor aiOperationExecutor;
     @Resource
     private SessionManagementService sessionManagementService;
+    @Resource
+    private SimilarQuestionCache similarQuestionCache;
+    @Resource
+    private QaTreeDomain qaTreeDomain;
+    @Resource
+    private SpeculativeQuestionService speculativeQuestionService;
+    @Resource
+    private SseNotificationService sseNotificationService;
+    @Resource
+    private TurnDeadlineProperties turnDeadlineProperties;
+    @Resource
+    private TurnTimingRecorder turnTimingRecorder;
+    @Resource
+    private ChatMemoryQuestionGenerator chatMemoryQuestionGenerator;
+    @Resource
+    private BatchQuestionQueue batchQuestionQueue;
+    @Resource
+    private MultiSelectFanOutService multiSelectFanOutService;
+    @Resource
+    private DraftPromptService draftPromptService;
 
-    
-    public void processUserMessage(String userId, String userMessage, Consumer<QuestionGenerationOperation.QuestionGenerationResponse> sseCallback) {
-        ConversationSession session = sessionManagementService.getUserLatestSession(userId);
-        if (session == null) {
-            log.warn("会话不存在");
-            return;
-        }
 
-        processAIResponse(userMessage, sseCallback);
+    /**
+     * 在本轮对话的剩余预算内处理用户消息，超时时向客户端推送timeout事件
+     *
+     * @param session 会话对象
+     * @param userMessage 加工后的消息
+     * @param turn 本轮对话上下文
+     * @param sseCallback 结果回调
+     */
+    public void processUserMessage(ConversationSession session, String userMessage, TurnContext turn, Consumer<QuestionGenerationOperation.QuestionGenerationResponse> sseCallback) {
+        processAIResponse(session, userMessage, turn != null ? turn : startTurn(session), sseCallback);
     }
 
-    public void genPrompt(String sessionId, Consumer<GenPromptOperation.GpResponse> sseCallback){
+    /**
+     * 按配置的预算开始一轮对话
+     */
+    public TurnContext startTurn(ConversationSession session) {
+        return TurnContext.start(session.getSessionId(), turnDeadlineProperties.getTurnBudgetMs());
+    }
+
+    /**
+     * 在后台生成最终提示词，结果（或失败提示）通过回调推送，请求线程不等待模型返回
+     *
+     * @param sessionId 会话ID
+     * @param sseCallback 结果回调，在生成线程上调用
+     * @return 是否已受理，生成排队已满时返回false
+     */
+    public boolean genPrompt(String sessionId, Consumer<GenPromptOperation.GpResponse> sseCallback) {
         ConversationSession session = sessionManagementService.getSessionById(sessionId);
-        GenPromptOperation.GpRequest req = new GenPromptOperation.GpRequest();
+        // 对话树未变化时直接返回后台草稿，否则在草稿基础上修订或全量生成
+        return draftPromptService.generateAsync(session, TurnContext.start(sessionId, turnDeadlineProperties.getTurnBudgetMs()),
+                prompt -> {
+                    GenPromptOperation.GpResponse aiResponse = new GenPromptOperation.GpResponse();
+                    aiResponse.setGenPrompt(prompt);
+                    session.setGenPrompt(prompt);
+                    sseCallback.accept(aiResponse);
+                },
+                e -> {
+                    log.error("生成提示词失败 :{}", e.getMessage());
+                    GenPromptOperation.GpResponse resp = new GenPromptOperation.GpResponse();
+                    resp.setGenPrompt("生成提示词失败，请重试");
+                    sseCallback.accept(resp);
+                });
+    }
 
+    private void processAIResponse(ConversationSession session, String userMessage, TurnContext turn, Consumer<QuestionGenerationOperation.QuestionGenerationResponse> sseCallback) {
+        String timeoutStage = null;
         try {
-            req.setPrompt(AllPrompt.GEN_PROMPT_AGENT_PROMPT);
-            req.setUser(session.getUser());
-            req.setUserTarget(session.getUserTarget());
-            req.setAiModel(session.getAiModel());
-            req.setUserConversation(QaTreeSerializeUtil.serialize(session.getQaTree()));
+            turn.checkRemaining("dispatch");
 
-            GenPromptOperation.GpResponse aiResponse = aiService.execute("PromptGenMaster", req);
-            sseCallback.accept(aiResponse);
-        }catch (Exception e){
-            log.error("生成提示词失败 :{}",e.getMessage());
-            GenPromptOperation.GpResponse resp = new GenPromptOperation.GpResponse();
-            resp.setGenPrompt("生成提示词失败，请重试");
-            sseCallback.accept(resp);
-        }
+            JSONObject object = JSON.parseObject(userMessage);
+            String nodeId = object.getString("nodeId");
 
-    }
+            if (nodeId != null) {
+                // 批量提问中已生成的下一个问题直接下发，不再调用模型
+                QuestionGenerationOperation.QuestionGenerationResponse queued = batchQuestionQueue.take(session, nodeId);
+                turn.mark("batchQueue");
+                if (queued != null) {
+                    sseCallback.accept(queued);
+                    turn.mark("send");
+                    return;
+                }
 
-    private void processAIResponse(String userMessage, Consumer<QuestionGenerationOperation.QuestionGenerationResponse> sseCallback) {
-        try {
+                // 单选题的预生成结果可直接返回
+                QuestionGenerationOperation.QuestionGenerationResponse speculated =
+                        speculativeQuestionService.take(session, nodeId, object.getString("input"), turn.remainingMs());
+                turn.mark("speculation");
+                if (speculated != null) {
+                    sseCallback.accept(speculated);
+                    turn.mark("send");
+                    return;
+                }
+            }
 
-            JSONObject object = JSON.parseObject(userMessage);
+            // 重试说明上次生成的问题不合适，不能再被近似缓存复用
+            String retriedQuestion = getRetriedQuestion(object.getString("input"));
+            boolean retry = isRetry(object.getString("input"));
+            if (retry) {
+                // 重试后对话方向可能改变，排队的批量问题作废
+                batchQuestionQueue.clear(session.getSessionId());
+            }
+            if (retriedQuestion != null) {
+                similarQuestionCache.invalidateByQuestion(QUESTION_GENERATION_OP, retriedQuestion);
+            }
+
+            QueueListener queueListener = (position, estimatedWaitMs) ->
+                    sseNotificationService.sendQueuedEvent(session.getSessionId(), position, estimatedWaitMs);
+
+            // 多选题选择了多个选项时，为每个选项并行生成追问
+            if (!retry && !chatMemoryQuestionGenerator.isEnabled()
+                    && multiSelectFanOutService.tryFanOut(session, nodeId, object.getString("prompt"), queueListener, turn, sseCallback)) {
+                turn.mark("fanOut");
+                return;
+            }
+
+            // 近似缓存只用于普通回答，按（根节点回答 + 祖先路径）匹配
+            String similarityContext = retriedQuestion == null ? buildSimilarityContext(session, nodeId) : null;
+            if (similarityContext != null) {
+                QuestionGenerationOperation.QuestionGenerationResponse cached = similarQuestionCache.lookup(
+                        QUESTION_GENERATION_OP, similarityContext, QuestionGenerationOperation.QuestionGenerationResponse.class);
+                turn.mark("cacheLookup");
+                if (cached != null) {
+                    cached.setParentId(nodeId);
+                    sseCallback.accept(cached);
+                    turn.mark("send");
+                    log.info("近似缓存命中，跳过AI调用 - 会话: {}, 节点: {}", session.getSessionId(), nodeId);
+                    return;
+                }
+            }
 
-            // 创建AI请求
-            QuestionGenerationOperation.QuestionGenerationRequest request = new QuestionGenerationOperation.QuestionGenerationRequest(object.getString("prompt"),object.getString("tree"),object.getString("input"));
-            // 调用AI服务
-            QuestionGenerationOperation.QuestionGenerationResponse aiResponse = aiService.execute("QUESTION_GENERATION_OP", request);
+            // 调用AI服务，排队和调用都只使用本轮剩余的预算
+            long start = System.currentTimeMillis();
+            QuestionGenerationOperation.QuestionGenerationResponse aiResponse;
+            if (chatMemoryQuestionGenerator.isEnabled()) {
+                // 会话记忆模式：只发送本轮增量
+                aiResponse = aiOperationExecutor.executeCall(() -> chatMemoryQuestionGenerator.generate(
+                        session, nodeId, object.getString("tree"), object.getString("input"), retry, turn), queueListener, turn);
+            } else {
+                // 创建AI请求
+                QuestionGenerationOperation.QuestionGenerationRequest request = new QuestionGenerationOperation.QuestionGenerationRequest(object.getString("prompt"),object.getString("tree"),object.getString("input"));
+                aiResponse = aiOperationExecutor.execute(QUESTION_GENERATION_OP, request, queueListener, turn,
+                        !retry && isFirstTurn(session, nodeId));
+            }
+            long latencyMs = System.currentTimeMillis() - start;
+            turn.mark("ai");
+
+            // 只缓存挂载在本次回答节点下的问题，其他挂载位置与上下文无关
+            if (similarityContext != null && aiResponse != null && aiResponse.getQuestion() != null
+                    && nodeId.equals(aiResponse.getParentId())) {
+                similarQuestionCache.store(QUESTION_GENERATION_OP, similarityContext, aiResponse,
+                        aiResponse.getQuestion().getQuestion(), latencyMs);
+            }
 
             sseCallback.accept(aiResponse);
+            turn.mark("send");
             log.info("AI服务调用成功: {}", aiResponse);
-            
+
+        } catch (DeadlineExceededException e) {
+            timeoutStage = e.getStage();
+            turn.mark(timeoutStage);
+            log.warn("AI服务调用超时 - 会话: {}, {}", session.getSessionId(), e.getMessage());
+            sseNotificationService.sendTimeoutEvent(session.getSessionId(), timeoutStage, turn);
         } catch (Exception e) {
             log.error("AI服务调用失败: {}", e.getMessage(), e);
             // 降级处理
             String fallbackResponse = "抱歉，我暂时无法处理您的请求，请稍后再试。";
-            String nodeId = "ai_" + System.currentTimeMillis();
+            sseNotificationService.sendErrorEvent(session.getSessionId(), fallbackResponse);
+        } finally {
+            turnTimingRecorder.record(turn, timeoutStage);
+        }
+    }
+
+    /**
+     * 构建近似匹配的上下文：根节点只取回答，其余节点取问题和回答
+     *
+     * @return 上下文文本，不适合近似匹配时返回null
+     */
+    private String buildSimilarityContext(ConversationSession session, String nodeId) {
+        if (nodeId == null || !similarQuestionCache.isEnabled(QUESTION_GENERATION_OP)) {
+            return null;
+        }
+        List<QaTreeNode> path = qaTreeDomain.getPath(session.getQaTree(), nodeId);
+        if (path.isEmpty() || path.size() > similarQuestionCache.getMaxPathDepth()) {
+            return null;
+        }
+
+        StringBuilder context = new StringBuilder();
+        for (int i = 0; i < path.size(); i++) {
+            JsonNode jsonNode = JsonNode.Convert2JsonNode(path.get(i), null);
+            if (i > 0) {
+                context.append(jsonNode.getQuestion()).append('\n');
+            }
+            context.append(jsonNode.getAnswer()).append('\n');
+        }
+        return context.toString();
+    }
+
+    /**
+     * 首轮：回答的是根节点且对话树尚无其他节点，提示词只由根节点回答决定
+     */
+    private boolean isFirstTurn(ConversationSession session, String nodeId) {
+        if (!"1".equals(nodeId) || session.getQaTree() == null || session.getQaTree().getRoot() == null) {
+            return false;
+        }
+        Map<String, QaTreeNode> children = session.getQaTree().getRoot().getChildren();
+        return children == null || children.isEmpty();
+    }
+
+    /**
+     * 判断是否为重试消息
+     */
+    private boolean isRetry(String input) {
+        if (input == null || !input.startsWith("{")) {
+            return false;
+        }
+        try {
+            return "retry".equals(JSON.parseObject(input).getString("action"));
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * 解析重试消息中的上一个问题
+     *
+     * @param input 消息中的用户输入
+     * @return 被重试的问题，非重试消息返回null
+     */
+    private String getRetriedQuestion(String input) {
+        if (input == null || !input.startsWith("{")) {
+            return null;
+        }
+        try {
+            JSONObject retryInput = JSON.parseObject(input);
+            return "retry".equals(retryInput.getString("action")) ? retryInput.getString("preQuestion") : null;
+        } catch (Exception e) {
+            return null;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,494 @@
+package io.github.timemachinelab.core.session.application;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import io.github.timemachinelab.config.DraftPromptProperties;
+import io.github.timemachinelab.core.constant.AllPrompt;
+import io.github.timemachinelab.core.constant.DraftPrompt;
+import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.domain.event.SessionRemovedEvent;
+import io.github.timemachinelab.core.session.domain.turn.TurnContext;
+import io.github.timemachinelab.core.session.infrastructure.ai.AiOperationExecutor;
+import io.github.timemachinelab.core.session.infrastructure.ai.GenPromptOperation;
+import io.github.timemachinelab.core.session.infrastructure.ai.limiter.AiLimiterException;
+import io.github.timemachinelab.util.QaTreeSerializeUtil;
+import io.github.timemachinelab.util.TokenEstimator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 最终提示词草稿服务
+ * 对话过程中每次回答后（防抖）在后台刷新一份最终提示词草稿，只使用限流器的空闲容量并受每会话成本上限约束；
+ * 草稿记录其对应的对话树版本。用户请求生成提示词时：
+ * - 对话树与草稿一致：直接返回草稿
+ * - 只有少量节点变化：把草稿和变化的节点交给模型增量修订
+ * - 其他情况：全量生成
+ * 用户请求的生成在有界的前台线程池中执行，请求线程不等待模型返回，结果通过回调推送
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Service
+@Slf4j
+public class DraftPromptService {
+
+    private static final String GEN_PROMPT_OP = "PromptGenMaster";
+
+    /**
+     * 提示词生成模型
+     */
+    @FunctionalInterface
+    public interface DraftModel {
+        /**
+         * @param request 生成请求
+         * @param background 是否为后台刷新（后台刷新不排队）
+         * @param turn 前台生成的本轮上下文，排队和调用只使用剩余预算；后台刷新时为null
+         * @return 生成的提示词
+         */
+        String generate(GenPromptOperation.GpRequest request, boolean background, TurnContext turn);
+    }
+
+    private final DraftPromptProperties properties;
+    private final DraftModel model;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ThreadPoolExecutor foregroundExecutor;
+
+    /**
+     * 会话ID -> 草稿状态
+     */
+    private final Map<String, DraftState> states = new ConcurrentHashMap<>();
+
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder debounced = new LongAdder();
+    private final LongAdder refreshed = new LongAdder();
+    private final LongAdder fullRuns = new LongAdder();
+    private final LongAdder refineRuns = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder skippedByBudget = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder backgroundTokens = new LongAdder();
+    private final LongAdder foregroundRejected = new LongAdder();
+
+    @Autowired
+    public DraftPromptService(DraftPromptProperties properties, AiOperationExecutor aiOperationExecutor) {
+        this(properties, (request, background, turn) -> {
+            GenPromptOperation.GpResponse response = background
+                    ? aiOperationExecutor.executeIfIdle(GEN_PROMPT_OP, request)
+                    : aiOperationExecutor.execute(GEN_PROMPT_OP, request, null, turn);
+            return response != null ? response.getGenPrompt() : null;
+        });
+    }
+
+    DraftPromptService(DraftPromptProperties properties, DraftModel model) {
+        this.properties = properties;
+        this.model = model;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "draft-prompt-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        AtomicInteger foregroundIndex = new AtomicInteger();
+        this.foregroundExecutor = new ThreadPoolExecutor(
+                properties.getGenerateThreads(), properties.getGenerateThreads(),
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(properties.getGenerateQueueCapacity()),
+                r -> {
+                    Thread thread = new Thread(r, "gen-prompt-" + foregroundIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.foregroundExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        foregroundExecutor.shutdownNow();
+    }
+
+    /**
+     * 对话树有节点被回答后调用，防抖后在后台刷新草稿
+     *
+     * @param session 会话对象
+     */
+    public void onTreeChanged(ConversationSession session) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        // 快照在请求线程上生成，后台线程不读取可变的树结构
+        Snapshot snapshot = snapshot(session);
+        if (snapshot == null || snapshot.answeredNodes < properties.getMinAnsweredNodes()) {
+            return;
+        }
+
+        DraftState state = states.computeIfAbsent(session.getSessionId(), k -> new DraftState());
+        synchronized (state) {
+            state.latest = snapshot;
+            if (state.pending != null && state.pending.cancel(false)) {
+                debounced.increment();
+            }
+            state.pending = scheduler.schedule(() -> refresh(session.getSessionId(), state),
+                    properties.getDebounceMs(), TimeUnit.MILLISECONDS);
+        }
+        scheduled.increment();
+    }
+
+    /**
+     * 生成最终提示词，优先使用草稿
+     *
+     * @param session 会话对象
+     * @param turn 本轮上下文，草稿未命中时模型调用只使用剩余预算，可为null
+     * @return 提示词
+     */
+    public String generate(ConversationSession session, TurnContext turn) {
+        // 树版本（根节点哈希）与草稿一致时无需序列化对话树
+        DraftState existing = properties.isEnabled() && session != null ? states.get(session.getSessionId()) : null;
+        Draft ready = existing != null ? existing.draft : null;
+        if (ready != null && ready.source.matches(session)) {
+            hits.increment();
+            log.info("提示词草稿命中 - 会话: {}, 树版本: {}", session.getSessionId(), ready.source.treeHash);
+            return ready.prompt;
+        }
+
+        Snapshot current = snapshot(session);
+        if (current == null) {
+            throw new IllegalStateException("会话对话树为空，无法生成提示词");
+        }
+        if (!properties.isEnabled()) {
+            return model.generate(plan(current, null).request, false, turn);
+        }
+
+        DraftState state = states.computeIfAbsent(session.getSessionId(), k -> new DraftState());
+        Draft draft;
+        synchronized (state) {
+            draft = state.draft;
+            // 即将前台生成，取消等待中的后台刷新
+            if (state.pending != null) {
+                state.pending.cancel(false);
+                state.pending = null;
+            }
+        }
+        if (draft != null && draft.source.sameInput(current)) {
+            hits.increment();
+            log.info("提示词草稿命中 - 会话: {}, 树版本: {}", session.getSessionId(), current.treeVersion);
+            return draft.prompt;
+        }
+
+        misses.increment();
+        String prompt = model.generate(plan(current, draft).request, false, turn);
+        store(state, current, prompt);
+        return prompt;
+    }
+
+    /**
+     * 在前台线程池中生成最终提示词，调用方立即返回
+     *
+     * @param session 会话对象
+     * @param turn 本轮上下文，从收到请求开始计时，排队等待也计入预算
+     * @param onSuccess 生成成功时在生成线程上回调
+     * @param onFailure 生成失败时在生成线程上回调
+     * @return 是否已受理，线程和排队都已满时返回false
+     */
+    public boolean generateAsync(ConversationSession session, TurnContext turn,
+                                 Consumer<String> onSuccess, Consumer<Exception> onFailure) {
+        try {
+            foregroundExecutor.execute(() -> {
+                String prompt;
+                try {
+                    prompt = generate(session, turn);
+                } catch (Exception e) {
+                    onFailure.accept(e);
+                    return;
+                }
+                onSuccess.accept(prompt);
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            foregroundRejected.increment();
+            log.warn("提示词生成排队已满 - 会话: {}", session != null ? session.getSessionId() : null);
+            return false;
+        }
+    }
+
+    /**
+     * 会话移除时清理草稿
+     */
+    @EventListener
+    public void onSessionRemoved(SessionRemovedEvent event) {
+        clear(event.getSessionId());
+    }
+
+    /**
+     * 会话结束时清理草稿
+     *
+     * @param sessionId 会话ID
+     */
+    public void clear(String sessionId) {
+        DraftState state = states.remove(sessionId);
+        if (state != null) {
+            synchronized (state) {
+                if (state.pending != null) {
+                    state.pending.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取草稿统计信息
+     */
+    public Map<String, Object> getStats() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", properties.isEnabled());
+        stats.put("scheduled", scheduled.sum());
+        stats.put("debounced", debounced.sum());
+        stats.put("refreshed", refreshed.sum());
+        stats.put("fullRuns", fullRuns.sum());
+        stats.put("refineRuns", refineRuns.sum());
+        stats.put("hits", hitCount);
+        stats.put("misses", misses.sum());
+        stats.put("hitRate", total == 0 ? 0.0 : (double) hitCount / total);
+        stats.put("skippedByBudget", skippedByBudget.sum());
+        stats.put("deferred", deferred.sum());
+        stats.put("stale", stale.sum());
+        stats.put("failed", failed.sum());
+        stats.put("backgroundTokens", backgroundTokens.sum());
+        stats.put("foregroundActive", foregroundExecutor.getActiveCount());
+        stats.put("foregroundQueued", foregroundExecutor.getQueue().size());
+        stats.put("foregroundRejected", foregroundRejected.sum());
+        stats.put("sessions", states.size());
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+
+    private void refresh(String sessionId, DraftState state) {
+        Snapshot target;
+        Draft base;
+        synchronized (state) {
+            state.pending = null;
+            target = state.latest;
+            base = state.draft;
+        }
+        if (target == null || (base != null && base.source.sameInput(target))) {
+            return;
+        }
+
+        Plan plan = plan(target, base);
+        long tokens = TokenEstimator.estimate(plan.request.getPrompt()) + TokenEstimator.estimate(plan.request.getUserConversation());
+        synchronized (state) {
+            if (state.backgroundRuns >= properties.getMaxDraftsPerSession()
+                    || state.backgroundTokens + tokens > properties.getMaxTokensPerSession()) {
+                skippedByBudget.increment();
+                log.info("草稿预算不足，跳过后台刷新 - 会话: {}, 已刷新: {}次, 已用: {}", sessionId, state.backgroundRuns, state.backgroundTokens);
+                return;
+            }
+            state.backgroundRuns++;
+            state.backgroundTokens += tokens;
+        }
+        backgroundTokens.add(tokens);
+
+        try {
+            String prompt = model.generate(plan.request, true, null);
+            if (prompt == null || prompt.trim().isEmpty()) {
+                failed.increment();
+                return;
+            }
+            if (store(state, target, prompt)) {
+                refreshed.increment();
+                log.info("提示词草稿已刷新 - 会话: {}, 树版本: {}, 增量: {}", sessionId, target.treeVersion, plan.incremental);
+            }
+        } catch (AiLimiterException e) {
+            // 没有空闲容量，不计入预算，稍后重试
+            synchronized (state) {
+                state.backgroundRuns--;
+                state.backgroundTokens -= tokens;
+                if (state.pending == null) {
+                    state.pending = scheduler.schedule(() -> refresh(sessionId, state),
+                            properties.getDebounceMs(), TimeUnit.MILLISECONDS);
+                }
+            }
+            backgroundTokens.add(-tokens);
+            deferred.increment();
+        } catch (Exception e) {
+            failed.increment();
+            log.warn("提示词草稿刷新失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
+        }
+    }
+
+    /**
+     * 保存草稿，只接受不早于现有草稿的树版本
+     */
+    private boolean store(DraftState state, Snapshot source, String prompt) {
+        synchronized (state) {
+            if (state.draft != null && source.treeVersion < state.draft.source.treeVersion) {
+                stale.increment();
+                return false;
+            }
+            state.draft = new Draft(source, prompt);
+            return true;
+        }
+    }
+
+    /**
+     * 决定全量生成还是在草稿基础上增量修订
+     */
+    private Plan plan(Snapshot target, Draft base) {
+        GenPromptOperation.GpRequest request = new GenPromptOperation.GpRequest();
+        request.setUser(target.user);
+        request.setAiModel(target.aiModel);
+        request.setUserTarget(target.userTarget);
+
+        List<Object> changed = base != null && base.source.sameProfile(target) ? changedNodes(base.source, target) : null;
+        if (changed != null && !changed.isEmpty() && changed.size() <= target.nodeCount * properties.getMaxRefineRatio()) {
+            request.setPrompt(DraftPrompt.REFINE_AGENT_PROMPT);
+            request.setUserConversation(DraftPrompt.DRAFT_HEADER + base.prompt + DraftPrompt.CHANGES_HEADER + JSON.toJSONString(changed));
+            refineRuns.increment();
+            return new Plan(request, true);
+        }
+        request.setPrompt(AllPrompt.GEN_PROMPT_AGENT_PROMPT);
+        request.setUserConversation(target.conversation);
+        fullRuns.increment();
+        return new Plan(request, false);
+    }
+
+    /**
+     * 草稿之后新增或变化的节点，有节点被删除时返回null（只能全量生成）
+     */
+    private List<Object> changedNodes(Snapshot base, Snapshot target) {
+        Map<String, Object> baseNodes = indexNodes(base.conversation);
+        Map<String, Object> targetNodes = indexNodes(target.conversation);
+        if (!targetNodes.keySet().containsAll(baseNodes.keySet())) {
+            return null;
+        }
+        List<Object> changed = new ArrayList<>();
+        targetNodes.forEach((nodeId, node) -> {
+            if (!node.equals(baseNodes.get(nodeId))) {
+                changed.add(node);
+            }
+        });
+        return changed;
+    }
+
+    private Map<String, Object> indexNodes(String conversation) {
+        Map<String, Object> nodes = new LinkedHashMap<>();
+        JSONArray array = JSON.parseArray(conversation);
+        for (int i = 0; i < array.size(); i++) {
+            JSONObject node = array.getJSONObject(i);
+            nodes.put(node.getString("nodeId"), node);
+        }
+        return nodes;
+    }
+
+    private Snapshot snapshot(ConversationSession session) {
+        if (session == null || session.getQaTree() == null || session.getQaTree().getRoot() == null) {
+            return null;
+        }
+        try {
+            Snapshot snapshot = new Snapshot();
+            snapshot.treeVersion = session.getQaTree().getRoot().getVersion();
+            snapshot.treeHash = session.getQaTree().getVersion();
+            snapshot.user = session.getUser();
+            snapshot.aiModel = session.getAiModel();
+            snapshot.userTarget = session.getUserTarget();
+            snapshot.conversation = QaTreeSerializeUtil.serialize(session.getQaTree());
+            JSONArray nodes = JSON.parseArray(snapshot.conversation);
+            snapshot.nodeCount = nodes.size();
+            for (int i = 0; i < nodes.size(); i++) {
+                String answer = nodes.getJSONObject(i).getString("answer");
+                if (answer != null && !answer.isEmpty()) {
+                    snapshot.answeredNodes++;
+                }
+            }
+            return snapshot;
+        } catch (Exception e) {
+            log.warn("对话树快照生成失败 - 会话: {}, 错误: {}", session.getSessionId(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static class Snapshot {
+        private long treeVersion;
+        private String treeHash;
+        private String user;
+        private String aiModel;
+        private String userTarget;
+        private String conversation;
+        private int nodeCount;
+        private int answeredNodes;
+
+        private boolean sameProfile(Snapshot other) {
+            return Objects.equals(user, other.user)
+                    && Objects.equals(aiModel, other.aiModel)
+                    && Objects.equals(userTarget, other.userTarget);
+        }
+
+        private boolean sameInput(Snapshot other) {
+            return sameProfile(other) && treeHash.equals(other.treeHash);
+        }
+
+        private boolean matches(ConversationSession session) {
+            return session.getQaTree() != null && session.getQaTree().getRoot() != null
+                    && Objects.equals(user, session.getUser())
+                    && Objects.equals(aiModel, session.getAiModel())
+                    && Objects.equals(userTarget, session.getUserTarget())
+                    && treeHash.equals(session.getQaTree().getVersion());
+        }
+    }
+
+    private static class Draft {
+        private final Snapshot source;
+        private final String prompt;
+
+        private Draft(Snapshot source, String prompt) {
+            this.source = source;
+            this.prompt = prompt;
+        }
+    }
+
+    private static class DraftState {
+        private volatile Snapshot latest;
+        private volatile Draft draft;
+        private ScheduledFuture<?> pending;
+        private int backgroundRuns;
+        private long backgroundTokens;
+    }
+
+    private static class Plan {
+        private final GenPromptOperation.GpRequest request;
+        private final boolean incremental;
+
+        private Plan(GenPromptOperation.GpRequest request, boolean incremental) {
+            this.request = request;
+            this.incremental = incremental;
+        }
+    }
+}
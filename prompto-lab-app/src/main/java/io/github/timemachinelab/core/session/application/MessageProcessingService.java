@@ -1,6 +1,7 @@
 package io.github.timemachinelab.core.session.application;
 
 import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.domain.turn.TurnContext;
 import io.github.timemachinelab.core.session.infrastructure.web.dto.UnifiedAnswerRequest;
 
 /**
@@ -59,4 +60,14 @@ public interface MessageProcessingService {
       * @param processedMessage 处理后的消息
       */
      void processAndSendMessage(ConversationSession session, String processedMessage);
+
+     /**
+      * 在本轮对话的剩余预算内处理并发送消息给AI服务
+      * 预算耗尽时客户端会收到timeout事件
+      *
+      * @param session 会话对象
+      * @param processedMessage 处理后的消息
+      * @param turn 本轮对话上下文
+      */
+     void processAndSendMessage(ConversationSession session, String processedMessage, TurnContext turn);
 }
\ No newline at end of file
@@ -0,0 +1,253 @@
+package io.github.timemachinelab.core.session.application;
+
+import io.github.timemachinelab.config.FanOutProperties;
+import io.github.timemachinelab.core.qatree.QaTreeNode;
+import io.github.timemachinelab.core.question.MultipleChoiceQuestion;
+import io.github.timemachinelab.core.question.Option;
+import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.domain.turn.DeadlineExceededException;
+import io.github.timemachinelab.core.session.domain.turn.TurnContext;
+import io.github.timemachinelab.core.session.infrastructure.ai.AiOperationExecutor;
+import io.github.timemachinelab.core.session.infrastructure.ai.QuestionGenerationOperation;
+import io.github.timemachinelab.core.session.infrastructure.ai.limiter.QueueListener;
+import io.github.timemachinelab.util.QaTreeSerializeUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 多选题并行追问服务
+ * 用户在多选题中选择了多个选项时，为每个选项并行生成追问，结果作为回答节点的兄弟子节点，
+ * 每完成一个就推送一个，并带上分支标记供前端排队展示；N次串行的模型延迟变为约一次。并发调用仍经过限流器和本轮预算。
+ * 分支线程数有上限且不排队：超时放弃的分支在调用真正结束前仍占用线程，容量不足时回退为普通追问。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Service
+@Slf4j
+public class MultiSelectFanOutService {
+
+    private static final String QUESTION_GENERATION_OP = "QUESTION_GENERATION_OP";
+
+    /**
+     * 追加在单个选项后的说明，避免模型把其他已选选项混入本次追问
+     */
+    static final String BRANCH_HINT = "（用户选择了多个选项，本次只针对该选项追问）";
+
+    /**
+     * 单个选项的追问生成
+     */
+    @FunctionalInterface
+    public interface BranchGenerator {
+        QuestionGenerationOperation.QuestionGenerationResponse generate(QuestionGenerationOperation.QuestionGenerationRequest request,
+                                                                        QueueListener queueListener, TurnContext turn);
+    }
+
+    private final FanOutProperties properties;
+    private final BranchGenerator generator;
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder fanOuts = new LongAdder();
+    private final LongAdder branches = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder wallMs = new LongAdder();
+    private final LongAdder sumBranchMs = new LongAdder();
+
+    @Autowired
+    public MultiSelectFanOutService(FanOutProperties properties, AiOperationExecutor aiOperationExecutor) {
+        this(properties, (request, queueListener, turn) ->
+                aiOperationExecutor.execute(QUESTION_GENERATION_OP, request, queueListener, turn));
+    }
+
+    MultiSelectFanOutService(FanOutProperties properties, BranchGenerator generator) {
+        this.properties = properties;
+        this.generator = generator;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(0, Math.max(1, properties.getThreads()), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> {
+            Thread thread = new Thread(r, "multi-select-fan-out-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 回答的是选择了多个选项的多选题时，并行为每个选项生成追问
+     *
+     * @param session 会话对象
+     * @param nodeId 回答的节点ID
+     * @param globalPrompt 本轮的问题生成提示词
+     * @param queueListener 排队位置监听器
+     * @param turn 本轮对话上下文
+     * @param sseCallback 结果回调，每个选项的追问完成时调用一次，响应带有分支标记
+     * @return 是否已按并行模式处理，false表示不适用，调用方按普通流程生成
+     */
+    public boolean tryFanOut(ConversationSession session, String nodeId, String globalPrompt, QueueListener queueListener,
+                             TurnContext turn, Consumer<QuestionGenerationOperation.QuestionGenerationResponse> sseCallback) {
+        List<Option> selected = selectedOptions(session, nodeId);
+        if (selected.size() < 2) {
+            return false;
+        }
+
+        List<QuestionGenerationOperation.QuestionGenerationRequest> requests = new ArrayList<>(selected.size());
+        try {
+            for (Option option : selected) {
+                // 对话树中该节点的回答替换为单个选项，其余节点与普通流程一致
+                String tree = QaTreeSerializeUtil.serializeForPrompt(session.getQaTree(), nodeId, option.getLabel() + BRANCH_HINT);
+                requests.add(new QuestionGenerationOperation.QuestionGenerationRequest(globalPrompt, tree, option.getId()));
+            }
+        } catch (Exception e) {
+            log.warn("并行追问序列化对话树失败，回退为普通追问 - 会话: {}, 错误: {}", session.getSessionId(), e.getMessage());
+            return false;
+        }
+
+        long start = System.currentTimeMillis();
+        ExecutorCompletionService<QuestionGenerationOperation.QuestionGenerationResponse> completion =
+                new ExecutorCompletionService<>(executor);
+        List<Future<QuestionGenerationOperation.QuestionGenerationResponse>> futures = new ArrayList<>(requests.size());
+        try {
+            for (QuestionGenerationOperation.QuestionGenerationRequest request : requests) {
+                futures.add(completion.submit(() -> {
+                    long branchStart = System.currentTimeMillis();
+                    try {
+                        return generator.generate(request, queueListener, turn);
+                    } finally {
+                        sumBranchMs.add(System.currentTimeMillis() - branchStart);
+                    }
+                }));
+            }
+        } catch (RejectedExecutionException e) {
+            // 分支线程已满（包括超时后仍在等待模型返回的分支），不部分并行，整体回退为普通追问
+            futures.forEach(future -> future.cancel(true));
+            rejected.increment();
+            log.warn("并行追问线程已满，回退为普通追问 - 会话: {}, 节点: {}", session.getSessionId(), nodeId);
+            return false;
+        }
+        fanOuts.increment();
+        branches.add(requests.size());
+        log.info("已启动多选题并行追问 - 会话: {}, 节点: {}, 选项数: {}", session.getSessionId(), nodeId, requests.size());
+
+        int deliveredCount = 0;
+        boolean expired = false;
+        RuntimeException firstError = null;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                Future<QuestionGenerationOperation.QuestionGenerationResponse> done = turn.isBounded()
+                        ? completion.poll(turn.remainingMs(), TimeUnit.MILLISECONDS)
+                        : completion.take();
+                if (done == null) {
+                    timedOut.add(futures.size() - i);
+                    expired = true;
+                    break;
+                }
+                try {
+                    QuestionGenerationOperation.QuestionGenerationResponse response = done.get();
+                    if (response == null || response.getQuestion() == null) {
+                        failed.increment();
+                        continue;
+                    }
+                    // 所有分支都挂在回答节点下，互为兄弟节点；响应可能来自缓存，复制后再设置挂载位置
+                    QuestionGenerationOperation.QuestionGenerationResponse branch =
+                            new QuestionGenerationOperation.QuestionGenerationResponse(response.getQuestion(), nodeId);
+                    branch.setFanOut(new QuestionGenerationOperation.FanOutBranch(nodeId, deliveredCount, requests.size()));
+                    // 推送会修改对话树，统一在调用线程上按完成顺序逐个执行
+                    sseCallback.accept(branch);
+                    deliveredCount++;
+                    delivered.increment();
+                } catch (ExecutionException e) {
+                    failed.increment();
+                    Throwable cause = e.getCause();
+                    if (firstError == null && cause instanceof RuntimeException) {
+                        firstError = (RuntimeException) cause;
+                    }
+                    log.warn("并行追问分支失败 - 会话: {}, 错误: {}", session.getSessionId(), cause != null ? cause.getMessage() : e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+            wallMs.add(System.currentTimeMillis() - start);
+        }
+
+        if (deliveredCount == 0) {
+            if (expired || turn.isExpired()) {
+                throw new DeadlineExceededException("aiCall", turn);
+            }
+            throw firstError != null ? firstError : new IllegalStateException("并行追问全部失败");
+        }
+        log.info("多选题并行追问完成 - 会话: {}, 节点: {}, 成功: {}/{}", session.getSessionId(), nodeId, deliveredCount, requests.size());
+        return true;
+    }
+
+    /**
+     * 获取并行追问统计信息
+     */
+    public Map<String, Object> getStats() {
+        long count = fanOuts.sum();
+        long wall = wallMs.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", properties.isEnabled());
+        stats.put("fanOuts", count);
+        stats.put("branches", branches.sum());
+        stats.put("delivered", delivered.sum());
+        stats.put("failed", failed.sum());
+        stats.put("timedOut", timedOut.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("activeBranches", executor.getActiveCount());
+        stats.put("avgWallMs", count == 0 ? 0.0 : (double) wall / count);
+        // 串行执行各分支所需时间与实际耗时之比
+        stats.put("speedup", wall == 0 ? 0.0 : (double) sumBranchMs.sum() / wall);
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+
+    /**
+     * 取出节点上已选择的选项，超出上限的选项不单独追问
+     */
+    private List<Option> selectedOptions(ConversationSession session, String nodeId) {
+        List<Option> selected = new ArrayList<>();
+        if (!properties.isEnabled() || nodeId == null || session.getQaTree() == null) {
+            return selected;
+        }
+        QaTreeNode node = session.getQaTree().getNodeById(nodeId);
+        if (node == null || !(node.getQa() instanceof MultipleChoiceQuestion)) {
+            return selected;
+        }
+        MultipleChoiceQuestion question = (MultipleChoiceQuestion) node.getQa();
+        if (question.getAnswer() == null || question.getOptions() == null) {
+            return selected;
+        }
+        for (Option option : question.getOptions()) {
+            if (option.getId() != null && question.getAnswer().contains(option.getId())) {
+                selected.add(option);
+            }
+        }
+        return selected.size() > properties.getMaxBranches() ? new ArrayList<>() : selected;
+    }
+}
@@ -0,0 +1,155 @@
+package io.github.timemachinelab.core.session.application;
+
+import com.alibaba.fastjson2.JSON;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.github.timemachinelab.core.qatree.QaTree;
+import io.github.timemachinelab.core.qatree.QaTreeNode;
+import io.github.timemachinelab.core.serializable.JsonNode;
+import io.github.timemachinelab.util.QaTreeSerializeUtil;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对话树同步服务
+ * 以树版本（根节点Merkle哈希）作为强ETag：客户端版本未变化时返回304，
+ * 携带此前的版本时只返回之后新增、修改和移除的节点，版本无法追溯时退化为全量。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Service
+@Slf4j
+public class QaTreeSyncService {
+
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder incremental = new LongAdder();
+    private final LongAdder full = new LongAdder();
+    private final LongAdder incrementalNodes = new LongAdder();
+    private final LongAdder fullNodes = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+
+    /**
+     * 获取对话树
+     *
+     * @param tree QA树
+     * @param ifNoneMatch If-None-Match请求头，可为null
+     * @param since 客户端已有的树版本，可为null
+     * @return 获取结果
+     */
+    public TreeFetch fetch(QaTree tree, String ifNoneMatch, String since) throws JsonProcessingException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        String version;
+        List<JsonNode> nodes;
+        // 读取期间树不被修改，版本与内容一致
+        synchronized (tree) {
+            version = tree.getVersion();
+            if (matches(ifNoneMatch, version)) {
+                notModified.increment();
+                return new TreeFetch(version, null);
+            }
+
+            QaTree.Changes changes = since != null ? tree.changesSince(since) : null;
+            body.put("version", version);
+            if (changes != null) {
+                nodes = new ArrayList<>(changes.getChanged().size());
+                for (QaTreeNode node : changes.getChanged()) {
+                    QaTreeNode parent = tree.getParent(node.getId());
+                    nodes.add(JsonNode.Convert2JsonNode(node, parent != null ? parent.getId() : null));
+                }
+                body.put("full", false);
+                body.put("since", since);
+                body.put("nodes", nodes);
+                body.put("removed", changes.getRemovedIds());
+            } else {
+                nodes = QaTreeSerializeUtil.toJsonNodes(tree);
+                body.put("full", true);
+                body.put("nodes", nodes);
+            }
+        }
+
+        if (Boolean.TRUE.equals(body.get("full"))) {
+            full.increment();
+            fullNodes.add(nodes.size());
+        } else {
+            incremental.increment();
+            incrementalNodes.add(nodes.size());
+        }
+        String json = JSON.toJSONString(body);
+        bytesSent.add(json.getBytes(StandardCharsets.UTF_8).length);
+        return new TreeFetch(version, json);
+    }
+
+    /**
+     * 获取对话树同步统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("notModified", notModified.sum());
+        stats.put("incremental", incremental.sum());
+        stats.put("full", full.sum());
+        stats.put("incrementalNodes", incrementalNodes.sum());
+        stats.put("fullNodes", fullNodes.sum());
+        stats.put("bytesSent", bytesSent.sum());
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+
+    /**
+     * If-None-Match按弱比较匹配，支持多个ETag和*
+     */
+    private boolean matches(String ifNoneMatch, String version) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String value = tag.trim();
+            if ("*".equals(value)) {
+                return true;
+            }
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            if (value.equals(version)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获取结果，body为null表示客户端版本未变化
+     */
+    @Getter
+    public static class TreeFetch {
+        private final String version;
+        private final String body;
+
+        private TreeFetch(String version, String body) {
+            this.version = version;
+            this.body = body;
+        }
+
+        public boolean isNotModified() {
+            return body == null;
+        }
+
+        /**
+         * 强ETag
+         */
+        public String getETag() {
+            return "\"" + version + "\"";
+        }
+    }
+}
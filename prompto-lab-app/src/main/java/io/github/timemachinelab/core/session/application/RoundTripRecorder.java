@@ -0,0 +1,114 @@
+package io.github.timemachinelab.core.session.application;
+
+import io.github.timemachinelab.core.session.domain.event.SessionRemovedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 回答到问题的往返耗时统计
+ * 从收到回答或重试请求开始，到下一条问题放入会话的发送队列为止，按提交请求的传输方式分别汇总，
+ * 用于比较HTTP /message + SSE与WebSocket两条链路
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Component
+public class RoundTripRecorder {
+
+    /**
+     * 提交回答的传输方式
+     */
+    public enum Transport {
+        HTTP,
+        WEBSOCKET
+    }
+
+    /**
+     * 会话ID -> 等待下一条问题的请求
+     */
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private final Map<Transport, TransportStats> stats = new EnumMap<>(Transport.class);
+
+    public RoundTripRecorder() {
+        for (Transport transport : Transport.values()) {
+            stats.put(transport, new TransportStats());
+        }
+    }
+
+    /**
+     * 记录回答或重试请求通过校验的时间，同一会话后到的请求覆盖先到的
+     *
+     * @param sessionId 会话ID
+     * @param transport 提交请求的传输方式
+     */
+    public void answered(String sessionId, Transport transport) {
+        pending.put(sessionId, new Pending(transport, System.nanoTime()));
+    }
+
+    /**
+     * 下一条问题已放入会话的发送队列，结束该会话的往返计时
+     *
+     * @param sessionId 会话ID
+     */
+    public void questionDelivered(String sessionId) {
+        Pending answered = pending.remove(sessionId);
+        if (answered != null) {
+            stats.get(answered.transport).add(System.nanoTime() - answered.startNanos);
+        }
+    }
+
+    @EventListener
+    public void onSessionRemoved(SessionRemovedEvent event) {
+        pending.remove(event.getSessionId());
+    }
+
+    /**
+     * 获取按传输方式汇总的往返耗时
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new HashMap<>();
+        stats.forEach((transport, transportStats) -> result.put(transport.name().toLowerCase(), transportStats.snapshot()));
+        result.put("pending", pending.size());
+        result.put("timestamp", System.currentTimeMillis());
+        return result;
+    }
+
+    private static class Pending {
+        private final Transport transport;
+        private final long startNanos;
+
+        private Pending(Transport transport, long startNanos) {
+            this.transport = transport;
+            this.startNanos = startNanos;
+        }
+    }
+
+    private static class TransportStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        private void add(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        private Map<String, Object> snapshot() {
+            long n = count.sum();
+            Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("roundTrips", n);
+            snapshot.put("avgRoundTripMs", n == 0 ? 0.0 : totalNanos.sum() / 1_000_000.0 / n);
+            snapshot.put("maxRoundTripMs", TimeUnit.NANOSECONDS.toMillis(maxNanos.get()));
+            return snapshot;
+        }
+    }
+}
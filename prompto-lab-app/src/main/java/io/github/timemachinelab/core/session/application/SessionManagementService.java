@@ -3,7 +3,9 @@ package io.github.timemachinelab.core.session.application;
 import io.github.timemachinelab.core.qatree.QaTree;
 import io.github.timemachinelab.core.qatree.QaTreeDomain;
 import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.domain.event.SessionRemovedEvent;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
@@ -34,6 +36,8 @@ public class SessionManagementService {
 
     @Resource
     private QaTreeDomain qaTreeDomain;
+    @Resource
+    private ApplicationEventPublisher eventPublisher;
     /**
      * 创建或获取用户会话
      * 如果sessionId为null，创建新会话；否则验证并返回现有会话
@@ -179,6 +183,7 @@ public class SessionManagementService {
                 }
             }
             log.info("清理会话 - 用户: {}, 会话: {}", session.getUserId(), sessionId);
+            eventPublisher.publishEvent(new SessionRemovedEvent(sessionId, session.getUserId()));
         }
     }
     
@@ -191,7 +196,9 @@ public class SessionManagementService {
         List<String> sessionIds = userSessionMap.remove(userId);
         if (sessionIds != null) {
             for (String sessionId : sessionIds) {
-                sessions.remove(sessionId);
+                if (sessions.remove(sessionId) != null) {
+                    eventPublisher.publishEvent(new SessionRemovedEvent(sessionId, userId));
+                }
             }
             log.info("清理用户所有会话 - 用户: {}, 会话数量: {}", userId, sessionIds.size());
         }
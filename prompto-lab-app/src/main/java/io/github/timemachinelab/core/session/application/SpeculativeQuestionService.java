@@ -0,0 +1,318 @@
+package io.github.timemachinelab.core.session.application;
+
+import io.github.timemachinelab.config.SpeculationProperties;
+import io.github.timemachinelab.core.prompt.PromptAssembler;
+import io.github.timemachinelab.core.question.Option;
+import io.github.timemachinelab.core.question.SingleChoiceQuestion;
+import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.domain.event.SessionRemovedEvent;
+import io.github.timemachinelab.core.session.infrastructure.ai.AiOperationExecutor;
+import io.github.timemachinelab.core.session.infrastructure.ai.QuestionGenerationOperation;
+import io.github.timemachinelab.core.session.infrastructure.ai.limiter.AiLimiterException;
+import io.github.timemachinelab.util.QaTreeSerializeUtil;
+import io.github.timemachinelab.util.TokenEstimator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 单选题追问预生成服务
+ * 单选题的选项有限，用户思考期间即可为前K个选项预先生成追问；
+ * 用户回答后直接返回匹配的预生成结果，其余预生成取消。
+ * 预生成只使用限流器的空闲容量，没有空闲容量时放弃。
+ *
+ * @author suifeng
+ * 日期: 2025/8/29
+ */
+@Service
+@Slf4j
+public class SpeculativeQuestionService {
+
+    private static final String QUESTION_GENERATION_OP = "QUESTION_GENERATION_OP";
+
+    /**
+     * 单个选项的追问预生成，只使用空闲的调用容量
+     */
+    @FunctionalInterface
+    public interface SpeculativeGenerator {
+        QuestionGenerationOperation.QuestionGenerationResponse generateIfIdle(QuestionGenerationOperation.QuestionGenerationRequest request);
+    }
+
+    private final SpeculationProperties properties;
+    private final PromptAssembler promptAssembler;
+    private final Function<QuestionGenerationOperation.QuestionGenerationRequest, String> promptRenderer;
+    private final SpeculativeGenerator generator;
+
+    /**
+     * 会话ID -> 当前待回答单选题的预生成状态
+     */
+    private final Map<String, SessionSpeculation> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 会话ID -> 已消耗的预生成token（估算）
+     */
+    private final Map<String, AtomicLong> tokensUsed = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder launched = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder skippedByBudget = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder servedTokens = new LongAdder();
+    private final LongAdder wastedTokens = new LongAdder();
+
+    @Autowired
+    public SpeculativeQuestionService(SpeculationProperties properties, PromptAssembler promptAssembler,
+                                      AiOperationExecutor aiOperationExecutor) {
+        this(properties, promptAssembler,
+                request -> aiOperationExecutor.renderPrompt(QUESTION_GENERATION_OP, request),
+                request -> aiOperationExecutor.executeIfIdle(QUESTION_GENERATION_OP, request));
+    }
+
+    SpeculativeQuestionService(SpeculationProperties properties, PromptAssembler promptAssembler,
+                               Function<QuestionGenerationOperation.QuestionGenerationRequest, String> promptRenderer,
+                               SpeculativeGenerator generator) {
+        this.properties = properties;
+        this.promptAssembler = promptAssembler;
+        this.promptRenderer = promptRenderer;
+        this.generator = generator;
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+                properties.getConcurrency(), properties.getConcurrency(),
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(properties.getQueueCapacity()),
+                r -> {
+                    Thread thread = new Thread(r, "speculative-question-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 单选题已推送给用户，为前K个选项预生成追问
+     *
+     * @param session 会话对象
+     * @param nodeId 单选题所在节点ID
+     * @param question 单选题
+     */
+    public void speculate(ConversationSession session, String nodeId, SingleChoiceQuestion question) {
+        if (!properties.isEnabled() || question.getOptions() == null || question.getOptions().isEmpty()) {
+            return;
+        }
+
+        SessionSpeculation state = new SessionSpeculation(nodeId, session.getNodeIdCounter().get());
+        SessionSpeculation previous = pending.put(session.getSessionId(), state);
+        if (previous != null) {
+            cancelAll(previous, null);
+        }
+
+        AtomicLong used = tokensUsed.computeIfAbsent(session.getSessionId(), k -> new AtomicLong());
+        // 与用户实际回答时使用同一份提示词
+        String globalPrompt = promptAssembler.questionPrompt(session.getNodeIdCounter().get(), false);
+        List<Option> options = question.getOptions();
+        for (int i = 0; i < Math.min(properties.getTopK(), options.size()); i++) {
+            Option option = options.get(i);
+            if (option.getId() == null) {
+                continue;
+            }
+            String tree;
+            try {
+                tree = QaTreeSerializeUtil.serializeForPrompt(session.getQaTree(), nodeId, option.getLabel());
+            } catch (Exception e) {
+                log.warn("预生成序列化对话树失败 - 会话: {}, 错误: {}", session.getSessionId(), e.getMessage());
+                return;
+            }
+            QuestionGenerationOperation.QuestionGenerationRequest request =
+                    new QuestionGenerationOperation.QuestionGenerationRequest(globalPrompt, tree, option.getId());
+
+            // 输出通常远小于输入，按输入的估算值计入预算
+            // 提交前先占用预算，同一轮启动的多个预生成不会一起越过上限
+            long estimatedTokens = TokenEstimator.estimate(promptRenderer.apply(request));
+            if (used.addAndGet(estimatedTokens) > properties.getMaxTokensPerSession()) {
+                used.addAndGet(-estimatedTokens);
+                skippedByBudget.increment();
+                log.info("预生成预算不足，跳过 - 会话: {}, 已用: {}, 本次: {}", session.getSessionId(), used.get(), estimatedTokens);
+                break;
+            }
+
+            Speculation speculation = new Speculation(estimatedTokens, used);
+            try {
+                speculation.future = executor.submit(() -> {
+                    speculation.started = true;
+                    try {
+                        // 只使用空闲的调用容量，不与真实请求抢占排队位置
+                        return generator.generateIfIdle(request);
+                    } catch (AiLimiterException e) {
+                        speculation.started = false;
+                        speculation.refund();
+                        throw e;
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                speculation.refund();
+                rejected.increment();
+                log.info("预生成线程池已满，放弃剩余选项 - 会话: {}", session.getSessionId());
+                break;
+            }
+            state.speculations.put(option.getId(), speculation);
+            launched.increment();
+        }
+        log.info("已启动追问预生成 - 会话: {}, 节点: {}, 选项数: {}", session.getSessionId(), nodeId, state.speculations.size());
+    }
+
+    /**
+     * 用户回答到达时取出匹配的预生成结果，并取消其余预生成
+     *
+     * @param session 会话对象
+     * @param nodeId 回答的节点ID
+     * @param answer 回答内容（单选为选项ID）
+     * @param maxWaitMs 等待进行中预生成的最长时间，与配置值取较小者
+     * @return 预生成结果，无匹配时返回null
+     */
+    public QuestionGenerationOperation.QuestionGenerationResponse take(ConversationSession session, String nodeId, String answer, long maxWaitMs) {
+        SessionSpeculation state = pending.remove(session.getSessionId());
+        if (state == null) {
+            return null;
+        }
+        // 回答的不是预生成对应的节点，或期间树已有新节点，预生成全部作废
+        if (!state.nodeId.equals(nodeId) || state.nodeCounter != session.getNodeIdCounter().get()) {
+            cancelAll(state, null);
+            misses.increment();
+            return null;
+        }
+
+        Speculation hit = answer != null ? state.speculations.get(answer) : null;
+        cancelAll(state, answer);
+        if (hit == null) {
+            misses.increment();
+            return null;
+        }
+
+        try {
+            QuestionGenerationOperation.QuestionGenerationResponse response =
+                    hit.future.get(Math.min(maxWaitMs, TimeUnit.SECONDS.toMillis(properties.getMaxWaitSeconds())), TimeUnit.MILLISECONDS);
+            hits.increment();
+            servedTokens.add(hit.estimatedTokens);
+            log.info("命中追问预生成 - 会话: {}, 节点: {}, 选项: {}", session.getSessionId(), nodeId, answer);
+            return response;
+        } catch (Exception e) {
+            hit.future.cancel(true);
+            if (hit.started) {
+                wastedTokens.add(hit.estimatedTokens);
+            }
+            misses.increment();
+            log.warn("预生成结果不可用，回退为实时生成 - 会话: {}, 错误: {}", session.getSessionId(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 会话移除时清理预生成状态
+     */
+    @EventListener
+    public void onSessionRemoved(SessionRemovedEvent event) {
+        clear(event.getSessionId());
+    }
+
+    /**
+     * 会话结束时清理预生成状态
+     *
+     * @param sessionId 会话ID
+     */
+    public void clear(String sessionId) {
+        SessionSpeculation state = pending.remove(sessionId);
+        if (state != null) {
+            cancelAll(state, null);
+        }
+        tokensUsed.remove(sessionId);
+    }
+
+    /**
+     * 获取预生成统计信息
+     */
+    public Map<String, Object> getStats() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", properties.isEnabled());
+        stats.put("launched", launched.sum());
+        stats.put("hits", hitCount);
+        stats.put("misses", misses.sum());
+        stats.put("hitRate", total == 0 ? 0.0 : (double) hitCount / total);
+        stats.put("skippedByBudget", skippedByBudget.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("servedTokens", servedTokens.sum());
+        stats.put("wastedTokens", wastedTokens.sum());
+        stats.put("pendingSessions", pending.size());
+        stats.put("budgetedSessions", tokensUsed.size());
+        stats.put("activeTasks", executor.getActiveCount());
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+
+    private void cancelAll(SessionSpeculation state, String keepOptionId) {
+        state.speculations.forEach((optionId, speculation) -> {
+            if (optionId.equals(keepOptionId)) {
+                return;
+            }
+            // 尚未开始执行的预生成退还预算
+            if (speculation.future.cancel(true) && !speculation.started) {
+                speculation.refund();
+            } else if (speculation.started) {
+                wastedTokens.add(speculation.estimatedTokens);
+            }
+        });
+    }
+
+    private static class SessionSpeculation {
+        private final String nodeId;
+        private final int nodeCounter;
+        private final Map<String, Speculation> speculations = new ConcurrentHashMap<>();
+
+        private SessionSpeculation(String nodeId, int nodeCounter) {
+            this.nodeId = nodeId;
+            this.nodeCounter = nodeCounter;
+        }
+    }
+
+    private static class Speculation {
+        private final long estimatedTokens;
+        private final AtomicLong budget;
+        private volatile Future<QuestionGenerationOperation.QuestionGenerationResponse> future;
+        private volatile boolean started;
+
+        private Speculation(long estimatedTokens, AtomicLong budget) {
+            this.estimatedTokens = estimatedTokens;
+            this.budget = budget;
+        }
+
+        private void refund() {
+            budget.addAndGet(-estimatedTokens);
+        }
+    }
+}
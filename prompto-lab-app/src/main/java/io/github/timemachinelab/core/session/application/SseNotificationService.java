@@ -1,22 +1,45 @@
 package io.github.timemachinelab.core.session.application;
 
-import io.github.timemachinelab.core.qatree.QaTree;
-import io.github.timemachinelab.core.qatree.QaTreeDomain;
+import com.alibaba.fastjson2.JSONException;
+import io.github.timemachinelab.core.question.SingleChoiceQuestion;
 import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.domain.event.SessionRemovedEvent;
+import io.github.timemachinelab.core.session.domain.turn.TurnContext;
 import io.github.timemachinelab.core.session.infrastructure.ai.QuestionGenerationOperation;
+import io.github.timemachinelab.core.session.infrastructure.web.LongPollRegistry;
+import io.github.timemachinelab.core.session.infrastructure.web.ReactiveSseHub;
+import io.github.timemachinelab.core.session.infrastructure.web.SseBroadcastEngine;
+import io.github.timemachinelab.core.session.infrastructure.web.SseEventEncoder;
+import io.github.timemachinelab.core.session.infrastructure.web.SseEventLog;
+import io.github.timemachinelab.core.session.infrastructure.web.SseFrame;
+import io.github.timemachinelab.core.session.infrastructure.web.SseHeartbeatScheduler;
+import io.github.timemachinelab.core.session.infrastructure.web.SseSubscriberRegistry;
+import io.github.timemachinelab.core.session.infrastructure.web.WebSocketSessionRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
 
 import javax.annotation.Resource;
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 /**
  * SSE通知服务
- * 负责管理SSE连接和发送消息给客户端
+ * 负责管理SSE连接和发送消息给客户端。同一会话可有多个订阅连接，
+ * 事件只编码一次，相同的字节写入所有连接，单个连接失败不影响其他连接。
  * 
  * @author suifeng
  * 日期: 2025/1/27
@@ -28,30 +51,195 @@ public class SseNotificationService {
     @Resource
     private SessionManagementService sessionManagementService;
     @Resource
-    private QaTreeDomain qaTreeDomain;
+    private SpeculativeQuestionService speculativeQuestionService;
+    @Resource
+    private SubtreeSummarizer subtreeSummarizer;
+    @Resource
+    private BatchQuestionQueue batchQuestionQueue;
+    @Resource
+    private SseHeartbeatScheduler sseHeartbeatScheduler;
+    @Resource
+    private SseSubscriberRegistry sseSubscriberRegistry;
+    @Resource
+    private SseEventLog sseEventLog;
+    @Resource
+    private ReactiveSseHub reactiveSseHub;
+    @Resource
+    private SseBroadcastEngine sseBroadcastEngine;
+    @Resource
+    private SseEventEncoder sseEventEncoder;
+    @Resource
+    private LongPollRegistry longPollRegistry;
+    @Resource
+    private WebSocketSessionRegistry webSocketSessionRegistry;
+    @Resource
+    private RoundTripRecorder roundTripRecorder;
     
-    // SSE连接管理
-    private final Map<String, SseEmitter> sseEmitters = new ConcurrentHashMap<>();
+    private final LongAdder framesEncoded = new LongAdder();
     
     /**
-     * 注册SSE连接
-     * 
+     * 注册SSE连接，发送连接数据并补发客户端断线期间错过的事件
+     * 整个过程持有会话事件流的锁：连接数据与事件日志位置一致，之后的事件只会通过广播到达，不重不漏
+     *
      * @param sessionId 会话ID
      * @param emitter SSE发射器
+     * @param lastEventId 客户端最后收到的事件ID，可为null
+     * @param encoding 客户端协商的事件数据编码方式
+     * @param connectionData 根据能否补发生成连接数据，参数为false时应包含全量对话树
+     * @return 补发的事件数，无法补发时返回-1
      */
-    public void registerSseConnection(String sessionId, SseEmitter emitter) {
-        sseEmitters.put(sessionId, emitter);
-        log.info("SSE连接已注册 - 会话: {}", sessionId);
+    public int registerSseConnection(String sessionId, SseEmitter emitter, String lastEventId,
+                                     SseEventEncoder.Encoding encoding,
+                                     Function<Boolean, Map<String, Object>> connectionData) {
+        SseEventLog.EventStream stream = sseEventLog.stream(sessionId);
+        synchronized (stream) {
+            List<SseFrame> missed = stream.since(lastEventId);
+            int subscribers = sseSubscriberRegistry.register(sessionId, emitter, encoding);
+            log.info("SSE连接已注册 - 会话: {}, 订阅数: {}, 编码: {}", sessionId, subscribers, encoding);
+
+            Map<String, Object> data = connectionData.apply(missed != null);
+            data.put("lastEventId", stream.lastId());
+            data.put("replayed", missed != null ? missed.size() : 0);
+            String payload = serialize("connected", data);
+            // 全量同步时连接数据即当前状态，带上最新事件ID作为客户端下次重连的起点
+            String welcomeId = missed == null && stream.lastId() > 0 ? String.valueOf(stream.lastId()) : null;
+            if (payload == null || !sseSubscriberRegistry.write(sessionId, emitter, SseFrame.ofEvent(welcomeId, "connected", payload))) {
+                return missed != null ? 0 : -1;
+            }
+            log.info("连接数据发送成功 - 会话: {}", sessionId);
+
+            if (missed == null) {
+                if (lastEventId != null) {
+                    log.info("事件缓冲区无法覆盖断线期间的事件，已全量同步 - 会话: {}, Last-Event-ID: {}", sessionId, lastEventId);
+                }
+                return -1;
+            }
+            for (SseFrame frame : missed) {
+                if (!sseSubscriberRegistry.write(sessionId, emitter, frame)) {
+                    break;
+                }
+            }
+            if (!missed.isEmpty()) {
+                log.info("已补发断线期间的事件 - 会话: {}, Last-Event-ID: {}, 数量: {}", sessionId, lastEventId, missed.size());
+            }
+            return missed.size();
+        }
+    }
+
+    /**
+     * 打开响应式SSE连接，连接数据与补发规则同registerSseConnection
+     *
+     * @param sessionId 会话ID
+     * @param lastEventId 客户端最后收到的事件ID，可为null
+     * @param encoding 客户端协商的事件数据编码方式
+     * @param connectionData 根据能否补发生成连接数据，参数为false时应包含全量对话树
+     * @return 事件流
+     */
+    public Flux<ServerSentEvent<String>> openReactiveConnection(String sessionId, String lastEventId,
+                                                               SseEventEncoder.Encoding encoding,
+                                                               Function<Boolean, Map<String, Object>> connectionData) {
+        SseEventLog.EventStream stream = sseEventLog.stream(sessionId);
+        synchronized (stream) {
+            List<SseFrame> missed = stream.since(lastEventId);
+            Map<String, Object> data = connectionData.apply(missed != null);
+            data.put("lastEventId", stream.lastId());
+            data.put("replayed", missed != null ? missed.size() : 0);
+            String payload = serialize("connected", data);
+            String welcomeId = missed == null && stream.lastId() > 0 ? String.valueOf(stream.lastId()) : null;
+            Flux<ServerSentEvent<String>> events = reactiveSseHub.open(sessionId,
+                    SseFrame.ofEvent(welcomeId, "connected", payload != null ? payload : "{}"), missed, encoding);
+            log.info("响应式SSE连接已打开 - 会话: {}, 补发事件数: {}", sessionId, missed != null ? missed.size() : -1);
+            return events;
+        }
     }
     
     /**
-     * 移除SSE连接
-     * 
+     * 注册WebSocket连接，连接数据与补发规则同registerSseConnection
+     *
+     * @param sessionId 会话ID
+     * @param userId 用户ID
+     * @param session WebSocket会话
+     * @param lastEventId 客户端最后收到的事件ID，可为null
+     * @param encoding 事件帧编码方式
+     * @param connectionData 根据能否补发生成连接数据，参数为false时应包含全量对话树
+     * @return 连接
+     */
+    public WebSocketSessionRegistry.Connection registerWebSocketConnection(String sessionId, String userId, WebSocketSession session,
+                                                                           String lastEventId, SseEventEncoder.Encoding encoding,
+                                                                           Function<Boolean, Map<String, Object>> connectionData) {
+        SseEventLog.EventStream stream = sseEventLog.stream(sessionId);
+        synchronized (stream) {
+            List<SseFrame> missed = stream.since(lastEventId);
+            WebSocketSessionRegistry.Connection connection = webSocketSessionRegistry.register(sessionId, userId, session, encoding);
+            Map<String, Object> data = connectionData.apply(missed != null);
+            data.put("lastEventId", stream.lastId());
+            data.put("replayed", missed != null ? missed.size() : 0);
+            String payload = serialize("connected", data);
+            String welcomeId = missed == null && stream.lastId() > 0 ? String.valueOf(stream.lastId()) : null;
+            if (payload == null || !webSocketSessionRegistry.write(connection, SseFrame.ofEvent(welcomeId, "connected", payload))) {
+                return connection;
+            }
+            if (missed != null) {
+                for (SseFrame frame : missed) {
+                    if (!webSocketSessionRegistry.write(connection, frame)) {
+                        break;
+                    }
+                }
+            }
+            log.info("WebSocket连接已注册 - 会话: {}, 编码: {}, 补发事件数: {}", sessionId, encoding, missed != null ? missed.size() : -1);
+            return connection;
+        }
+    }
+
+    /**
+     * 移除WebSocket连接
+     *
+     * @param connection 连接
+     */
+    public void removeWebSocketConnection(WebSocketSessionRegistry.Connection connection) {
+        if (webSocketSessionRegistry.remove(connection)) {
+            log.info("WebSocket连接已移除 - 会话: {}", connection.getSessionId());
+        }
+    }
+
+    /**
+     * 长轮询获取事件，与SSE共用会话事件日志
+     * 有错过的事件时立即返回，否则挂起到有新事件或超时；无法补发时返回resync，客户端应重新获取对话树
+     *
      * @param sessionId 会话ID
+     * @param since 客户端最后收到的事件ID，可为null
+     * @return 异步结果
      */
-    public void removeSseConnection(String sessionId) {
-        sseEmitters.remove(sessionId);
-        log.info("SSE连接已移除 - 会话: {}", sessionId);
+    public DeferredResult<ResponseEntity<String>> pollEvents(String sessionId, String since) {
+        return longPollRegistry.poll(sessionId, sseEventLog.stream(sessionId), since);
+    }
+
+    /**
+     * 会话移除时释放会话级的推送状态：SSE订阅、挂起的长轮询请求和事件日志
+     */
+    @EventListener
+    public void onSessionRemoved(SessionRemovedEvent event) {
+        String sessionId = event.getSessionId();
+        sseSubscriberRegistry.removeAll(sessionId);
+        // 与长轮询登记、事件追加共用事件流的锁，结束挂起请求和删除事件流之间不会有新事件
+        SseEventLog.EventStream stream = sseEventLog.stream(sessionId);
+        synchronized (stream) {
+            longPollRegistry.removeAll(sessionId);
+            sseEventLog.remove(sessionId);
+        }
+        log.info("会话推送状态已清理 - 会话: {}", sessionId);
+    }
+
+    /**
+     * 连接结束时移除SSE连接，不影响同一会话的其他连接
+     *
+     * @param sessionId 会话ID
+     * @param emitter 结束的SSE发射器
+     */
+    public void removeSseConnection(String sessionId, SseEmitter emitter) {
+        if (sseSubscriberRegistry.remove(sessionId, emitter)) {
+            log.info("SSE连接已移除 - 会话: {}", sessionId);
+        }
     }
     
     /**
@@ -61,72 +249,181 @@ public class SseNotificationService {
      * @param response 消息响应对象
      */
     public void sendSseMessage(String sessionId, QuestionGenerationOperation.QuestionGenerationResponse response) {
-        SseEmitter emitter = sseEmitters.get(sessionId);
-        if (emitter != null) {
-            try {
-                String currentNodeId = null;
+        String currentNodeId = null;
+        List<String> nodeIds = null;
+        ConversationSession session;
+        Map<String, Object> modifiedResponse;
+        try {
+            // 1. 先将AI生成的新问题添加到QaTree（只填入question，answer留空）
+            session = sessionManagementService.getSessionById(sessionId);
+            if (response.getNodeId() != null) {
+                // 批量问题在生成时已加入QaTree
+                currentNodeId = response.getNodeId();
+                log.info("下发排队的批量问题 - 会话: {}, 节点ID: {}", sessionId, currentNodeId);
+            } else if (session != null && session.getQaTree() != null && response.getQuestion() != null) {
+                // 问题及批量返回的后续问题在一次树操作中依次加入，answer字段会自动为空
+                nodeIds = batchQuestionQueue.append(session, response);
+                currentNodeId = nodeIds.get(0);
                 
-                // 1. 先将AI生成的新问题添加到QaTree（只填入question，answer留空）
-                ConversationSession session = sessionManagementService.getSessionById(sessionId);
-                if (session != null && session.getQaTree() != null && response.getQuestion() != null) {
-                    // 使用QaTreeDomain添加新节点，answer字段会自动为空
-                    // appendNode方法内部会调用session.getNextNodeId()获取新节点ID
-                    QaTree qaTree = qaTreeDomain.appendNode(
-                            session.getQaTree(),
-                            response.getParentId(),
-                            response.getQuestion(),
-                            session
-                    );
-                    
-                    // 获取刚刚创建的节点ID（当前计数器的值）
-                    currentNodeId = String.valueOf(session.getNodeIdCounter().get());
-                    
-                    log.info("AI问题已添加到QaTree - 会话: {}, 父节点: {}, 新节点ID: {}, 问题类型: {}",
-                            sessionId, response.getParentId(), currentNodeId, response.getQuestion().getType());
-                } else {
-                    log.warn("无法添加问题到QaTree - 会话: {}, session存在: {}, qaTree存在: {}, question存在: {}", 
-                            sessionId, session != null, 
-                            session != null && session.getQaTree() != null,
-                            response.getQuestion() != null);
-                }
-                
-                // 2. 创建修改后的响应对象，包含currentNodeId和parentNodeId
-                Map<String, Object> modifiedResponse = new HashMap<>();
-                modifiedResponse.put("question", response.getQuestion());
-                modifiedResponse.put("currentNodeId", currentNodeId != null ? currentNodeId : response.getParentId());
-                modifiedResponse.put("parentNodeId", response.getParentId());
-                
-                // 3. 发送SSE消息给前端
-                emitter.send(SseEmitter.event()
-                    .name("message")
-                    .data(modifiedResponse));
-                log.info("SSE消息发送成功 - 会话: {}, 当前节点ID: {}", sessionId, currentNodeId);
-            } catch (IOException e) {
-                log.error("SSE消息发送失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
-                sseEmitters.remove(sessionId);
-            } catch (Exception e) {
-                log.error("添加问题到QaTree失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
-                // 即使QaTree更新失败，仍然发送SSE消息给前端
-                try {
-                    Map<String, Object> fallbackResponse = new HashMap<>();
-                    fallbackResponse.put("question", response.getQuestion());
-                    fallbackResponse.put("currentNodeId", response.getParentId()); // 使用parentId作为fallback
-                    fallbackResponse.put("parentNodeId", response.getParentId());
-                    
-                    emitter.send(SseEmitter.event()
-                        .name("message")
-                        .data(fallbackResponse));
-                    log.info("SSE消息发送成功（QaTree更新失败但消息已发送） - 会话: {}", sessionId);
-                } catch (IOException ioException) {
-                    log.error("SSE消息发送失败 - 会话: {}, 错误: {}", sessionId, ioException.getMessage());
-                    sseEmitters.remove(sessionId);
+                log.info("AI问题已添加到QaTree - 会话: {}, 父节点: {}, 新节点ID: {}, 问题类型: {}",
+                        sessionId, response.getParentId(), nodeIds, response.getQuestion().getType());
+            } else {
+                log.warn("无法添加问题到QaTree - 会话: {}, session存在: {}, qaTree存在: {}, question存在: {}", 
+                        sessionId, session != null, 
+                        session != null && session.getQaTree() != null,
+                        response.getQuestion() != null);
+            }
+            
+            // 2. 创建修改后的响应对象，包含currentNodeId和parentNodeId
+            modifiedResponse = new HashMap<>();
+            modifiedResponse.put("question", response.getQuestion());
+            modifiedResponse.put("currentNodeId", currentNodeId != null ? currentNodeId : response.getParentId());
+            modifiedResponse.put("parentNodeId", response.getParentId());
+            if (response.getFanOut() != null) {
+                // 并行追问的分支互为兄弟问题，前端据此排队展示而不是相互替换
+                modifiedResponse.put("fanOut", response.getFanOut());
+            }
+            if (nodeIds != null && nodeIds.size() > 1) {
+                // 后续问题随本条消息一起下发，前端可在用户回答后直接展示
+                List<Map<String, Object>> followUps = new ArrayList<>();
+                for (int i = 1; i < nodeIds.size(); i++) {
+                    Map<String, Object> followUp = new HashMap<>();
+                    followUp.put("question", response.getFollowUps().get(i - 1));
+                    followUp.put("currentNodeId", nodeIds.get(i));
+                    followUp.put("parentNodeId", nodeIds.get(i - 1));
+                    followUps.add(followUp);
                 }
+                modifiedResponse.put("followUps", followUps);
+            }
+        } catch (Exception e) {
+            log.error("添加问题到QaTree失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
+            // 即使QaTree更新失败，仍然发送SSE消息给前端
+            Map<String, Object> fallbackResponse = new HashMap<>();
+            fallbackResponse.put("question", response.getQuestion());
+            fallbackResponse.put("currentNodeId", response.getParentId()); // 使用parentId作为fallback
+            fallbackResponse.put("parentNodeId", response.getParentId());
+            if (response.getFanOut() != null) {
+                fallbackResponse.put("fanOut", response.getFanOut());
+            }
+            int delivered = broadcast(sessionId, "message", fallbackResponse);
+            roundTripRecorder.questionDelivered(sessionId);
+            if (delivered > 0) {
+                log.info("SSE消息发送成功（QaTree更新失败但消息已发送） - 会话: {}", sessionId);
             }
+            return;
+        }
+
+        // 3. 放入所有订阅连接的发送队列，网络写入由写线程完成，当前线程不等待
+        //    暂无连接时消息保留在事件日志中，重连后补发
+        int delivered = broadcast(sessionId, "message", modifiedResponse);
+        roundTripRecorder.questionDelivered(sessionId);
+        if (delivered == 0) {
+            log.warn("SSE连接不存在，消息待重连后补发 - 会话: {}, 当前节点ID: {}", sessionId, currentNodeId);
         } else {
-            log.warn("SSE连接不存在 - 会话: {}", sessionId);
+            log.info("SSE消息已投递 - 会话: {}, 当前节点ID: {}, 订阅数: {}", sessionId, currentNodeId, delivered);
+        }
+
+        try {
+            // 4. 单选题在用户思考期间预生成追问（后面已有排队的批量问题时不需要）
+            if (currentNodeId != null && response.getQuestion() instanceof SingleChoiceQuestion
+                    && (nodeIds == null || nodeIds.size() == 1)) {
+                speculativeQuestionService.speculate(session, currentNodeId, (SingleChoiceQuestion) response.getQuestion());
+            }
+
+            // 5. 活跃路径已切换到新节点，后台摘要其他已结束的分支
+            if (currentNodeId != null) {
+                subtreeSummarizer.schedule(session, currentNodeId);
+            }
+        } catch (Exception e) {
+            log.warn("SSE消息发送后的后台任务启动失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
         }
     }
     
+    /**
+     * 发送排队通知
+     * AI调用因并发限制进入等待队列时，告知客户端当前位置和预计等待时间
+     *
+     * @param sessionId 会话ID
+     * @param position 排队位置（从1开始）
+     * @param estimatedWaitMs 预计等待时间（毫秒）
+     */
+    public void sendQueuedEvent(String sessionId, int position, long estimatedWaitMs) {
+        if (!hasSubscribers(sessionId)) {
+            return;
+        }
+        Map<String, Object> queuedData = new HashMap<>();
+        queuedData.put("position", position);
+        queuedData.put("estimatedWaitMs", estimatedWaitMs);
+        queuedData.put("timestamp", System.currentTimeMillis());
+        if (broadcast(sessionId, "queued", queuedData) > 0) {
+            log.info("排队通知发送成功 - 会话: {}, 位置: {}", sessionId, position);
+        }
+    }
+
+    /**
+     * 发送超时通知
+     * 本轮对话预算耗尽时告知客户端，本轮不会再有结果推送
+     *
+     * @param sessionId 会话ID
+     * @param stage 超时发生的阶段
+     * @param turn 本轮对话上下文
+     */
+    public void sendTimeoutEvent(String sessionId, String stage, TurnContext turn) {
+        if (!hasSubscribers(sessionId)) {
+            return;
+        }
+        Map<String, Object> timeoutData = new HashMap<>();
+        timeoutData.put("stage", stage);
+        timeoutData.put("budgetMs", turn.getBudgetMs());
+        timeoutData.put("elapsedMs", turn.elapsedMs());
+        timeoutData.put("stageTimings", turn.getStageTimings());
+        timeoutData.put("message", "请求处理超时，请重试");
+        timeoutData.put("timestamp", System.currentTimeMillis());
+        if (broadcast(sessionId, "timeout", timeoutData) > 0) {
+            log.info("超时通知发送成功 - 会话: {}, 阶段: {}", sessionId, stage);
+        }
+    }
+
+    /**
+     * 发送错误通知
+     *
+     * @param sessionId 会话ID
+     * @param message 错误信息
+     */
+    public void sendErrorEvent(String sessionId, String message) {
+        if (broadcast(sessionId, "error", message) > 0) {
+            log.info("错误通知发送成功 - 会话: {}", sessionId);
+        }
+    }
+
+    /**
+     * 向所有在线会话发送全局公告（如维护通知）
+     * 公告只编码一次，由广播引擎并行放入各会话的发送队列；公告不属于会话事件，不记入事件日志
+     *
+     * @param type 公告类型
+     * @param message 公告内容
+     * @return 广播结果
+     */
+    public SseBroadcastEngine.BroadcastResult sendAnnouncement(String type, String message) {
+        Map<String, Object> announcement = new HashMap<>();
+        announcement.put("type", type);
+        announcement.put("message", message);
+        announcement.put("timestamp", System.currentTimeMillis());
+        String payload = serialize("announcement", announcement);
+        SseFrame frame = SseFrame.ofEvent("announcement", payload != null ? payload : message);
+
+        Set<String> sessionIds = new LinkedHashSet<>(sseSubscriberRegistry.sessionIds());
+        sessionIds.addAll(reactiveSseHub.sessionIds());
+        sessionIds.addAll(webSocketSessionRegistry.sessionIds());
+        SseBroadcastEngine.BroadcastResult result = sseBroadcastEngine.broadcast(new ArrayList<>(sessionIds),
+                sessionId -> reactiveSseHub.emit(sessionId, frame) + sseSubscriberRegistry.broadcast(sessionId, frame)
+                        + webSocketSessionRegistry.broadcast(sessionId, frame) > 0,
+                null);
+        log.info("全局公告已发送 - 类型: {}, 会话数: {}, 成功: {}, 耗时: {} ms",
+                type, result.getTargets(), result.getDelivered(), result.getElapsedMs());
+        return result;
+    }
+
     /**
      * 获取SSE连接状态
      * 
@@ -134,8 +431,18 @@ public class SseNotificationService {
      */
     public Map<String, Object> getSseStatus() {
         Map<String, Object> status = new ConcurrentHashMap<>();
-        status.put("connectedSessions", sseEmitters.keySet());
-        status.put("totalConnections", sseEmitters.size());
+        status.put("connectedSessions", sseSubscriberRegistry.sessionIds());
+        status.put("totalConnections", sseSubscriberRegistry.getStats().get("subscribers"));
+        status.put("framesEncoded", framesEncoded.sum());
+        status.put("subscribers", sseSubscriberRegistry.getStats());
+        status.put("heartbeat", sseHeartbeatScheduler.getStats());
+        status.put("eventLog", sseEventLog.getStats());
+        status.put("reactive", reactiveSseHub.getStats());
+        status.put("encoder", sseEventEncoder.getStats());
+        status.put("broadcast", sseBroadcastEngine.getStats());
+        status.put("longPoll", longPollRegistry.getStats());
+        status.put("websocket", webSocketSessionRegistry.getStats());
+        status.put("roundTrip", roundTripRecorder.getStats());
         status.put("timestamp", System.currentTimeMillis());
         return status;
     }
@@ -147,38 +454,50 @@ public class SseNotificationService {
      * @param message 欢迎消息内容
      */
     public void sendWelcomeMessage(String sessionId, String message) {
-        SseEmitter emitter = sseEmitters.get(sessionId);
-        if (emitter != null) {
-            try {
-                emitter.send(SseEmitter.event()
-                    .name("connected")
-                    .data(message));
-                log.info("欢迎消息发送成功 - 会话: {}", sessionId);
-            } catch (IOException e) {
-                log.error("欢迎消息发送失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
-                sseEmitters.remove(sessionId);
-            }
+        if (broadcast(sessionId, "connected", message) > 0) {
+            log.info("欢迎消息发送成功 - 会话: {}", sessionId);
         }
     }
     
     /**
-     * 发送连接数据
-     * 
-     * @param sessionId 会话ID
-     * @param connectionData 连接数据
-     */
-    public void sendWelcomeMessage(String sessionId, Map<String, Object> connectionData) {
-        SseEmitter emitter = sseEmitters.get(sessionId);
-        if (emitter != null) {
-            try {
-                emitter.send(SseEmitter.event()
-                    .name("connected")
-                    .data(connectionData));
-                log.info("连接数据发送成功 - 会话: {}", sessionId);
-            } catch (IOException e) {
-                log.error("连接数据发送失败 - 会话: {}, 错误: {}", sessionId, e.getMessage());
-                sseEmitters.remove(sessionId);
-            }
+     * 为事件分配ID并编码一次，记入事件日志后写入会话的所有订阅连接并唤醒挂起的长轮询
+     *
+     * @return 成功写入的连接数
+     */
+    private int broadcast(String sessionId, String eventName, Object data) {
+        String payload = serialize(eventName, data);
+        if (payload == null) {
+            return 0;
+        }
+        SseEventLog.EventStream stream = sseEventLog.stream(sessionId);
+        SseFrame frame;
+        int delivered;
+        synchronized (stream) {
+            frame = stream.append(eventName, payload);
+            longPollRegistry.wake(sessionId, stream);
+            // 响应式连接只做非阻塞入队
+            delivered = reactiveSseHub.emit(sessionId, frame) + sseSubscriberRegistry.broadcast(sessionId, frame);
+        }
+        // WebSocket帧的编码在锁外进行，发送由写线程池完成
+        return delivered + webSocketSessionRegistry.broadcast(sessionId, frame);
+    }
+
+    private boolean hasSubscribers(String sessionId) {
+        return sseSubscriberRegistry.hasSubscribers(sessionId) || reactiveSseHub.hasSubscribers(sessionId)
+                || longPollRegistry.hasWaiters(sessionId) || webSocketSessionRegistry.hasSubscribers(sessionId);
+    }
+
+    /**
+     * 字符串按原文发送，其他对象编码为紧凑JSON
+     */
+    private String serialize(String eventName, Object data) {
+        try {
+            String payload = sseEventEncoder.encode(data);
+            framesEncoded.increment();
+            return payload;
+        } catch (JSONException e) {
+            log.error("SSE事件序列化失败 - 事件: {}, 错误: {}", eventName, e.getMessage());
+            return null;
         }
     }
-}
\ No newline at end of file
+}
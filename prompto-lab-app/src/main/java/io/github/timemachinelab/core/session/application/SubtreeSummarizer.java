@@ -0,0 +1,231 @@
+package io.github.timemachinelab.core.session.application;
+
+import io.github.timemachinelab.config.SummarizationProperties;
+import io.github.timemachinelab.core.qatree.QaTreeNode;
+import io.github.timemachinelab.core.serializable.JsonNode;
+import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.infrastructure.ai.AiOperationExecutor;
+import io.github.timemachinelab.core.session.infrastructure.ai.SubtreeSummaryOperation;
+import io.github.timemachinelab.core.session.infrastructure.ai.limiter.AiLimiterException;
+import io.github.timemachinelab.util.QaTreeSerializeUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 空闲分支后台摘要服务
+ * 已全部回答且不在当前活跃路径上的分支不会再变化，可在后台压缩为摘要，
+ * 之后问题生成的提示词中以摘要代替整棵子树。
+ * 候选分支在请求线程上选出并序列化快照，模型调用在低优先级线程中执行，且只使用限流器的空闲容量；
+ * 摘要生成期间子树发生变化时丢弃结果，子树之后的任何修改都会使摘要失效。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Service
+@Slf4j
+public class SubtreeSummarizer {
+
+    private static final String SUBTREE_SUMMARY_OP = "SUBTREE_SUMMARY_OP";
+
+    /**
+     * 摘要模型：输入子树JSON，返回摘要文本
+     */
+    @FunctionalInterface
+    public interface SummaryModel {
+        String summarize(String subtreeJson);
+    }
+
+    private final SummarizationProperties properties;
+    private final SummaryModel model;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 正在摘要的子树（会话ID:节点ID@版本），避免重复提交
+     */
+    private final Set<String> inProgress = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder savedChars = new LongAdder();
+
+    @Autowired
+    public SubtreeSummarizer(SummarizationProperties properties, AiOperationExecutor aiOperationExecutor) {
+        this(properties, subtreeJson -> {
+            SubtreeSummaryOperation.SummaryRequest request = new SubtreeSummaryOperation.SummaryRequest();
+            request.setSubtree(subtreeJson);
+            // 只使用空闲的调用容量，不与真实请求抢占排队位置
+            SubtreeSummaryOperation.SummaryResponse response = aiOperationExecutor.executeIfIdle(SUBTREE_SUMMARY_OP, request);
+            return response != null ? response.getSummary() : null;
+        });
+    }
+
+    SubtreeSummarizer(SummarizationProperties properties, SummaryModel model) {
+        this.properties = properties;
+        this.model = model;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                properties.getThreads(), properties.getThreads(),
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(properties.getQueueCapacity()),
+                r -> {
+                    Thread thread = new Thread(r, "subtree-summarizer-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 对话树新增节点后，为当前活跃路径之外的空闲分支提交后台摘要
+     *
+     * @param session 会话对象
+     * @param activeNodeId 当前待回答的节点ID
+     */
+    public void schedule(ConversationSession session, String activeNodeId) {
+        if (!properties.isEnabled() || session == null || session.getQaTree() == null
+                || session.getQaTree().getRoot() == null) {
+            return;
+        }
+
+        List<QaTreeNode> candidates = new ArrayList<>();
+        collect(session.getQaTree().getRoot(), activeNodeId, true, candidates);
+        for (QaTreeNode candidate : candidates) {
+            submit(session.getSessionId(), candidate);
+        }
+    }
+
+    /**
+     * 获取后台摘要统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", properties.isEnabled());
+        stats.put("scheduled", scheduled.sum());
+        stats.put("applied", applied.sum());
+        stats.put("stale", stale.sum());
+        stats.put("deferred", deferred.sum());
+        stats.put("failed", failed.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("savedChars", savedChars.sum());
+        stats.put("inProgress", inProgress.size());
+        stats.put("queueLength", executor.getQueue().size());
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+
+    private void submit(String sessionId, QaTreeNode node) {
+        long version = node.getVersion();
+        String key = sessionId + ":" + node.getId() + "@" + version;
+        if (!inProgress.add(key)) {
+            return;
+        }
+
+        // 快照在请求线程上生成，后台线程不读取可变的树结构
+        String snapshot;
+        try {
+            snapshot = QaTreeSerializeUtil.serializeSubtree(node);
+        } catch (Exception e) {
+            inProgress.remove(key);
+            log.warn("分支快照序列化失败 - 会话: {}, 节点: {}, 错误: {}", sessionId, node.getId(), e.getMessage());
+            return;
+        }
+
+        try {
+            executor.execute(() -> summarize(sessionId, node, version, snapshot, key));
+            scheduled.increment();
+        } catch (RejectedExecutionException e) {
+            inProgress.remove(key);
+            rejected.increment();
+            log.info("摘要队列已满，放弃本次摘要 - 会话: {}, 节点: {}", sessionId, node.getId());
+        }
+    }
+
+    private void summarize(String sessionId, QaTreeNode node, long version, String snapshot, String key) {
+        try {
+            String summary = model.summarize(snapshot);
+            if (summary == null || summary.trim().isEmpty()) {
+                failed.increment();
+                return;
+            }
+            summary = summary.trim();
+            if (node.applySummary(summary, version)) {
+                applied.increment();
+                savedChars.add(Math.max(0, snapshot.length() - summary.length()));
+                log.info("分支摘要已生成 - 会话: {}, 节点: {}, 原长度: {}, 摘要长度: {}",
+                        sessionId, node.getId(), snapshot.length(), summary.length());
+            } else {
+                stale.increment();
+            }
+        } catch (AiLimiterException e) {
+            // 没有空闲容量，等下次新增节点时再尝试
+            deferred.increment();
+        } catch (Exception e) {
+            failed.increment();
+            log.warn("分支摘要失败 - 会话: {}, 节点: {}, 错误: {}", sessionId, node.getId(), e.getMessage());
+        } finally {
+            inProgress.remove(key);
+        }
+    }
+
+    /**
+     * 后序遍历选出可摘要的分支：不含活跃节点、全部已回答、节点数达到阈值；
+     * 子树本身符合条件时不再单独摘要其后代
+     *
+     * @return 子树信息
+     */
+    private SubtreeInfo collect(QaTreeNode node, String activeNodeId, boolean isRoot, List<QaTreeNode> candidates) {
+        SubtreeInfo info = new SubtreeInfo();
+        info.size = 1;
+        info.containsActive = node.getId().equals(activeNodeId);
+        info.allAnswered = !JsonNode.Convert2JsonNode(node, null).getAnswer().isEmpty();
+
+        int start = candidates.size();
+        if (node.getChildren() != null) {
+            for (QaTreeNode child : node.getChildren().values()) {
+                SubtreeInfo childInfo = collect(child, activeNodeId, false, candidates);
+                info.size += childInfo.size;
+                info.containsActive |= childInfo.containsActive;
+                info.allAnswered &= childInfo.allAnswered;
+            }
+        }
+
+        if (!isRoot && !info.containsActive && info.allAnswered && info.size >= properties.getMinNodes()) {
+            candidates.subList(start, candidates.size()).clear();
+            if (node.getValidSummary() == null) {
+                candidates.add(node);
+            }
+        }
+        return info;
+    }
+
+    private static class SubtreeInfo {
+        private int size;
+        private boolean containsActive;
+        private boolean allAnswered;
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.timemachinelab.core.session.application;
+
+import io.github.timemachinelab.core.session.domain.turn.TurnContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单轮对话分阶段耗时统计
+ * 汇总每个阶段的次数、平均和最大耗时，以及超时发生在哪个阶段
+ *
+ * @author suifeng
+ * 日期: 2025/8/30
+ */
+@Component
+@Slf4j
+public class TurnTimingRecorder {
+
+    private final Map<String, StageStats> stages = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> timeoutsByStage = new ConcurrentHashMap<>();
+    private final LongAdder turns = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * 记录一轮对话的各阶段耗时
+     *
+     * @param turn 本轮对话上下文
+     * @param timeoutStage 超时发生的阶段，未超时为null
+     */
+    public void record(TurnContext turn, String timeoutStage) {
+        turns.increment();
+        Map<String, Long> timings = turn.getStageTimings();
+        timings.forEach((stage, ms) -> stages.computeIfAbsent(stage, k -> new StageStats()).add(ms));
+        if (timeoutStage != null) {
+            timeouts.increment();
+            timeoutsByStage.computeIfAbsent(timeoutStage, k -> new LongAdder()).increment();
+        }
+        log.info("本轮对话耗时 - 会话: {}, 总计: {}ms, 阶段: {}{}", turn.getSessionId(), turn.elapsedMs(), timings,
+                timeoutStage != null ? ", 超时阶段: " + timeoutStage : "");
+    }
+
+    /**
+     * 获取分阶段耗时统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stageStats = new LinkedHashMap<>();
+        stages.forEach((stage, stats) -> stageStats.put(stage, stats.snapshot()));
+        Map<String, Object> timeoutStats = new HashMap<>();
+        timeoutsByStage.forEach((stage, count) -> timeoutStats.put(stage, count.sum()));
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("turns", turns.sum());
+        stats.put("timeouts", timeouts.sum());
+        stats.put("timeoutsByStage", timeoutStats);
+        stats.put("stages", stageStats);
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+
+    private static class StageStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMs = new LongAdder();
+        private final LongAccumulator maxMs = new LongAccumulator(Math::max, 0);
+
+        private void add(long ms) {
+            count.increment();
+            totalMs.add(ms);
+            maxMs.accumulate(ms);
+        }
+
+        private Map<String, Object> snapshot() {
+            long n = count.sum();
+            Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("count", n);
+            snapshot.put("avgMs", n == 0 ? 0.0 : (double) totalMs.sum() / n);
+            snapshot.put("maxMs", maxMs.get());
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package io.github.timemachinelab.core.session.application;
+
+import io.github.timemachinelab.config.TurnDeadlineProperties;
+import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.domain.turn.TurnContext;
+import io.github.timemachinelab.core.session.infrastructure.web.dto.UnifiedAnswerRequest;
+import io.github.timemachinelab.util.QaTreeSerializeUtil;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 用户交互服务
+ * 连接建立时的会话解析与连接数据、回答与重试的处理流程，HTTP接口和WebSocket共用
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Service
+@Slf4j
+public class UserInteractionService {
+
+    @Resource
+    private MessageProcessingService messageProcessingService;
+    @Resource
+    private SessionManagementService sessionManagementService;
+    @Resource
+    private TurnDeadlineProperties turnDeadlineProperties;
+    @Resource
+    private RoundTripRecorder roundTripRecorder;
+
+    /**
+     * 获取连接对应的会话，未指定或无效时新建会话
+     *
+     * @param sessionId 会话ID，可为null
+     * @param userId 用户ID
+     * @return 会话
+     */
+    public ConversationSession resolveSession(String sessionId, String userId) {
+        if (sessionId == null || sessionId.isEmpty()) {
+            // 新建会话
+            ConversationSession session = sessionManagementService.createNewSession(userId);
+            log.info("创建新会话 - 用户ID: {}, 会话ID: {}", userId, session.getSessionId());
+            return session;
+        }
+        // 使用现有会话
+        ConversationSession session = sessionManagementService.validateAndGetSession(userId, sessionId);
+        if (session == null) {
+            log.warn("会话不存在或无效 - 用户ID: {}, 会话ID: {}", userId, sessionId);
+            // 创建新会话作为fallback
+            session = sessionManagementService.createNewSession(userId != null ? userId : "anonymous_" + UUID.randomUUID().toString().substring(0, 8));
+        }
+        return session;
+    }
+
+    /**
+     * 生成连接建立时发送的会话信息
+     *
+     * @param session 会话
+     * @param isNewSession 是否新建的会话
+     * @param treeVersion 客户端持有的树版本，可为null
+     * @param replayable 断线期间的事件能否补发
+     * @return 连接数据
+     */
+    public Map<String, Object> buildConnectionData(ConversationSession session, boolean isNewSession,
+                                                   String treeVersion, boolean replayable) {
+        Map<String, Object> connectionData = new ConcurrentHashMap<>();
+        connectionData.put("sessionId", session.getSessionId());
+        connectionData.put("userId", session.getUserId());
+        connectionData.put("isNewSession", isNewSession);
+        connectionData.put("timestamp", System.currentTimeMillis());
+
+        // 根据会话状态返回nodeId
+        if (isNewSession) {
+            // 新会话返回根节点ID
+            connectionData.put("nodeId", "1");
+            log.info("新会话返回根节点ID: 1 - 会话: {}", session.getSessionId());
+        } else if (session.getQaTree() != null && session.getQaTree().getRoot() != null) {
+            // 已存在会话，返回根节点ID（因为qaTree只有根节点）
+            String rootNodeId = session.getQaTree().getRoot().getId();
+            connectionData.put("nodeId", rootNodeId);
+            log.info("已存在会话返回根节点ID: {} - 会话: {}", rootNodeId, session.getSessionId());
+
+            // 返回qaTree，客户端持有的树版本与当前一致，或断线期间的事件可以补发时不再重发
+            String currentTreeVersion = session.getQaTree().getVersion();
+            connectionData.put("treeVersion", currentTreeVersion);
+            if (currentTreeVersion.equals(treeVersion)) {
+                connectionData.put("treeUnchanged", true);
+                log.info("客户端对话树已是最新，跳过qaTree - 会话: {}", session.getSessionId());
+            } else if (replayable) {
+                connectionData.put("treeUnchanged", true);
+                log.info("断线期间的事件将补发，跳过qaTree - 会话: {}", session.getSessionId());
+            } else {
+                try {
+                    // 节点列表直接嵌入连接数据，不再二次编码为JSON字符串
+                    connectionData.put("qaTree", QaTreeSerializeUtil.toJsonNodes(session.getQaTree()));
+                } catch (Exception e) {
+                    log.error("序列化qaTree失败: {}", e.getMessage());
+                }
+            }
+        } else {
+            // 兜底情况，返回根节点ID
+            connectionData.put("nodeId", "1");
+            log.info("兜底返回根节点ID: 1 - 会话: {}", session.getSessionId());
+        }
+        return connectionData;
+    }
+
+    /**
+     * 处理统一答案请求
+     * 支持单选、多选、输入框、表单等多种问题类型的回答
+     *
+     * @param request 答案请求
+     * @param transport 提交请求的传输方式，用于分别统计回答到问题的往返耗时
+     * @return 处理结果
+     */
+    public Outcome processAnswer(UnifiedAnswerRequest request, RoundTripRecorder.Transport transport) {
+        // 本轮对话从收到请求开始计时
+        TurnContext turn = TurnContext.start(request.getSessionId(), turnDeadlineProperties.getTurnBudgetMs());
+        try {
+            log.info("接收到答案请求 - 会话ID: {}, 节点ID: {}, 问题类型: {}",
+                    request.getSessionId(),
+                    request.getNodeId(),
+                    request.getQuestionType());
+
+            // 1. 会话管理和验证
+            String userId = request.getUserId();
+            if (userId == null || userId.trim().isEmpty()) {
+                log.warn("缺少必需的userId参数");
+                return Outcome.rejected("userId参数是必需的");
+            }
+
+            // 2. 验证会话是否存在
+            ConversationSession session = sessionManagementService.validateAndGetSession(userId, request.getSessionId());
+            if (session == null) {
+                log.warn("会话不存在或无效 - 用户ID: {}, 会话ID: {}", userId, request.getSessionId());
+                return Outcome.rejected("会话不存在或无效");
+            }
+
+            // 3. nodeId验证逻辑
+            String nodeId = request.getNodeId();
+            if (nodeId == null || nodeId.trim().isEmpty()) {
+                // nodeId为空，表示这是新建会话的第一个问题
+                if (session.getQaTree() != null && session.getQaTree().getRoot() != null) {
+                    log.warn("会话已存在qaTree，但nodeId为空 - 会话: {}", session.getSessionId());
+                    return Outcome.rejected("现有会话必须提供nodeId");
+                }
+                log.info("新建会话的第一个问题 - 会话: {}", session.getSessionId());
+            } else if ("1".equals(nodeId)) {
+                // nodeId为'1'，表示这是根节点的回答
+                if (session.getQaTree() == null || session.getQaTree().getRoot() == null) {
+                    log.info("根节点回答，但qaTree未初始化 - 会话: {}", session.getSessionId());
+                    // 允许继续处理，后续会创建qaTree
+                } else {
+                    log.info("根节点回答 - 会话: {}", session.getSessionId());
+                }
+            } else {
+                // nodeId不为空且不是'root'，验证是否属于该会话
+                if (!sessionManagementService.validateNodeId(session.getSessionId(), nodeId)) {
+                    log.warn("无效的节点ID - 会话: {}, 节点: {}", session.getSessionId(), nodeId);
+                    return Outcome.rejected("无效的节点ID");
+                }
+                log.info("更新现有节点 - 会话: {}, 节点: {}", session.getSessionId(), nodeId);
+            }
+
+            // 4. 验证答案格式
+            if (!messageProcessingService.validateAnswer(request)) {
+                log.warn("答案格式验证失败: {}", request);
+                return Outcome.rejected("答案格式不正确");
+            }
+
+            turn.mark("validate");
+            roundTripRecorder.answered(session.getSessionId(), transport);
+
+            // 答案更新逻辑已在MessageProcessingService中处理
+            messageProcessingService.processAnswer(request);
+            turn.mark("updateTree");
+            // 5. 处理答案并转换为消息
+            String processedMessage = messageProcessingService.preprocessMessage(
+                    null, // 没有额外的原始消息
+                    request,
+                    session
+            );
+            turn.mark("preprocess");
+
+            // 6. 发送处理后的消息给AI服务
+            messageProcessingService.processAndSendMessage(session, processedMessage, turn);
+
+            return Outcome.ok("答案处理成功");
+
+        } catch (Exception e) {
+            log.error("处理答案失败 - 会话ID: {}, 错误: {}", request.getSessionId(), e.getMessage(), e);
+            return Outcome.failed("答案处理失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 重试指定节点：移除节点后基于其父节点重新生成问题
+     *
+     * @param sessionId 会话ID
+     * @param nodeId 要重试的节点ID
+     * @param whyretry 重试原因
+     * @param transport 提交请求的传输方式，用于分别统计回答到问题的往返耗时
+     * @return 处理结果
+     */
+    public Outcome retry(String sessionId, String nodeId, String whyretry, RoundTripRecorder.Transport transport) {
+        // 本轮对话从收到请求开始计时
+        TurnContext turn = TurnContext.start(sessionId, turnDeadlineProperties.getTurnBudgetMs());
+        try {
+            log.info("收到重试请求 - nodeId: {}, sessionId: {}, whyretry: {}", nodeId, sessionId, whyretry);
+
+            // 使用应用服务验证节点存在性
+            //todo: 有可能水平越权 不传userId的话
+            if (!sessionManagementService.validateNodeExists(sessionId, nodeId)) {
+                log.warn("节点不存在 - nodeId: {}, sessionId: {}", nodeId, sessionId);
+                return Outcome.rejected("指定的节点不存在");
+            }
+
+            // 使用应用服务获取问题内容
+            String question = sessionManagementService.getNodeQuestion(sessionId, nodeId);
+            if (question == null) {
+                log.warn("节点问题内容为空 - nodeId: {}, sessionId: {}", nodeId, sessionId);
+                return Outcome.rejected("节点问题内容为空");
+            }
+
+            // 获取会话对象
+            ConversationSession session = sessionManagementService.getSessionById(sessionId);
+            if (session == null) {
+                log.warn("会话不存在 - sessionId: {}", sessionId);
+                return Outcome.rejected("会话不存在");
+            }
+
+            turn.mark("validate");
+            roundTripRecorder.answered(sessionId, transport);
+
+            // 移除要重试的节点（AI会基于parentId重新创建节点）
+            boolean nodeRemoved = sessionManagementService.removeNode(sessionId, nodeId);
+            if (!nodeRemoved) {
+                log.warn("移除节点失败，但继续处理重试 - sessionId: {}, nodeId: {}", sessionId, nodeId);
+            }
+
+            // 使用MessageProcessingService处理重试消息
+            String processedMessage = messageProcessingService.processRetryMessage(sessionId, nodeId, whyretry, session);
+            turn.mark("preprocess");
+
+            // 发送处理后的消息给AI服务
+            messageProcessingService.processAndSendMessage(session, processedMessage, turn);
+
+            log.info("重试请求处理成功 - nodeId: {}, sessionId: {}", nodeId, sessionId);
+            return Outcome.ok("重试请求处理成功");
+
+        } catch (Exception e) {
+            log.error("重试请求处理失败: {}", e.getMessage(), e);
+            return Outcome.failed("重试请求处理失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 处理结果，rejected表示请求不合法，failed表示处理过程出错
+     */
+    @Getter
+    public static class Outcome {
+        private final boolean success;
+        private final boolean serverError;
+        private final String message;
+
+        private Outcome(boolean success, boolean serverError, String message) {
+            this.success = success;
+            this.serverError = serverError;
+            this.message = message;
+        }
+
+        static Outcome ok(String message) {
+            return new Outcome(true, false, message);
+        }
+
+        static Outcome rejected(String message) {
+            return new Outcome(false, false, message);
+        }
+
+        static Outcome failed(String message) {
+            return new Outcome(false, true, message);
+        }
+    }
+}
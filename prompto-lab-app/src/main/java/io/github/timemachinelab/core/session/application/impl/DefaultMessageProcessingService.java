@@ -3,14 +3,16 @@ package io.github.timemachinelab.core.session.application.impl;
 
 import com.alibaba.fastjson2.JSONObject;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import io.github.timemachinelab.core.constant.AllPrompt;
+import io.github.timemachinelab.core.prompt.PromptAssembler;
 import io.github.timemachinelab.core.qatree.QaTree;
 import io.github.timemachinelab.core.qatree.QaTreeDomain;
 import io.github.timemachinelab.core.session.application.MessageProcessingService;
 import io.github.timemachinelab.core.session.application.SessionManagementService;
 import io.github.timemachinelab.core.session.application.ConversationService;
+import io.github.timemachinelab.core.session.application.DraftPromptService;
 import io.github.timemachinelab.core.session.application.SseNotificationService;
 import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.domain.turn.TurnContext;
 import io.github.timemachinelab.core.session.infrastructure.web.dto.UnifiedAnswerRequest;
 import io.github.timemachinelab.util.QaTreeSerializeUtil;
 import lombok.extern.slf4j.Slf4j;
@@ -37,6 +39,10 @@ public class DefaultMessageProcessingService implements MessageProcessingService
     ConversationService conversationService;
     @Resource
     SseNotificationService sseNotificationService;
+    @Resource
+    PromptAssembler promptAssembler;
+    @Resource
+    DraftPromptService draftPromptService;
 
     @Override
     public String processAnswer(UnifiedAnswerRequest request) {
@@ -89,6 +95,7 @@ public class DefaultMessageProcessingService implements MessageProcessingService
              if (updated) {
                  log.info("成功更新qaTree节点答案 - 会话ID: {}, 节点ID: {}", session.getSessionId(), nodeId);
                  // 会话数据已在内存中更新，无需额外保存操作
+                 draftPromptService.onTreeChanged(session);
              } else {
                  log.warn("更新qaTree节点答案失败 - 会话ID: {}, 节点ID: {}", session.getSessionId(), nodeId);
              }
@@ -120,9 +127,10 @@ public class DefaultMessageProcessingService implements MessageProcessingService
 
             JSONObject object = new JSONObject();
             object.put("set-user-profile", conversationSession.getUser());
-            object.put("prompt",AllPrompt.GLOBAL_PROMPT);
-            object.put("tree", QaTreeSerializeUtil.serialize(conversationSession.getQaTree()));
+            object.put("prompt", promptAssembler.questionPrompt(conversationSession.getNodeIdCounter().get(), false));
+            object.put("tree", QaTreeSerializeUtil.serializeForPrompt(conversationSession.getQaTree()));
             object.put("input", answerRequest.getAnswerString());
+            object.put("nodeId", answerRequest.getNodeId());
             return object.toString();
         } catch (JsonProcessingException e) {
             throw new RuntimeException("输入加工失败",e);
@@ -176,8 +184,8 @@ public class DefaultMessageProcessingService implements MessageProcessingService
             
             JSONObject object = new JSONObject();
             object.put("set-user-profile", conversationSession.getUser());
-            object.put("prompt", AllPrompt.GLOBAL_PROMPT);
-            object.put("tree", QaTreeSerializeUtil.serialize(conversationSession.getQaTree()));
+            object.put("prompt", promptAssembler.questionPrompt(conversationSession.getNodeIdCounter().get(), true));
+            object.put("tree", QaTreeSerializeUtil.serializeForPrompt(conversationSession.getQaTree()));
             object.put("input", retryInput.toString());
             
             log.info("处理重试消息 - 会话: {}, 节点: {}, 原因: {}", sessionId, nodeId, whyRetry);
@@ -191,12 +199,18 @@ public class DefaultMessageProcessingService implements MessageProcessingService
      
      @Override
      public void processAndSendMessage(ConversationSession session, String processedMessage) {
+         processAndSendMessage(session, processedMessage, conversationService.startTurn(session));
+     }
+
+     @Override
+     public void processAndSendMessage(ConversationSession session, String processedMessage, TurnContext turn) {
          try {
-             log.info("发送消息给AI服务 - 会话: {}, 用户: {}", session.getSessionId(), session.getUserId());
+             log.info("发送消息给AI服务 - 会话: {}, 用户: {}, 剩余预算: {}ms", session.getSessionId(), session.getUserId(), turn.remainingMs());
              
              conversationService.processUserMessage(
-                     session.getUserId(),
+                     session,
                      processedMessage,
+                     turn,
                      response -> sseNotificationService.sendSseMessage(session.getSessionId(), response)
              );
              
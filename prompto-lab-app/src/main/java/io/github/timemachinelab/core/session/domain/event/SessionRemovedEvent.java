@@ -0,0 +1,27 @@
+package io.github.timemachinelab.core.session.domain.event;
+
+/**
+ * 会话已移除
+ * 持有按会话保存状态的组件监听该事件释放对应状态
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+public class SessionRemovedEvent {
+
+    private final String sessionId;
+    private final String userId;
+
+    public SessionRemovedEvent(String sessionId, String userId) {
+        this.sessionId = sessionId;
+        this.userId = userId;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+}
@@ -0,0 +1,21 @@
+package io.github.timemachinelab.core.session.domain.turn;
+
+/**
+ * 单轮对话预算耗尽
+ *
+ * @author suifeng
+ * 日期: 2025/8/30
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    private final String stage;
+
+    public DeadlineExceededException(String stage, TurnContext turn) {
+        super("本轮对话超时 - 阶段: " + stage + ", 预算: " + turn.getBudgetMs() + "ms, 已用: " + turn.elapsedMs() + "ms");
+        this.stage = stage;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+}
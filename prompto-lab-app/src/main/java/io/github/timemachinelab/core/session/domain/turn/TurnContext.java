@@ -0,0 +1,103 @@
+package io.github.timemachinelab.core.session.domain.turn;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单轮对话的上下文
+ * 从HTTP请求开始计时，沿 Controller -> 消息处理 -> 会话服务 -> AI调用 传递，
+ * 各阶段检查剩余预算并记录耗时。
+ *
+ * @author suifeng
+ * 日期: 2025/8/30
+ */
+public class TurnContext {
+
+    private final String sessionId;
+    private final long budgetMs;
+    private final long startNanos;
+    private final long deadlineNanos;
+    private long lastMarkNanos;
+
+    /**
+     * 阶段名 -> 耗时（毫秒），按发生顺序
+     */
+    private final Map<String, Long> stageTimings = new LinkedHashMap<>();
+
+    private TurnContext(String sessionId, long budgetMs) {
+        this.sessionId = sessionId;
+        this.budgetMs = budgetMs;
+        this.startNanos = System.nanoTime();
+        this.lastMarkNanos = startNanos;
+        this.deadlineNanos = budgetMs > 0 ? startNanos + TimeUnit.MILLISECONDS.toNanos(budgetMs) : Long.MAX_VALUE;
+    }
+
+    /**
+     * 开始一轮对话
+     *
+     * @param sessionId 会话ID
+     * @param budgetMs 本轮总预算（毫秒），不大于0表示不限时
+     */
+    public static TurnContext start(String sessionId, long budgetMs) {
+        return new TurnContext(sessionId, budgetMs);
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public long getBudgetMs() {
+        return budgetMs;
+    }
+
+    public boolean isBounded() {
+        return deadlineNanos != Long.MAX_VALUE;
+    }
+
+    /**
+     * 剩余预算（毫秒），不限时返回 Long.MAX_VALUE
+     */
+    public long remainingMs() {
+        if (!isBounded()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return isBounded() && System.nanoTime() >= deadlineNanos;
+    }
+
+    /**
+     * 进入某阶段前检查预算
+     *
+     * @param stage 即将进入的阶段
+     * @throws DeadlineExceededException 预算已耗尽
+     */
+    public void checkRemaining(String stage) {
+        if (isExpired()) {
+            throw new DeadlineExceededException(stage, this);
+        }
+    }
+
+    /**
+     * 记录阶段结束，耗时为距上一次记录的时间
+     *
+     * @param stage 阶段名
+     */
+    public synchronized void mark(String stage) {
+        long now = System.nanoTime();
+        stageTimings.merge(stage, TimeUnit.NANOSECONDS.toMillis(now - lastMarkNanos), Long::sum);
+        lastMarkNanos = now;
+    }
+
+    public long elapsedMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    public synchronized Map<String, Long> getStageTimings() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(stageTimings));
+    }
+}
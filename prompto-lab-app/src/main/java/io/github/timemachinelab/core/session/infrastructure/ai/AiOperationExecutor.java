@@ -0,0 +1,319 @@
+package io.github.timemachinelab.core.session.infrastructure.ai;
+
+import com.alibaba.fastjson2.JSON;
+import com.suifeng.sfchain.annotation.AIOp;
+import com.suifeng.sfchain.core.AIService;
+import io.github.timemachinelab.core.session.domain.turn.DeadlineExceededException;
+import io.github.timemachinelab.core.session.domain.turn.TurnContext;
+import io.github.timemachinelab.core.session.infrastructure.ai.cache.AiResponseCache;
+import io.github.timemachinelab.core.session.infrastructure.ai.limiter.AdaptiveConcurrencyLimiter;
+import io.github.timemachinelab.core.session.infrastructure.ai.limiter.AiLimiterException;
+import io.github.timemachinelab.core.session.infrastructure.ai.limiter.QueueListener;
+import io.github.timemachinelab.core.session.infrastructure.ai.routing.ModelRouter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * AI操作执行器
+ * 所有AI操作的统一调用入口，在 AIService 外层依次叠加缓存、并发限制、多模型路由等能力
+ *
+ * @author suifeng
+ * 日期: 2025/8/28
+ */
+@Component
+@Slf4j
+public class AiOperationExecutor {
+
+    @Resource
+    private AIService aiService;
+    @Resource
+    private AiResponseCache aiResponseCache;
+    @Resource
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+    @Resource
+    private ModelRouter modelRouter;
+    @Resource
+    private ApplicationContext applicationContext;
+
+    /**
+     * 操作名 -> 操作Bean，首次使用时从 @AIOp 注解收集
+     */
+    private volatile Map<String, Object> operations;
+
+    /**
+     * 有截止时间的调用在调用方线程上执行，到期时由此调度器中断调用方
+     */
+    private ScheduledThreadPoolExecutor deadlineScheduler;
+
+    @PostConstruct
+    public void init() {
+        deadlineScheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "ai-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 绝大多数调用在截止前完成，取消的定时任务立即移出队列
+        deadlineScheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        deadlineScheduler.shutdownNow();
+    }
+
+    /**
+     * 执行AI操作
+     *
+     * @param operationType AI操作名
+     * @param input 操作入参
+     * @return 操作结果
+     */
+    public <T> T execute(String operationType, Object input) {
+        return execute(operationType, input, null);
+    }
+
+    /**
+     * 执行AI操作，需要排队时通过监听器通知排队位置
+     *
+     * @param operationType AI操作名
+     * @param input 操作入参
+     * @param queueListener 排队位置监听器，可为null
+     * @return 操作结果
+     */
+    public <T> T execute(String operationType, Object input, QueueListener queueListener) {
+        return this.<T>executeCached(operationType, input,
+                answeredModel -> concurrencyLimiter.<T>execute(() -> this.<T>invoke(operationType, input, answeredModel), queueListener));
+    }
+
+    /**
+     * 在本轮对话的剩余预算内执行AI操作
+     * 排队时间和模型调用时间都不超过剩余预算，超时抛出 DeadlineExceededException
+     *
+     * @param operationType AI操作名
+     * @param input 操作入参
+     * @param queueListener 排队位置监听器，可为null
+     * @param turn 本轮对话上下文
+     * @return 操作结果
+     */
+    public <T> T execute(String operationType, Object input, QueueListener queueListener, TurnContext turn) {
+        return this.<T>execute(operationType, input, queueListener, turn, false);
+    }
+
+    /**
+     * 在本轮对话的剩余预算内执行AI操作，首轮时只在首轮开启缓存的操作也走缓存
+     *
+     * @param operationType AI操作名
+     * @param input 操作入参
+     * @param queueListener 排队位置监听器，可为null
+     * @param turn 本轮对话上下文
+     * @param firstTurn 是否首轮（对话树只有根节点）
+     * @return 操作结果
+     */
+    public <T> T execute(String operationType, Object input, QueueListener queueListener, TurnContext turn, boolean firstTurn) {
+        if (turn == null || !turn.isBounded()) {
+            return this.<T>executeCached(operationType, input,
+                    answeredModel -> concurrencyLimiter.<T>execute(() -> this.<T>invoke(operationType, input, answeredModel), queueListener),
+                    null, firstTurn);
+        }
+        turn.checkRemaining("aiQueue");
+        return this.<T>executeCached(operationType, input,
+                answeredModel -> this.<T>executeWithin(() -> this.<T>invoke(operationType, input, answeredModel), queueListener, turn),
+                turn, firstTurn);
+    }
+
+    /**
+     * 在并发限制和本轮预算内执行不经过 AIService 的模型调用（如会话记忆模式）
+     *
+     * @param call 实际调用
+     * @param queueListener 排队位置监听器，可为null
+     * @param turn 本轮对话上下文，可为null
+     * @return 调用结果
+     */
+    public <T> T executeCall(Supplier<T> call, QueueListener queueListener, TurnContext turn) {
+        if (turn == null || !turn.isBounded()) {
+            return concurrencyLimiter.<T>execute(call, queueListener);
+        }
+        turn.checkRemaining("aiQueue");
+        return this.<T>executeWithin(call, queueListener, turn);
+    }
+
+    /**
+     * 仅在有空闲调用容量时执行AI操作，不排队
+     * 用于预生成等可丢弃的调用，容量不足时抛出 AiLimiterException
+     *
+     * @param operationType AI操作名
+     * @param input 操作入参
+     * @return 操作结果
+     */
+    public <T> T executeIfIdle(String operationType, Object input) {
+        return this.<T>executeCached(operationType, input,
+                answeredModel -> concurrencyLimiter.<T>executeIfIdle(() -> this.<T>invoke(operationType, input, answeredModel)));
+    }
+
+    /**
+     * 渲染操作的最终提示词，操作未实现 PromptRenderable 时退化为入参的JSON
+     *
+     * @param operationType AI操作名
+     * @param input 操作入参
+     * @return 最终提示词
+     */
+    @SuppressWarnings("unchecked")
+    public String renderPrompt(String operationType, Object input) {
+        Object operation = getOperations().get(operationType);
+        if (operation instanceof PromptRenderable) {
+            return ((PromptRenderable<Object>) operation).renderPrompt(input);
+        }
+        return JSON.toJSONString(input);
+    }
+
+    /**
+     * 解析操作使用的模型名，配置了多模型路由时为路由当前优先选择的模型
+     *
+     * @param operationType AI操作名
+     * @return 模型名，未声明时返回空串
+     */
+    public String resolveModel(String operationType) {
+        if (modelRouter.isRouted(operationType)) {
+            return modelRouter.selectModel(operationType);
+        }
+        Object operation = getOperations().get(operationType);
+        if (operation == null) {
+            return "";
+        }
+        AIOp aiOp = AnnotationUtils.findAnnotation(operation.getClass(), AIOp.class);
+        return aiOp != null ? aiOp.defaultModel() : "";
+    }
+
+    /**
+     * 缓存键中的模型与实际调用的模型一致：按路由预期的模型查找，按实际返回结果的模型写入，
+     * 故障转移或对冲由其他模型作答时不会以优先模型的名义缓存
+     *
+     * @param loader 实际调用，参数用于记录返回结果的模型
+     */
+    private <T> T executeCached(String operationType, Object input, Function<AtomicReference<String>, T> loader) {
+        return this.<T>executeCached(operationType, input, loader, null, false);
+    }
+
+    /**
+     * @param turn 本轮对话上下文，合并到进行中的相同请求时只等待剩余预算，可为null
+     * @param firstTurn 是否首轮
+     */
+    private <T> T executeCached(String operationType, Object input, Function<AtomicReference<String>, T> loader,
+                                TurnContext turn, boolean firstTurn) {
+        AtomicReference<String> answeredModel = new AtomicReference<>();
+        if (!aiResponseCache.isCacheable(operationType, firstTurn)) {
+            return loader.apply(answeredModel);
+        }
+
+        String expectedModel = resolveModel(operationType);
+        String prompt = renderPrompt(operationType, input);
+        String key = aiResponseCache.buildKey(operationType, expectedModel, prompt);
+        return aiResponseCache.getOrLoad(operationType, key, () -> loader.apply(answeredModel), () -> {
+            String model = answeredModel.get();
+            return model == null || model.equals(expectedModel) ? key : aiResponseCache.buildKey(operationType, model, prompt);
+        }, turn);
+    }
+
+    private <T> T invoke(String operationType, Object input, AtomicReference<String> answeredModel) {
+        if (modelRouter.isRouted(operationType)) {
+            return modelRouter.<T>execute(operationType, model -> aiService.execute(operationType, input, model), answeredModel::set);
+        }
+        return aiService.execute(operationType, input);
+    }
+
+    /**
+     * 排队和调用都在调用方线程上进行，排队时间不超过本轮剩余预算，到期时中断调用方。
+     * 模型客户端响应中断时调用立即结束；不响应时调用方等到调用返回后按超时处理，
+     * 期间一直持有许可，限流器看到的并发与提供方一致。
+     */
+    private <T> T executeWithin(Supplier<T> call, QueueListener queueListener, TurnContext turn) {
+        AtomicBoolean started = new AtomicBoolean();
+        DeadlineGuard guard = new DeadlineGuard(Thread.currentThread());
+        ScheduledFuture<?> timer = deadlineScheduler.schedule(guard::expire, turn.remainingMs(), TimeUnit.MILLISECONDS);
+        try {
+            T result = concurrencyLimiter.<T>execute(() -> {
+                started.set(true);
+                return call.get();
+            }, queueListener, turn.remainingMs());
+            if (guard.finish()) {
+                return result;
+            }
+        } catch (RuntimeException e) {
+            if (guard.finish()) {
+                if (e instanceof AiLimiterException && turn.isExpired()) {
+                    throw new DeadlineExceededException("aiQueue", turn);
+                }
+                throw e;
+            }
+        } finally {
+            timer.cancel(false);
+            guard.finish();
+        }
+        throw new DeadlineExceededException(started.get() ? "aiCall" : "aiQueue", turn);
+    }
+
+    /**
+     * 调用方与到期任务只有一方能结束本次调用：到期任务先结束时中断调用方，
+     * 调用方随后结束时清除这次中断，中断不会泄漏到调用方的后续逻辑
+     */
+    private static class DeadlineGuard {
+        private final Thread caller;
+        private boolean finished;
+        private boolean expired;
+
+        private DeadlineGuard(Thread caller) {
+            this.caller = caller;
+        }
+
+        private synchronized void expire() {
+            if (!finished) {
+                finished = true;
+                expired = true;
+                caller.interrupt();
+            }
+        }
+
+        /**
+         * @return 是否在截止时间前结束
+         */
+        private synchronized boolean finish() {
+            if (expired) {
+                Thread.interrupted();
+                return false;
+            }
+            finished = true;
+            return true;
+        }
+    }
+
+    private Map<String, Object> getOperations() {
+        Map<String, Object> result = operations;
+        if (result == null) {
+            result = new HashMap<>();
+            for (Object bean : applicationContext.getBeansWithAnnotation(AIOp.class).values()) {
+                AIOp aiOp = AnnotationUtils.findAnnotation(bean.getClass(), AIOp.class);
+                if (aiOp != null) {
+                    result.put(aiOp.value(), bean);
+                }
+            }
+            operations = result;
+            log.info("已加载AI操作: {}", result.keySet());
+        }
+        return result;
+    }
+}
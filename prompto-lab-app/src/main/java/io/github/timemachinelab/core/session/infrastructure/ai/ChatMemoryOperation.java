@@ -0,0 +1,59 @@
+package io.github.timemachinelab.core.session.infrastructure.ai;
+
+import com.suifeng.sfchain.annotation.AIOp;
+import com.suifeng.sfchain.core.BaseAIOperation;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 会话记忆操作
+ * 将会话记忆中的消息窗口按角色依次渲染后交给模型，模型配置与其他操作一样由 SF-Chain 统一管理
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@AIOp(value = "CHAT_MEMORY_OP",
+        description = "基于会话记忆消息窗口生成下一个问题"
+)
+@Component
+public class ChatMemoryOperation extends BaseAIOperation<ChatMemoryOperation.ChatMemoryRequest, String> {
+
+    @Override
+    protected String buildPrompt(ChatMemoryRequest request) {
+        StringBuilder prompt = new StringBuilder();
+        for (Message message : request.getMessages()) {
+            if (prompt.length() > 0) {
+                prompt.append("\n\n");
+            }
+            prompt.append("### ").append(message.getRole()).append("\n").append(message.getContent());
+        }
+        return prompt.toString();
+    }
+
+    @Override
+    protected String parseResult(String jsonContent, ChatMemoryRequest request) {
+        // 由调用方解析问题，解析失败时丢弃会话记忆
+        return jsonContent;
+    }
+
+    @Data
+    public static class ChatMemoryRequest {
+        private List<Message> messages = new ArrayList<>();
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Message {
+        /**
+         * 消息角色：system / user / assistant
+         */
+        private String role;
+        private String content;
+    }
+}
@@ -1,25 +1,48 @@
 package io.github.timemachinelab.core.session.infrastructure.ai;
 
-import com.alibaba.fastjson2.JSONObject;
-
 import com.suifeng.sfchain.annotation.AIOp;
 import com.suifeng.sfchain.core.BaseAIOperation;
+import io.github.timemachinelab.core.prompt.PromptTemplate;
+import io.github.timemachinelab.core.prompt.PromptTemplateRegistry;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.Map;
+
 @AIOp(value = "PromptGenMaster",
         description = "提示词生成大师"
 )
 @Component
 @Slf4j
-public class GenPromptOperation  extends BaseAIOperation<GenPromptOperation.GpRequest, GenPromptOperation.GpResponse> {
+public class GenPromptOperation  extends BaseAIOperation<GenPromptOperation.GpRequest, GenPromptOperation.GpResponse>
+        implements PromptRenderable<GenPromptOperation.GpRequest> {
+
+    @Resource
+    private PromptTemplateRegistry promptTemplateRegistry;
 
+    @Override
+    public String renderPrompt(GpRequest gpRequest) {
+        return render(promptTemplateRegistry.genPrompt(gpRequest.getPrompt()), gpRequest);
+    }
 
     @Override
     protected String buildPrompt(GpRequest gpRequest) {
+        // Agent提示词原样作为静态前缀，不再整体JSON转义
+        PromptTemplate template = promptTemplateRegistry.genPrompt(gpRequest.getPrompt());
+        promptTemplateRegistry.recordSent(template);
+        return render(template, gpRequest);
+    }
 
-        return JSONObject.toJSONString(gpRequest);
+    private String render(PromptTemplate template, GpRequest gpRequest) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("user", gpRequest.getUser());
+        values.put("aiModel", gpRequest.getAiModel());
+        values.put("userTarget", gpRequest.getUserTarget());
+        values.put("userConversation", gpRequest.getUserConversation());
+        return template.render(values);
     }
 
     @Override
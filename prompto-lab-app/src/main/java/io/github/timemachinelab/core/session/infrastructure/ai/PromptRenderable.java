@@ -0,0 +1,20 @@
+package io.github.timemachinelab.core.session.infrastructure.ai;
+
+/**
+ * 可渲染最终提示词的AI操作
+ * 供执行器在不调用大模型的情况下拿到最终发送的提示词（用于缓存键等）
+ *
+ * @param <I> 操作入参类型
+ * @author suifeng
+ * 日期: 2025/8/28
+ */
+public interface PromptRenderable<I> {
+
+    /**
+     * 渲染最终提示词，必须与实际发送给大模型的内容一致
+     *
+     * @param input 操作入参
+     * @return 最终提示词
+     */
+    String renderPrompt(I input);
+}
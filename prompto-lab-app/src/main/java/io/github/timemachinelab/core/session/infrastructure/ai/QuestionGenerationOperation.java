@@ -2,50 +2,65 @@ package io.github.timemachinelab.core.session.infrastructure.ai;
 
 import com.suifeng.sfchain.annotation.AIOp;
 import com.suifeng.sfchain.core.BaseAIOperation;
+import io.github.timemachinelab.core.prompt.PromptTemplate;
+import io.github.timemachinelab.core.prompt.PromptTemplateRegistry;
 import io.github.timemachinelab.core.question.BaseQuestion;
 import io.github.timemachinelab.core.question.QuestionParser;
 import io.github.timemachinelab.core.question.QuestionParseException;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 @AIOp(value = "QUESTION_GENERATION_OP",
       description = "基于对话树和用户输入生成结构化问题的AI操作"
 )
 @Component
 @Slf4j
-public class QuestionGenerationOperation extends BaseAIOperation<QuestionGenerationOperation.QuestionGenerationRequest, QuestionGenerationOperation.QuestionGenerationResponse> {
+public class QuestionGenerationOperation extends BaseAIOperation<QuestionGenerationOperation.QuestionGenerationRequest, QuestionGenerationOperation.QuestionGenerationResponse>
+        implements PromptRenderable<QuestionGenerationOperation.QuestionGenerationRequest> {
+
+    @Resource
+    private PromptTemplateRegistry promptTemplateRegistry;
+
+    @Override
+    public String renderPrompt(QuestionGenerationRequest input) {
+        return render(template(input), input);
+    }
 
     @Override
     public String buildPrompt(QuestionGenerationRequest input) {
-        StringBuilder promptBuilder = new StringBuilder();
-        
-        // 添加全局提示词
-        if (input.getGlobalPrompt() != null && !input.getGlobalPrompt().trim().isEmpty()) {
-            promptBuilder.append(input.getGlobalPrompt());
-            promptBuilder.append("\n\n");
-        }
-        
-        // 添加对话树信息
-        if (input.getConversationTree() != null && !input.getConversationTree().trim().isEmpty()) {
-            promptBuilder.append("## 对话树结构\n");
-            promptBuilder.append(input.getConversationTree());
-            promptBuilder.append("\n\n");
-        }
-        
-        // 添加用户输入
-        promptBuilder.append("## 当前用户输入\n");
-        promptBuilder.append(input.getUserInput());
-        
-        return promptBuilder.toString();
+        PromptTemplate template = template(input);
+        promptTemplateRegistry.recordSent(template);
+        return render(template, input);
+    }
+
+    /**
+     * 全局提示词作为静态前缀，对话树和用户输入放在末尾
+     */
+    private PromptTemplate template(QuestionGenerationRequest input) {
+        boolean withTree = input.getConversationTree() != null && !input.getConversationTree().trim().isEmpty();
+        return promptTemplateRegistry.questionGeneration(input.getGlobalPrompt(), withTree);
+    }
+
+    private String render(PromptTemplate template, QuestionGenerationRequest input) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("tree", input.getConversationTree());
+        values.put("input", input.getUserInput());
+        return template.render(values);
     }
 
     @Override
     protected QuestionGenerationOperation.QuestionGenerationResponse parseResult(String jsonContent, QuestionGenerationRequest input) {
         try {
             // 使用QuestionParser解析AI返回的JSON
-            QuestionGenerationResponse question = QuestionParser.parseQuestion(jsonContent);
+            QuestionGenerationResponse question = QuestionParser.parseQuestions(jsonContent);
             log.info("成功生成问题，类型: {}", question.getClass().getSimpleName());
             return question;
             
@@ -93,9 +108,52 @@ public class QuestionGenerationOperation extends BaseAIOperation<QuestionGenerat
     }
 
     @Data
-    @AllArgsConstructor
+    @NoArgsConstructor
     public static class QuestionGenerationResponse {
         private BaseQuestion question;
         private String parentId;
+
+        /**
+         * 批量提问时的后续问题，按顺序依次挂在前一个问题下
+         */
+        private List<BaseQuestion> followUps;
+
+        /**
+         * 已在对话树中的节点ID（排队的批量问题），设置时推送不再新增节点
+         */
+        private String nodeId;
+
+        /**
+         * 多选题并行追问的分支标记，设置时与同一回答节点下的其他分支互为兄弟问题，前端逐个展示
+         */
+        private FanOutBranch fanOut;
+
+        public QuestionGenerationResponse(BaseQuestion question, String parentId) {
+            this.question = question;
+            this.parentId = parentId;
+        }
+    }
+
+    /**
+     * 并行追问分支标记
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class FanOutBranch {
+        /**
+         * 回答的多选题节点ID，各分支的父节点
+         */
+        private String parentId;
+
+        /**
+         * 分支按完成顺序的序号，从0开始
+         */
+        private int index;
+
+        /**
+         * 启动的分支数，失败或超时的分支不会下发
+         */
+        private int total;
     }
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+package io.github.timemachinelab.core.session.infrastructure.ai;
+
+import com.alibaba.fastjson2.JSONObject;
+import com.suifeng.sfchain.annotation.AIOp;
+import com.suifeng.sfchain.core.BaseAIOperation;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * 分支摘要操作
+ * 将已结束的问答分支压缩为一段简短摘要，供后续问题生成代替原始节点使用
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@AIOp(value = "SUBTREE_SUMMARY_OP",
+        description = "问答分支摘要"
+)
+@Component
+@Slf4j
+public class SubtreeSummaryOperation extends BaseAIOperation<SubtreeSummaryOperation.SummaryRequest, SubtreeSummaryOperation.SummaryResponse> {
+
+    private static final String PROMPT = "你是需求访谈记录员。下面是一段已经结束的问答分支（JSON数组，按先序排列，parentId表示父节点）。\n"
+            + "请用不超过120字概括该分支中用户已经明确的信息和偏好，只保留事实，不要复述问题，不要推测。\n"
+            + "以JSON格式返回：{\"summary\": \"摘要内容\"}\n\n"
+            + "## 问答分支\n";
+
+    @Override
+    protected String buildPrompt(SummaryRequest request) {
+        return PROMPT + request.getSubtree();
+    }
+
+    @Override
+    protected SummaryResponse parseResult(String jsonContent, SummaryRequest request) {
+        SummaryResponse response = new SummaryResponse();
+        try {
+            response.setSummary(JSONObject.parseObject(jsonContent).getString("summary"));
+        } catch (Exception e) {
+            // 模型未按格式返回时直接使用原文
+            response.setSummary(jsonContent);
+        }
+        return response;
+    }
+
+    @Data
+    public static class SummaryRequest {
+
+        private String subtree;
+    }
+
+    @Data
+    public static class SummaryResponse {
+        private String summary;
+    }
+}
@@ -0,0 +1,284 @@
+package io.github.timemachinelab.core.session.infrastructure.ai.cache;
+
+import io.github.timemachinelab.config.AiCacheProperties;
+import io.github.timemachinelab.core.session.domain.turn.DeadlineExceededException;
+import io.github.timemachinelab.core.session.domain.turn.TurnContext;
+import io.github.timemachinelab.util.JsonbCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * AI响应精确匹配缓存
+ * 缓存键为 操作名 + 模型 + 最终提示词 的SHA-256，值以JSONB形式保存，
+ * 每次命中都反序列化出新对象，避免不同会话共享同一个可变的问题对象。
+ * 同一个键的并发请求只会有一个真正调用大模型，其余等待其结果。
+ *
+ * @author suifeng
+ * 日期: 2025/8/28
+ */
+@Component
+@Slf4j
+public class AiResponseCache {
+
+    private final AiCacheProperties properties;
+
+    /**
+     * 访问顺序的LinkedHashMap，实现LRU淘汰
+     */
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 正在调用大模型的请求，用于合并相同键的并发请求
+     */
+    private final Map<String, CompletableFuture<CacheEntry>> inFlight = new ConcurrentHashMap<>();
+
+    private final Map<String, OperationStats> stats = new ConcurrentHashMap<>();
+
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public AiResponseCache(AiCacheProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * 判断指定操作是否开启了缓存
+     *
+     * @param operationType AI操作名
+     * @return 是否可缓存
+     */
+    public boolean isCacheable(String operationType) {
+        return properties.isEnabled() && properties.getOperations().contains(operationType);
+    }
+
+    /**
+     * 判断指定操作在本轮是否可缓存，首轮额外包含只在首轮开启缓存的操作
+     *
+     * @param operationType AI操作名
+     * @param firstTurn 是否首轮（对话树只有根节点）
+     * @return 是否可缓存
+     */
+    public boolean isCacheable(String operationType, boolean firstTurn) {
+        return isCacheable(operationType)
+                || (firstTurn && properties.isEnabled() && properties.getFirstTurnOperations().contains(operationType));
+    }
+
+    /**
+     * 构建缓存键
+     *
+     * @param operationType AI操作名
+     * @param model 模型名
+     * @param prompt 最终提示词
+     * @return SHA-256十六进制字符串
+     */
+    public String buildKey(String operationType, String model, String prompt) {
+        String material = operationType + '\u0000' + (model != null ? model : "") + '\u0000' + prompt;
+        return DigestUtils.sha256Hex(material.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 读取缓存，未命中时调用loader并写入缓存
+     *
+     * @param operationType AI操作名
+     * @param key 缓存键
+     * @param loader 实际的大模型调用
+     * @return 响应对象（每次调用都是独立副本）
+     */
+    public <T> T getOrLoad(String operationType, String key, Supplier<T> loader) {
+        return getOrLoad(operationType, key, loader, () -> key);
+    }
+
+    /**
+     * 读取缓存，未命中时调用loader，并按调用完成后才能确定的键写入缓存
+     * 用于多模型路由：查找时按预期模型构建键，写入时按实际返回结果的模型构建键
+     *
+     * @param operationType AI操作名
+     * @param key 查找用的缓存键
+     * @param loader 实际的大模型调用
+     * @param storeKey 调用完成后计算写入用的缓存键
+     * @return 响应对象（每次调用都是独立副本）
+     */
+    public <T> T getOrLoad(String operationType, String key, Supplier<T> loader, Supplier<String> storeKey) {
+        return getOrLoad(operationType, key, loader, storeKey, null);
+    }
+
+    /**
+     * 读取缓存，合并到进行中的相同请求时最多等待本轮剩余预算
+     *
+     * @param operationType AI操作名
+     * @param key 查找用的缓存键
+     * @param loader 实际的大模型调用
+     * @param storeKey 调用完成后计算写入用的缓存键
+     * @param turn 本轮对话上下文，可为null
+     * @return 响应对象（每次调用都是独立副本）
+     * @throws DeadlineExceededException 等待进行中的请求超过剩余预算
+     */
+    public <T> T getOrLoad(String operationType, String key, Supplier<T> loader, Supplier<String> storeKey, TurnContext turn) {
+        OperationStats opStats = stats.computeIfAbsent(operationType, k -> new OperationStats());
+
+        CacheEntry cached = lookup(key);
+        if (cached != null) {
+            opStats.hits.increment();
+            log.info("AI响应缓存命中 - 操作: {}, 键: {}", operationType, key);
+            return decode(cached);
+        }
+
+        CompletableFuture<CacheEntry> mine = new CompletableFuture<>();
+        CompletableFuture<CacheEntry> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            opStats.coalesced.increment();
+            log.info("AI响应合并到进行中的请求 - 操作: {}, 键: {}", operationType, key);
+            return decode(await(existing, turn));
+        }
+
+        opStats.misses.increment();
+        try {
+            T value = loader.get();
+            CacheEntry entry = value != null ? encode(value) : null;
+            if (entry != null) {
+                store(storeKey.get(), entry);
+            }
+            mine.complete(entry);
+            return value;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new HashMap<>();
+        Map<String, Object> perOperation = new HashMap<>();
+        stats.forEach((operationType, opStats) -> perOperation.put(operationType, opStats.snapshot()));
+
+        synchronized (entries) {
+            result.put("size", entries.size());
+        }
+        result.put("enabled", properties.isEnabled());
+        result.put("maxEntries", properties.getMaxEntries());
+        result.put("ttlSeconds", properties.getTtlSeconds());
+        result.put("evictions", evictions.sum());
+        result.put("expirations", expirations.sum());
+        result.put("operations", perOperation);
+        result.put("timestamp", System.currentTimeMillis());
+        return result;
+    }
+
+    private CacheEntry lookup(String key) {
+        synchronized (entries) {
+            CacheEntry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expireAt < System.currentTimeMillis()) {
+                entries.remove(key);
+                expirations.increment();
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    private void store(String key, CacheEntry entry) {
+        synchronized (entries) {
+            entries.put(key, entry);
+            Iterator<Map.Entry<String, CacheEntry>> iterator = entries.entrySet().iterator();
+            while (entries.size() > properties.getMaxEntries() && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private CacheEntry encode(Object value) {
+        byte[] payload = JsonbCodec.encode(value);
+        long expireAt = System.currentTimeMillis() + properties.getTtlSeconds() * 1000;
+        return new CacheEntry(payload, value.getClass(), expireAt);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T decode(CacheEntry entry) {
+        if (entry == null) {
+            return null;
+        }
+        return (T) JsonbCodec.decode(entry.payload, entry.type);
+    }
+
+    private CacheEntry await(CompletableFuture<CacheEntry> future, TurnContext turn) {
+        try {
+            if (turn == null || !turn.isBounded()) {
+                return future.join();
+            }
+            return future.get(turn.remainingMs(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException("aiCall", turn);
+        } catch (CompletionException | ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待AI响应被中断", e);
+        }
+    }
+
+    private static class CacheEntry {
+        private final byte[] payload;
+        private final Class<?> type;
+        private final long expireAt;
+
+        private CacheEntry(byte[] payload, Class<?> type, long expireAt) {
+            this.payload = payload;
+            this.type = type;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private static class OperationStats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder coalesced = new LongAdder();
+
+        private Map<String, Object> snapshot() {
+            long hitCount = hits.sum() + coalesced.sum();
+            long total = hitCount + misses.sum();
+            Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("hits", hits.sum());
+            snapshot.put("coalesced", coalesced.sum());
+            snapshot.put("misses", misses.sum());
+            snapshot.put("hitRate", total == 0 ? 0.0 : (double) hitCount / total);
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package io.github.timemachinelab.core.session.infrastructure.ai.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * MinHash签名计算器
+ * 将文本切分为token（中文按字、英文按单词），去除常见口语填充字后生成n-gram，
+ * 再用多组哈希函数求最小值作为签名，签名相同位置相等的比例即为Jaccard相似度的估计。
+ *
+ * @author suifeng
+ * 日期: 2025/8/29
+ */
+public class MinHasher {
+
+    /**
+     * 对需求语义贡献很小的口语填充字，如"帮我写一个简历"中的"帮我""一个"
+     */
+    private static final Set<String> STOP_TOKENS = new HashSet<>(Arrays.asList(
+            "帮", "我", "你", "请", "一", "个", "的", "了", "吗", "呢", "吧", "啊", "想", "要", "给", "下", "些",
+            "a", "an", "the", "please", "i", "me", "help", "to"
+    ));
+
+    private final int numHashes;
+    private final int shingleSize;
+    private final long[] seeds;
+
+    /**
+     * @param numHashes 签名长度（哈希函数个数）
+     * @param shingleSize n-gram长度
+     */
+    public MinHasher(int numHashes, int shingleSize) {
+        this.numHashes = numHashes;
+        this.shingleSize = Math.max(1, shingleSize);
+        this.seeds = new long[numHashes];
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < numHashes; i++) {
+            seed = mix(seed + i);
+            seeds[i] = seed;
+        }
+    }
+
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    /**
+     * 计算文本的MinHash签名
+     *
+     * @param text 文本
+     * @return 签名，文本为空时所有位置为Long.MAX_VALUE
+     */
+    public long[] signature(String text) {
+        long[] signature = new long[numHashes];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        for (String shingle : shingles(text)) {
+            long base = shingle.hashCode();
+            for (int i = 0; i < numHashes; i++) {
+                long h = mix(base ^ seeds[i]);
+                if (h < signature[i]) {
+                    signature[i] = h;
+                }
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * 估计两个签名对应文本的Jaccard相似度
+     */
+    public static double similarity(long[] a, long[] b) {
+        if (a.length != b.length || a.length == 0) {
+            return 0.0;
+        }
+        int equal = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == b[i] && a[i] != Long.MAX_VALUE) {
+                equal++;
+            }
+        }
+        return (double) equal / a.length;
+    }
+
+    /**
+     * 将文本切分为n-gram集合，token数不足n时退化为单token
+     */
+    Set<String> shingles(String text) {
+        List<String> tokens = tokenize(text);
+        Set<String> shingles = new HashSet<>();
+        if (tokens.size() < shingleSize) {
+            shingles.addAll(tokens);
+            return shingles;
+        }
+        for (int i = 0; i + shingleSize <= tokens.size(); i++) {
+            shingles.add(String.join("\u0001", tokens.subList(i, i + shingleSize)));
+        }
+        return shingles;
+    }
+
+    private List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        StringBuilder word = new StringBuilder();
+        String lower = text.toLowerCase();
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (c < 128 && Character.isLetterOrDigit(c)) {
+                word.append(c);
+                continue;
+            }
+            flushWord(word, tokens);
+            if (Character.isLetterOrDigit(c)) {
+                addToken(String.valueOf(c), tokens);
+            }
+        }
+        flushWord(word, tokens);
+        return tokens;
+    }
+
+    private void flushWord(StringBuilder word, List<String> tokens) {
+        if (word.length() > 0) {
+            addToken(word.toString(), tokens);
+            word.setLength(0);
+        }
+    }
+
+    private void addToken(String token, List<String> tokens) {
+        if (!STOP_TOKENS.contains(token)) {
+            tokens.add(token);
+        }
+    }
+
+    /**
+     * SplitMix64 混淆函数
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
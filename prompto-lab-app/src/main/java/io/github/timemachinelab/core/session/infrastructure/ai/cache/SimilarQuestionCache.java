@@ -0,0 +1,260 @@
+package io.github.timemachinelab.core.session.infrastructure.ai.cache;
+
+import io.github.timemachinelab.config.SimilarityCacheProperties;
+import io.github.timemachinelab.util.JsonbCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 问题近似匹配缓存
+ * 对会话上下文文本计算MinHash签名，用LSH分带索引快速找到候选，
+ * 相似度超过阈值时直接复用之前验证过的问题，无需任何向量模型或网络调用。
+ *
+ * @author suifeng
+ * 日期: 2025/8/29
+ */
+@Component
+@Slf4j
+public class SimilarQuestionCache {
+
+    private final SimilarityCacheProperties properties;
+
+    private final MinHasher minHasher;
+
+    /**
+     * 运行时可修改的按操作开关
+     */
+    private final Map<String, Boolean> switches = new ConcurrentHashMap<>();
+
+    /**
+     * 条目ID -> 条目，插入顺序即淘汰顺序
+     */
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * LSH桶：分带哈希 -> 条目ID集合
+     */
+    private final Map<Long, Set<Long>> buckets = new HashMap<>();
+
+    private long nextId = 0;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder latencySavedMs = new LongAdder();
+
+    public SimilarQuestionCache(SimilarityCacheProperties properties) {
+        this.properties = properties;
+        this.minHasher = new MinHasher(properties.getBands() * properties.getRows(), properties.getShingleSize());
+        switches.putAll(properties.getOperations());
+    }
+
+    /**
+     * 判断指定操作是否启用近似缓存
+     */
+    public boolean isEnabled(String operationType) {
+        return properties.isEnabled() && Boolean.TRUE.equals(switches.get(operationType));
+    }
+
+    /**
+     * 运行时开关指定操作的近似缓存
+     */
+    public void setEnabled(String operationType, boolean enabled) {
+        switches.put(operationType, enabled);
+        log.info("近似缓存开关已修改 - 操作: {}, 启用: {}", operationType, enabled);
+    }
+
+    public int getMaxPathDepth() {
+        return properties.getMaxPathDepth();
+    }
+
+    /**
+     * 查找相似上下文对应的缓存结果
+     *
+     * @param operationType AI操作名
+     * @param context 上下文文本
+     * @param type 结果类型
+     * @return 结果副本，未命中返回null
+     */
+    public <T> T lookup(String operationType, String context, Class<T> type) {
+        if (!isEnabled(operationType)) {
+            return null;
+        }
+        lookups.increment();
+        long[] signature = minHasher.signature(context);
+
+        Entry best = null;
+        double bestSimilarity = 0.0;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (Long id : candidates(operationType, signature)) {
+                Entry entry = entries.get(id);
+                if (entry == null || entry.expireAt < now || !entry.operationType.equals(operationType)) {
+                    continue;
+                }
+                double similarity = MinHasher.similarity(signature, entry.signature);
+                if (similarity >= properties.getThreshold() && similarity > bestSimilarity) {
+                    best = entry;
+                    bestSimilarity = similarity;
+                }
+            }
+        }
+
+        if (best == null) {
+            return null;
+        }
+        hits.increment();
+        latencySavedMs.add(best.latencyMs);
+        log.info("近似缓存命中 - 操作: {}, 相似度: {}, 节省耗时: {}ms", operationType, bestSimilarity, best.latencyMs);
+        return JsonbCodec.decode(best.payload, type);
+    }
+
+    /**
+     * 写入一个已验证的结果
+     *
+     * @param operationType AI操作名
+     * @param context 上下文文本
+     * @param value 结果
+     * @param question 结果中的问题文本，用于重试时失效
+     * @param latencyMs 生成该结果的耗时
+     */
+    public void store(String operationType, String context, Object value, String question, long latencyMs) {
+        if (!isEnabled(operationType) || value == null) {
+            return;
+        }
+        long[] signature = minHasher.signature(context);
+        Entry entry = new Entry(operationType, signature, JsonbCodec.encode(value), question, latencyMs,
+                System.currentTimeMillis() + properties.getTtlSeconds() * 1000);
+
+        synchronized (this) {
+            long id = nextId++;
+            entries.put(id, entry);
+            for (long bandKey : bandKeys(operationType, signature)) {
+                buckets.computeIfAbsent(bandKey, k -> new HashSet<>()).add(id);
+            }
+            Iterator<Map.Entry<Long, Entry>> iterator = entries.entrySet().iterator();
+            while (entries.size() > properties.getMaxEntries() && iterator.hasNext()) {
+                Map.Entry<Long, Entry> eldest = iterator.next();
+                iterator.remove();
+                unindex(eldest.getKey(), eldest.getValue());
+            }
+        }
+        stores.increment();
+    }
+
+    /**
+     * 用户对某个问题发起重试时，移除产出该问题的缓存条目
+     *
+     * @param operationType AI操作名
+     * @param question 被重试的问题文本
+     * @return 移除的条目数
+     */
+    public synchronized int invalidateByQuestion(String operationType, String question) {
+        if (question == null) {
+            return 0;
+        }
+        int removed = 0;
+        Iterator<Map.Entry<Long, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Entry> item = iterator.next();
+            Entry entry = item.getValue();
+            if (entry.operationType.equals(operationType) && Objects.equals(entry.question, question)) {
+                iterator.remove();
+                unindex(item.getKey(), entry);
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            invalidations.add(removed);
+            log.info("近似缓存条目因重试失效 - 操作: {}, 数量: {}", operationType, removed);
+        }
+        return removed;
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        long lookupCount = lookups.sum();
+        Map<String, Object> result = new HashMap<>();
+        synchronized (this) {
+            result.put("size", entries.size());
+        }
+        result.put("enabled", properties.isEnabled());
+        result.put("operations", new HashMap<>(switches));
+        result.put("threshold", properties.getThreshold());
+        result.put("lookups", lookupCount);
+        result.put("hits", hits.sum());
+        result.put("hitRate", lookupCount == 0 ? 0.0 : (double) hits.sum() / lookupCount);
+        result.put("stores", stores.sum());
+        result.put("invalidations", invalidations.sum());
+        result.put("latencySavedMs", latencySavedMs.sum());
+        result.put("timestamp", System.currentTimeMillis());
+        return result;
+    }
+
+    private Set<Long> candidates(String operationType, long[] signature) {
+        Set<Long> result = new HashSet<>();
+        for (long bandKey : bandKeys(operationType, signature)) {
+            Set<Long> bucket = buckets.get(bandKey);
+            if (bucket != null) {
+                result.addAll(bucket);
+            }
+        }
+        return result;
+    }
+
+    private List<Long> bandKeys(String operationType, long[] signature) {
+        int rows = properties.getRows();
+        List<Long> keys = new ArrayList<>(properties.getBands());
+        for (int band = 0; band < properties.getBands(); band++) {
+            long[] slice = Arrays.copyOfRange(signature, band * rows, band * rows + rows);
+            keys.add(31L * (31L * operationType.hashCode() + band) + Arrays.hashCode(slice));
+        }
+        return keys;
+    }
+
+    private void unindex(long id, Entry entry) {
+        for (long bandKey : bandKeys(entry.operationType, entry.signature)) {
+            Set<Long> bucket = buckets.get(bandKey);
+            if (bucket != null) {
+                bucket.remove(id);
+                if (bucket.isEmpty()) {
+                    buckets.remove(bandKey);
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+        private final String operationType;
+        private final long[] signature;
+        private final byte[] payload;
+        private final String question;
+        private final long latencyMs;
+        private final long expireAt;
+
+        private Entry(String operationType, long[] signature, byte[] payload, String question, long latencyMs, long expireAt) {
+            this.operationType = operationType;
+            this.signature = signature;
+            this.payload = payload;
+            this.question = question;
+            this.latencyMs = latencyMs;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package io.github.timemachinelab.core.session.infrastructure.ai.limiter;
+
+import dev.ai4j.openai4j.OpenAiHttpException;
+import io.github.timemachinelab.config.AiLimiterProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * AI调用自适应并发限制器（AIMD）
+ * - 调用成功且延迟正常：上限加性增长（每个窗口约+1）
+ * - 延迟超过最小延迟的容忍倍数：上限小幅衰减
+ * - 提供方返回限流（429）：上限乘性衰减
+ * 超出上限的调用进入有界FIFO队列等待，排队位置变化时通知监听器。
+ *
+ * @author suifeng
+ * 日期: 2025/8/30
+ */
+@Component
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final AiLimiterProperties properties;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+    private double limit;
+    private int inFlight;
+
+    /**
+     * 观测到的最小延迟（纳秒），缓慢向上漂移以适应提供方的变化
+     */
+    private double minLatencyNanos = Double.MAX_VALUE;
+
+    /**
+     * 平均延迟（纳秒，EWMA），用于估算排队时间
+     */
+    private double avgLatencyNanos;
+
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public AdaptiveConcurrencyLimiter(AiLimiterProperties properties) {
+        this.properties = properties;
+        this.limit = properties.getInitialLimit();
+    }
+
+    /**
+     * 在限流保护下执行调用，被提供方限流时按配置重新排队重试
+     *
+     * @param call 实际调用
+     * @param listener 排队位置监听器，可为null
+     * @return 调用结果
+     */
+    public <T> T execute(Supplier<T> call, QueueListener listener) {
+        return execute(call, listener, properties.getMaxWaitMs());
+    }
+
+    /**
+     * 在限流保护下执行调用，排队时间不超过给定值
+     *
+     * @param call 实际调用
+     * @param listener 排队位置监听器，可为null
+     * @param maxWaitMs 最长排队时间，与配置值取较小者
+     * @return 调用结果
+     */
+    public <T> T execute(Supplier<T> call, QueueListener listener, long maxWaitMs) {
+        if (!properties.isEnabled()) {
+            return call.get();
+        }
+        // 限流后重新排队只使用剩余的等待时间
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.min(maxWaitMs, properties.getMaxWaitMs()));
+        int attempt = 0;
+        while (true) {
+            long waitMs = Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+            Permit permit = acquire(waitMs, listener);
+            Outcome outcome = Outcome.ERROR;
+            try {
+                T result = call.get();
+                outcome = Outcome.SUCCESS;
+                return result;
+            } catch (RuntimeException e) {
+                if (isRateLimited(e)) {
+                    outcome = Outcome.RATE_LIMITED;
+                    if (attempt++ < properties.getRateLimitRetries()) {
+                        log.warn("AI提供方限流，重新排队重试 - 第{}次", attempt);
+                        continue;
+                    }
+                }
+                throw e;
+            } finally {
+                // 包括Error在内的任何结束方式都归还许可
+                permit.release(outcome);
+            }
+        }
+    }
+
+    /**
+     * 仅在有空闲容量时执行调用，不排队（用于预生成等可丢弃的调用）
+     *
+     * @param call 实际调用
+     * @return 调用结果
+     * @throws AiLimiterException 没有空闲容量时
+     */
+    public <T> T executeIfIdle(Supplier<T> call) {
+        if (!properties.isEnabled()) {
+            return call.get();
+        }
+        Permit permit = tryAcquire();
+        if (permit == null) {
+            throw new AiLimiterException("没有空闲的AI调用容量");
+        }
+        Outcome outcome = Outcome.ERROR;
+        try {
+            T result = call.get();
+            outcome = Outcome.SUCCESS;
+            return result;
+        } catch (RuntimeException e) {
+            if (isRateLimited(e)) {
+                outcome = Outcome.RATE_LIMITED;
+            }
+            throw e;
+        } finally {
+            permit.release(outcome);
+        }
+    }
+
+    /**
+     * 立即获取许可，没有空闲容量或有人排队时返回null
+     */
+    public Permit tryAcquire() {
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && inFlight < currentLimit()) {
+                inFlight++;
+                return new Permit();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取许可，必要时排队等待
+     *
+     * @param timeoutMs 最长等待时间
+     * @param listener 排队位置监听器，可为null
+     * @return 许可
+     * @throws AiLimiterException 队列已满、等待超时或被中断
+     */
+    public Permit acquire(long timeoutMs, QueueListener listener) {
+        Waiter waiter;
+        List<Runnable> notifications;
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && inFlight < currentLimit()) {
+                inFlight++;
+                return new Permit();
+            }
+            if (waiters.size() >= properties.getMaxQueueSize()) {
+                rejected.increment();
+                throw new AiLimiterException("AI调用排队已满，请稍后再试");
+            }
+            waiter = new Waiter(lock.newCondition(), listener);
+            waiters.addLast(waiter);
+            queued.increment();
+            notifications = collectPositionNotifications();
+        } finally {
+            lock.unlock();
+        }
+        notifications.forEach(Runnable::run);
+
+        // 离开队列后排在后面的等待者位置前移，同样需要通知
+        notifications = new ArrayList<>();
+        lock.lock();
+        try {
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (!waiter.granted) {
+                if (remainingNanos <= 0) {
+                    waiters.remove(waiter);
+                    timeouts.increment();
+                    notifications = collectPositionNotifications();
+                    throw new AiLimiterException("AI调用排队超时，请稍后再试");
+                }
+                remainingNanos = waiter.condition.awaitNanos(remainingNanos);
+            }
+            return new Permit();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (waiter.granted) {
+                inFlight--;
+                notifications = dispatch();
+            } else {
+                waiters.remove(waiter);
+                notifications = collectPositionNotifications();
+            }
+            throw new AiLimiterException("AI调用排队被中断");
+        } finally {
+            lock.unlock();
+            notifications.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * 获取限流器状态
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        lock.lock();
+        try {
+            stats.put("limit", limit);
+            stats.put("inFlight", inFlight);
+            stats.put("queueLength", waiters.size());
+            stats.put("minLatencyMs", minLatencyNanos == Double.MAX_VALUE ? 0 : minLatencyNanos / 1_000_000);
+            stats.put("avgLatencyMs", avgLatencyNanos / 1_000_000);
+        } finally {
+            lock.unlock();
+        }
+        stats.put("enabled", properties.isEnabled());
+        stats.put("successes", successes.sum());
+        stats.put("rateLimited", rateLimited.sum());
+        stats.put("errors", errors.sum());
+        stats.put("queued", queued.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("timeouts", timeouts.sum());
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+
+    /**
+     * 是否启用并发限制
+     */
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * 当前并发上限
+     */
+    public int currentLimit() {
+        return (int) Math.max(properties.getMinLimit(), Math.floor(limit));
+    }
+
+    /**
+     * 判断异常是否为提供方限流（HTTP 429）
+     * 只按异常类型和其中的状态码判断，不匹配异常信息文本
+     */
+    public static boolean isRateLimited(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (statusCode(t) == TOO_MANY_REQUESTS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 提取异常携带的HTTP状态码，不是HTTP异常时返回-1
+     */
+    private static int statusCode(Throwable t) {
+        if (t instanceof OpenAiHttpException) {
+            return ((OpenAiHttpException) t).code();
+        }
+        if (t instanceof RestClientResponseException) {
+            return ((RestClientResponseException) t).getRawStatusCode();
+        }
+        if (t instanceof WebClientResponseException) {
+            return ((WebClientResponseException) t).getRawStatusCode();
+        }
+        return -1;
+    }
+
+    private void onComplete(long latencyNanos, Outcome outcome) {
+        List<Runnable> notifications;
+        lock.lock();
+        try {
+            inFlight--;
+            switch (outcome) {
+                case SUCCESS:
+                    successes.increment();
+                    updateLatency(latencyNanos);
+                    if (latencyNanos > minLatencyNanos * properties.getLatencyTolerance()) {
+                        limit = Math.max(properties.getMinLimit(), limit * 0.95);
+                    } else if (inFlight + 1 >= currentLimit()) {
+                        // 只有在容量被用满时才增长，避免空闲时上限无限膨胀
+                        limit = Math.min(properties.getMaxLimit(), limit + 1.0 / limit);
+                    }
+                    break;
+                case RATE_LIMITED:
+                    rateLimited.increment();
+                    limit = Math.max(properties.getMinLimit(), limit * properties.getBackoffRatio());
+                    log.warn("AI提供方限流，并发上限下调为: {}", currentLimit());
+                    break;
+                default:
+                    errors.increment();
+                    break;
+            }
+            notifications = dispatch();
+        } finally {
+            lock.unlock();
+        }
+        notifications.forEach(Runnable::run);
+    }
+
+    private void updateLatency(long latencyNanos) {
+        if (minLatencyNanos == Double.MAX_VALUE) {
+            minLatencyNanos = latencyNanos;
+            avgLatencyNanos = latencyNanos;
+            return;
+        }
+        minLatencyNanos = latencyNanos < minLatencyNanos
+                ? latencyNanos
+                : minLatencyNanos + (latencyNanos - minLatencyNanos) * 0.01;
+        avgLatencyNanos = avgLatencyNanos * 0.8 + latencyNanos * 0.2;
+    }
+
+    /**
+     * 按当前上限唤醒排队者（需持有锁），返回需在锁外执行的位置通知
+     */
+    private List<Runnable> dispatch() {
+        boolean advanced = false;
+        while (inFlight < currentLimit() && !waiters.isEmpty()) {
+            Waiter waiter = waiters.pollFirst();
+            waiter.granted = true;
+            inFlight++;
+            waiter.condition.signal();
+            advanced = true;
+        }
+        return advanced ? collectPositionNotifications() : new ArrayList<>();
+    }
+
+    private List<Runnable> collectPositionNotifications() {
+        List<Runnable> notifications = new ArrayList<>();
+        double perSlotMs = avgLatencyNanos / 1_000_000 / Math.max(1, currentLimit());
+        int position = 0;
+        Iterator<Waiter> iterator = waiters.iterator();
+        while (iterator.hasNext()) {
+            Waiter waiter = iterator.next();
+            position++;
+            if (waiter.listener != null) {
+                QueueListener listener = waiter.listener;
+                int currentPosition = position;
+                long estimatedWaitMs = (long) (perSlotMs * position);
+                notifications.add(() -> {
+                    try {
+                        listener.onQueued(currentPosition, estimatedWaitMs);
+                    } catch (Exception e) {
+                        log.warn("排队通知失败: {}", e.getMessage());
+                    }
+                });
+            }
+        }
+        return notifications;
+    }
+
+    private enum Outcome {
+        SUCCESS,
+        RATE_LIMITED,
+        ERROR
+    }
+
+    private static class Waiter {
+        private final Condition condition;
+        private final QueueListener listener;
+        private boolean granted;
+
+        private Waiter(Condition condition, QueueListener listener) {
+            this.condition = condition;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * 并发许可，必须且只能释放一次
+     */
+    public class Permit {
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private void release(Outcome outcome) {
+            if (released.compareAndSet(false, true)) {
+                onComplete(System.nanoTime() - startNanos, outcome);
+            }
+        }
+
+        /**
+         * 调用成功结束时释放许可，计入延迟统计
+         */
+        public void complete() {
+            release(Outcome.SUCCESS);
+        }
+
+        /**
+         * 调用失败结束时释放许可，提供方限流时下调并发上限
+         */
+        public void fail(Throwable e) {
+            release(isRateLimited(e) ? Outcome.RATE_LIMITED : Outcome.ERROR);
+        }
+
+        /**
+         * 释放许可但不计入延迟统计（调用被放弃时使用）
+         */
+        public void abandon() {
+            release(Outcome.ERROR);
+        }
+    }
+}
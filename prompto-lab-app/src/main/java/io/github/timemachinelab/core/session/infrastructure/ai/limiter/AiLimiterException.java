@@ -0,0 +1,15 @@
+package io.github.timemachinelab.core.session.infrastructure.ai.limiter;
+
+/**
+ * AI调用限流异常
+ * 等待队列已满、排队超时或没有空闲容量时抛出
+ *
+ * @author suifeng
+ * 日期: 2025/8/30
+ */
+public class AiLimiterException extends RuntimeException {
+
+    public AiLimiterException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,19 @@
+package io.github.timemachinelab.core.session.infrastructure.ai.limiter;
+
+/**
+ * 排队位置监听器
+ *
+ * @author suifeng
+ * 日期: 2025/8/30
+ */
+@FunctionalInterface
+public interface QueueListener {
+
+    /**
+     * 排队位置发生变化
+     *
+     * @param position 当前位置（从1开始）
+     * @param estimatedWaitMs 预计等待时间（毫秒）
+     */
+    void onQueued(int position, long estimatedWaitMs);
+}
@@ -0,0 +1,271 @@
+package io.github.timemachinelab.core.session.infrastructure.ai.memory;
+
+import com.alibaba.fastjson2.JSONObject;
+import com.suifeng.sfchain.core.AIService;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import io.github.timemachinelab.config.ChatMemoryProperties;
+import io.github.timemachinelab.core.constant.RetryPrompt;
+import io.github.timemachinelab.core.prompt.PromptAssembler;
+import io.github.timemachinelab.core.qatree.QaTreeDomain;
+import io.github.timemachinelab.core.question.QuestionParseException;
+import io.github.timemachinelab.core.question.QuestionParser;
+import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.domain.turn.DeadlineExceededException;
+import io.github.timemachinelab.core.session.domain.turn.TurnContext;
+import io.github.timemachinelab.core.session.infrastructure.ai.AiOperationExecutor;
+import io.github.timemachinelab.core.session.infrastructure.ai.ChatMemoryOperation;
+import io.github.timemachinelab.core.session.infrastructure.ai.QuestionGenerationOperation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 有状态会话记忆的问题生成
+ * 系统提示词和对话树只在建立记忆时发送一次，之后每轮只追加本轮回答（或重试信息）；
+ * 记忆按消息窗口截断，记忆丢失、会话阶段变化或累计轮数过多时用当前对话树透明重建。
+ * 模型调用经 CHAT_MEMORY_OP 交给 AIService，沿用问题生成操作的模型配置。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Component
+@Slf4j
+public class ChatMemoryQuestionGenerator {
+
+    private static final String CHAT_MEMORY_OP = "CHAT_MEMORY_OP";
+    private static final String QUESTION_GENERATION_OP = "QUESTION_GENERATION_OP";
+
+    private final ChatMemoryProperties properties;
+    private final PromptAssembler promptAssembler;
+    private final QaTreeDomain qaTreeDomain;
+    private final ChatLanguageModel model;
+
+    /**
+     * 会话ID -> 会话记忆
+     */
+    private final Map<String, SessionMemory> memories = new ConcurrentHashMap<>();
+
+    private final LongAdder deltaTurns = new LongAdder();
+    private final Map<String, LongAdder> rebuilds = new ConcurrentHashMap<>();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder sentChars = new LongAdder();
+    private final LongAdder fullResendChars = new LongAdder();
+
+    @Autowired
+    public ChatMemoryQuestionGenerator(ChatMemoryProperties properties, PromptAssembler promptAssembler, QaTreeDomain qaTreeDomain,
+                                       AIService aiService, AiOperationExecutor aiOperationExecutor) {
+        this(properties, promptAssembler, qaTreeDomain, messages -> {
+            String model = aiOperationExecutor.resolveModel(QUESTION_GENERATION_OP);
+            ChatMemoryOperation.ChatMemoryRequest request = toRequest(messages);
+            String reply = model.isEmpty()
+                    ? aiService.execute(CHAT_MEMORY_OP, request)
+                    : aiService.execute(CHAT_MEMORY_OP, request, model);
+            return Response.from(AiMessage.from(reply));
+        });
+    }
+
+    ChatMemoryQuestionGenerator(ChatMemoryProperties properties, PromptAssembler promptAssembler,
+                                QaTreeDomain qaTreeDomain, ChatLanguageModel model) {
+        this.properties = properties;
+        this.promptAssembler = promptAssembler;
+        this.qaTreeDomain = qaTreeDomain;
+        this.model = model;
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * 基于会话记忆生成下一个问题
+     *
+     * @param session 会话对象
+     * @param nodeId 本轮回答的节点ID（重试时为null）
+     * @param tree 当前对话树的序列化结果，仅在重建记忆时发送
+     * @param input 本轮用户输入
+     * @param retry 是否为重试
+     * @param turn 本轮对话上下文，可为null
+     * @return 生成的问题
+     */
+    public QuestionGenerationOperation.QuestionGenerationResponse generate(ConversationSession session, String nodeId,
+                                                                            String tree, String input, boolean retry,
+                                                                            TurnContext turn) {
+        evictIdle();
+        String sessionId = session.getSessionId();
+        String systemPrompt = promptAssembler.basePrompt(session.getNodeIdCounter().get());
+
+        SessionMemory memory = memories.get(sessionId);
+        String rebuildReason = memory == null ? "missing"
+                : !memory.systemPrompt.equals(systemPrompt) ? "phase"
+                : memory.turns >= properties.getRebuildAfterTurns() ? "window"
+                : null;
+        if (rebuildReason != null) {
+            memory = rebuild(sessionId, systemPrompt, tree);
+            rebuilds.computeIfAbsent(rebuildReason, k -> new LongAdder()).increment();
+            log.info("重建会话记忆 - 会话: {}, 原因: {}", sessionId, rebuildReason);
+        } else {
+            deltaTurns.increment();
+        }
+
+        synchronized (memory) {
+            memory.lastAccess = System.currentTimeMillis();
+            memory.chatMemory.add(UserMessage.from(buildDelta(session, nodeId, input, retry)));
+            List<ChatMessage> messages = memory.chatMemory.messages();
+            sentChars.add(messages.stream().mapToLong(message -> message.text().length()).sum());
+            fullResendChars.add(systemPrompt.length() + (tree != null ? tree.length() : 0) + (input != null ? input.length() : 0));
+
+            try {
+                Response<AiMessage> response = model.generate(messages);
+                if (turn != null && (turn.isExpired() || Thread.currentThread().isInterrupted())) {
+                    // 调用方已按超时返回，本轮回复不会下发，写入记忆会让后续轮次基于用户没见过的问题继续
+                    throw new DeadlineExceededException("aiCall", turn);
+                }
+                AiMessage reply = response.content();
+                QuestionGenerationOperation.QuestionGenerationResponse parsed = QuestionParser.parseQuestions(stripCodeFence(reply.text()));
+                memory.chatMemory.add(reply);
+                memory.turns++;
+                return parsed;
+            } catch (QuestionParseException e) {
+                // 记忆中已有未得到有效回复的消息，丢弃记忆，下一轮从对话树重建
+                memories.remove(sessionId, memory);
+                throw new RuntimeException("问题解析失败: " + e.getFailureReason(), e);
+            } catch (RuntimeException e) {
+                // 包括超时：记忆中留有未下发的轮次，丢弃后下一轮从对话树重建
+                memories.remove(sessionId, memory);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 丢弃会话记忆
+     *
+     * @param sessionId 会话ID
+     */
+    public void clear(String sessionId) {
+        memories.remove(sessionId);
+    }
+
+    /**
+     * 获取记忆模式统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> rebuildStats = new HashMap<>();
+        rebuilds.forEach((reason, count) -> rebuildStats.put(reason, count.sum()));
+        long full = fullResendChars.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("sessions", memories.size());
+        stats.put("deltaTurns", deltaTurns.sum());
+        stats.put("rebuilds", rebuildStats);
+        stats.put("evictions", evictions.sum());
+        stats.put("sentChars", sentChars.sum());
+        stats.put("fullResendChars", full);
+        stats.put("savedRatio", full == 0 ? 0.0 : 1 - (double) sentChars.sum() / full);
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+
+    private SessionMemory rebuild(String sessionId, String systemPrompt, String tree) {
+        ChatMemory chatMemory = MessageWindowChatMemory.builder()
+                .id(sessionId)
+                .maxMessages(properties.getMaxMessages())
+                .build();
+        StringBuilder system = new StringBuilder(systemPrompt);
+        if (tree != null && !tree.trim().isEmpty()) {
+            system.append("\n\n## 对话树结构\n").append(tree);
+        }
+        chatMemory.add(SystemMessage.from(system.toString()));
+
+        SessionMemory memory = new SessionMemory(systemPrompt, chatMemory);
+        memories.put(sessionId, memory);
+        return memory;
+    }
+
+    /**
+     * 本轮增量：回答的节点、该节点的问题和回答；重试时附带重试规则
+     */
+    private String buildDelta(ConversationSession session, String nodeId, String input, boolean retry) {
+        StringBuilder delta = new StringBuilder();
+        if (retry) {
+            delta.append(RetryPrompt.RETRY_PROMPT).append("\n");
+        }
+        delta.append("## 当前用户输入\n");
+        if (nodeId == null) {
+            delta.append(input);
+            return delta.toString();
+        }
+        JSONObject answer = new JSONObject();
+        answer.put("nodeId", nodeId);
+        answer.put("question", qaTreeDomain.getNodeQuestion(session.getQaTree(), nodeId));
+        answer.put("answer", input);
+        delta.append(answer.toJSONString());
+        return delta.toString();
+    }
+
+    private void evictIdle() {
+        long idleBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(properties.getIdleMinutes());
+        memories.entrySet().removeIf(entry -> {
+            boolean idle = entry.getValue().lastAccess < idleBefore;
+            if (idle) {
+                evictions.increment();
+            }
+            return idle;
+        });
+        while (memories.size() > properties.getMaxSessions()) {
+            memories.entrySet().stream()
+                    .min((a, b) -> Long.compare(a.getValue().lastAccess, b.getValue().lastAccess))
+                    .ifPresent(eldest -> {
+                        if (memories.remove(eldest.getKey(), eldest.getValue())) {
+                            evictions.increment();
+                        }
+                    });
+        }
+    }
+
+    private static ChatMemoryOperation.ChatMemoryRequest toRequest(List<ChatMessage> messages) {
+        ChatMemoryOperation.ChatMemoryRequest request = new ChatMemoryOperation.ChatMemoryRequest();
+        for (ChatMessage message : messages) {
+            request.getMessages().add(new ChatMemoryOperation.Message(message.type().name().toLowerCase(), message.text()));
+        }
+        return request;
+    }
+
+    private static String stripCodeFence(String text) {
+        String trimmed = text == null ? "" : text.trim();
+        if (trimmed.startsWith("```")) {
+            int firstLineEnd = trimmed.indexOf('\n');
+            int closing = trimmed.lastIndexOf("```");
+            if (firstLineEnd > 0 && closing > firstLineEnd) {
+                return trimmed.substring(firstLineEnd + 1, closing).trim();
+            }
+        }
+        return trimmed;
+    }
+
+    private static class SessionMemory {
+        private final String systemPrompt;
+        private final ChatMemory chatMemory;
+        private volatile long lastAccess = System.currentTimeMillis();
+        private int turns;
+
+        private SessionMemory(String systemPrompt, ChatMemory chatMemory) {
+            this.systemPrompt = systemPrompt;
+            this.chatMemory = chatMemory;
+        }
+    }
+}
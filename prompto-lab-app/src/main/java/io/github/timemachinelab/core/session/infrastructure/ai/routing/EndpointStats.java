@@ -0,0 +1,188 @@
+package io.github.timemachinelab.core.session.infrastructure.ai.routing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 单个模型端点的实时状态：EWMA延迟、最近延迟样本、最近请求的错误率、熔断与离群剔除状态
+ *
+ * @author suifeng
+ * 日期: 2025/8/30
+ */
+public class EndpointStats {
+
+    private final String model;
+    private final double alpha;
+    private final long[] window;
+    private final boolean[] outcomes;
+
+    private int windowSize;
+    private int windowIndex;
+    private double ewmaMs = -1;
+
+    private int outcomeSize;
+    private int outcomeIndex;
+    private int failuresInWindow;
+
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean probing;
+    private long ejectedUntil;
+    private long ejections;
+
+    private long successes;
+    private long failures;
+    private long hedgeWins;
+
+    public EndpointStats(String model, double alpha, int latencyWindow) {
+        this.model = model;
+        this.alpha = alpha;
+        this.window = new long[Math.max(1, latencyWindow)];
+        this.outcomes = new boolean[Math.max(1, latencyWindow)];
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    /**
+     * 是否可以接收请求；离群剔除期间不可用，熔断到期后只放行一次试探
+     */
+    public synchronized boolean isAvailable(long now) {
+        if (now < ejectedUntil) {
+            return false;
+        }
+        if (openUntil == 0) {
+            return true;
+        }
+        if (now < openUntil || probing) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 选中端点时调用，熔断到期的端点进入试探状态
+     */
+    public synchronized void onSelected(long now) {
+        if (openUntil != 0 && now >= openUntil) {
+            probing = true;
+        }
+    }
+
+    /**
+     * 路由排序用的延迟，尚无样本的端点视为0以便被探测
+     */
+    public synchronized double getEwmaMs() {
+        return ewmaMs < 0 ? 0 : ewmaMs;
+    }
+
+    /**
+     * 最近请求中失败的比例，无样本时为0
+     */
+    public synchronized double getErrorRate() {
+        return outcomeSize == 0 ? 0 : (double) failuresInWindow / outcomeSize;
+    }
+
+    /**
+     * 最近窗口内的请求数（成功与失败）
+     */
+    public synchronized int getRecentRequests() {
+        return outcomeSize;
+    }
+
+    public synchronized void recordSuccess(long latencyMs) {
+        successes++;
+        recordOutcome(false);
+        consecutiveFailures = 0;
+        openUntil = 0;
+        probing = false;
+        ewmaMs = ewmaMs < 0 ? latencyMs : ewmaMs + alpha * (latencyMs - ewmaMs);
+        window[windowIndex] = latencyMs;
+        windowIndex = (windowIndex + 1) % window.length;
+        windowSize = Math.min(windowSize + 1, window.length);
+    }
+
+    public synchronized void recordFailure(long now, int failureThreshold, long openMillis) {
+        failures++;
+        recordOutcome(true);
+        consecutiveFailures++;
+        if (probing || consecutiveFailures >= failureThreshold) {
+            openUntil = now + openMillis;
+            probing = false;
+        }
+    }
+
+    /**
+     * 作为离群端点剔除一段时间，并清空延迟与错误率样本，恢复后重新按试探端点观测
+     *
+     * @return 是否新剔除；已在剔除期间时返回false
+     */
+    public synchronized boolean eject(long now, long ejectMillis) {
+        if (now < ejectedUntil) {
+            return false;
+        }
+        ejectedUntil = now + ejectMillis;
+        ejections++;
+        ewmaMs = -1;
+        windowSize = 0;
+        windowIndex = 0;
+        outcomeSize = 0;
+        outcomeIndex = 0;
+        failuresInWindow = 0;
+        return true;
+    }
+
+    /**
+     * 被取消的请求（对冲失败方）既不算成功也不算失败，只解除试探状态
+     */
+    public synchronized void recordCancelled() {
+        probing = false;
+    }
+
+    public synchronized void recordHedgeWin() {
+        hedgeWins++;
+    }
+
+    private void recordOutcome(boolean failed) {
+        if (outcomeSize == outcomes.length && outcomes[outcomeIndex]) {
+            failuresInWindow--;
+        }
+        outcomes[outcomeIndex] = failed;
+        if (failed) {
+            failuresInWindow++;
+        }
+        outcomeIndex = (outcomeIndex + 1) % outcomes.length;
+        outcomeSize = Math.min(outcomeSize + 1, outcomes.length);
+    }
+
+    /**
+     * 最近延迟样本的分位数（毫秒），无样本时返回-1
+     */
+    public synchronized long percentile(double p) {
+        if (windowSize == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(window, windowSize);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p * windowSize) - 1;
+        return sorted[Math.max(0, Math.min(index, windowSize - 1))];
+    }
+
+    public synchronized Map<String, Object> snapshot(long now) {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("model", model);
+        stats.put("ewmaMs", getEwmaMs());
+        stats.put("samples", windowSize);
+        stats.put("successes", successes);
+        stats.put("failures", failures);
+        stats.put("consecutiveFailures", consecutiveFailures);
+        stats.put("errorRate", getErrorRate());
+        stats.put("open", openUntil != 0 && now < openUntil);
+        stats.put("ejected", now < ejectedUntil);
+        stats.put("ejections", ejections);
+        stats.put("hedgeWins", hedgeWins);
+        return stats;
+    }
+}
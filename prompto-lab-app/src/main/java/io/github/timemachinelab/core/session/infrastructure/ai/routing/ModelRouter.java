@@ -0,0 +1,399 @@
+package io.github.timemachinelab.core.session.infrastructure.ai.routing;
+
+import io.github.timemachinelab.config.AiRoutingProperties;
+import io.github.timemachinelab.core.session.infrastructure.ai.limiter.AdaptiveConcurrencyLimiter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * AI操作多模型路由
+ * - 按EWMA延迟选择最快的健康模型，连续失败的模型熔断一段时间
+ * - 离群剔除：最近请求的EWMA延迟或错误率明显差于同操作其他模型中位数的端点剔除一段时间，
+ *   覆盖间歇失败、从不连续失败因而不会触发熔断的端点；剔除后至少保留一个可用端点
+ * - 可选对冲：首个请求超过该模型p90延迟仍未返回时，向次优模型再发一次，取先返回的有效结果并取消另一个；
+ *   对冲请求需要单独的并发许可，限流器没有空闲容量时不对冲
+ *
+ * @author suifeng
+ * 日期: 2025/8/30
+ */
+@Component
+@Slf4j
+public class ModelRouter {
+
+    private final AiRoutingProperties properties;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final ExecutorService hedgeExecutor;
+    private final LongSupplier clock;
+
+    /**
+     * 操作名 -> 模型名 -> 端点状态
+     */
+    private final Map<String, Map<String, EndpointStats>> endpoints = new ConcurrentHashMap<>();
+
+    private final LongAdder routed = new LongAdder();
+    private final LongAdder failovers = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder hedgesSkipped = new LongAdder();
+    private final LongAdder outlierEjections = new LongAdder();
+
+    @Autowired
+    public ModelRouter(AiRoutingProperties properties, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this(properties, concurrencyLimiter, System::currentTimeMillis);
+    }
+
+    ModelRouter(AiRoutingProperties properties, AdaptiveConcurrencyLimiter concurrencyLimiter, LongSupplier clock) {
+        this.properties = properties;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.clock = clock;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.hedgeExecutor = Executors.newFixedThreadPool(Math.max(2, properties.getHedgeThreads()), r -> {
+            Thread thread = new Thread(r, "ai-hedge-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hedgeExecutor.shutdownNow();
+    }
+
+    /**
+     * 操作是否配置了多模型路由
+     */
+    public boolean isRouted(String operationType) {
+        if (!properties.isEnabled()) {
+            return false;
+        }
+        List<String> models = properties.getOperations().get(operationType);
+        return models != null && !models.isEmpty();
+    }
+
+    /**
+     * 按路由策略执行调用
+     *
+     * @param operationType AI操作名
+     * @param call 模型名 -> 实际调用
+     * @return 调用结果
+     */
+    public <T> T execute(String operationType, Function<String, T> call) {
+        return execute(operationType, call, model -> { });
+    }
+
+    /**
+     * 按路由策略执行调用，并告知最终返回结果的模型
+     *
+     * @param operationType AI操作名
+     * @param call 模型名 -> 实际调用
+     * @param onAnswered 接收返回结果的模型名，在返回前于调用线程上回调
+     * @return 调用结果
+     */
+    public <T> T execute(String operationType, Function<String, T> call, Consumer<String> onAnswered) {
+        List<EndpointStats> candidates = rank(operationType);
+        routed.increment();
+        if (properties.isHedgeEnabled() && candidates.size() > 1) {
+            return executeHedged(candidates, call, onAnswered);
+        }
+
+        RuntimeException last = null;
+        for (int i = 0; i < candidates.size(); i++) {
+            EndpointStats endpoint = candidates.get(i);
+            if (i > 0) {
+                failovers.increment();
+                log.warn("模型调用失败，切换到: {}", endpoint.getModel());
+            }
+            try {
+                T result = invoke(endpoint, call);
+                onAnswered.accept(endpoint.getModel());
+                return result;
+            } catch (RuntimeException e) {
+                last = e;
+            }
+        }
+        throw last;
+    }
+
+    /**
+     * 当前会被优先选择的模型
+     *
+     * @param operationType AI操作名
+     * @return 模型名
+     */
+    public String selectModel(String operationType) {
+        return rank(operationType).get(0).getModel();
+    }
+
+    /**
+     * 获取路由状态
+     */
+    public Map<String, Object> getStats() {
+        long now = clock.getAsLong();
+        Map<String, Object> stats = new HashMap<>();
+        Map<String, Object> operations = new HashMap<>();
+        endpoints.forEach((operationType, models) -> {
+            List<Map<String, Object>> snapshots = new ArrayList<>();
+            models.values().forEach(endpoint -> snapshots.add(endpoint.snapshot(now)));
+            operations.put(operationType, snapshots);
+        });
+        stats.put("enabled", properties.isEnabled());
+        stats.put("hedgeEnabled", properties.isHedgeEnabled());
+        stats.put("operations", operations);
+        stats.put("routed", routed.sum());
+        stats.put("failovers", failovers.sum());
+        stats.put("hedges", hedges.sum());
+        stats.put("hedgeWins", hedgeWins.sum());
+        stats.put("hedgesSkipped", hedgesSkipped.sum());
+        stats.put("outlierEjections", outlierEjections.sum());
+        stats.put("timestamp", now);
+        return stats;
+    }
+
+    /**
+     * 可用端点按EWMA延迟升序排列；全部熔断时忽略熔断状态，避免完全不可用
+     */
+    private List<EndpointStats> rank(String operationType) {
+        Map<String, EndpointStats> models = endpoints.computeIfAbsent(operationType, k -> new ConcurrentHashMap<>());
+        long now = clock.getAsLong();
+        List<EndpointStats> all = new ArrayList<>();
+        for (String model : properties.getOperations().get(operationType)) {
+            all.add(models.computeIfAbsent(model,
+                    m -> new EndpointStats(m, properties.getEwmaAlpha(), properties.getLatencyWindow())));
+        }
+        if (properties.isOutlierDetectionEnabled()) {
+            ejectOutliers(operationType, all, now);
+        }
+        List<EndpointStats> available = new ArrayList<>();
+        for (EndpointStats endpoint : all) {
+            if (endpoint.isAvailable(now)) {
+                available.add(endpoint);
+            }
+        }
+        List<EndpointStats> candidates = available.isEmpty() ? all : available;
+        if (available.isEmpty()) {
+            log.warn("操作 {} 的所有模型均已熔断，忽略熔断状态", operationType);
+        }
+        candidates.sort(Comparator.comparingDouble(EndpointStats::getEwmaMs));
+        return candidates;
+    }
+
+    /**
+     * 与同操作其他端点比较，剔除EWMA延迟或错误率明显偏离中位数的端点
+     * 只有样本数足够的可用端点参与比较，且至少保留一个可用端点
+     */
+    private void ejectOutliers(String operationType, List<EndpointStats> all, long now) {
+        List<EndpointStats> eligible = new ArrayList<>();
+        int available = 0;
+        for (EndpointStats endpoint : all) {
+            if (!endpoint.isAvailable(now)) {
+                continue;
+            }
+            available++;
+            if (endpoint.getRecentRequests() >= properties.getOutlierMinRequests()) {
+                eligible.add(endpoint);
+            }
+        }
+        if (eligible.size() < 2) {
+            return;
+        }
+        // 先取快照，剔除会清空端点样本，不能影响其余端点的比较基准
+        int size = eligible.size();
+        double[] latencies = new double[size];
+        double[] errorRates = new double[size];
+        for (int i = 0; i < size; i++) {
+            latencies[i] = eligible.get(i).getEwmaMs();
+            errorRates[i] = eligible.get(i).getErrorRate();
+        }
+        for (int i = 0; i < size && available > 1; i++) {
+            List<Double> peerLatencies = new ArrayList<>();
+            List<Double> peerErrorRates = new ArrayList<>();
+            for (int j = 0; j < size; j++) {
+                if (j != i) {
+                    peerLatencies.add(latencies[j]);
+                    peerErrorRates.add(errorRates[j]);
+                }
+            }
+            double peerLatencyMs = median(peerLatencies);
+            double peerErrorRate = median(peerErrorRates);
+            boolean slow = peerLatencyMs > 0 && latencies[i] > peerLatencyMs * properties.getOutlierLatencyFactor();
+            boolean failing = errorRates[i] - peerErrorRate >= properties.getOutlierErrorRateDelta();
+            EndpointStats endpoint = eligible.get(i);
+            if ((slow || failing)
+                    && endpoint.eject(now, TimeUnit.SECONDS.toMillis(properties.getOutlierEjectSeconds()))) {
+                available--;
+                outlierEjections.increment();
+                log.warn("操作 {} 的模型 {} 离群剔除 - EWMA延迟: {}ms(其他模型中位数 {}ms), 错误率: {}(其他模型中位数 {})",
+                        operationType, endpoint.getModel(), Math.round(latencies[i]), Math.round(peerLatencyMs),
+                        errorRates[i], peerErrorRate);
+            }
+        }
+    }
+
+    private static double median(List<Double> values) {
+        values.sort(null);
+        int size = values.size();
+        return size % 2 == 1 ? values.get(size / 2) : (values.get(size / 2 - 1) + values.get(size / 2)) / 2;
+    }
+
+    private <T> T invoke(EndpointStats endpoint, Function<String, T> call) {
+        endpoint.onSelected(clock.getAsLong());
+        long start = clock.getAsLong();
+        try {
+            T result = call.apply(endpoint.getModel());
+            endpoint.recordSuccess(clock.getAsLong() - start);
+            return result;
+        } catch (RuntimeException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                endpoint.recordCancelled();
+            } else {
+                endpoint.recordFailure(clock.getAsLong(), properties.getFailureThreshold(),
+                        TimeUnit.SECONDS.toMillis(properties.getOpenSeconds()));
+            }
+            throw e;
+        }
+    }
+
+    private <T> T executeHedged(List<EndpointStats> candidates, Function<String, T> call, Consumer<String> onAnswered) {
+        ExecutorCompletionService<T> completion = new ExecutorCompletionService<>(hedgeExecutor);
+        Map<Future<T>, HedgedCall<T>> running = new HashMap<>();
+        EndpointStats primary = candidates.get(0);
+        // 首个请求使用调用方已持有的许可
+        HedgedCall<T> first = new HedgedCall<>(primary, call, null);
+        running.put(completion.submit(first), first);
+        int next = 1;
+        RuntimeException last = null;
+
+        try {
+            Future<T> done = completion.poll(hedgeDelayMs(primary), TimeUnit.MILLISECONDS);
+            while (true) {
+                if (done == null && next < candidates.size()) {
+                    // 超过对冲阈值仍未返回，或已有请求失败，向下一个模型补发
+                    EndpointStats hedge = candidates.get(next);
+                    if (running.isEmpty()) {
+                        // 之前的请求都已结束，调用方的许可已空闲
+                        next++;
+                        HedgedCall<T> failover = new HedgedCall<>(hedge, call, null);
+                        running.put(completion.submit(failover), failover);
+                    } else {
+                        AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimiter.isEnabled() ? concurrencyLimiter.tryAcquire() : null;
+                        if (concurrencyLimiter.isEnabled() && permit == null) {
+                            hedgesSkipped.increment();
+                            log.info("没有空闲的调用容量，不对冲，继续等待模型: {}", primary.getModel());
+                        } else {
+                            next++;
+                            hedges.increment();
+                            log.info("模型 {} 超过对冲阈值，对冲到: {}", primary.getModel(), hedge.getModel());
+                            HedgedCall<T> hedged = new HedgedCall<>(hedge, call, permit);
+                            running.put(completion.submit(hedged), hedged);
+                        }
+                    }
+                }
+                if (done == null) {
+                    if (running.isEmpty()) {
+                        throw last;
+                    }
+                    done = completion.take();
+                }
+
+                EndpointStats endpoint = running.remove(done).endpoint;
+                try {
+                    T result = done.get();
+                    if (endpoint != primary) {
+                        hedgeWins.increment();
+                        endpoint.recordHedgeWin();
+                    }
+                    onAnswered.accept(endpoint.getModel());
+                    return result;
+                } catch (ExecutionException e) {
+                    last = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause()
+                            : new IllegalStateException(e.getCause());
+                    done = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("模型调用被中断", e);
+        } finally {
+            running.forEach((future, pending) -> pending.cancel(future));
+        }
+    }
+
+    /**
+     * 对冲中的一次调用，持有单独许可时在调用真正结束后才释放
+     */
+    private class HedgedCall<T> implements Callable<T> {
+        private final EndpointStats endpoint;
+        private final Function<String, T> call;
+        private final AdaptiveConcurrencyLimiter.Permit permit;
+
+        /**
+         * 调用线程与取消方只有一方能认领：调用线程认领后负责释放许可，取消方认领时调用不再执行
+         */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private HedgedCall(EndpointStats endpoint, Function<String, T> call, AdaptiveConcurrencyLimiter.Permit permit) {
+            this.endpoint = endpoint;
+            this.call = call;
+            this.permit = permit;
+        }
+
+        @Override
+        public T call() {
+            if (!claimed.compareAndSet(false, true)) {
+                throw new CancellationException("对冲请求已取消");
+            }
+            try {
+                T result = invoke(endpoint, call);
+                if (permit != null) {
+                    permit.complete();
+                }
+                return result;
+            } catch (RuntimeException e) {
+                if (permit != null) {
+                    permit.fail(e);
+                }
+                throw e;
+            } finally {
+                if (permit != null) {
+                    permit.abandon();
+                }
+            }
+        }
+
+        private void cancel(Future<T> future) {
+            future.cancel(true);
+            if (claimed.compareAndSet(false, true) && permit != null) {
+                permit.abandon();
+            }
+        }
+    }
+
+    private long hedgeDelayMs(EndpointStats endpoint) {
+        long percentile = endpoint.percentile(properties.getHedgePercentile());
+        return Math.max(properties.getMinHedgeDelayMs(), percentile);
+    }
+}
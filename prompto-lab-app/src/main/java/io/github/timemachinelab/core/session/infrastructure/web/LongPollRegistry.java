@@ -0,0 +1,181 @@
+package io.github.timemachinelab.core.session.infrastructure.web;
+
+import com.alibaba.fastjson2.JSON;
+import io.github.timemachinelab.config.SseProperties;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 长轮询等待登记
+ * 供无法使用text/event-stream的客户端（如被代理缓冲的企业网络）获取事件，与SSE共用会话事件日志。
+ * 没有新事件时请求以DeferredResult挂起，不占用线程；事件追加后立即唤醒该会话的所有等待请求。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Component
+public class LongPollRegistry {
+
+    private final SseProperties properties;
+
+    /**
+     * 会话ID -> 挂起的请求
+     */
+    private final Map<String, Set<Waiter>> waiters = new ConcurrentHashMap<>();
+
+    private final LongAdder immediate = new LongAdder();
+    private final LongAdder parked = new LongAdder();
+    private final LongAdder woken = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder released = new LongAdder();
+
+    public LongPollRegistry(SseProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * 获取since之后的事件，暂无事件时挂起请求
+     *
+     * @param sessionId 会话ID
+     * @param stream 会话事件流
+     * @param since 客户端最后收到的事件ID，可为null
+     * @return 异步结果
+     */
+    public DeferredResult<ResponseEntity<String>> poll(String sessionId, SseEventLog.EventStream stream, String since) {
+        // 超时返回空结果，客户端带同一个since再次请求
+        DeferredResult<ResponseEntity<String>> result = new DeferredResult<>(properties.getLongPollTimeoutMs());
+        // 与事件追加共用事件流的锁，登记和唤醒之间不会漏掉事件
+        synchronized (stream) {
+            List<SseFrame> missed = stream.since(since);
+            if (missed == null || !missed.isEmpty()) {
+                // 无法追溯时要求客户端重新同步对话树
+                immediate.increment();
+                result.setResult(response(stream.lastId(), missed, missed == null));
+                return result;
+            }
+            Waiter waiter = new Waiter(result, since);
+            waiters.computeIfAbsent(sessionId, key -> ConcurrentHashMap.newKeySet()).add(waiter);
+            result.onTimeout(() -> {
+                timedOut.increment();
+                remove(sessionId, waiter);
+                result.setResult(response(stream.lastId(), null, false));
+            });
+            result.onCompletion(() -> remove(sessionId, waiter));
+            parked.increment();
+        }
+        return result;
+    }
+
+    /**
+     * 会话有新事件时唤醒挂起的请求，调用方需持有事件流的锁
+     *
+     * @param sessionId 会话ID
+     * @param stream 会话事件流
+     */
+    public void wake(String sessionId, SseEventLog.EventStream stream) {
+        Set<Waiter> sessionWaiters = waiters.remove(sessionId);
+        if (sessionWaiters == null) {
+            return;
+        }
+        for (Waiter waiter : sessionWaiters) {
+            List<SseFrame> missed = stream.since(waiter.since);
+            if (waiter.result.setResult(response(stream.lastId(), missed, missed == null))) {
+                woken.increment();
+            }
+        }
+    }
+
+    /**
+     * 会话移除时结束该会话所有挂起的请求，客户端收到404后不再轮询
+     *
+     * @param sessionId 会话ID
+     * @return 结束的请求数
+     */
+    public int removeAll(String sessionId) {
+        Set<Waiter> sessionWaiters = waiters.remove(sessionId);
+        if (sessionWaiters == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Waiter waiter : sessionWaiters) {
+            if (waiter.result.setResult(ResponseEntity.notFound().build())) {
+                count++;
+            }
+        }
+        released.add(count);
+        return count;
+    }
+
+    /**
+     * 会话是否有挂起的长轮询请求
+     */
+    public boolean hasWaiters(String sessionId) {
+        return waiters.containsKey(sessionId);
+    }
+
+    /**
+     * 获取长轮询统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("waiting", waiters.values().stream().mapToInt(Set::size).sum());
+        stats.put("immediate", immediate.sum());
+        stats.put("parked", parked.sum());
+        stats.put("woken", woken.sum());
+        stats.put("timedOut", timedOut.sum());
+        stats.put("released", released.sum());
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+
+    /**
+     * 事件的data与SSE一致，为事件数据的原始文本
+     */
+    private ResponseEntity<String> response(long lastEventId, List<SseFrame> events, boolean resync) {
+        List<Map<String, Object>> items = new ArrayList<>(events != null ? events.size() : 0);
+        if (events != null) {
+            for (SseFrame frame : events) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("id", frame.getId());
+                item.put("event", frame.getName());
+                item.put("data", frame.getData());
+                items.add(item);
+            }
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("lastEventId", lastEventId);
+        if (resync) {
+            body.put("resync", true);
+        }
+        body.put("events", items);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(JSON.toJSONString(body));
+    }
+
+    private void remove(String sessionId, Waiter waiter) {
+        waiters.computeIfPresent(sessionId, (key, sessionWaiters) -> {
+            sessionWaiters.remove(waiter);
+            return sessionWaiters.isEmpty() ? null : sessionWaiters;
+        });
+    }
+
+    private static class Waiter {
+        private final DeferredResult<ResponseEntity<String>> result;
+        private final String since;
+
+        private Waiter(DeferredResult<ResponseEntity<String>> result, String since) {
+            this.result = result;
+            this.since = since;
+        }
+    }
+}
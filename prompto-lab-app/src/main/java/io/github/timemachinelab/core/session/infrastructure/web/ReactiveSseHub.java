@@ -0,0 +1,200 @@
+package io.github.timemachinelab.core.session.infrastructure.web;
+
+import io.github.timemachinelab.config.SseProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 响应式SSE连接中心
+ * 每个连接持有一个有界的Sinks.Many，投递事件只做非阻塞入队，AI回调线程不会被慢客户端阻塞；
+ * 缓冲区满时丢弃非关键事件，关键事件溢出则断开连接，由客户端按Last-Event-ID重连补发。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Component
+@Slf4j
+public class ReactiveSseHub {
+
+    private static final ServerSentEvent<String> HEARTBEAT = ServerSentEvent.<String>builder().comment("ping").build();
+
+    private final SseProperties properties;
+
+    /**
+     * 会话ID -> 连接
+     */
+    private final Map<String, Set<Connection>> connections = new ConcurrentHashMap<>();
+
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder emitted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder overflowDisconnects = new LongAdder();
+
+    public ReactiveSseHub(SseProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * 打开连接，先发送连接数据和补发的事件，再接收之后投递的事件
+     * 连接在调用时即开始缓冲，订阅前投递的事件不会丢失
+     *
+     * @param sessionId 会话ID
+     * @param welcome 连接数据事件
+     * @param missed 补发的事件，可为null
+     * @param encoding 事件数据编码方式
+     * @return 事件流
+     */
+    public Flux<ServerSentEvent<String>> open(String sessionId, SseFrame welcome, List<SseFrame> missed,
+                                              SseEventEncoder.Encoding encoding) {
+        boolean jsonb = encoding == SseEventEncoder.Encoding.JSONB;
+        List<ServerSentEvent<String>> initial = new ArrayList<>(missed != null ? missed.size() + 1 : 1);
+        initial.add(toEvent(jsonb ? welcome.toJsonb() : welcome));
+        if (missed != null) {
+            for (SseFrame frame : missed) {
+                initial.add(toEvent(jsonb ? frame.toJsonb() : frame));
+            }
+        }
+
+        Connection connection = new Connection(sessionId, Math.max(1, properties.getReactiveBufferSize()), jsonb);
+        connections.compute(sessionId, (key, existing) -> {
+            Set<Connection> result = existing != null ? existing : ConcurrentHashMap.newKeySet();
+            result.add(connection);
+            return result;
+        });
+        opened.increment();
+
+        Flux<ServerSentEvent<String>> live = connection.sink.asFlux();
+        if (properties.isHeartbeatEnabled() && properties.getHeartbeatIntervalMs() > 0) {
+            live = Flux.merge(live, Flux.interval(Duration.ofMillis(properties.getHeartbeatIntervalMs())).map(tick -> HEARTBEAT));
+        }
+        return Flux.concat(Flux.fromIterable(initial), live)
+                .doFinally(signal -> close(connection));
+    }
+
+    /**
+     * 向会话的所有响应式连接投递事件，不阻塞调用线程
+     * 同一会话的投递需由调用方串行化
+     *
+     * @param sessionId 会话ID
+     * @param frame 事件帧
+     * @return 成功入队的连接数
+     */
+    public int emit(String sessionId, SseFrame frame) {
+        Set<Connection> sessionConnections = connections.get(sessionId);
+        if (sessionConnections == null || sessionConnections.isEmpty()) {
+            return 0;
+        }
+        // 每种编码的事件对象只创建一次，同编码的连接共用
+        ServerSentEvent<String> jsonEvent = null;
+        ServerSentEvent<String> jsonbEvent = null;
+        int delivered = 0;
+        for (Connection connection : sessionConnections) {
+            ServerSentEvent<String> event;
+            if (connection.jsonb) {
+                event = jsonbEvent != null ? jsonbEvent : (jsonbEvent = toEvent(frame.toJsonb()));
+            } else {
+                event = jsonEvent != null ? jsonEvent : (jsonEvent = toEvent(frame));
+            }
+            Sinks.EmitResult result = connection.sink.tryEmitNext(event);
+            if (result.isSuccess()) {
+                emitted.increment();
+                delivered++;
+            } else if (isBufferFull(result) && !frame.isCritical()) {
+                dropped.increment();
+            } else if (isBufferFull(result)) {
+                overflowDisconnects.increment();
+                log.warn("响应式SSE发送缓冲区已满，断开连接等待重连补发 - 会话: {}, 事件ID: {}", sessionId, frame.getId());
+                connection.sink.tryEmitError(new IllegalStateException("SSE发送缓冲区已满"));
+                close(connection);
+            } else {
+                // 连接已取消或已终止，结束sink释放缓冲的事件
+                connection.sink.tryEmitComplete();
+                close(connection);
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * 会话是否有响应式连接
+     */
+    public boolean hasSubscribers(String sessionId) {
+        Set<Connection> sessionConnections = connections.get(sessionId);
+        return sessionConnections != null && !sessionConnections.isEmpty();
+    }
+
+    /**
+     * 已有响应式连接的会话
+     */
+    public Set<String> sessionIds() {
+        return connections.keySet();
+    }
+
+    /**
+     * 获取响应式连接统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("sessions", connections.size());
+        stats.put("connections", connections.values().stream().mapToInt(Set::size).sum());
+        stats.put("opened", opened.sum());
+        stats.put("closed", closed.sum());
+        stats.put("emitted", emitted.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("overflowDisconnects", overflowDisconnects.sum());
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+
+    /**
+     * 投递失败是否由缓冲区已满导致
+     * 尚未订阅的单播sink在缓冲区满时返回FAIL_ZERO_SUBSCRIBER而不是FAIL_OVERFLOW
+     */
+    private static boolean isBufferFull(Sinks.EmitResult result) {
+        return result == Sinks.EmitResult.FAIL_OVERFLOW || result == Sinks.EmitResult.FAIL_ZERO_SUBSCRIBER;
+    }
+
+    /**
+     * 事件帧转换为ServerSentEvent
+     */
+    private static ServerSentEvent<String> toEvent(SseFrame frame) {
+        return ServerSentEvent.builder(frame.getData()).id(frame.getId()).event(frame.getName()).build();
+    }
+
+    private void close(Connection connection) {
+        boolean[] removed = new boolean[1];
+        connections.computeIfPresent(connection.sessionId, (key, sessionConnections) -> {
+            removed[0] = sessionConnections.remove(connection);
+            return sessionConnections.isEmpty() ? null : sessionConnections;
+        });
+        if (removed[0]) {
+            closed.increment();
+        }
+    }
+
+    private static class Connection {
+        private final String sessionId;
+        private final Sinks.Many<ServerSentEvent<String>> sink;
+        private final boolean jsonb;
+
+        private Connection(String sessionId, int bufferSize, boolean jsonb) {
+            this.sessionId = sessionId;
+            this.jsonb = jsonb;
+            this.sink = Sinks.many().unicast().onBackpressureBuffer(Queues.<ServerSentEvent<String>>get(bufferSize).get());
+        }
+    }
+}
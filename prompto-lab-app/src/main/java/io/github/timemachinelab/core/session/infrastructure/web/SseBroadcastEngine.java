@@ -0,0 +1,354 @@
+package io.github.timemachinelab.core.session.infrastructure.web;
+
+import io.github.timemachinelab.config.SseProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * SSE广播引擎
+ * 目标按分区并行写入，线程池和任务队列都有上限，队列满时拒绝并计数，不在调用方线程上写入；
+ * 看门狗在写入进行中检查单个目标的时限，超时的写入被中断，该分区继续写后续目标；
+ * 单个目标写入超时或失败只影响该目标，整体超过广播时限时剩余目标跳过，调用方得到成功、失败和延迟统计。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Component
+@Slf4j
+public class SseBroadcastEngine {
+
+    /**
+     * 每个分区的最少目标数，目标较少时不拆分，避免调度开销超过写入本身
+     */
+    private static final int MIN_PARTITION_SIZE = 64;
+
+    /**
+     * 向单个目标写入
+     */
+    @FunctionalInterface
+    public interface Writer<T> {
+
+        /**
+         * @param target 广播目标
+         * @return 是否送达，目标已不存在时返回false
+         */
+        boolean write(T target) throws Exception;
+    }
+
+    private final SseProperties properties;
+    private final ThreadPoolExecutor pool;
+    private final ScheduledExecutorService watchdog;
+
+    /**
+     * 正在进行的目标写入，数量不超过广播线程数，看门狗只检查这些写入
+     */
+    private final Set<InFlightWrite> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder broadcasts = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public SseBroadcastEngine(SseProperties properties) {
+        this.properties = properties;
+        int threads = Math.max(1, properties.getBroadcastThreads());
+        AtomicInteger threadIndex = new AtomicInteger();
+        // 队列满时拒绝，调用方线程不参与网络写入
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1024), r -> {
+            Thread thread = new Thread(r, "sse-broadcast-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sse-broadcast-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(5, properties.getBroadcastClientTimeoutMs() / 4);
+        watchdog.scheduleWithFixedDelay(this::checkWrites, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    /**
+     * 并行广播并等待完成或超过广播时限
+     *
+     * @param targets 广播目标
+     * @param writer 写入方法，事件应事先编码好，各目标写入同一份数据
+     * @param onFailure 写入失败或超时的目标回调，在该目标的写入返回后于广播线程上执行，可为null
+     * @return 广播结果
+     */
+    public <T> BroadcastResult broadcast(List<T> targets, Writer<T> writer, Consumer<T> onFailure) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(properties.getBroadcastTimeoutMs());
+        long clientTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(properties.getBroadcastClientTimeoutMs());
+        int partitions = Math.max(1, Math.min(pool.getMaximumPoolSize(), (targets.size() + MIN_PARTITION_SIZE - 1) / MIN_PARTITION_SIZE));
+        BroadcastResult result = new BroadcastResult(targets.size(), partitions);
+        CountDownLatch done = new CountDownLatch(partitions);
+
+        int partitionSize = (targets.size() + partitions - 1) / partitions;
+        for (int p = 0; p < partitions; p++) {
+            List<T> partition = targets.subList(Math.min(targets.size(), p * partitionSize),
+                    Math.min(targets.size(), (p + 1) * partitionSize));
+            try {
+                pool.execute(() -> {
+                    try {
+                        for (T target : partition) {
+                            write(target, writer, onFailure, deadline, clientTimeoutNanos, result);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+                result.skipped.addAndGet(partition.size());
+                skipped.add(partition.size());
+                done.countDown();
+                log.warn("广播线程池已满，跳过分区 - 目标数: {}", partition.size());
+            }
+        }
+
+        try {
+            done.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        result.elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        broadcasts.increment();
+        return result;
+    }
+
+    /**
+     * 在广播线程池上执行单个写入任务，调用线程不等待
+     *
+     * @param task 写入任务
+     * @return 是否已受理，线程池队列已满时拒绝并计数
+     */
+    public boolean execute(Runnable task) {
+        try {
+            pool.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            log.warn("广播线程池已满，拒绝写入任务");
+            return false;
+        }
+    }
+
+    /**
+     * 获取广播统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("broadcasts", broadcasts.sum());
+        stats.put("delivered", delivered.sum());
+        stats.put("failed", failed.sum());
+        stats.put("timedOut", timedOut.sum());
+        stats.put("skipped", skipped.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("activeThreads", pool.getActiveCount());
+        stats.put("queuedTasks", pool.getQueue().size());
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+
+    private <T> void write(T target, Writer<T> writer, Consumer<T> onFailure, long deadline,
+                           long clientTimeoutNanos, BroadcastResult result) {
+        long start = System.nanoTime();
+        if (start - deadline > 0) {
+            result.skipped.incrementAndGet();
+            skipped.increment();
+            return;
+        }
+        InFlightWrite current = new InFlightWrite(Thread.currentThread(), target, start, clientTimeoutNanos, result);
+        inFlight.add(current);
+        boolean ok;
+        try {
+            ok = writer.write(target);
+        } catch (Exception e) {
+            ok = false;
+            if (!current.isTimedOut()) {
+                log.warn("广播写入失败 - 目标: {}, 错误: {}", target, e.getMessage());
+            }
+        } finally {
+            inFlight.remove(current);
+        }
+        boolean expired = current.finish();
+        long latency = System.nanoTime() - start;
+        result.maxLatencyNanos.accumulate(latency);
+        result.totalLatencyNanos.add(latency);
+        if (!expired && ok && latency <= clientTimeoutNanos) {
+            result.delivered.incrementAndGet();
+            delivered.increment();
+            return;
+        }
+        if (expired) {
+            // 看门狗已在写入进行中计为超时
+        } else if (ok) {
+            // 在看门狗检查前写完但超过时限，同样断开该目标
+            log.warn("广播写入超时 - 目标: {}, 耗时: {} ms", target, TimeUnit.NANOSECONDS.toMillis(latency));
+            result.timedOut.incrementAndGet();
+            timedOut.increment();
+        } else {
+            result.failed.incrementAndGet();
+            failed.increment();
+        }
+        if (onFailure != null) {
+            try {
+                onFailure.accept(target);
+            } catch (Exception e) {
+                log.warn("广播失败回调异常 - 目标: {}, 错误: {}", target, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 写入看门狗：进行中的写入超过单目标时限时计为超时并中断写线程，分区继续写后续目标
+     */
+    private void checkWrites() {
+        long now = System.nanoTime();
+        for (InFlightWrite write : inFlight) {
+            if (write.expire(now)) {
+                log.warn("广播写入超时，中断写入 - 目标: {}, 时限: {} ms", write.target,
+                        TimeUnit.NANOSECONDS.toMillis(write.timeoutNanos));
+            }
+        }
+    }
+
+    /**
+     * 进行中的单个目标写入
+     * 写线程与看门狗只有一方能结束本次写入：看门狗先结束时中断写线程，写线程随后结束时清除这次中断
+     */
+    private class InFlightWrite {
+        private final Thread thread;
+        private final Object target;
+        private final long startNanos;
+        private final long timeoutNanos;
+        private final BroadcastResult result;
+        private boolean finished;
+        private boolean timedOut;
+
+        private InFlightWrite(Thread thread, Object target, long startNanos, long timeoutNanos, BroadcastResult result) {
+            this.thread = thread;
+            this.target = target;
+            this.startNanos = startNanos;
+            this.timeoutNanos = timeoutNanos;
+            this.result = result;
+        }
+
+        private synchronized boolean expire(long now) {
+            if (finished || timedOut || now - startNanos <= timeoutNanos) {
+                return false;
+            }
+            timedOut = true;
+            // 先计入结果再中断，写线程返回时结果已包含这次超时
+            result.timedOut.incrementAndGet();
+            SseBroadcastEngine.this.timedOut.increment();
+            thread.interrupt();
+            return true;
+        }
+
+        private synchronized boolean isTimedOut() {
+            return timedOut;
+        }
+
+        /**
+         * @return 是否已被看门狗判定超时
+         */
+        private synchronized boolean finish() {
+            finished = true;
+            if (timedOut) {
+                Thread.interrupted();
+            }
+            return timedOut;
+        }
+    }
+
+    /**
+     * 广播结果
+     * 返回时仍在写入的目标计为pending
+     */
+    public static class BroadcastResult {
+        private final int targets;
+        private final int partitions;
+        private long elapsedMs;
+
+        private final AtomicInteger delivered = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger timedOut = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder totalLatencyNanos = new LongAdder();
+
+        private BroadcastResult(int targets, int partitions) {
+            this.targets = targets;
+            this.partitions = partitions;
+        }
+
+        public int getTargets() {
+            return targets;
+        }
+
+        public int getPartitions() {
+            return partitions;
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        public int getDelivered() {
+            return delivered.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        public int getTimedOut() {
+            return timedOut.get();
+        }
+
+        public int getSkipped() {
+            return skipped.get();
+        }
+
+        public int getPending() {
+            return targets - getDelivered() - getFailed() - getTimedOut() - getSkipped();
+        }
+
+        public double getMaxLatencyMs() {
+            return maxLatencyNanos.get() / 1_000_000.0;
+        }
+
+        public double getAvgLatencyMs() {
+            int written = getDelivered() + getFailed() + getTimedOut();
+            return written == 0 ? 0 : totalLatencyNanos.sum() / 1_000_000.0 / written;
+        }
+    }
+}
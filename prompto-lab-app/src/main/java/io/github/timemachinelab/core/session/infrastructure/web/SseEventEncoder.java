@@ -0,0 +1,104 @@
+package io.github.timemachinelab.core.session.infrastructure.web;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONB;
+import com.alibaba.fastjson2.JSONFactory;
+import com.alibaba.fastjson2.JSONWriter;
+import com.alibaba.fastjson2.writer.ObjectWriterProvider;
+import io.github.timemachinelab.core.question.FormQuestion;
+import io.github.timemachinelab.core.question.InputQuestion;
+import io.github.timemachinelab.core.question.MultipleChoiceQuestion;
+import io.github.timemachinelab.core.question.SingleChoiceQuestion;
+import io.github.timemachinelab.core.serializable.JsonNode;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SSE事件编码器
+ * 事件数据用fastjson2编码为紧凑JSON：省略null和默认值，问题和树节点的序列化器在启动时预先生成。
+ * 客户端可通过encoding=jsonb协商JSONB编码（base64文本），同一事件的JSONB形式只转换一次。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Component
+public class SseEventEncoder {
+
+    /**
+     * 事件数据编码方式
+     */
+    public enum Encoding {
+        JSON,
+        JSONB;
+
+        /**
+         * 解析客户端协商的编码方式，无法识别时使用JSON
+         */
+        public static Encoding of(String value) {
+            return "jsonb".equalsIgnoreCase(value) ? JSONB : JSON;
+        }
+    }
+
+    private static final JSONWriter.Context WRITE_CONTEXT = JSONFactory.createWriteContext(JSONWriter.Feature.NotWriteDefaultValue);
+
+    private final LongAdder encoded = new LongAdder();
+    private final LongAdder encodedBytes = new LongAdder();
+
+    public SseEventEncoder() {
+        // 预先生成SSE事件中常见类型的序列化器，首个事件不再承担生成开销
+        ObjectWriterProvider provider = JSONFactory.getDefaultObjectWriterProvider();
+        for (Class<?> type : new Class<?>[]{SingleChoiceQuestion.class, MultipleChoiceQuestion.class,
+                InputQuestion.class, FormQuestion.class, JsonNode.class}) {
+            provider.getObjectWriter(type);
+        }
+    }
+
+    /**
+     * 编码事件数据：字符串按原文发送，其他对象编码为紧凑JSON
+     *
+     * @param data 事件数据
+     * @return 编码结果
+     */
+    public String encode(Object data) {
+        String payload = data instanceof String ? (String) data : JSON.toJSONString(data, WRITE_CONTEXT);
+        encoded.increment();
+        encodedBytes.add(payload.getBytes(StandardCharsets.UTF_8).length);
+        return payload;
+    }
+
+    /**
+     * 将已编码的事件数据转换为JSONB（base64文本），非JSON文本按字符串编码
+     *
+     * @param payload 事件数据
+     * @return base64编码的JSONB
+     */
+    public static String toJsonb(String payload) {
+        return Base64.getEncoder().encodeToString(JSONB.toBytes(decode(payload)));
+    }
+
+    /**
+     * 将已编码的事件数据还原为对象，非JSON文本原样返回，用于嵌入其他结构后重新编码
+     *
+     * @param payload 事件数据
+     * @return 解析后的对象或原文本
+     */
+    public static Object decode(String payload) {
+        return JSON.isValidObject(payload) || JSON.isValidArray(payload) ? JSON.parse(payload) : payload;
+    }
+
+    /**
+     * 获取编码统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("encoded", encoded.sum());
+        stats.put("encodedBytes", encodedBytes.sum());
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+}
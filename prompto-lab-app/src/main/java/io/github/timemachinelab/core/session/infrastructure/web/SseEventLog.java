@@ -0,0 +1,145 @@
+package io.github.timemachinelab.core.session.infrastructure.web;
+
+import io.github.timemachinelab.config.SseProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SSE事件日志
+ * 为每个会话的事件分配递增ID，并在环形缓冲区中保留最近的已编码事件，
+ * 客户端断线重连时按Last-Event-ID只补发缺失的事件。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Component
+public class SseEventLog {
+
+    private final SseProperties properties;
+
+    /**
+     * 会话ID -> 事件流
+     */
+    private final Map<String, EventStream> streams = new ConcurrentHashMap<>();
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder replays = new LongAdder();
+    private final LongAdder replayedEvents = new LongAdder();
+    private final LongAdder overruns = new LongAdder();
+
+    public SseEventLog(SseProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * 获取会话的事件流，不存在时创建
+     * 追加事件和补发事件都需要持有事件流的锁，保证同一连接上事件按ID顺序到达
+     *
+     * @param sessionId 会话ID
+     * @return 事件流
+     */
+    public EventStream stream(String sessionId) {
+        return streams.computeIfAbsent(sessionId, key -> new EventStream(Math.max(1, properties.getReplayBufferSize())));
+    }
+
+    /**
+     * 清理会话的事件流
+     *
+     * @param sessionId 会话ID
+     */
+    public void remove(String sessionId) {
+        streams.remove(sessionId);
+    }
+
+    /**
+     * 获取事件日志统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("sessions", streams.size());
+        stats.put("appended", appended.sum());
+        stats.put("replays", replays.sum());
+        stats.put("replayedEvents", replayedEvents.sum());
+        stats.put("overruns", overruns.sum());
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+
+    /**
+     * 单个会话的事件流
+     */
+    public class EventStream {
+
+        private final SseFrame[] ring;
+        private long lastId;
+
+        private EventStream(int capacity) {
+            this.ring = new SseFrame[capacity];
+        }
+
+        /**
+         * 分配下一个事件ID并编码事件帧，写入环形缓冲区
+         *
+         * @param name 事件名
+         * @param data 已序列化的数据
+         * @return 带ID的事件帧
+         */
+        public synchronized SseFrame append(String name, String data) {
+            long id = ++lastId;
+            SseFrame frame = SseFrame.ofEvent(String.valueOf(id), name, data);
+            ring[(int) (id % ring.length)] = frame;
+            appended.increment();
+            return frame;
+        }
+
+        /**
+         * 最后分配的事件ID，尚无事件时为0
+         */
+        public synchronized long lastId() {
+            return lastId;
+        }
+
+        /**
+         * 获取客户端最后收到的事件之后的所有事件
+         *
+         * @param lastEventId 客户端带回的Last-Event-ID，可为null
+         * @return 缺失的事件，无法补发时返回null（未携带或无法解析ID、缓冲区已被覆盖、ID不属于当前事件流）
+         */
+        public synchronized List<SseFrame> since(String lastEventId) {
+            long from = parse(lastEventId);
+            if (from < 0) {
+                return null;
+            }
+            // 服务重启后事件ID从头开始，客户端的ID无法追溯
+            long oldest = Math.max(1, lastId - ring.length + 1);
+            if (from > lastId || from < oldest - 1) {
+                overruns.increment();
+                return null;
+            }
+            List<SseFrame> missed = new ArrayList<>((int) (lastId - from));
+            for (long id = from + 1; id <= lastId; id++) {
+                missed.add(ring[(int) (id % ring.length)]);
+            }
+            replays.increment();
+            replayedEvents.add(missed.size());
+            return missed;
+        }
+
+        private long parse(String lastEventId) {
+            if (lastEventId == null || lastEventId.isEmpty()) {
+                return -1;
+            }
+            try {
+                return Long.parseLong(lastEventId.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package io.github.timemachinelab.core.session.infrastructure.web;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 预编码的SSE事件帧
+ * 事件在发送前一次性编码为完整的字节帧，发送给多个订阅者时写入的是同一份字节，
+ * 不再为每个连接重复序列化。通过 {@link #toEvent()} 交给 SseEmitter 原样写出。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+public final class SseFrame {
+
+    /**
+     * 不可丢弃的事件，发送缓冲区溢出时断开连接，由客户端按Last-Event-ID重连补发
+     */
+    private static final Set<String> CRITICAL_EVENTS = Set.of("connected", "message", "timeout", "error");
+
+    /**
+     * 只有最新一条有意义的事件，尚未发送的旧事件会被新事件替换
+     */
+    private static final Set<String> COALESCED_EVENTS = Set.of("queued");
+
+    private final String id;
+    private final String name;
+    private final String data;
+    private final byte[] bytes;
+    private final SseEmitter.SseEventBuilder event;
+    private volatile SseFrame jsonbVariant;
+
+    private SseFrame(String id, String name, String data, String text) {
+        this(id, name, data, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private SseFrame(String id, String name, String data, byte[] bytes) {
+        this.id = id;
+        this.name = name;
+        this.data = data;
+        this.bytes = bytes;
+        this.event = new PreEncodedEvent(bytes);
+    }
+
+    /**
+     * 创建事件帧
+     *
+     * @param name 事件名
+     * @param data 已序列化的数据，多行数据按行拆分为多个data字段
+     * @return 事件帧
+     */
+    public static SseFrame ofEvent(String name, String data) {
+        return ofEvent(null, name, data);
+    }
+
+    /**
+     * 创建带事件ID的事件帧，客户端重连时通过Last-Event-ID请求头带回最后收到的ID
+     *
+     * @param id 事件ID，可为null
+     * @param name 事件名
+     * @param data 已序列化的数据，多行数据按行拆分为多个data字段
+     * @return 事件帧
+     */
+    public static SseFrame ofEvent(String id, String name, String data) {
+        StringBuilder sb = new StringBuilder();
+        if (id != null) {
+            sb.append("id:").append(id).append('\n');
+        }
+        if (name != null) {
+            sb.append("event:").append(name).append('\n');
+        }
+        appendData(sb, data);
+        return new SseFrame(id, name, data, sb.append('\n').toString());
+    }
+
+    /**
+     * 创建注释帧（客户端会忽略，用于心跳）
+     *
+     * @param comment 注释内容
+     * @return 注释帧
+     */
+    public static SseFrame ofComment(String comment) {
+        return new SseFrame(null, null, null, ":" + comment + "\n\n");
+    }
+
+    /**
+     * 将多帧按顺序合并为一帧，一次写入和flush发送，合并后的帧没有事件ID和事件名
+     *
+     * @param frames 待合并的帧
+     * @return 合并后的帧
+     */
+    public static SseFrame batch(List<SseFrame> frames) {
+        int length = 0;
+        for (SseFrame frame : frames) {
+            length += frame.bytes.length;
+        }
+        byte[] merged = new byte[length];
+        int offset = 0;
+        for (SseFrame frame : frames) {
+            System.arraycopy(frame.bytes, 0, merged, offset, frame.bytes.length);
+            offset += frame.bytes.length;
+        }
+        return new SseFrame(null, null, null, merged);
+    }
+
+    /**
+     * 事件ID，没有时为null
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * 事件名，注释帧为null
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 编码前的数据，注释帧为null
+     */
+    public String getData() {
+        return data;
+    }
+
+    /**
+     * 数据以JSONB（base64）编码的同一事件，首次使用时转换并缓存，所有JSONB连接共用
+     */
+    public SseFrame toJsonb() {
+        if (data == null) {
+            return this;
+        }
+        SseFrame variant = jsonbVariant;
+        if (variant == null) {
+            variant = ofEvent(id, name, SseEventEncoder.toJsonb(data));
+            jsonbVariant = variant;
+        }
+        return variant;
+    }
+
+    /**
+     * 是否关键事件
+     */
+    public boolean isCritical() {
+        return name != null && CRITICAL_EVENTS.contains(name);
+    }
+
+    /**
+     * 是否可被同名的新事件替换
+     */
+    public boolean isCoalesced() {
+        return name != null && COALESCED_EVENTS.contains(name);
+    }
+
+    /**
+     * 帧的字节数
+     */
+    public int size() {
+        return bytes.length;
+    }
+
+    /**
+     * 编码后的字节，由所有订阅者共用，不可修改
+     */
+    byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * 供 SseEmitter 发送的事件，写出的是已编码的字节，不再经过事件构建
+     */
+    public SseEmitter.SseEventBuilder toEvent() {
+        return event;
+    }
+
+    private static void appendData(StringBuilder sb, String data) {
+        String value = data != null ? data : "";
+        int start = 0;
+        int newline;
+        while ((newline = value.indexOf('\n', start)) >= 0) {
+            sb.append("data:").append(value, start, newline).append('\n');
+            start = newline + 1;
+        }
+        sb.append("data:").append(value, start, value.length()).append('\n');
+    }
+
+    /**
+     * SseEmitter 只接受 SseEventBuilder：适配器直接交出已编码的字节，不支持再追加字段
+     */
+    private static final class PreEncodedEvent implements SseEmitter.SseEventBuilder {
+
+        private final Set<ResponseBodyEmitter.DataWithMediaType> dataToSend;
+
+        private PreEncodedEvent(byte[] bytes) {
+            this.dataToSend = Collections.singleton(new ResponseBodyEmitter.DataWithMediaType(bytes, MediaType.TEXT_PLAIN));
+        }
+
+        @Override
+        public Set<ResponseBodyEmitter.DataWithMediaType> build() {
+            return dataToSend;
+        }
+
+        @Override
+        public SseEmitter.SseEventBuilder comment(String comment) {
+            throw immutable();
+        }
+
+        @Override
+        public SseEmitter.SseEventBuilder name(String eventName) {
+            throw immutable();
+        }
+
+        @Override
+        public SseEmitter.SseEventBuilder id(String id) {
+            throw immutable();
+        }
+
+        @Override
+        public SseEmitter.SseEventBuilder reconnectTime(long reconnectTimeMillis) {
+            throw immutable();
+        }
+
+        @Override
+        public SseEmitter.SseEventBuilder data(Object object) {
+            throw immutable();
+        }
+
+        @Override
+        public SseEmitter.SseEventBuilder data(Object object, MediaType mediaType) {
+            throw immutable();
+        }
+
+        private static UnsupportedOperationException immutable() {
+            return new UnsupportedOperationException("SseFrame已编码，不可修改");
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package io.github.timemachinelab.core.session.infrastructure.web;
+
+import io.github.timemachinelab.config.SseProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * SSE心跳调度器
+ * 所有SSE连接共用一个调度线程，按固定间隔发送注释帧心跳；
+ * 写入失败的连接在一轮心跳结束后批量清理，并通知注册方移除。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Component
+@Slf4j
+public class SseHeartbeatScheduler {
+
+    /**
+     * 心跳帧只编码一次，所有连接共用
+     */
+    private static final SseFrame HEARTBEAT = SseFrame.ofComment("ping");
+
+    private final SseProperties properties;
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    /**
+     * 发射器 -> 连接信息
+     */
+    private final Map<SseEmitter, Connection> connections = new ConcurrentHashMap<>();
+
+    private final LongAdder heartbeats = new LongAdder();
+    private final LongAdder reaped = new LongAdder();
+    private final LongAdder unregistered = new LongAdder();
+
+    public SseHeartbeatScheduler(SseProperties properties) {
+        this.properties = properties;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "sse-heartbeat-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (properties.isHeartbeatEnabled()) {
+            scheduler.scheduleWithFixedDelay(this::heartbeat, properties.getHeartbeatIntervalMs(),
+                    properties.getHeartbeatIntervalMs(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 登记连接，连接被清理时回调onReap
+     *
+     * @param key 连接标识（如会话ID），用于日志
+     * @param emitter SSE发射器
+     * @param onReap 清理回调，可为null
+     */
+    public void register(String key, SseEmitter emitter, Runnable onReap) {
+        connections.put(emitter, new Connection(key, null, onReap));
+    }
+
+    /**
+     * 登记由发送队列负责写入的连接，心跳帧交给sender入队，心跳线程不直接写网络
+     * 写入失败由发送队列处理，心跳不再清理该连接
+     *
+     * @param key 连接标识（如会话ID），用于日志
+     * @param emitter SSE发射器
+     * @param sender 心跳帧入队方法
+     */
+    public void registerQueued(String key, SseEmitter emitter, Consumer<SseFrame> sender) {
+        connections.put(emitter, new Connection(key, sender, null));
+    }
+
+    /**
+     * 连接正常结束时取消登记
+     *
+     * @param emitter SSE发射器
+     */
+    public void unregister(SseEmitter emitter) {
+        if (connections.remove(emitter) != null) {
+            unregistered.increment();
+        }
+    }
+
+    /**
+     * 记录连接上有业务消息发送，最近有消息的连接本轮不再发送心跳
+     *
+     * @param emitter SSE发射器
+     */
+    public void markActive(SseEmitter emitter) {
+        Connection connection = connections.get(emitter);
+        if (connection != null) {
+            connection.lastActiveAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 执行一轮心跳
+     *
+     * @return 本轮清理的连接数
+     */
+    public int heartbeat() {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<SseEmitter, Connection>> dead = new ArrayList<>();
+        for (Map.Entry<SseEmitter, Connection> entry : connections.entrySet()) {
+            // 一个间隔内刚发送过业务消息的连接已确认可写
+            if (now - entry.getValue().lastActiveAt < properties.getHeartbeatIntervalMs()) {
+                continue;
+            }
+            try {
+                if (entry.getValue().sender != null) {
+                    entry.getValue().sender.accept(HEARTBEAT);
+                } else {
+                    entry.getKey().send(HEARTBEAT.toEvent());
+                }
+                heartbeats.increment();
+            } catch (Exception e) {
+                dead.add(entry);
+            }
+        }
+        if (!dead.isEmpty()) {
+            reap(dead);
+        }
+        return dead.size();
+    }
+
+    /**
+     * 获取连接统计信息
+     */
+    public Map<String, Object> getStats() {
+        long now = System.currentTimeMillis();
+        long idle = connections.values().stream()
+                .filter(connection -> now - connection.lastActiveAt >= properties.getIdleThresholdMs())
+                .count();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", properties.isHeartbeatEnabled());
+        stats.put("live", connections.size());
+        stats.put("idle", idle);
+        stats.put("reaped", reaped.sum());
+        stats.put("unregistered", unregistered.sum());
+        stats.put("heartbeats", heartbeats.sum());
+        stats.put("timestamp", now);
+        return stats;
+    }
+
+    private void reap(List<Map.Entry<SseEmitter, Connection>> dead) {
+        List<String> keys = new ArrayList<>(dead.size());
+        for (Map.Entry<SseEmitter, Connection> entry : dead) {
+            if (connections.remove(entry.getKey()) == null) {
+                continue;
+            }
+            reaped.increment();
+            keys.add(entry.getValue().key);
+            try {
+                entry.getKey().complete();
+            } catch (Exception ignored) {
+                // 连接已断开，释放异步上下文失败不影响清理
+            }
+            if (entry.getValue().onReap != null) {
+                try {
+                    entry.getValue().onReap.run();
+                } catch (Exception e) {
+                    log.warn("SSE连接清理回调失败 - 连接: {}, 错误: {}", entry.getValue().key, e.getMessage());
+                }
+            }
+        }
+        log.info("已清理失效的SSE连接 - 数量: {}, 连接: {}", keys.size(), keys);
+    }
+
+    private static class Connection {
+        private final String key;
+        private final Consumer<SseFrame> sender;
+        private final Runnable onReap;
+        private volatile long lastActiveAt = System.currentTimeMillis();
+
+        private Connection(String key, Consumer<SseFrame> sender, Runnable onReap) {
+            this.key = key;
+            this.sender = sender;
+            this.onReap = onReap;
+        }
+    }
+}
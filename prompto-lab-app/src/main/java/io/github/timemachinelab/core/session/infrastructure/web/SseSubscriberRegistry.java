@@ -0,0 +1,504 @@
+package io.github.timemachinelab.core.session.infrastructure.web;
+
+import io.github.timemachinelab.config.SseProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SSE订阅者注册表
+ * 同一会话可在多个标签页或设备上同时订阅。订阅集合基于ConcurrentHashMap，
+ * 注册和移除都是O(1)，重连风暴下不会出现复制整个集合的开销；超出上限时淘汰最早的连接。
+ * 每个连接有独立的有界发送队列，由写线程池负责网络写入，投递方只入队，不会被慢连接阻塞。
+ * 非关键事件入队后等待一个合并窗口再写入，窗口内积压的事件合并为一次写入和flush；关键事件立即调度写入。
+ * 写线程的阻塞写入由看门狗限时：超时的连接移出注册表并中断写线程，避免少数卡住的连接占满写线程池。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Component
+@Slf4j
+public class SseSubscriberRegistry {
+
+    /**
+     * 单次写入最多合并的帧数，避免一个积压的连接长期占用写线程
+     */
+    private static final int DRAIN_BATCH = 32;
+
+    private final SseProperties properties;
+    private final SseHeartbeatScheduler heartbeatScheduler;
+    private final ThreadPoolExecutor writers;
+    private final ScheduledExecutorService batchTimer;
+
+    /**
+     * 正在写入的连接，数量不超过写线程数，看门狗只检查这些连接
+     */
+    private final Set<Subscriber> writing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 会话ID -> 订阅者
+     */
+    private final Map<String, Map<SseEmitter, Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder registered = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder framesWritten = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder writeFailures = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder overflowDisconnects = new LongAdder();
+    private final LongAdder writeTimeouts = new LongAdder();
+
+    public SseSubscriberRegistry(SseProperties properties, SseHeartbeatScheduler heartbeatScheduler) {
+        this.properties = properties;
+        this.heartbeatScheduler = heartbeatScheduler;
+        int threads = Math.max(1, properties.getWriterThreads());
+        AtomicInteger threadIndex = new AtomicInteger();
+        // 每个连接同一时刻至多一个待执行的写任务，任务队列长度不超过连接数
+        this.writers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "sse-writer-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 计时线程只在窗口结束时把写任务交给写线程池，并定期检查写入是否超时
+        this.batchTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sse-batch-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (properties.getWriteTimeoutMs() > 0) {
+            long period = Math.max(10, properties.getWriteTimeoutMs() / 4);
+            batchTimer.scheduleWithFixedDelay(this::checkWrites, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        batchTimer.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    /**
+     * 注册订阅连接
+     *
+     * @param sessionId 会话ID
+     * @param emitter SSE发射器
+     * @return 会话当前的订阅数
+     */
+    public int register(String sessionId, SseEmitter emitter) {
+        return register(sessionId, emitter, SseEventEncoder.Encoding.JSON);
+    }
+
+    /**
+     * 按协商的编码方式注册订阅连接
+     *
+     * @param sessionId 会话ID
+     * @param emitter SSE发射器
+     * @param encoding 事件数据编码方式
+     * @return 会话当前的订阅数
+     */
+    public int register(String sessionId, SseEmitter emitter, SseEventEncoder.Encoding encoding) {
+        Subscriber subscriber = new Subscriber(sessionId, emitter, sequence.incrementAndGet(), encoding);
+        // 与移除共用compute，避免新连接加入一个刚被判空删除的集合
+        Map<SseEmitter, Subscriber> sessionSubscribers = subscribers.compute(sessionId, (key, existing) -> {
+            Map<SseEmitter, Subscriber> result = existing != null ? existing : new ConcurrentHashMap<>();
+            result.put(emitter, subscriber);
+            return result;
+        });
+        registered.increment();
+        // 心跳帧同样经发送队列写入
+        heartbeatScheduler.registerQueued(sessionId, emitter, frame -> offer(subscriber, frame));
+
+        // 超出上限时淘汰最早的连接，单次注册的开销只与上限有关
+        if (sessionSubscribers.size() > properties.getMaxSubscribersPerSession()) {
+            sessionSubscribers.values().stream()
+                    .min((a, b) -> Long.compare(a.sequence, b.sequence))
+                    .filter(eldest -> eldest != subscriber)
+                    .ifPresent(eldest -> {
+                        evicted.increment();
+                        disconnect(eldest);
+                    });
+        }
+        return sessionSubscribers.size();
+    }
+
+    /**
+     * 移除单个订阅连接
+     *
+     * @param sessionId 会话ID
+     * @param emitter SSE发射器
+     * @return 连接是否在注册表中
+     */
+    public boolean remove(String sessionId, SseEmitter emitter) {
+        heartbeatScheduler.unregister(emitter);
+        Subscriber subscriber = detach(sessionId, emitter);
+        if (subscriber == null) {
+            return false;
+        }
+        synchronized (subscriber) {
+            subscriber.closed = true;
+            subscriber.queue.clear();
+        }
+        return true;
+    }
+
+    /**
+     * 移除会话的所有订阅连接
+     *
+     * @param sessionId 会话ID
+     */
+    public void removeAll(String sessionId) {
+        Map<SseEmitter, Subscriber> removed = subscribers.remove(sessionId);
+        if (removed != null) {
+            removed.keySet().forEach(heartbeatScheduler::unregister);
+            for (Subscriber subscriber : removed.values()) {
+                synchronized (subscriber) {
+                    subscriber.closed = true;
+                    subscriber.queue.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * 会话是否有订阅连接
+     */
+    public boolean hasSubscribers(String sessionId) {
+        Map<SseEmitter, Subscriber> sessionSubscribers = subscribers.get(sessionId);
+        return sessionSubscribers != null && !sessionSubscribers.isEmpty();
+    }
+
+    /**
+     * 将同一帧放入会话所有订阅连接的发送队列，不等待网络写入
+     *
+     * @param sessionId 会话ID
+     * @param frame 已编码的事件帧
+     * @return 成功入队的连接数
+     */
+    public int broadcast(String sessionId, SseFrame frame) {
+        Map<SseEmitter, Subscriber> sessionSubscribers = subscribers.get(sessionId);
+        if (sessionSubscribers == null) {
+            return 0;
+        }
+        int delivered = 0;
+        for (Subscriber subscriber : sessionSubscribers.values()) {
+            if (offer(subscriber, frame)) {
+                delivered++;
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * 将一帧放入单个连接的发送队列
+     *
+     * @param sessionId 会话ID
+     * @param emitter SSE发射器
+     * @param frame 已编码的事件帧
+     * @return 是否成功入队
+     */
+    public boolean write(String sessionId, SseEmitter emitter, SseFrame frame) {
+        Map<SseEmitter, Subscriber> sessionSubscribers = subscribers.get(sessionId);
+        Subscriber subscriber = sessionSubscribers != null ? sessionSubscribers.get(emitter) : null;
+        return subscriber != null && offer(subscriber, frame);
+    }
+
+    /**
+     * 已有订阅连接的会话
+     */
+    public Set<String> sessionIds() {
+        return subscribers.keySet();
+    }
+
+    /**
+     * 获取订阅统计信息
+     */
+    public Map<String, Object> getStats() {
+        int queued = 0;
+        int subscriberCount = 0;
+        for (Map<SseEmitter, Subscriber> sessionSubscribers : subscribers.values()) {
+            for (Subscriber subscriber : sessionSubscribers.values()) {
+                subscriberCount++;
+                queued += subscriber.queue.size();
+            }
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("sessions", subscribers.size());
+        stats.put("subscribers", subscriberCount);
+        stats.put("queuedFrames", queued);
+        stats.put("registered", registered.sum());
+        stats.put("evicted", evicted.sum());
+        stats.put("framesWritten", framesWritten.sum());
+        stats.put("writes", writes.sum());
+        stats.put("bytesWritten", bytesWritten.sum());
+        stats.put("writeFailures", writeFailures.sum());
+        stats.put("coalesced", coalesced.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("overflowDisconnects", overflowDisconnects.sum());
+        stats.put("writeTimeouts", writeTimeouts.sum());
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+
+    /**
+     * 入队并在需要时调度写任务
+     * 队列满时丢弃非关键事件，关键事件溢出则断开连接；非关键事件等待合并窗口，关键事件提前结束窗口
+     */
+    private boolean offer(Subscriber subscriber, SseFrame event) {
+        SseFrame frame = subscriber.encoding == SseEventEncoder.Encoding.JSONB ? event.toJsonb() : event;
+        boolean schedule;
+        boolean delay;
+        synchronized (subscriber) {
+            if (subscriber.closed) {
+                return false;
+            }
+            if (frame.isCoalesced() && subscriber.queue.removeIf(pending -> frame.getName().equals(pending.getName()))) {
+                coalesced.increment();
+            }
+            if (subscriber.queue.size() >= properties.getOutboundQueueSize()) {
+                if (!frame.isCritical()) {
+                    dropped.increment();
+                    return false;
+                }
+                overflowDisconnects.increment();
+                log.warn("SSE发送队列已满，断开连接等待重连补发 - 会话: {}, 事件ID: {}", subscriber.sessionId, frame.getId());
+                disconnect(subscriber);
+                return false;
+            }
+            subscriber.queue.add(frame);
+            if (!subscriber.scheduled) {
+                subscriber.scheduled = true;
+                subscriber.delayed = !frame.isCritical() && properties.getBatchWindowMs() > 0;
+                schedule = true;
+                delay = subscriber.delayed;
+            } else if (subscriber.delayed && frame.isCritical()) {
+                // 窗口内到达关键事件，立即写入已积压的事件，窗口到期时不再重复调度
+                subscriber.delayed = false;
+                schedule = true;
+                delay = false;
+            } else {
+                schedule = false;
+                delay = false;
+            }
+        }
+        if (delay) {
+            scheduleDelayed(subscriber);
+        } else if (schedule) {
+            submit(subscriber);
+        }
+        return true;
+    }
+
+    private void scheduleDelayed(Subscriber subscriber) {
+        try {
+            batchTimer.schedule(() -> {
+                synchronized (subscriber) {
+                    if (!subscriber.delayed) {
+                        return;
+                    }
+                    subscriber.delayed = false;
+                }
+                submit(subscriber);
+            }, properties.getBatchWindowMs(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            synchronized (subscriber) {
+                subscriber.delayed = false;
+            }
+            submit(subscriber);
+        }
+    }
+
+    /**
+     * 断开连接：立即从注册表移除，结束连接的操作交给写线程，投递方不等待网络
+     */
+    private void disconnect(Subscriber subscriber) {
+        heartbeatScheduler.unregister(subscriber.emitter);
+        detach(subscriber.sessionId, subscriber.emitter);
+        boolean schedule;
+        synchronized (subscriber) {
+            subscriber.closed = true;
+            subscriber.completeRequested = true;
+            subscriber.queue.clear();
+            schedule = !subscriber.scheduled || subscriber.delayed;
+            subscriber.scheduled = true;
+            subscriber.delayed = false;
+        }
+        if (schedule) {
+            submit(subscriber);
+        }
+    }
+
+    private void submit(Subscriber subscriber) {
+        try {
+            writers.execute(() -> drain(subscriber));
+        } catch (RejectedExecutionException e) {
+            synchronized (subscriber) {
+                subscriber.scheduled = false;
+            }
+        }
+    }
+
+    private void drain(Subscriber subscriber) {
+        List<SseFrame> batch = new ArrayList<>();
+        synchronized (subscriber) {
+            SseFrame frame;
+            while (batch.size() < DRAIN_BATCH && (frame = subscriber.queue.poll()) != null) {
+                batch.add(frame);
+            }
+            if (batch.isEmpty()) {
+                finishDrain(subscriber);
+                return;
+            }
+        }
+        // 积压的多帧合并为一次写入，每次写入只flush一次
+        SseFrame frame = batch.size() == 1 ? batch.get(0) : SseFrame.batch(batch);
+        Exception failure = null;
+        boolean timedOut;
+        synchronized (subscriber) {
+            subscriber.writer = Thread.currentThread();
+            subscriber.writeStartedAt = System.currentTimeMillis();
+        }
+        writing.add(subscriber);
+        try {
+            subscriber.emitter.send(frame.toEvent());
+        } catch (IOException | IllegalStateException e) {
+            failure = e;
+        } finally {
+            writing.remove(subscriber);
+            synchronized (subscriber) {
+                subscriber.writer = null;
+                timedOut = subscriber.writeTimedOut;
+                if (timedOut) {
+                    // 清除看门狗的中断，写线程继续服务其他连接
+                    Thread.interrupted();
+                }
+            }
+        }
+        if (timedOut) {
+            // 看门狗已将连接移出注册表，写入结束后关闭连接
+            synchronized (subscriber) {
+                subscriber.scheduled = false;
+            }
+            complete(subscriber);
+            return;
+        }
+        if (failure != null) {
+            writeFailures.increment();
+            log.warn("SSE写入失败，移除该连接 - 会话: {}, 错误: {}", subscriber.sessionId, failure.getMessage());
+            remove(subscriber.sessionId, subscriber.emitter);
+            synchronized (subscriber) {
+                subscriber.scheduled = false;
+            }
+            return;
+        }
+        writes.increment();
+        framesWritten.add(batch.size());
+        bytesWritten.add(frame.size());
+        heartbeatScheduler.markActive(subscriber.emitter);
+        synchronized (subscriber) {
+            if (subscriber.queue.isEmpty()) {
+                finishDrain(subscriber);
+                return;
+            }
+        }
+        // 还有积压时重新排队，让其他连接的写任务先执行
+        submit(subscriber);
+    }
+
+    /**
+     * 写入看门狗：单次写入超过时限的连接移出注册表并中断其写线程。
+     * 不在此处结束连接，SseEmitter的发送与结束互斥，结束会等待卡住的写入，由写线程在写入返回后结束连接
+     */
+    private void checkWrites() {
+        long now = System.currentTimeMillis();
+        for (Subscriber subscriber : writing) {
+            synchronized (subscriber) {
+                if (subscriber.writer == null || subscriber.writeTimedOut
+                        || now - subscriber.writeStartedAt < properties.getWriteTimeoutMs()) {
+                    continue;
+                }
+                subscriber.writeTimedOut = true;
+                subscriber.closed = true;
+                subscriber.queue.clear();
+                subscriber.writer.interrupt();
+            }
+            heartbeatScheduler.unregister(subscriber.emitter);
+            detach(subscriber.sessionId, subscriber.emitter);
+            writeTimeouts.increment();
+            log.warn("SSE写入超时，断开连接等待重连补发 - 会话: {}, 时限: {}ms", subscriber.sessionId, properties.getWriteTimeoutMs());
+        }
+    }
+
+    /**
+     * 队列已清空，调用方需持有订阅者的锁
+     */
+    private void finishDrain(Subscriber subscriber) {
+        subscriber.scheduled = false;
+        if (subscriber.completeRequested) {
+            subscriber.completeRequested = false;
+            complete(subscriber);
+        }
+    }
+
+    private void complete(Subscriber subscriber) {
+        try {
+            subscriber.emitter.complete();
+        } catch (Exception ignored) {
+            // 连接可能已断开
+        }
+    }
+
+    private Subscriber detach(String sessionId, SseEmitter emitter) {
+        Subscriber[] removed = new Subscriber[1];
+        subscribers.computeIfPresent(sessionId, (key, sessionSubscribers) -> {
+            removed[0] = sessionSubscribers.remove(emitter);
+            return sessionSubscribers.isEmpty() ? null : sessionSubscribers;
+        });
+        return removed[0];
+    }
+
+    private static class Subscriber {
+        private final String sessionId;
+        private final SseEmitter emitter;
+        private final long sequence;
+        private final SseEventEncoder.Encoding encoding;
+        private final ArrayDeque<SseFrame> queue = new ArrayDeque<>();
+        private boolean scheduled;
+        private boolean delayed;
+        private boolean closed;
+        private boolean completeRequested;
+        private Thread writer;
+        private long writeStartedAt;
+        private boolean writeTimedOut;
+
+        private Subscriber(String sessionId, SseEmitter emitter, long sequence, SseEventEncoder.Encoding encoding) {
+            this.sessionId = sessionId;
+            this.emitter = emitter;
+            this.sequence = sequence;
+            this.encoding = encoding;
+        }
+    }
+}
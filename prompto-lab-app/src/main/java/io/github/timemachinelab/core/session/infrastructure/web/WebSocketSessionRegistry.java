@@ -0,0 +1,463 @@
+package io.github.timemachinelab.core.session.infrastructure.web;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONB;
+import io.github.timemachinelab.config.SseProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * WebSocket连接登记
+ * 与SSE共用会话事件，事件封装为{id, event, data}后默认以JSONB二进制帧发送，每次广播只编码一次。
+ * 每个连接有独立的有界发送队列，由写线程池负责网络写入，投递方和ping线程只入队，不会被慢连接阻塞；
+ * 队列满时丢弃非关键事件，关键事件溢出、写入超时或超过缓冲上限时关闭连接，客户端带lastEventId重连补发；
+ * 每个连接只有一个写线程，装饰器的发送时限不会触发，由看门狗检查进行中的写入，超时时关闭连接并中断写线程；
+ * 定时发送ping，超时未收到pong或其他消息的连接被关闭。
+ *
+ * @author suifeng
+ * 日期: 2025/8/31
+ */
+@Component
+@Slf4j
+public class WebSocketSessionRegistry {
+
+    private final SseProperties properties;
+    private final ThreadPoolExecutor writers;
+    private final ScheduledExecutorService pinger;
+
+    /**
+     * 会话ID -> WebSocket连接ID -> 连接
+     */
+    private final Map<String, Map<String, Connection>> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * 正在写入的连接，数量不超过写线程数，看门狗只检查这些连接
+     */
+    private final Set<Connection> writing = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder sendFailures = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder overflowDisconnects = new LongAdder();
+    private final LongAdder pongTimeouts = new LongAdder();
+    private final LongAdder writeTimeouts = new LongAdder();
+
+    public WebSocketSessionRegistry(SseProperties properties) {
+        this.properties = properties;
+        int threads = Math.max(1, properties.getWriterThreads());
+        AtomicInteger threadIndex = new AtomicInteger();
+        // 每个连接同一时刻至多一个待执行的写任务，任务队列长度不超过连接数
+        this.writers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "websocket-writer-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // ping线程只检查超时并把ping帧放入发送队列
+        this.pinger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "websocket-ping");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1000, properties.getWebSocketPingIntervalMs());
+        pinger.scheduleWithFixedDelay(this::ping, interval, interval, TimeUnit.MILLISECONDS);
+        if (properties.getWriteTimeoutMs() > 0) {
+            long period = Math.max(10, properties.getWriteTimeoutMs() / 4);
+            pinger.scheduleWithFixedDelay(this::checkWrites, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pinger.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    /**
+     * 登记WebSocket连接
+     *
+     * @param sessionId 会话ID
+     * @param userId 用户ID
+     * @param session WebSocket会话
+     * @param encoding 事件帧编码方式，JSONB为二进制帧，JSON为文本帧
+     * @return 连接
+     */
+    public Connection register(String sessionId, String userId, WebSocketSession session, SseEventEncoder.Encoding encoding) {
+        // 装饰器在超过缓冲上限时关闭连接；写入只在写线程上进行，发送时限由看门狗负责
+        WebSocketSession decorated = new ConcurrentWebSocketSessionDecorator(session,
+                Integer.MAX_VALUE, properties.getWebSocketBufferSizeLimit(),
+                ConcurrentWebSocketSessionDecorator.OverflowStrategy.TERMINATE);
+        Connection connection = new Connection(sessionId, userId, decorated, encoding);
+        sessions.computeIfAbsent(sessionId, key -> new ConcurrentHashMap<>()).put(session.getId(), connection);
+        opened.increment();
+        return connection;
+    }
+
+    /**
+     * 移除WebSocket连接
+     *
+     * @param connection 连接
+     * @return 是否移除
+     */
+    public boolean remove(Connection connection) {
+        boolean[] removed = new boolean[1];
+        sessions.computeIfPresent(connection.sessionId, (key, connections) -> {
+            removed[0] = connections.remove(connection.session.getId(), connection);
+            return connections.isEmpty() ? null : connections;
+        });
+        if (removed[0]) {
+            closed.increment();
+        }
+        synchronized (connection) {
+            connection.closed = true;
+            connection.queue.clear();
+        }
+        return removed[0];
+    }
+
+    /**
+     * 会话是否有WebSocket连接
+     */
+    public boolean hasSubscribers(String sessionId) {
+        return sessions.containsKey(sessionId);
+    }
+
+    /**
+     * 当前有WebSocket连接的会话ID
+     */
+    public Set<String> sessionIds() {
+        return Collections.unmodifiableSet(sessions.keySet());
+    }
+
+    /**
+     * 将事件放入会话所有WebSocket连接的发送队列，每种编码只编码一次，不等待网络写入
+     *
+     * @param sessionId 会话ID
+     * @param frame 事件
+     * @return 成功入队的连接数
+     */
+    public int broadcast(String sessionId, SseFrame frame) {
+        Map<String, Connection> connections = sessions.get(sessionId);
+        if (connections == null || connections.isEmpty()) {
+            return 0;
+        }
+        byte[] binary = null;
+        String text = null;
+        int delivered = 0;
+        for (Connection connection : connections.values()) {
+            WebSocketMessage<?> message;
+            if (connection.encoding == SseEventEncoder.Encoding.JSONB) {
+                binary = binary != null ? binary : JSONB.toBytes(envelope(frame));
+                message = new BinaryMessage(binary);
+            } else {
+                text = text != null ? text : JSON.toJSONString(envelope(frame));
+                message = new TextMessage(text);
+            }
+            if (offer(connection, message, frame)) {
+                delivered++;
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * 只向指定连接的发送队列放入事件（连接数据、补发事件、请求确认）
+     *
+     * @param connection 连接
+     * @param frame 事件
+     * @return 是否成功入队
+     */
+    public boolean write(Connection connection, SseFrame frame) {
+        WebSocketMessage<?> message = connection.encoding == SseEventEncoder.Encoding.JSONB
+                ? new BinaryMessage(JSONB.toBytes(envelope(frame)))
+                : new TextMessage(JSON.toJSONString(envelope(frame)));
+        return offer(connection, message, frame);
+    }
+
+    /**
+     * 收到pong或客户端消息时刷新连接活跃时间
+     */
+    public void touch(Connection connection) {
+        connection.lastSeen = System.currentTimeMillis();
+    }
+
+    /**
+     * 获取WebSocket统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("sessions", sessions.size());
+        stats.put("connections", sessions.values().stream().mapToInt(Map::size).sum());
+        stats.put("opened", opened.sum());
+        stats.put("closed", closed.sum());
+        stats.put("framesSent", framesSent.sum());
+        stats.put("bytesSent", bytesSent.sum());
+        stats.put("sendFailures", sendFailures.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("overflowDisconnects", overflowDisconnects.sum());
+        stats.put("pongTimeouts", pongTimeouts.sum());
+        stats.put("writeTimeouts", writeTimeouts.sum());
+        stats.put("timestamp", System.currentTimeMillis());
+        return stats;
+    }
+
+    /**
+     * 事件封装：data还原为对象后与id、event一起编码，避免JSON文本被再次转义
+     */
+    private static Map<String, Object> envelope(SseFrame frame) {
+        Map<String, Object> envelope = new LinkedHashMap<>();
+        if (frame.getId() != null) {
+            envelope.put("id", frame.getId());
+        }
+        envelope.put("event", frame.getName());
+        envelope.put("data", frame.getData() != null ? SseEventEncoder.decode(frame.getData()) : null);
+        return envelope;
+    }
+
+    /**
+     * 入队并在需要时调度写任务
+     * 队列满时丢弃非关键事件，关键事件溢出则关闭连接
+     *
+     * @param frame 消息对应的事件，ping帧为null
+     */
+    private boolean offer(Connection connection, WebSocketMessage<?> message, SseFrame frame) {
+        boolean schedule;
+        synchronized (connection) {
+            if (connection.closed) {
+                return false;
+            }
+            if (connection.queue.size() >= properties.getOutboundQueueSize()) {
+                if (frame == null || !frame.isCritical()) {
+                    dropped.increment();
+                    return false;
+                }
+                overflowDisconnects.increment();
+                log.warn("WebSocket发送队列已满，关闭连接等待重连补发 - 会话: {}, 事件ID: {}", connection.sessionId, frame.getId());
+                disconnect(connection);
+                return false;
+            }
+            connection.queue.add(message);
+            schedule = !connection.scheduled;
+            connection.scheduled = true;
+        }
+        if (schedule) {
+            submit(connection);
+        }
+        return true;
+    }
+
+    /**
+     * 从注册表移除并由写线程关闭连接，调用方不等待网络
+     * 写线程正阻塞在发送上时不再等它写完，直接关闭连接并中断写入
+     */
+    private void disconnect(Connection connection) {
+        remove(connection);
+        if (abortWrite(connection, Long.MAX_VALUE)) {
+            return;
+        }
+        boolean schedule;
+        synchronized (connection) {
+            connection.closeRequested = true;
+            schedule = !connection.scheduled;
+            connection.scheduled = true;
+        }
+        if (schedule) {
+            submit(connection);
+        }
+    }
+
+    private void submit(Connection connection) {
+        try {
+            writers.execute(() -> drain(connection));
+        } catch (RejectedExecutionException e) {
+            synchronized (connection) {
+                connection.scheduled = false;
+            }
+        }
+    }
+
+    private void drain(Connection connection) {
+        WebSocketMessage<?> message;
+        synchronized (connection) {
+            message = connection.queue.poll();
+            if (message == null) {
+                finishDrain(connection);
+                return;
+            }
+            connection.writer = Thread.currentThread();
+            connection.writeStartedAt = System.currentTimeMillis();
+        }
+        writing.add(connection);
+        Exception error = null;
+        try {
+            connection.session.sendMessage(message);
+        } catch (Exception e) {
+            error = e;
+        } finally {
+            writing.remove(connection);
+        }
+        boolean timedOut;
+        synchronized (connection) {
+            connection.writer = null;
+            timedOut = connection.writeTimedOut;
+            if (timedOut) {
+                // 看门狗已关闭连接，清除它留下的中断
+                Thread.interrupted();
+                connection.scheduled = false;
+            }
+        }
+        if (timedOut) {
+            return;
+        }
+        if (error == null) {
+            if (!(message instanceof PingMessage)) {
+                framesSent.increment();
+                bytesSent.add(message.getPayloadLength());
+            }
+        } else {
+            // 缓冲区溢出时装饰器已关闭连接，客户端重连后补发
+            log.warn("WebSocket发送失败 - 会话: {}, 错误: {}", connection.sessionId, error.getMessage());
+            sendFailures.increment();
+            remove(connection);
+            close(connection, CloseStatus.SESSION_NOT_RELIABLE);
+            synchronized (connection) {
+                connection.scheduled = false;
+            }
+            return;
+        }
+        synchronized (connection) {
+            if (connection.queue.isEmpty()) {
+                finishDrain(connection);
+                return;
+            }
+        }
+        // 还有积压时重新排队，让其他连接的写任务先执行
+        submit(connection);
+    }
+
+    /**
+     * 队列已清空，调用方需持有连接的锁
+     */
+    private void finishDrain(Connection connection) {
+        connection.scheduled = false;
+        if (connection.closeRequested) {
+            connection.closeRequested = false;
+            close(connection, CloseStatus.SESSION_NOT_RELIABLE);
+        }
+    }
+
+    /**
+     * 写入看门狗：进行中的发送超过时限时关闭连接并中断写线程，客户端重连后补发
+     */
+    private void checkWrites() {
+        long startedBefore = System.currentTimeMillis() - properties.getWriteTimeoutMs();
+        for (Connection connection : writing) {
+            if (abortWrite(connection, startedBefore)) {
+                writeTimeouts.increment();
+                log.warn("WebSocket写入超时，关闭连接 - 会话: {}, 时限: {} ms", connection.sessionId, properties.getWriteTimeoutMs());
+            }
+        }
+    }
+
+    /**
+     * 中断在startedBefore之前开始且仍未结束的发送：移出注册表、中断写线程并关闭连接
+     * 装饰器的关闭不等待发送锁，阻塞中的写入随底层连接关闭而返回
+     *
+     * @return 是否中断了进行中的发送
+     */
+    private boolean abortWrite(Connection connection, long startedBefore) {
+        synchronized (connection) {
+            if (connection.writer == null || connection.writeTimedOut || connection.writeStartedAt > startedBefore) {
+                return false;
+            }
+            connection.writeTimedOut = true;
+            connection.queue.clear();
+            connection.writer.interrupt();
+        }
+        remove(connection);
+        close(connection, CloseStatus.SESSION_NOT_RELIABLE);
+        return true;
+    }
+
+    private void ping() {
+        long now = System.currentTimeMillis();
+        for (Map<String, Connection> connections : sessions.values()) {
+            for (Connection connection : connections.values()) {
+                if (now - connection.lastSeen > properties.getWebSocketPongTimeoutMs()) {
+                    log.info("WebSocket连接无响应，关闭连接 - 会话: {}", connection.sessionId);
+                    pongTimeouts.increment();
+                    disconnect(connection);
+                    continue;
+                }
+                offer(connection, new PingMessage(), null);
+            }
+        }
+    }
+
+    private void close(Connection connection, CloseStatus status) {
+        try {
+            connection.session.close(status);
+        } catch (Exception ignored) {
+            // 连接可能已断开
+        }
+    }
+
+    /**
+     * WebSocket连接
+     */
+    public static class Connection {
+        private final String sessionId;
+        private final String userId;
+        private final WebSocketSession session;
+        private final SseEventEncoder.Encoding encoding;
+        private final ArrayDeque<WebSocketMessage<?>> queue = new ArrayDeque<>();
+        private boolean scheduled;
+        private boolean closed;
+        private boolean closeRequested;
+        private Thread writer;
+        private long writeStartedAt;
+        private boolean writeTimedOut;
+        private volatile long lastSeen = System.currentTimeMillis();
+
+        private Connection(String sessionId, String userId, WebSocketSession session, SseEventEncoder.Encoding encoding) {
+            this.sessionId = sessionId;
+            this.userId = userId;
+            this.session = session;
+            this.encoding = encoding;
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package io.github.timemachinelab.util;
+
+import com.alibaba.fastjson2.JSONB;
+import com.alibaba.fastjson2.JSONReader;
+import com.alibaba.fastjson2.JSONWriter;
+
+/**
+ * JSONB编解码工具
+ * 二进制序列化，用于缓存中保存对象并在读取时得到独立副本。
+ * 不写入类名、不开启autoType，读取时按调用方给定的类型解析，多态字段按类型上声明的子类型解析
+ *
+ * @author suifeng
+ * 日期: 2025/8/28
+ */
+public class JsonbCodec {
+
+    public static byte[] encode(Object value) {
+        return JSONB.toBytes(value, JSONWriter.Feature.FieldBased);
+    }
+
+    public static <T> T decode(byte[] payload, Class<T> type) {
+        return JSONB.parseObject(payload, type, JSONReader.Feature.FieldBased);
+    }
+}
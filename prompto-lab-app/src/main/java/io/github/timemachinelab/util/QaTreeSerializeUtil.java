@@ -11,38 +11,129 @@ import java.util.List;
 
 public class QaTreeSerializeUtil {
 
+    /**
+     * 摘要节点答案的前缀，提示模型该节点代表整个已结束的分支
+     */
+    public static final String SUMMARY_PREFIX = "[分支摘要] ";
+
     public static String serialize(QaTree t) throws JsonProcessingException {
-        if (t == null || t.getRoot() == null) {
-            return "[]";
-        }
+        return serialize(t, null, null);
+    }
 
-        List<JsonNode> result = new ArrayList<>();
+    /**
+     * 序列化QaTree，并将指定节点的答案替换为给定文本（不修改树本身）
+     * 用于在用户尚未回答时构造假设回答后的对话树
+     *
+     * @param t QA树
+     * @param answerNodeId 需要替换答案的节点ID
+     * @param answerOverride 替换后的答案文本
+     * @return 序列化结果
+     */
+    public static String serialize(QaTree t, String answerNodeId, String answerOverride) throws JsonProcessingException {
+        return serialize(t, answerNodeId, answerOverride, false);
+    }
+
+    /**
+     * 序列化用于提示词的QaTree：已归纳的空闲分支以摘要代替原始节点
+     *
+     * @param t QA树
+     * @return 序列化结果
+     */
+    public static String serializeForPrompt(QaTree t) throws JsonProcessingException {
+        return serialize(t, null, null, true);
+    }
 
-        firstOrderTraversal(t.getRoot(), null, result);
+    /**
+     * 序列化用于提示词的QaTree，并替换指定节点的答案
+     *
+     * @param t QA树
+     * @param answerNodeId 需要替换答案的节点ID
+     * @param answerOverride 替换后的答案文本
+     * @return 序列化结果
+     */
+    public static String serializeForPrompt(QaTree t, String answerNodeId, String answerOverride) throws JsonProcessingException {
+        return serialize(t, answerNodeId, answerOverride, true);
+    }
 
+    /**
+     * 序列化以指定节点为根的子树（原始节点，不使用摘要）
+     *
+     * @param node 子树根节点
+     * @return 序列化结果
+     */
+    public static String serializeSubtree(QaTreeNode node) throws JsonProcessingException {
+        List<JsonNode> result = new ArrayList<>();
+        firstOrderTraversal(node, null, result, null, null, false);
         return JSONObject.toJSONString(result);
     }
-    
-    private static void firstOrderTraversal(QaTreeNode node, String parentId, List<JsonNode> result) throws JsonProcessingException {
+
+    /**
+     * 按先序展开QaTree的全部节点，不转为字符串，便于嵌入其他JSON结构
+     *
+     * @param t QA树
+     * @return 节点列表
+     */
+    public static List<JsonNode> toJsonNodes(QaTree t) throws JsonProcessingException {
+        return toJsonNodes(t, null, null, false);
+    }
+
+    private static String serialize(QaTree t, String answerNodeId, String answerOverride, boolean useSummaries) throws JsonProcessingException {
+        return JSONObject.toJSONString(toJsonNodes(t, answerNodeId, answerOverride, useSummaries));
+    }
+
+    private static List<JsonNode> toJsonNodes(QaTree t, String answerNodeId, String answerOverride, boolean useSummaries) throws JsonProcessingException {
+        List<JsonNode> result = new ArrayList<>();
+        if (t == null || t.getRoot() == null) {
+            return result;
+        }
+
+        firstOrderTraversal(t.getRoot(), null, result, answerNodeId, answerOverride, useSummaries);
+
+        return result;
+    }
+
+    private static void firstOrderTraversal(QaTreeNode node, String parentId, List<JsonNode> result,
+                                            String answerNodeId, String answerOverride, boolean useSummaries) throws JsonProcessingException {
         if (node == null) {
             return;
         }
-        
+
+        // 已归纳的分支只输出子树根节点和摘要
+        String summary = useSummaries && parentId != null ? node.getValidSummary() : null;
+        if (summary != null) {
+            JsonNode rootNode = JsonNode.Convert2JsonNode(node, parentId);
+            result.add(JsonNode.builder()
+                    .nodeId(rootNode.getNodeId())
+                    .parentId(rootNode.getParentId())
+                    .question(rootNode.getQuestion())
+                    .answer(SUMMARY_PREFIX + summary)
+                    .build());
+            return;
+        }
+
         // 获取子节点列表
         List<QaTreeNode> children = new ArrayList<>();
 
         if (node.getChildren() != null) {
             children.addAll(node.getChildren().values());
         }
-        
+
         // 访问当前节点
         JsonNode jsonNode = JsonNode.Convert2JsonNode(node, parentId);
+        if (answerNodeId != null && answerNodeId.equals(node.getId())) {
+            jsonNode = JsonNode.builder()
+                    .nodeId(jsonNode.getNodeId())
+                    .parentId(jsonNode.getParentId())
+                    .question(jsonNode.getQuestion())
+                    .answer(answerOverride)
+                    .build();
+        }
 
         result.add(jsonNode);
 
         // 先序遍历
         for (QaTreeNode child : children) {
-            firstOrderTraversal(child, node.getId(), result);
+            firstOrderTraversal(child, node.getId(), result, answerNodeId, answerOverride, useSummaries);
         }
     }
 }
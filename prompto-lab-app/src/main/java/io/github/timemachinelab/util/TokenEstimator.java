@@ -0,0 +1,28 @@
+package io.github.timemachinelab.util;
+
+/**
+ * Token数估算工具
+ * 无需分词器的粗略估算：CJK字符按1个token，其余字符按4个字符1个token
+ *
+ * @author suifeng
+ * 日期: 2025/8/29
+ */
+public class TokenEstimator {
+
+    public static long estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        long cjk = 0;
+        long other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN) {
+                cjk++;
+            } else {
+                other++;
+            }
+        }
+        return cjk + (other + 3) / 4;
+    }
+}
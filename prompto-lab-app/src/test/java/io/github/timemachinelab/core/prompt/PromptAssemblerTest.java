@@ -0,0 +1,88 @@
+package io.github.timemachinelab.core.prompt;
+
+import io.github.timemachinelab.config.BatchQuestionProperties;
+import io.github.timemachinelab.config.PromptSlimmingProperties;
+import io.github.timemachinelab.core.constant.AllPrompt;
+import io.github.timemachinelab.core.constant.QFormPrompt;
+import io.github.timemachinelab.core.constant.RetryPrompt;
+import io.github.timemachinelab.util.TokenEstimator;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PromptAssemblerTest {
+
+    @Test
+    void testRetryRulesOnlyForRetry() {
+        PromptAssembler assembler = new PromptAssembler(new PromptSlimmingProperties());
+
+        assertFalse(assembler.questionPrompt(1, false).contains(RetryPrompt.RETRY_PROMPT));
+        assertTrue(assembler.questionPrompt(1, true).contains(RetryPrompt.RETRY_PROMPT));
+    }
+
+    @Test
+    void testFormSchemaOnlyInOpeningPhase() {
+        PromptAssembler assembler = new PromptAssembler(new PromptSlimmingProperties());
+
+        String opening = assembler.questionPrompt(2, false);
+        String exploring = assembler.questionPrompt(10, false);
+
+        assertTrue(opening.contains(QFormPrompt.Q_FROM_PROMPT));
+        assertFalse(exploring.contains(QFormPrompt.Q_FROM_PROMPT));
+        assertTrue(exploring.contains("本轮只能使用以下题型：single/multi/input"));
+        assertSame(exploring, assembler.questionPrompt(11, false));
+        assertTrue(exploring.startsWith(AllPrompt.ALL_PROMPT));
+    }
+
+    @Test
+    void testBatchRulesOnlyInOpeningNonRetry() {
+        BatchQuestionProperties batch = new BatchQuestionProperties();
+        batch.setEnabled(true);
+        PromptAssembler assembler = new PromptAssembler(new PromptSlimmingProperties(), batch);
+
+        assertTrue(assembler.questionPrompt(1, false).contains("# 批量提问"));
+        assertTrue(assembler.questionPrompt(1, false).contains("最多3个"));
+        assertFalse(assembler.questionPrompt(1, true).contains("# 批量提问"));
+        assertFalse(assembler.questionPrompt(10, false).contains("# 批量提问"));
+    }
+
+    @Test
+    void testDisabledKeepsFullPrompt() {
+        PromptSlimmingProperties properties = new PromptSlimmingProperties();
+        properties.setEnabled(false);
+        PromptAssembler assembler = new PromptAssembler(properties);
+
+        assertSame(AllPrompt.GLOBAL_PROMPT, assembler.questionPrompt(10, false));
+    }
+
+    /**
+     * 回放一个典型会话（12轮回答，其中2次重试），统计每轮token的减少量
+     */
+    @Test
+    void testReplayTokenReduction() {
+        PromptAssembler assembler = new PromptAssembler(new PromptSlimmingProperties());
+        long full = TokenEstimator.estimate(AllPrompt.GLOBAL_PROMPT);
+        long sent = 0;
+        int turns = 0;
+        for (int nodeCount = 1; nodeCount <= 12; nodeCount++) {
+            boolean retry = nodeCount == 5 || nodeCount == 9;
+            sent += TokenEstimator.estimate(assembler.questionPrompt(nodeCount, retry));
+            turns++;
+        }
+
+        Map<String, Object> stats = assembler.getStats();
+        double reduction = (double) stats.get("reductionRatio");
+        double avgSent = (double) sent / turns;
+
+        assertEquals(12L, stats.get("turns"));
+        assertTrue(reduction > 0.1, "减少比例: " + reduction);
+        assertEquals((double) (full * turns - sent) / (full * turns), reduction, 1e-9);
+        assertEquals(avgSent, (double) stats.get("avgSentTokens"), 1e-9);
+        assertEquals(full - avgSent, (double) stats.get("avgSavedTokens"), 1e-9);
+        // 探索阶段的提示词不含表单说明，比开场阶段更短
+        assertTrue(TokenEstimator.estimate(assembler.questionPrompt(10, false))
+                < TokenEstimator.estimate(assembler.questionPrompt(1, false)));
+    }
+}
@@ -0,0 +1,105 @@
+package io.github.timemachinelab.core.prompt;
+
+import io.github.timemachinelab.core.constant.AllPrompt;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PromptTemplateTest {
+
+    private final PromptTemplateRegistry registry = new PromptTemplateRegistry();
+
+    /**
+     * 原 QuestionGenerationOperation.buildPrompt 的拼接方式
+     */
+    private String legacyQuestionPrompt(String globalPrompt, String tree, String input) {
+        StringBuilder promptBuilder = new StringBuilder();
+        if (globalPrompt != null && !globalPrompt.trim().isEmpty()) {
+            promptBuilder.append(globalPrompt);
+            promptBuilder.append("\n\n");
+        }
+        if (tree != null && !tree.trim().isEmpty()) {
+            promptBuilder.append("## 对话树结构\n");
+            promptBuilder.append(tree);
+            promptBuilder.append("\n\n");
+        }
+        promptBuilder.append("## 当前用户输入\n");
+        promptBuilder.append(input);
+        return promptBuilder.toString();
+    }
+
+    private Map<String, Object> values(String tree, String input) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("tree", tree);
+        values.put("input", input);
+        return values;
+    }
+
+    @Test
+    void testQuestionTemplateMatchesLegacyOutput() {
+        String tree = "[{\"nodeId\":\"1\",\"question\":\"你好\",\"answer\":\"写简历 {{name}}\"}]";
+        String input = "{\"action\":\"retry\"}";
+
+        assertEquals(legacyQuestionPrompt(AllPrompt.GLOBAL_PROMPT, tree, input),
+                registry.questionGeneration(AllPrompt.GLOBAL_PROMPT, true).render(values(tree, input)));
+        assertEquals(legacyQuestionPrompt(AllPrompt.GLOBAL_PROMPT, "", input),
+                registry.questionGeneration(AllPrompt.GLOBAL_PROMPT, false).render(values("", input)));
+        assertEquals(legacyQuestionPrompt(null, tree, input),
+                registry.questionGeneration(null, true).render(values(tree, input)));
+    }
+
+    @Test
+    void testStaticPrefixIsStableAcrossTurns() {
+        PromptTemplate template = registry.questionGeneration(AllPrompt.GLOBAL_PROMPT, true);
+        String first = template.render(values("[1]", "a"));
+        String second = template.render(values("[1,2,3]", "完全不同的回答"));
+        String prefix = template.getStaticPrefix();
+
+        assertTrue(first.startsWith(prefix));
+        assertTrue(second.startsWith(prefix));
+        assertSame(template, registry.questionGeneration(AllPrompt.GLOBAL_PROMPT, true));
+        assertEquals(template.getPrefixHash(), registry.questionGeneration(AllPrompt.GLOBAL_PROMPT, true).getPrefixHash());
+    }
+
+    @Test
+    void testGenPromptKeepsAgentPromptUnescaped() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("user", "学生");
+        values.put("aiModel", "gpt-4o");
+        values.put("userTarget", "写简历");
+        values.put("userConversation", "[]");
+
+        String rendered = registry.genPrompt(AllPrompt.GEN_PROMPT_AGENT_PROMPT).render(values);
+
+        assertTrue(rendered.startsWith(AllPrompt.GEN_PROMPT_AGENT_PROMPT));
+        assertTrue(rendered.endsWith("userConversation: []"));
+    }
+
+    @Test
+    void testJsonSlotAndErrors() {
+        PromptTemplate template = PromptTemplate.compile("t", "x={{x:json}};y={{y}}");
+        Map<String, Object> values = new HashMap<>();
+        values.put("x", new String[]{"a"});
+        values.put("y", null);
+
+        assertEquals("x=[\"a\"];y=", template.render(values));
+        assertThrows(IllegalArgumentException.class, () -> template.render(new HashMap<>()));
+        assertThrows(IllegalArgumentException.class, () -> PromptTemplate.compile("t", "{{x:xml}}"));
+        assertThrows(IllegalArgumentException.class, () -> PromptTemplate.compile("t", "{{x"));
+    }
+
+    @Test
+    void testPrefixCacheEstimate() {
+        PromptTemplate template = registry.questionGeneration(AllPrompt.GLOBAL_PROMPT, true);
+        registry.recordSent(template);
+        registry.recordSent(template);
+        registry.recordSent(template);
+
+        Map<String, Object> stats = registry.getStats();
+        assertEquals(2L, stats.get("prefixCacheHits"));
+        assertEquals(1L, stats.get("prefixCacheMisses"));
+    }
+}
@@ -0,0 +1,121 @@
+package io.github.timemachinelab.core.qatree;
+
+import io.github.timemachinelab.core.question.InputQuestion;
+import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QaTreeMerkleTest {
+
+    private final QaTreeDomain qaTreeDomain = new QaTreeDomain();
+    private ConversationSession session;
+    private QaTree tree;
+
+    @BeforeEach
+    void setUp() {
+        session = new ConversationSession("u1", "s1", null);
+        tree = qaTreeDomain.createTree("你想做什么？", session);
+        session.setQaTree(tree);
+    }
+
+    @Test
+    void testUpdateChangesOnlyPathToRoot() {
+        String a = append("1", "博客面向哪些读者？");
+        String b = append(a, "希望使用什么技术栈？");
+        String c = append("1", "预算多少？");
+        String rootHash = tree.getRoot().getHash();
+        String aHash = tree.getNodeById(a).getHash();
+        String cHash = tree.getNodeById(c).getHash();
+
+        assertTrue(qaTreeDomain.updateNodeAnswer(tree, b, "静态站点"));
+
+        assertNotEquals(rootHash, tree.getRoot().getHash());
+        assertNotEquals(aHash, tree.getNodeById(a).getHash());
+        assertEquals(cHash, tree.getNodeById(c).getHash());
+        assertEquals(tree.getRoot().getHash(), qaTreeDomain.treeVersion(tree));
+    }
+
+    @Test
+    void testVersionRestoredAfterRemove() {
+        String a = append("1", "博客面向哪些读者？");
+        String before = tree.getVersion();
+
+        String b = append(a, "希望使用什么技术栈？");
+        assertNotEquals(before, tree.getVersion());
+
+        assertTrue(qaTreeDomain.removeNode(tree, b));
+        assertEquals(before, tree.getVersion());
+        assertNull(tree.getParent(b));
+    }
+
+    @Test
+    void testIncrementalHashMatchesFullRecompute() {
+        String parentId = "1";
+        for (int i = 0; i < 20; i++) {
+            parentId = append(i % 3 == 0 ? "1" : parentId, "问题" + i);
+            qaTreeDomain.updateNodeAnswer(tree, parentId, "回答" + i);
+        }
+
+        String incremental = tree.getVersion();
+        assertEquals(incremental, recompute(tree.getRoot()));
+    }
+
+    /**
+     * 在不同深度的链上更新最深节点的回答：只重算到根的路径，兄弟分支的哈希保持不变
+     */
+    @Test
+    void testDeepUpdateRehashesOnlyPath() {
+        for (int depth : new int[]{10, 100, 1000}) {
+            setUp();
+            String leaf = "1";
+            for (int i = 0; i < depth; i++) {
+                leaf = append(leaf, "问题" + i);
+            }
+            List<String> siblings = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                siblings.add(append("1", "旁支" + i));
+            }
+            Map<String, String> siblingHashes = new HashMap<>();
+            siblings.forEach(id -> siblingHashes.put(id, tree.getNodeById(id).getHash()));
+
+            for (int i = 0; i < 3; i++) {
+                String before = tree.getVersion();
+                assertTrue(qaTreeDomain.updateNodeAnswer(tree, leaf, "回答" + i));
+                assertNotEquals(before, tree.getVersion());
+            }
+
+            siblings.forEach(id -> assertEquals(siblingHashes.get(id), tree.getNodeById(id).getHash()));
+            assertEquals(depth + 1, qaTreeDomain.getPath(tree, leaf).size());
+            assertEquals(tree.getVersion(), recompute(tree.getRoot()));
+        }
+    }
+
+    private String append(String parentId, String question) {
+        InputQuestion qa = new InputQuestion();
+        qa.setQuestion(question);
+        qaTreeDomain.appendNode(tree, parentId, qa, session);
+        return String.valueOf(session.getNodeIdCounter().get());
+    }
+
+    /**
+     * 复制出内容相同的新节点，从零计算整棵树的哈希
+     */
+    private String recompute(QaTreeNode node) {
+        return copy(node).getHash();
+    }
+
+    private QaTreeNode copy(QaTreeNode node) {
+        QaTreeNode copy = new QaTreeNode(node.getQa(), node.getId());
+        for (QaTreeNode child : node.getChildren().values()) {
+            copy.append(copy(child));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,102 @@
+package io.github.timemachinelab.core.session.application;
+
+import io.github.timemachinelab.config.BatchQuestionProperties;
+import io.github.timemachinelab.core.qatree.QaTreeDomain;
+import io.github.timemachinelab.core.question.QuestionParseException;
+import io.github.timemachinelab.core.question.QuestionParser;
+import io.github.timemachinelab.core.question.SingleChoiceQuestion;
+import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.domain.event.SessionRemovedEvent;
+import io.github.timemachinelab.core.session.infrastructure.ai.QuestionGenerationOperation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchQuestionQueueTest {
+
+    private static final String BATCH = "{\"parentId\":\"1\",\"questions\":["
+            + "{\"question\":\"博客面向哪些读者？\",\"type\":\"input\"},"
+            + "{\"question\":\"使用场景是？\",\"type\":\"single\",\"options\":[{\"id\":\"a\",\"label\":\"个人\"},{\"id\":\"b\",\"label\":\"团队\"}]},"
+            + "{\"question\":\"有哪些限制？\",\"type\":\"input\"}]}";
+
+    private final QaTreeDomain qaTreeDomain = new QaTreeDomain();
+    private BatchQuestionQueue queue;
+    private ConversationSession session;
+
+    @BeforeEach
+    void setUp() {
+        BatchQuestionProperties properties = new BatchQuestionProperties();
+        properties.setEnabled(true);
+        queue = new BatchQuestionQueue(properties, qaTreeDomain);
+        session = new ConversationSession("u1", "s1", null);
+        session.setQaTree(qaTreeDomain.createTree("你想做什么？", session));
+    }
+
+    @Test
+    void testParseBatchInOnePass() throws Exception {
+        QuestionGenerationOperation.QuestionGenerationResponse response = QuestionParser.parseQuestions(BATCH);
+
+        assertEquals("1", response.getParentId());
+        assertEquals("博客面向哪些读者？", response.getQuestion().getQuestion());
+        assertEquals(2, response.getFollowUps().size());
+        assertTrue(response.getFollowUps().get(0) instanceof SingleChoiceQuestion);
+
+        // 单个问题格式保持兼容
+        assertNull(QuestionParser.parseQuestions("{\"question\":\"预算多少？\",\"type\":\"input\",\"parentId\":\"1\"}").getFollowUps());
+        // 任一问题不合法时整批失败
+        assertThrows(QuestionParseException.class, () -> QuestionParser.parseQuestions(
+                "{\"parentId\":\"1\",\"questions\":[{\"question\":\"a\",\"type\":\"input\"},{\"question\":\"b\",\"type\":\"single\"}]}"));
+    }
+
+    @Test
+    void testChainAppendedAndServedWithoutModel() throws Exception {
+        List<String> nodeIds = queue.append(session, QuestionParser.parseQuestions(BATCH));
+
+        assertEquals(Arrays.asList("2", "3", "4"), nodeIds);
+        assertEquals("3", qaTreeDomain.getPath(session.getQaTree(), "4").get(2).getId());
+
+        qaTreeDomain.updateNodeAnswer(session.getQaTree(), "2", "后端开发者");
+        QuestionGenerationOperation.QuestionGenerationResponse next = queue.take(session, "2");
+        assertEquals("3", next.getNodeId());
+        assertEquals("2", next.getParentId());
+        assertEquals("使用场景是？", next.getQuestion().getQuestion());
+
+        assertEquals("4", queue.take(session, "3").getNodeId());
+        // 链上最后一个问题回答后需要调用模型
+        assertNull(queue.take(session, "4"));
+        assertEquals(2L, queue.getStats().get("savedRoundTrips"));
+    }
+
+    @Test
+    void testFollowUpsTruncatedAndChainDroppedOnBranch() throws Exception {
+        BatchQuestionProperties properties = new BatchQuestionProperties();
+        properties.setMaxQuestions(2);
+        queue = new BatchQuestionQueue(properties, qaTreeDomain);
+
+        QuestionGenerationOperation.QuestionGenerationResponse response = QuestionParser.parseQuestions(BATCH);
+        assertEquals(2, queue.append(session, response).size());
+        assertEquals(1L, queue.getStats().get("truncated"));
+        // 响应可能被缓存共享，截断不修改原对象
+        assertEquals(2, response.getFollowUps().size());
+
+        // 用户回答了链外的节点，排队的问题作废
+        assertNull(queue.take(session, "1"));
+        assertNull(queue.take(session, "2"));
+    }
+
+    @Test
+    void testChainDroppedWhenSessionRemoved() throws Exception {
+        queue.append(session, QuestionParser.parseQuestions(BATCH));
+        assertEquals(1, queue.getStats().get("pendingSessions"));
+
+        queue.onSessionRemoved(new SessionRemovedEvent("s1", "u1"));
+
+        assertEquals(0, queue.getStats().get("pendingSessions"));
+        qaTreeDomain.updateNodeAnswer(session.getQaTree(), "2", "后端开发者");
+        assertNull(queue.take(session, "2"));
+    }
+}
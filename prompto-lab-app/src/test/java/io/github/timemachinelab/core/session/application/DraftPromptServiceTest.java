@@ -0,0 +1,181 @@
+package io.github.timemachinelab.core.session.application;
+
+import io.github.timemachinelab.config.DraftPromptProperties;
+import io.github.timemachinelab.core.constant.AllPrompt;
+import io.github.timemachinelab.core.constant.DraftPrompt;
+import io.github.timemachinelab.core.qatree.QaTreeDomain;
+import io.github.timemachinelab.core.question.InputQuestion;
+import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.domain.event.SessionRemovedEvent;
+import io.github.timemachinelab.core.session.domain.turn.TurnContext;
+import io.github.timemachinelab.core.session.infrastructure.ai.GenPromptOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DraftPromptServiceTest {
+
+    private final QaTreeDomain qaTreeDomain = new QaTreeDomain();
+    private final List<GenPromptOperation.GpRequest> requests = Collections.synchronizedList(new ArrayList<>());
+    private final List<TurnContext> turns = Collections.synchronizedList(new ArrayList<>());
+    private DraftPromptProperties properties;
+    private DraftPromptService service;
+    private ConversationSession session;
+
+    @BeforeEach
+    void setUp() {
+        properties = new DraftPromptProperties();
+        properties.setEnabled(true);
+        properties.setDebounceMs(50);
+        service = new DraftPromptService(properties, (request, background, turn) -> {
+            requests.add(request);
+            turns.add(turn);
+            return "草稿" + requests.size();
+        });
+
+        session = new ConversationSession("u1", "s1", null);
+        session.setQaTree(qaTreeDomain.createTree("你想做什么？", session));
+        qaTreeDomain.updateNodeAnswer(session.getQaTree(), "1", "搭建博客");
+        append("1", "博客面向哪些读者？", "后端开发者");
+        append("2", "希望使用什么技术栈？", "静态站点");
+        append("3", "是否需要评论功能？", "不需要");
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void testDebouncedDraftServedWhenTreeUnchanged() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            service.onTreeChanged(session);
+        }
+        awaitStat("refreshed", 1);
+
+        assertEquals(1, requests.size());
+        assertEquals(2L, service.getStats().get("debounced"));
+        assertEquals(AllPrompt.GEN_PROMPT_AGENT_PROMPT, requests.get(0).getPrompt());
+
+        // 对话树未变化，直接返回草稿，不再调用模型
+        assertEquals("草稿1", service.generate(session, null));
+        assertEquals(1, requests.size());
+        assertEquals(1L, service.getStats().get("hits"));
+    }
+
+    @Test
+    void testChangedTreeRefinedFromDraft() throws Exception {
+        service.onTreeChanged(session);
+        awaitStat("refreshed", 1);
+
+        qaTreeDomain.updateNodeAnswer(session.getQaTree(), "4", "需要，支持匿名");
+        assertEquals("草稿2", service.generate(session, null));
+
+        GenPromptOperation.GpRequest refine = requests.get(1);
+        assertEquals(DraftPrompt.REFINE_AGENT_PROMPT, refine.getPrompt());
+        assertTrue(refine.getUserConversation().startsWith(DraftPrompt.DRAFT_HEADER + "草稿1"));
+        assertTrue(refine.getUserConversation().contains("需要，支持匿名"));
+        assertFalse(refine.getUserConversation().contains("希望使用什么技术栈？"));
+        // 修订结果成为新的草稿
+        assertEquals("草稿2", service.generate(session, null));
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    void testBackgroundRefreshStopsAtBudget() throws Exception {
+        properties.setMaxDraftsPerSession(1);
+        service.onTreeChanged(session);
+        awaitStat("refreshed", 1);
+
+        qaTreeDomain.updateNodeAnswer(session.getQaTree(), "4", "需要");
+        service.onTreeChanged(session);
+        awaitStat("skippedByBudget", 1);
+
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    void testForegroundGenerationUsesTurnBudget() {
+        TurnContext turn = TurnContext.start("s1", 5000);
+
+        assertEquals("草稿1", service.generate(session, turn));
+
+        assertSame(turn, turns.get(0));
+    }
+
+    @Test
+    void testSessionRemovalReleasesDraft() throws Exception {
+        service.onTreeChanged(session);
+        awaitStat("refreshed", 1);
+        assertEquals(1, service.getStats().get("sessions"));
+
+        service.onSessionRemoved(new SessionRemovedEvent("s1", "u1"));
+
+        assertEquals(0, service.getStats().get("sessions"));
+    }
+
+    @Test
+    void testForegroundGenerationDoesNotBlockCaller() throws Exception {
+        properties.setEnabled(false);
+        properties.setGenerateThreads(1);
+        properties.setGenerateQueueCapacity(1);
+        service.shutdown();
+        CountDownLatch release = new CountDownLatch(1);
+        service = new DraftPromptService(properties, (request, background, turn) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "提示词";
+        });
+        BlockingQueue<String> prompts = new ArrayBlockingQueue<>(2);
+        TurnContext turn = TurnContext.start("s1", 5000);
+
+        // 模型阻塞期间调用方已返回，一个在执行、一个在排队，第三个被拒绝
+        assertTrue(service.generateAsync(session, turn, prompts::add, e -> fail(e)));
+        assertTrue(service.generateAsync(session, turn, prompts::add, e -> fail(e)));
+        assertFalse(service.generateAsync(session, turn, prompts::add, e -> fail(e)));
+        assertEquals(1L, service.getStats().get("foregroundRejected"));
+        assertTrue(prompts.isEmpty());
+
+        release.countDown();
+        assertEquals("提示词", prompts.poll(5, TimeUnit.SECONDS));
+        assertEquals("提示词", prompts.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testForegroundFailureReported() throws Exception {
+        BlockingQueue<Exception> failures = new ArrayBlockingQueue<>(1);
+
+        // 对话树为空的会话无法生成
+        assertTrue(service.generateAsync(new ConversationSession("u2", "s2", null), null, prompt -> fail(), failures::add));
+
+        assertTrue(failures.poll(5, TimeUnit.SECONDS) instanceof IllegalStateException);
+    }
+
+    private void append(String parentId, String question, String answer) {
+        InputQuestion qa = new InputQuestion();
+        qa.setQuestion(question);
+        qa.setAnswer(answer);
+        qaTreeDomain.appendNode(session.getQaTree(), parentId, qa, session);
+    }
+
+    private void awaitStat(String name, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!Long.valueOf(expected).equals(service.getStats().get(name)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, service.getStats().get(name));
+    }
+}
@@ -0,0 +1,169 @@
+package io.github.timemachinelab.core.session.application;
+
+import io.github.timemachinelab.config.FanOutProperties;
+import io.github.timemachinelab.core.qatree.QaTreeDomain;
+import io.github.timemachinelab.core.question.InputQuestion;
+import io.github.timemachinelab.core.question.MultipleChoiceQuestion;
+import io.github.timemachinelab.core.question.Option;
+import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.domain.turn.DeadlineExceededException;
+import io.github.timemachinelab.core.session.domain.turn.TurnContext;
+import io.github.timemachinelab.core.session.infrastructure.ai.QuestionGenerationOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MultiSelectFanOutServiceTest {
+
+    private final QaTreeDomain qaTreeDomain = new QaTreeDomain();
+    private final List<String> trees = Collections.synchronizedList(new ArrayList<>());
+    private FanOutProperties properties;
+    private MultiSelectFanOutService service;
+    private ConversationSession session;
+
+    @BeforeEach
+    void setUp() {
+        properties = new FanOutProperties();
+        properties.setEnabled(true);
+        service = newService(request -> {
+        });
+
+        session = new ConversationSession("u1", "s1", null);
+        session.setQaTree(qaTreeDomain.createTree("你想做什么？", session));
+        MultipleChoiceQuestion multi = new MultipleChoiceQuestion();
+        multi.setQuestion("博客需要哪些功能？");
+        multi.setOptions(Arrays.asList(new Option("search", "搜索"), new Option("rss", "订阅"),
+                new Option("comment", "评论"), new Option("ci", "自动部署")));
+        qaTreeDomain.appendNode(session.getQaTree(), "1", multi, session);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    /**
+     * @param beforeReply 每个分支返回前执行，用于让分支相互等待或阻塞
+     */
+    private MultiSelectFanOutService newService(Consumer<QuestionGenerationOperation.QuestionGenerationRequest> beforeReply) {
+        if (service != null) {
+            service.shutdown();
+        }
+        service = new MultiSelectFanOutService(properties, (request, queueListener, turn) -> {
+            trees.add(request.getConversationTree());
+            if ("ci".equals(request.getUserInput())) {
+                throw new IllegalStateException("模型返回格式错误");
+            }
+            beforeReply.accept(request);
+            InputQuestion question = new InputQuestion();
+            question.setQuestion("关于" + request.getUserInput() + "的追问");
+            return new QuestionGenerationOperation.QuestionGenerationResponse(question, "1");
+        });
+        return service;
+    }
+
+    @Test
+    void testBranchesRunConcurrentlyAsSiblings() {
+        // 每个分支都要等到三个分支同时在执行才返回，串行执行时会超时失败
+        CountDownLatch running = new CountDownLatch(3);
+        newService(request -> {
+            running.countDown();
+            await(running);
+        });
+        qaTreeDomain.updateNodeAnswer(session.getQaTree(), "2", Arrays.asList("search", "rss", "comment"));
+        List<QuestionGenerationOperation.QuestionGenerationResponse> delivered = new ArrayList<>();
+
+        assertTrue(service.tryFanOut(session, "2", "prompt", null, TurnContext.start("s1", 5000), delivered::add));
+
+        assertEquals(3, delivered.size());
+        delivered.forEach(response -> assertEquals("2", response.getParentId()));
+        // 分支标记按完成顺序编号，供前端排队展示兄弟问题
+        for (int i = 0; i < delivered.size(); i++) {
+            assertEquals("2", delivered.get(i).getFanOut().getParentId());
+            assertEquals(i, delivered.get(i).getFanOut().getIndex());
+            assertEquals(3, delivered.get(i).getFanOut().getTotal());
+        }
+        assertTrue(trees.stream().anyMatch(tree -> tree.contains("搜索" + MultiSelectFanOutService.BRANCH_HINT)));
+        assertTrue(trees.stream().noneMatch(tree -> tree.contains("搜索,订阅")));
+    }
+
+    @Test
+    void testFailedBranchIsolated() {
+        qaTreeDomain.updateNodeAnswer(session.getQaTree(), "2", Arrays.asList("search", "ci"));
+        List<QuestionGenerationOperation.QuestionGenerationResponse> delivered = new ArrayList<>();
+
+        assertTrue(service.tryFanOut(session, "2", "prompt", null, TurnContext.start("s1", 5000), delivered::add));
+
+        assertEquals(1, delivered.size());
+        assertEquals(1L, service.getStats().get("failed"));
+    }
+
+    @Test
+    void testSingleSelectionUsesNormalFlow() {
+        qaTreeDomain.updateNodeAnswer(session.getQaTree(), "2", Collections.singletonList("search"));
+
+        assertFalse(service.tryFanOut(session, "2", "prompt", null, TurnContext.start("s1", 5000), response -> fail()));
+        assertTrue(trees.isEmpty());
+    }
+
+    @Test
+    void testAbandonedBranchesHoldThreadsUntilFinished() throws InterruptedException {
+        properties.setThreads(2);
+        CountDownLatch release = new CountDownLatch(1);
+        // 模拟无法中止的模型调用：忽略中断，直到调用真正返回
+        newService(request -> {
+            boolean interrupted = false;
+            while (release.getCount() > 0) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        qaTreeDomain.updateNodeAnswer(session.getQaTree(), "2", Arrays.asList("search", "rss"));
+
+        try {
+            DeadlineExceededException e = assertThrows(DeadlineExceededException.class,
+                    () -> service.tryFanOut(session, "2", "prompt", null, TurnContext.start("s1", 50), response -> fail()));
+            assertEquals("aiCall", e.getStage());
+            assertEquals(2L, service.getStats().get("timedOut"));
+
+            // 超时放弃的分支仍占用线程，新的并行追问不排队，回退为普通流程
+            assertFalse(service.tryFanOut(session, "2", "prompt", null, TurnContext.start("s1", 5000), response -> fail()));
+            assertEquals(1L, service.getStats().get("rejected"));
+            assertEquals(2, service.getStats().get("activeBranches"));
+        } finally {
+            // 断言失败时也放行分支线程
+            release.countDown();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((int) service.getStats().get("activeBranches") > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        List<QuestionGenerationOperation.QuestionGenerationResponse> delivered = new ArrayList<>();
+        assertTrue(service.tryFanOut(session, "2", "prompt", null, TurnContext.start("s1", 5000), delivered::add));
+        assertEquals(2, delivered.size());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS), "分支未并行执行");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.timemachinelab.core.session.application;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import io.github.timemachinelab.core.qatree.QaTree;
+import io.github.timemachinelab.core.qatree.QaTreeDomain;
+import io.github.timemachinelab.core.question.InputQuestion;
+import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QaTreeSyncServiceTest {
+
+    private final QaTreeDomain qaTreeDomain = new QaTreeDomain();
+    private final QaTreeSyncService service = new QaTreeSyncService();
+    private ConversationSession session;
+    private QaTree tree;
+
+    @BeforeEach
+    void setUp() {
+        session = new ConversationSession("u1", "s1", null);
+        tree = qaTreeDomain.createTree("你想做什么？", session);
+        session.setQaTree(tree);
+        qaTreeDomain.updateNodeAnswer(tree, "1", "搭建博客");
+        for (int i = 0; i < 10; i++) {
+            append("1", "问题" + i);
+        }
+    }
+
+    @Test
+    void testNotModifiedWhenETagMatches() throws Exception {
+        QaTreeSyncService.TreeFetch first = service.fetch(tree, null, null);
+        JSONObject body = JSON.parseObject(first.getBody());
+        assertTrue(body.getBooleanValue("full"));
+        assertEquals(11, body.getJSONArray("nodes").size());
+        assertEquals(first.getVersion(), body.getString("version"));
+
+        QaTreeSyncService.TreeFetch second = service.fetch(tree, "W/\"other\", " + first.getETag(), null);
+        assertTrue(second.isNotModified());
+        assertEquals(first.getETag(), second.getETag());
+
+        qaTreeDomain.updateNodeAnswer(tree, "2", "后端开发者");
+        assertFalse(service.fetch(tree, first.getETag(), null).isNotModified());
+        assertEquals(1L, service.getStats().get("notModified"));
+    }
+
+    @Test
+    void testSinceReturnsOnlyChanges() throws Exception {
+        String version = service.fetch(tree, null, null).getVersion();
+
+        qaTreeDomain.updateNodeAnswer(tree, "2", "后端开发者");
+        String added = append("3", "希望使用什么技术栈？");
+        assertTrue(qaTreeDomain.removeNode(tree, "5"));
+
+        JSONObject body = JSON.parseObject(service.fetch(tree, null, version).getBody());
+        assertFalse(body.getBooleanValue("full"));
+        JSONArray nodes = body.getJSONArray("nodes");
+        assertEquals(2, nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            JSONObject node = nodes.getJSONObject(i);
+            if (added.equals(node.getString("nodeId"))) {
+                assertEquals("3", node.getString("parentId"));
+            } else {
+                assertEquals("2", node.getString("nodeId"));
+                assertEquals("后端开发者", node.getString("answer"));
+            }
+        }
+        assertEquals("[\"5\"]", body.getJSONArray("removed").toJSONString());
+
+        // 当前版本之后没有变化
+        JSONObject empty = JSON.parseObject(service.fetch(tree, null, body.getString("version")).getBody());
+        assertEquals(0, empty.getJSONArray("nodes").size());
+    }
+
+    @Test
+    void testUnknownSinceFallsBackToFull() throws Exception {
+        JSONObject body = JSON.parseObject(service.fetch(tree, null, "unknown").getBody());
+
+        assertTrue(body.getBooleanValue("full"));
+        assertEquals(11, body.getJSONArray("nodes").size());
+    }
+
+    private String append(String parentId, String question) {
+        InputQuestion qa = new InputQuestion();
+        qa.setQuestion(question);
+        qaTreeDomain.appendNode(tree, parentId, qa, session);
+        return String.valueOf(session.getNodeIdCounter().get());
+    }
+}
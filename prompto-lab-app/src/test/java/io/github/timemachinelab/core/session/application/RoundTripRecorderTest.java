@@ -0,0 +1,45 @@
+package io.github.timemachinelab.core.session.application;
+
+import io.github.timemachinelab.core.session.domain.event.SessionRemovedEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RoundTripRecorderTest {
+
+    @Test
+    void testRoundTripsKeyedByTransport() {
+        RoundTripRecorder recorder = new RoundTripRecorder();
+
+        recorder.answered("s1", RoundTripRecorder.Transport.HTTP);
+        recorder.questionDelivered("s1");
+        // 没有待计时的回答时，下发问题不计入
+        recorder.questionDelivered("s1");
+        recorder.answered("s2", RoundTripRecorder.Transport.WEBSOCKET);
+        recorder.questionDelivered("s2");
+        recorder.answered("s3", RoundTripRecorder.Transport.WEBSOCKET);
+
+        assertEquals(1L, roundTrips(recorder, "http"));
+        assertEquals(1L, roundTrips(recorder, "websocket"));
+        assertEquals(1, recorder.getStats().get("pending"));
+    }
+
+    @Test
+    void testPendingDroppedWhenSessionRemoved() {
+        RoundTripRecorder recorder = new RoundTripRecorder();
+        recorder.answered("s1", RoundTripRecorder.Transport.HTTP);
+
+        recorder.onSessionRemoved(new SessionRemovedEvent("s1", "u1"));
+        recorder.questionDelivered("s1");
+
+        assertEquals(0L, roundTrips(recorder, "http"));
+        assertEquals(0, recorder.getStats().get("pending"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long roundTrips(RoundTripRecorder recorder, String transport) {
+        return (Long) ((Map<String, Object>) recorder.getStats().get(transport)).get("roundTrips");
+    }
+}
@@ -0,0 +1,150 @@
+package io.github.timemachinelab.core.session.application;
+
+import io.github.timemachinelab.config.PromptSlimmingProperties;
+import io.github.timemachinelab.config.SpeculationProperties;
+import io.github.timemachinelab.core.prompt.PromptAssembler;
+import io.github.timemachinelab.core.qatree.QaTreeDomain;
+import io.github.timemachinelab.core.question.InputQuestion;
+import io.github.timemachinelab.core.question.Option;
+import io.github.timemachinelab.core.question.SingleChoiceQuestion;
+import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.domain.event.SessionRemovedEvent;
+import io.github.timemachinelab.core.session.infrastructure.ai.QuestionGenerationOperation;
+import io.github.timemachinelab.util.TokenEstimator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpeculativeQuestionServiceTest {
+
+    private static final String PROMPT = "请根据对话树生成下一个问题";
+
+    private final QaTreeDomain qaTreeDomain = new QaTreeDomain();
+    private final List<String> generated = Collections.synchronizedList(new ArrayList<>());
+    private SpeculationProperties properties;
+    private SpeculativeQuestionService service;
+    private ConversationSession session;
+    private SingleChoiceQuestion single;
+
+    @BeforeEach
+    void setUp() {
+        properties = new SpeculationProperties();
+        properties.setEnabled(true);
+        properties.setTopK(2);
+
+        session = new ConversationSession("u1", "s1", null);
+        session.setQaTree(qaTreeDomain.createTree("你想做什么？", session));
+        single = new SingleChoiceQuestion();
+        single.setQuestion("简历用于哪类岗位？");
+        single.setOptions(Arrays.asList(new Option("tech", "技术岗"), new Option("product", "产品岗"),
+                new Option("design", "设计岗")));
+        qaTreeDomain.appendNode(session.getQaTree(), "1", single, session);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    private SpeculativeQuestionService newService() {
+        service = new SpeculativeQuestionService(properties, new PromptAssembler(new PromptSlimmingProperties()),
+                request -> PROMPT, request -> {
+                    generated.add(request.getUserInput());
+                    InputQuestion question = new InputQuestion();
+                    question.setQuestion("关于" + request.getUserInput() + "的追问");
+                    return new QuestionGenerationOperation.QuestionGenerationResponse(question, "2");
+                });
+        return service;
+    }
+
+    @Test
+    void testChosenOptionServedFromSpeculation() {
+        SpeculativeQuestionService service = newService();
+        service.speculate(session, "2", single);
+
+        QuestionGenerationOperation.QuestionGenerationResponse response = service.take(session, "2", "product", 1000);
+
+        assertNotNull(response);
+        assertEquals("关于product的追问", response.getQuestion().getQuestion());
+        // 只为前K个选项预生成
+        assertFalse(generated.contains("design"));
+        assertEquals(1L, service.getStats().get("hits"));
+        assertEquals(0, service.getStats().get("pendingSessions"));
+    }
+
+    @Test
+    void testUnspeculatedOptionMisses() {
+        SpeculativeQuestionService service = newService();
+        service.speculate(session, "2", single);
+
+        assertNull(service.take(session, "2", "design", 1000));
+        assertEquals(1L, service.getStats().get("misses"));
+    }
+
+    @Test
+    void testBudgetStopsFurtherSpeculation() {
+        long perOption = TokenEstimator.estimate(PROMPT);
+        properties.setMaxTokensPerSession(perOption * 3 / 2);
+        SpeculativeQuestionService service = newService();
+
+        service.speculate(session, "2", single);
+
+        assertEquals(1L, service.getStats().get("launched"));
+        assertEquals(1L, service.getStats().get("skippedByBudget"));
+        assertNotNull(service.take(session, "2", "tech", 1000));
+        assertNull(service.take(session, "2", "product", 1000));
+
+        // 预算按会话累计，下一道单选题不再预生成
+        service.speculate(session, "2", single);
+        assertEquals(1L, service.getStats().get("launched"));
+        assertEquals(2L, service.getStats().get("skippedByBudget"));
+    }
+
+    @Test
+    void testStaleSpeculationDiscarded() {
+        SpeculativeQuestionService service = newService();
+        service.speculate(session, "2", single);
+
+        // 预生成之后树上出现了新节点，预生成基于的上下文已过期
+        InputQuestion other = new InputQuestion();
+        other.setQuestion("补充说明");
+        qaTreeDomain.appendNode(session.getQaTree(), "1", other, session);
+
+        assertNull(service.take(session, "2", "tech", 1000));
+        assertEquals(0L, service.getStats().get("hits"));
+        assertEquals(1L, service.getStats().get("misses"));
+        assertNull(service.take(session, "2", "tech", 1000));
+    }
+
+    @Test
+    void testAnswerToOtherNodeDiscardsSpeculation() {
+        SpeculativeQuestionService service = newService();
+        service.speculate(session, "2", single);
+
+        assertNull(service.take(session, "1", "tech", 1000));
+        assertEquals(0, service.getStats().get("pendingSessions"));
+    }
+
+    @Test
+    void testSessionRemovalReleasesState() {
+        SpeculativeQuestionService service = newService();
+        service.speculate(session, "2", single);
+        assertEquals(1, service.getStats().get("pendingSessions"));
+        assertEquals(1, service.getStats().get("budgetedSessions"));
+
+        service.onSessionRemoved(new SessionRemovedEvent("s1", "u1"));
+
+        assertEquals(0, service.getStats().get("pendingSessions"));
+        assertEquals(0, service.getStats().get("budgetedSessions"));
+        assertNull(service.take(session, "2", "tech", 1000));
+    }
+}
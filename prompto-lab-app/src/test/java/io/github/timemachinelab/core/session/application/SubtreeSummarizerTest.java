@@ -0,0 +1,110 @@
+package io.github.timemachinelab.core.session.application;
+
+import io.github.timemachinelab.config.SummarizationProperties;
+import io.github.timemachinelab.core.qatree.QaTreeDomain;
+import io.github.timemachinelab.core.qatree.QaTreeNode;
+import io.github.timemachinelab.core.question.InputQuestion;
+import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.util.QaTreeSerializeUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SubtreeSummarizerTest {
+
+    private static final String SUMMARY = "用户要搭建面向后端开发者的技术博客，偏好静态站点";
+
+    private final QaTreeDomain qaTreeDomain = new QaTreeDomain();
+    private ConversationSession session;
+    private SubtreeSummarizer summarizer;
+    private CountDownLatch release;
+
+    @BeforeEach
+    void setUp() {
+        SummarizationProperties properties = new SummarizationProperties();
+        properties.setEnabled(true);
+        release = new CountDownLatch(0);
+        summarizer = new SubtreeSummarizer(properties, subtreeJson -> {
+            try {
+                release.await(2, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return SUMMARY;
+        });
+
+        // 1 -> 2 -> 3 -> 4 为已结束的分支，1 -> 5 为当前待回答的节点
+        session = new ConversationSession("u1", "s1", null);
+        session.setQaTree(qaTreeDomain.createTree("你想做什么？", session));
+        qaTreeDomain.updateNodeAnswer(session.getQaTree(), "1", "搭建博客");
+        append("1", "博客面向哪些读者？", "后端开发者");
+        append("2", "希望使用什么技术栈？", "静态站点");
+        append("3", "是否需要评论功能？", "不需要");
+        append("1", "预算是多少？", null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        summarizer.shutdown();
+    }
+
+    @Test
+    void testIdleBranchReplacedBySummaryUntilChanged() throws Exception {
+        summarizer.schedule(session, "5");
+        QaTreeNode branch = session.getQaTree().getNodeById("2");
+        awaitStat("applied", 1);
+
+        assertEquals(SUMMARY, branch.getValidSummary());
+        String prompt = QaTreeSerializeUtil.serializeForPrompt(session.getQaTree());
+        assertTrue(prompt.contains(QaTreeSerializeUtil.SUMMARY_PREFIX + SUMMARY));
+        assertFalse(prompt.contains("是否需要评论功能？"));
+        assertTrue(prompt.contains("预算是多少？"));
+        // 前端使用的完整序列化不受影响
+        assertTrue(QaTreeSerializeUtil.serialize(session.getQaTree()).contains("是否需要评论功能？"));
+
+        // 分支内任一节点变化后摘要失效
+        qaTreeDomain.updateNodeAnswer(session.getQaTree(), "4", "需要");
+        assertNull(branch.getValidSummary());
+        assertTrue(QaTreeSerializeUtil.serializeForPrompt(session.getQaTree()).contains("是否需要评论功能？"));
+    }
+
+    @Test
+    void testSummaryDiscardedWhenBranchChangesMeanwhile() throws Exception {
+        release = new CountDownLatch(1);
+        summarizer.schedule(session, "5");
+        qaTreeDomain.updateNodeAnswer(session.getQaTree(), "3", "WordPress");
+        release.countDown();
+        awaitStat("stale", 1);
+
+        assertNull(session.getQaTree().getNodeById("2").getValidSummary());
+        assertEquals(0L, summarizer.getStats().get("applied"));
+    }
+
+    @Test
+    void testActivePathAndUnansweredBranchesSkipped() {
+        // 活跃节点在 1 -> 2 -> 3 -> 4 上，另一分支只有一个未回答节点
+        summarizer.schedule(session, "4");
+
+        assertEquals(0L, summarizer.getStats().get("scheduled"));
+    }
+
+    private void append(String parentId, String question, String answer) {
+        InputQuestion qa = new InputQuestion();
+        qa.setQuestion(question);
+        qa.setAnswer(answer);
+        qaTreeDomain.appendNode(session.getQaTree(), parentId, qa, session);
+    }
+
+    private void awaitStat(String name, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!Long.valueOf(expected).equals(summarizer.getStats().get(name)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, summarizer.getStats().get(name));
+    }
+}
@@ -0,0 +1,45 @@
+package io.github.timemachinelab.core.session.domain.turn;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TurnContextTest {
+
+    @Test
+    void testUnboundedTurnNeverExpires() {
+        TurnContext turn = TurnContext.start("s1", 0);
+
+        assertFalse(turn.isBounded());
+        assertFalse(turn.isExpired());
+        assertEquals(Long.MAX_VALUE, turn.remainingMs());
+        assertDoesNotThrow(() -> turn.checkRemaining("ai"));
+    }
+
+    @Test
+    void testExpiredTurnFailsStageCheck() throws InterruptedException {
+        TurnContext turn = TurnContext.start("s1", 20);
+        Thread.sleep(40);
+
+        assertTrue(turn.isExpired());
+        assertEquals(0, turn.remainingMs());
+        DeadlineExceededException e = assertThrows(DeadlineExceededException.class, () -> turn.checkRemaining("aiCall"));
+        assertEquals("aiCall", e.getStage());
+    }
+
+    @Test
+    void testStageTimingsKeepOrder() throws InterruptedException {
+        TurnContext turn = TurnContext.start("s1", 10000);
+        turn.mark("validate");
+        Thread.sleep(15);
+        turn.mark("ai");
+        turn.mark("send");
+
+        Map<String, Long> timings = turn.getStageTimings();
+        assertArrayEquals(new String[]{"validate", "ai", "send"}, timings.keySet().toArray(new String[0]));
+        assertTrue(timings.get("ai") >= 10);
+        assertTrue(turn.remainingMs() <= 10000 - 15);
+    }
+}
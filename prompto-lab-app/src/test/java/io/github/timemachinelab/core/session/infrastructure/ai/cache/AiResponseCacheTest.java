@@ -0,0 +1,173 @@
+package io.github.timemachinelab.core.session.infrastructure.ai.cache;
+
+import io.github.timemachinelab.config.AiCacheProperties;
+import io.github.timemachinelab.core.session.domain.turn.DeadlineExceededException;
+import io.github.timemachinelab.core.session.domain.turn.TurnContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AiResponseCacheTest {
+
+    private static final String OP = "PromptGenMaster";
+
+    private AiCacheProperties properties;
+    private AiResponseCache cache;
+    private AtomicInteger loads;
+
+    public static class Answer {
+        private String text;
+        private List<String> options = new ArrayList<>();
+
+        public Answer() {
+        }
+
+        Answer(String text, String... options) {
+            this.text = text;
+            this.options.addAll(Arrays.asList(options));
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        properties = new AiCacheProperties();
+        cache = new AiResponseCache(properties);
+        loads = new AtomicInteger();
+    }
+
+    private Answer load(String text) {
+        loads.incrementAndGet();
+        return new Answer(text, "A", "B");
+    }
+
+    @Test
+    void testKeyStableAndSensitiveToEveryPart() {
+        String key = cache.buildKey(OP, "gpt-4o", "prompt");
+
+        assertEquals(key, cache.buildKey(OP, "gpt-4o", "prompt"));
+        assertEquals(key, new AiResponseCache(properties).buildKey(OP, "gpt-4o", "prompt"));
+        assertNotEquals(key, cache.buildKey(OP, "deepseek-chat", "prompt"));
+        assertNotEquals(key, cache.buildKey(OP, "gpt-4o", "prompt "));
+        assertNotEquals(key, cache.buildKey("QUESTION_GENERATION_OP", "gpt-4o", "prompt"));
+        // 分隔符避免字段拼接后碰撞
+        assertNotEquals(cache.buildKey(OP, "ab", "c"), cache.buildKey(OP, "a", "bc"));
+    }
+
+    @Test
+    void testFirstTurnOnlyOperationCachedOnFirstTurn() {
+        assertTrue(cache.isCacheable(OP, false));
+        assertFalse(cache.isCacheable("QUESTION_GENERATION_OP"));
+        assertFalse(cache.isCacheable("QUESTION_GENERATION_OP", false));
+        assertTrue(cache.isCacheable("QUESTION_GENERATION_OP", true));
+
+        properties.setEnabled(false);
+        assertFalse(cache.isCacheable("QUESTION_GENERATION_OP", true));
+    }
+
+    @Test
+    void testHitReturnsIndependentCopy() {
+        String key = cache.buildKey(OP, "gpt-4o", "prompt");
+        Answer first = cache.getOrLoad(OP, key, () -> load("v1"));
+        first.options.add("mutated");
+
+        Answer second = cache.getOrLoad(OP, key, () -> load("v2"));
+
+        assertEquals(1, loads.get());
+        assertEquals("v1", second.text);
+        assertEquals(Arrays.asList("A", "B"), second.options);
+        assertNotSame(first, second);
+    }
+
+    @Test
+    void testExpiredEntryReloaded() throws InterruptedException {
+        properties.setTtlSeconds(0);
+        String key = cache.buildKey(OP, "gpt-4o", "prompt");
+        cache.getOrLoad(OP, key, () -> load("v1"));
+        Thread.sleep(5);
+
+        Answer reloaded = cache.getOrLoad(OP, key, () -> load("v2"));
+
+        assertEquals(2, loads.get());
+        assertEquals("v2", reloaded.text);
+        assertEquals(1L, cache.getStats().get("expirations"));
+    }
+
+    @Test
+    void testFailedLoadIsNotCached() {
+        String key = cache.buildKey(OP, "gpt-4o", "prompt");
+
+        assertThrows(IllegalStateException.class, () -> cache.getOrLoad(OP, key, () -> {
+            loads.incrementAndGet();
+            throw new IllegalStateException("model unavailable");
+        }));
+        assertEquals(0, cache.getStats().get("size"));
+        Answer answer = cache.getOrLoad(OP, key, () -> load("v1"));
+
+        assertEquals(2, loads.get());
+        assertEquals("v1", answer.text);
+        cache.getOrLoad(OP, key, () -> load("v2"));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testCoalescedWaitBoundedByTurnBudget() throws Exception {
+        String key = cache.buildKey(OP, "gpt-4o", "prompt");
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<Answer> first = pool.submit(() -> cache.getOrLoad(OP, key, () -> {
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return load("v1");
+            }));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+            // 合并到进行中的请求，只等待本轮剩余预算
+            DeadlineExceededException e = assertThrows(DeadlineExceededException.class,
+                    () -> cache.getOrLoad(OP, key, () -> load("v2"), () -> key, TurnContext.start("s1", 50)));
+            assertEquals("aiCall", e.getStage());
+
+            release.countDown();
+            assertEquals("v1", first.get(5, TimeUnit.SECONDS).text);
+            assertEquals(1, loads.get());
+        } finally {
+            release.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void testStoredUnderAnsweringModel() {
+        String expected = cache.buildKey(OP, "primary", "prompt");
+        String answered = cache.buildKey(OP, "fallback", "prompt");
+        cache.getOrLoad(OP, expected, () -> load("v1"), () -> answered);
+
+        // 由备用模型作答的结果不能以优先模型的名义命中
+        cache.getOrLoad(OP, expected, () -> load("v2"));
+        assertEquals(2, loads.get());
+        Answer hit = cache.getOrLoad(OP, answered, () -> load("v3"));
+        assertEquals("v1", hit.text);
+        assertEquals(2, loads.get());
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> opStats = (Map<String, Object>) ((Map<String, Object>) cache.getStats().get("operations")).get(OP);
+        assertEquals(1L, opStats.get("hits"));
+    }
+}
@@ -0,0 +1,41 @@
+package io.github.timemachinelab.core.session.infrastructure.ai.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MinHasherTest {
+
+    private final MinHasher minHasher = new MinHasher(64, 2);
+
+    @Test
+    void testNearDuplicateOpeningAnswersAreSimilar() {
+        long[] a = minHasher.signature("帮我写一个简历");
+        long[] b = minHasher.signature("写简历");
+
+        assertEquals(1.0, MinHasher.similarity(a, b));
+    }
+
+    @Test
+    void testDifferentNeedsAreNotSimilar() {
+        long[] a = minHasher.signature("帮我写一个简历");
+        long[] b = minHasher.signature("帮我设计一个数据库表结构");
+
+        assertTrue(MinHasher.similarity(a, b) < 0.3);
+    }
+
+    @Test
+    void testSimilarityIsStableAcrossInstances() {
+        MinHasher other = new MinHasher(64, 2);
+        String text = "我想做一个英文论文润色的提示词";
+
+        assertArrayEquals(minHasher.signature(text), other.signature(text));
+    }
+
+    @Test
+    void testEmptyTextNeverMatches() {
+        long[] empty = minHasher.signature("");
+
+        assertEquals(0.0, MinHasher.similarity(empty, minHasher.signature("")));
+    }
+}
@@ -0,0 +1,113 @@
+package io.github.timemachinelab.core.session.infrastructure.ai.cache;
+
+import io.github.timemachinelab.config.SimilarityCacheProperties;
+import io.github.timemachinelab.core.question.InputQuestion;
+import io.github.timemachinelab.core.question.Option;
+import io.github.timemachinelab.core.question.SingleChoiceQuestion;
+import io.github.timemachinelab.core.session.infrastructure.ai.QuestionGenerationOperation.QuestionGenerationResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SimilarQuestionCacheTest {
+
+    private static final String OP = "QUESTION_GENERATION_OP";
+
+    private SimilarityCacheProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new SimilarityCacheProperties();
+        properties.setEnabled(true);
+    }
+
+    private QuestionGenerationResponse response(String text) {
+        SingleChoiceQuestion question = new SingleChoiceQuestion();
+        question.setQuestion(text);
+        question.setOptions(new ArrayList<>(Arrays.asList(new Option("1", "技术岗"), new Option("2", "产品岗"))));
+        QuestionGenerationResponse response = new QuestionGenerationResponse(question, "1");
+        response.setFollowUps(new ArrayList<>(List.of(new InputQuestion())));
+        return response;
+    }
+
+    @Test
+    void testDisabledByDefault() {
+        SimilarQuestionCache cache = new SimilarQuestionCache(new SimilarityCacheProperties());
+
+        assertFalse(cache.isEnabled(OP));
+        cache.store(OP, "帮我写一个简历", response("应聘什么岗位？"), "应聘什么岗位？", 100);
+        assertNull(cache.lookup(OP, "帮我写一个简历", QuestionGenerationResponse.class));
+        assertEquals(0, cache.getStats().get("size"));
+    }
+
+    @Test
+    void testNearDuplicateHitDecodesTypedCopy() {
+        SimilarQuestionCache cache = new SimilarQuestionCache(properties);
+        QuestionGenerationResponse stored = response("应聘什么岗位？");
+        cache.store(OP, "帮我写一个简历", stored, "应聘什么岗位？", 1200);
+
+        QuestionGenerationResponse hit = cache.lookup(OP, "写简历", QuestionGenerationResponse.class);
+
+        assertNotNull(hit);
+        assertNotSame(stored, hit);
+        // 多态字段按子类型还原，不依赖autoType
+        SingleChoiceQuestion question = assertInstanceOf(SingleChoiceQuestion.class, hit.getQuestion());
+        assertEquals("应聘什么岗位？", question.getQuestion());
+        assertEquals("产品岗", question.getOptions().get(1).getLabel());
+        assertInstanceOf(InputQuestion.class, hit.getFollowUps().get(0));
+        assertEquals(1200L, cache.getStats().get("latencySavedMs"));
+
+        hit.getFollowUps().clear();
+        assertEquals(1, cache.lookup(OP, "写简历", QuestionGenerationResponse.class).getFollowUps().size());
+    }
+
+    @Test
+    void testDissimilarContextMisses() {
+        SimilarQuestionCache cache = new SimilarQuestionCache(properties);
+        cache.store(OP, "帮我写一个简历", response("应聘什么岗位？"), "应聘什么岗位？", 100);
+
+        assertNull(cache.lookup(OP, "帮我设计一个数据库表结构", QuestionGenerationResponse.class));
+        assertNull(cache.lookup("OTHER_OP", "帮我写一个简历", QuestionGenerationResponse.class));
+    }
+
+    @Test
+    void testKillSwitchAndRetryInvalidation() {
+        SimilarQuestionCache cache = new SimilarQuestionCache(properties);
+        cache.store(OP, "帮我写一个简历", response("应聘什么岗位？"), "应聘什么岗位？", 100);
+
+        cache.setEnabled(OP, false);
+        assertNull(cache.lookup(OP, "帮我写一个简历", QuestionGenerationResponse.class));
+        cache.setEnabled(OP, true);
+        assertNotNull(cache.lookup(OP, "帮我写一个简历", QuestionGenerationResponse.class));
+
+        assertEquals(1, cache.invalidateByQuestion(OP, "应聘什么岗位？"));
+        assertNull(cache.lookup(OP, "帮我写一个简历", QuestionGenerationResponse.class));
+    }
+
+    @Test
+    void testEvictsOldestBeyondMaxEntries() {
+        properties.setMaxEntries(1);
+        SimilarQuestionCache cache = new SimilarQuestionCache(properties);
+        cache.store(OP, "帮我写一个简历", response("应聘什么岗位？"), "应聘什么岗位？", 100);
+        cache.store(OP, "帮我设计一个数据库表结构", response("用什么数据库？"), "用什么数据库？", 100);
+
+        assertEquals(1, cache.getStats().get("size"));
+        assertNull(cache.lookup(OP, "帮我写一个简历", QuestionGenerationResponse.class));
+        assertNotNull(cache.lookup(OP, "帮我设计一个数据库表结构", QuestionGenerationResponse.class));
+    }
+
+    @Test
+    void testExpiredEntryIgnored() throws InterruptedException {
+        properties.setTtlSeconds(0);
+        SimilarQuestionCache cache = new SimilarQuestionCache(properties);
+        cache.store(OP, "帮我写一个简历", response("应聘什么岗位？"), "应聘什么岗位？", 100);
+        Thread.sleep(5);
+
+        assertNull(cache.lookup(OP, "帮我写一个简历", QuestionGenerationResponse.class));
+    }
+}
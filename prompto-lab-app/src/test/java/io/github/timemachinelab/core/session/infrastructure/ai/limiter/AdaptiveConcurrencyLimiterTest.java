@@ -0,0 +1,233 @@
+package io.github.timemachinelab.core.session.infrastructure.ai.limiter;
+
+import dev.ai4j.openai4j.OpenAiHttpException;
+import io.github.timemachinelab.config.AiLimiterProperties;
+import io.github.timemachinelab.core.session.infrastructure.ai.limiter.AdaptiveConcurrencyLimiter.Permit;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    /**
+     * 模拟的AI提供方：同时处理的请求超过容量时返回429
+     */
+    private static class FakeProvider {
+        private final int capacity;
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger rejected = new AtomicInteger();
+
+        FakeProvider(int capacity) {
+            this.capacity = capacity;
+        }
+
+        String call() {
+            try {
+                if (active.incrementAndGet() > capacity) {
+                    rejected.incrementAndGet();
+                    throw new OpenAiHttpException(429, "{\"error\":{\"message\":\"Rate limit reached\"}}");
+                }
+                Thread.sleep(5);
+                return "ok";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+    }
+
+    private AiLimiterProperties properties(int initialLimit, int maxLimit, int maxQueueSize) {
+        AiLimiterProperties properties = new AiLimiterProperties();
+        properties.setInitialLimit(initialLimit);
+        properties.setMaxLimit(maxLimit);
+        properties.setMaxQueueSize(maxQueueSize);
+        properties.setMaxWaitMs(5000);
+        properties.setLatencyTolerance(100);
+        properties.setRateLimitRetries(3);
+        return properties;
+    }
+
+    @Test
+    void testLimitBacksOffOnRateLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(properties(8, 64, 100));
+        FakeProvider provider = new FakeProvider(2);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            futures.add(pool.submit(() -> {
+                try {
+                    limiter.execute(provider::call, null);
+                } catch (RuntimeException ignored) {
+                    // 重试耗尽的请求允许失败
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertTrue(provider.rejected.get() > 0);
+        assertTrue(limiter.currentLimit() < 8);
+        assertEquals((long) provider.rejected.get(), limiter.getStats().get("rateLimited"));
+    }
+
+    @Test
+    void testRateLimitDetectedByStatusCodeOnly() {
+        assertTrue(AdaptiveConcurrencyLimiter.isRateLimited(new OpenAiHttpException(429, "slow down")));
+        assertTrue(AdaptiveConcurrencyLimiter.isRateLimited(new IllegalStateException("AI调用失败",
+                HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", null, null, null))));
+        assertTrue(AdaptiveConcurrencyLimiter.isRateLimited(
+                WebClientResponseException.create(429, "Too Many Requests", null, null, null)));
+
+        // 信息文本中恰好出现429不代表被限流
+        assertFalse(AdaptiveConcurrencyLimiter.isRateLimited(new RuntimeException("prompt too long: 4290 tokens")));
+        assertFalse(AdaptiveConcurrencyLimiter.isRateLimited(new RuntimeException("429 Too Many Requests")));
+        assertFalse(AdaptiveConcurrencyLimiter.isRateLimited(new OpenAiHttpException(500, "rate limit backend error 429")));
+    }
+
+    @Test
+    void testPermitReleasedWhenCallThrowsError() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(properties(1, 1, 0));
+
+        assertThrows(AssertionError.class, () -> limiter.execute(() -> {
+            throw new AssertionError("boom");
+        }, null));
+        assertThrows(StackOverflowError.class, () -> limiter.executeIfIdle(() -> {
+            throw new StackOverflowError();
+        }));
+
+        assertEquals(0, limiter.getStats().get("inFlight"));
+        assertEquals("ok", limiter.executeIfIdle(() -> "ok"));
+        assertEquals(2L, limiter.getStats().get("errors"));
+    }
+
+    @Test
+    void testQueuedCallerIsNotifiedOfPosition() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(properties(1, 1, 10));
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch notified = new CountDownLatch(1);
+        AtomicInteger position = new AtomicInteger();
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        Future<String> first = pool.submit(() -> limiter.execute(() -> {
+            holding.countDown();
+            await(release);
+            return "first";
+        }, null));
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+
+        Future<String> second = pool.submit(() -> limiter.execute(() -> "second", (pos, estimatedWaitMs) -> {
+            position.set(pos);
+            notified.countDown();
+        }));
+        assertTrue(notified.await(5, TimeUnit.SECONDS));
+        assertEquals(1, position.get());
+
+        release.countDown();
+        assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        assertEquals("second", second.get(5, TimeUnit.SECONDS));
+        pool.shutdown();
+    }
+
+    @Test
+    void testPositionsUpdatedWhenWaiterLeaves() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(properties(1, 1, 10));
+        Permit held = limiter.acquire(0, null);
+        List<Integer> positions = new CopyOnWriteArrayList<>();
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        Future<?> leaving = pool.submit(() -> limiter.acquire(5000, null));
+        await(() -> (int) limiter.getStats().get("queueLength") == 1);
+        Future<Permit> behind = pool.submit(() -> limiter.acquire(5000, (pos, estimatedWaitMs) -> positions.add(pos)));
+        await(() -> positions.size() == 1);
+        assertEquals(List.of(2), positions);
+
+        // 排在前面的等待者被中断离开队列，后面的等待者收到新位置
+        leaving.cancel(true);
+        await(() -> positions.size() == 2);
+        assertEquals(List.of(2, 1), positions);
+
+        held.complete();
+        behind.get(5, TimeUnit.SECONDS).complete();
+        pool.shutdown();
+    }
+
+    @Test
+    void testFullQueueRejects() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(properties(1, 1, 1));
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch queued = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        pool.submit(() -> limiter.execute(() -> {
+            holding.countDown();
+            await(release);
+            return "first";
+        }, null));
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+        pool.submit(() -> limiter.execute(() -> "second", (pos, estimatedWaitMs) -> queued.countDown()));
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+
+        assertThrows(AiLimiterException.class, () -> limiter.execute(() -> "third", null));
+        assertThrows(AiLimiterException.class, () -> limiter.executeIfIdle(() -> "speculative"));
+
+        release.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testLimitGrowsWhenSaturatedWithoutErrors() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(properties(2, 16, 100));
+        FakeProvider provider = new FakeProvider(Integer.MAX_VALUE);
+
+        ExecutorService pool = Executors.newFixedThreadPool(6);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            futures.add(pool.submit(() -> limiter.execute(provider::call, null)));
+        }
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertTrue(limiter.currentLimit() > 2);
+        assertEquals(0L, limiter.getStats().get("rateLimited"));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待超时");
+            Thread.sleep(5);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package io.github.timemachinelab.core.session.infrastructure.ai.memory;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageType;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import io.github.timemachinelab.config.ChatMemoryProperties;
+import io.github.timemachinelab.config.PromptSlimmingProperties;
+import io.github.timemachinelab.core.constant.RetryPrompt;
+import io.github.timemachinelab.core.prompt.PromptAssembler;
+import io.github.timemachinelab.core.qatree.QaTreeDomain;
+import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.core.session.domain.turn.DeadlineExceededException;
+import io.github.timemachinelab.core.session.domain.turn.TurnContext;
+import io.github.timemachinelab.core.session.infrastructure.ai.QuestionGenerationOperation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChatMemoryQuestionGeneratorTest {
+
+    private static final String REPLY = "{\"question\":\"博客面向哪些读者？\",\"type\":\"input\",\"parentId\":\"1\"}";
+
+    /**
+     * 记录每次调用收到的消息并返回固定问题的模型
+     */
+    private static class RecordingModel implements ChatLanguageModel {
+        private final List<List<ChatMessage>> calls = new ArrayList<>();
+        private String reply = REPLY;
+        private long delayMs;
+
+        @Override
+        public Response<AiMessage> generate(List<ChatMessage> messages) {
+            calls.add(new ArrayList<>(messages));
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return Response.from(AiMessage.from(reply));
+        }
+    }
+
+    private final QaTreeDomain qaTreeDomain = new QaTreeDomain();
+    private RecordingModel model;
+    private ChatMemoryQuestionGenerator generator;
+    private ConversationSession session;
+
+    @BeforeEach
+    void setUp() {
+        ChatMemoryProperties properties = new ChatMemoryProperties();
+        properties.setEnabled(true);
+        properties.setRebuildAfterTurns(3);
+        PromptSlimmingProperties slimming = new PromptSlimmingProperties();
+        slimming.setOpeningNodes(100);
+        model = new RecordingModel();
+        generator = new ChatMemoryQuestionGenerator(properties, new PromptAssembler(slimming), qaTreeDomain, model);
+
+        session = new ConversationSession("u1", "s1", null);
+        session.setQaTree(qaTreeDomain.createTree("你好，我有什么可以帮你？", session));
+    }
+
+    @Test
+    void testTreeSentOnceThenOnlyDeltas() {
+        String tree = "[{\"nodeId\":\"1\",\"answer\":\"搭建博客\"}]";
+        QuestionGenerationOperation.QuestionGenerationResponse first = generator.generate(session, "1", tree, "搭建博客", false, null);
+        generator.generate(session, "1", tree + "很长的对话树", "技术博客", false, null);
+
+        assertEquals("1", first.getParentId());
+        List<ChatMessage> second = model.calls.get(1);
+        // 系统消息 + 第一轮问答 + 第二轮增量
+        assertEquals(4, second.size());
+        assertEquals(ChatMessageType.SYSTEM, second.get(0).type());
+        assertTrue(second.get(0).text().contains(tree));
+        assertFalse(second.get(3).text().contains("很长的对话树"));
+        assertTrue(second.get(3).text().contains("技术博客"));
+        assertTrue(second.get(3).text().contains("你好，我有什么可以帮你？"));
+        assertEquals(1L, ((Map<?, ?>) generator.getStats().get("rebuilds")).get("missing"));
+    }
+
+    @Test
+    void testRetryDeltaCarriesRetryRules() {
+        generator.generate(session, "1", "[]", "搭建博客", false, null);
+        generator.generate(session, null, "[]", "{\"action\":\"retry\",\"whyRetry\":\"看不懂\"}", true, null);
+
+        List<ChatMessage> retryCall = model.calls.get(1);
+        String delta = retryCall.get(retryCall.size() - 1).text();
+        assertTrue(delta.startsWith(RetryPrompt.RETRY_PROMPT));
+        assertFalse(retryCall.get(0).text().contains(RetryPrompt.RETRY_PROMPT));
+    }
+
+    @Test
+    void testRebuildAfterTurnsAndAfterFailure() {
+        for (int i = 0; i < 3; i++) {
+            generator.generate(session, "1", "[v" + i + "]", "回答" + i, false, null);
+        }
+        generator.generate(session, "1", "[v3]", "回答3", false, null);
+        List<ChatMessage> rebuilt = model.calls.get(3);
+        assertEquals(2, rebuilt.size());
+        assertTrue(rebuilt.get(0).text().contains("[v3]"));
+
+        model.reply = "不是JSON";
+        assertThrows(RuntimeException.class, () -> generator.generate(session, "1", "[v4]", "回答4", false, null));
+        model.reply = REPLY;
+        generator.generate(session, "1", "[v5]", "回答5", false, null);
+        List<ChatMessage> afterFailure = model.calls.get(model.calls.size() - 1);
+        assertEquals(2, afterFailure.size());
+        assertTrue(afterFailure.get(0).text().contains("[v5]"));
+    }
+
+    @Test
+    void testReplyAfterDeadlineNotCommitted() {
+        generator.generate(session, "1", "[v0]", "搭建博客", false, null);
+
+        model.delayMs = 50;
+        DeadlineExceededException e = assertThrows(DeadlineExceededException.class,
+                () -> generator.generate(session, "1", "[v1]", "技术博客", false, TurnContext.start("s1", 10)));
+        assertEquals("aiCall", e.getStage());
+        assertEquals(0, generator.getStats().get("sessions"));
+
+        // 超时轮次的回复未写入记忆，下一轮从最新的对话树重建
+        model.delayMs = 0;
+        generator.generate(session, "1", "[v2]", "个人博客", false, null);
+        List<ChatMessage> rebuilt = model.calls.get(model.calls.size() - 1);
+        assertEquals(2, rebuilt.size());
+        assertTrue(rebuilt.get(0).text().contains("[v2]"));
+        assertEquals(2L, ((Map<?, ?>) generator.getStats().get("rebuilds")).get("missing"));
+    }
+}
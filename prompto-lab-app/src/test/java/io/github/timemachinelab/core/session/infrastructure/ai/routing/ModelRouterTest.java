@@ -0,0 +1,350 @@
+package io.github.timemachinelab.core.session.infrastructure.ai.routing;
+
+import io.github.timemachinelab.config.AiLimiterProperties;
+import io.github.timemachinelab.config.AiRoutingProperties;
+import io.github.timemachinelab.core.session.infrastructure.ai.limiter.AdaptiveConcurrencyLimiter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ModelRouterTest {
+
+    private static final String OP = "QUESTION_GENERATION_OP";
+
+    private ModelRouter router;
+
+    /**
+     * 路由器使用的时钟，由模拟端点按延迟推进，测试结果不依赖真实耗时
+     */
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+
+    /**
+     * 本地模拟的模型端点：按给定延迟推进时钟后返回模型名；延迟函数可以阻塞以模拟卡住的请求
+     */
+    private class StubEndpoint {
+        private volatile LongSupplier latencyMs;
+        private volatile boolean failing;
+        /**
+         * 大于0时每failEvery次调用失败一次，模拟间歇失败
+         */
+        private volatile int failEvery;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        StubEndpoint(LongSupplier latencyMs) {
+            this.latencyMs = latencyMs;
+        }
+
+        String call(String model) {
+            int call = calls.incrementAndGet();
+            if (failing || (failEvery > 0 && call % failEvery == 0)) {
+                throw new RuntimeException("connection reset");
+            }
+            long latency = latencyMs.getAsLong();
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("cancelled");
+            }
+            clock.addAndGet(latency);
+            return model;
+        }
+    }
+
+    private Function<String, String> dispatch(Map<String, StubEndpoint> stubs) {
+        return model -> stubs.get(model).call(model);
+    }
+
+    private ModelRouter newRouter(boolean hedge, String... models) {
+        return newRouter(hedge, new AdaptiveConcurrencyLimiter(new AiLimiterProperties()), models);
+    }
+
+    private ModelRouter newRouter(boolean hedge, AdaptiveConcurrencyLimiter limiter, String... models) {
+        return newRouter(routingProperties(hedge, models), limiter);
+    }
+
+    private ModelRouter newRouter(AiRoutingProperties properties, AdaptiveConcurrencyLimiter limiter) {
+        router = new ModelRouter(properties, limiter, clock::get);
+        return router;
+    }
+
+    private static AiRoutingProperties routingProperties(boolean hedge, String... models) {
+        AiRoutingProperties properties = new AiRoutingProperties();
+        properties.setEnabled(true);
+        properties.setHedgeEnabled(hedge);
+        properties.setMinHedgeDelayMs(50);
+        properties.setFailureThreshold(2);
+        properties.setOpenSeconds(60);
+        properties.getOperations().put(OP, Arrays.asList(models));
+        return properties;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待超时");
+            Thread.sleep(5);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (router != null) {
+            router.shutdown();
+        }
+    }
+
+    @Test
+    void testRoutesToFastestEndpoint() {
+        ModelRouter router = newRouter(false, "slow", "fast");
+        Map<String, StubEndpoint> stubs = new HashMap<>();
+        stubs.put("slow", new StubEndpoint(() -> ThreadLocalRandom.current().nextLong(40, 60)));
+        stubs.put("fast", new StubEndpoint(() -> ThreadLocalRandom.current().nextLong(5, 10)));
+
+        for (int i = 0; i < 4; i++) {
+            router.execute(OP, dispatch(stubs));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals("fast", router.execute(OP, dispatch(stubs)));
+        }
+        assertTrue(router.isRouted(OP));
+        assertFalse(router.isRouted("PromptGenMaster"));
+    }
+
+    @Test
+    void testCircuitBreakerEjectsFailingEndpoint() {
+        ModelRouter router = newRouter(false, "broken", "healthy");
+        Map<String, StubEndpoint> stubs = new HashMap<>();
+        StubEndpoint broken = new StubEndpoint(() -> 1);
+        broken.failing = true;
+        stubs.put("broken", broken);
+        stubs.put("healthy", new StubEndpoint(() -> 20));
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("healthy", router.execute(OP, dispatch(stubs)));
+        }
+        // 未观测延迟时会被优先探测，连续失败达到阈值后熔断
+        assertEquals(2, broken.calls.get());
+    }
+
+    @Test
+    void testReportsModelThatAnswered() {
+        ModelRouter router = newRouter(false, "broken", "healthy");
+        Map<String, StubEndpoint> stubs = new HashMap<>();
+        StubEndpoint broken = new StubEndpoint(() -> 1);
+        broken.failing = true;
+        stubs.put("broken", broken);
+        stubs.put("healthy", new StubEndpoint(() -> 1));
+
+        // 两者都没有延迟样本，按配置顺序优先broken，失败后由healthy作答
+        assertEquals("broken", router.selectModel(OP));
+        AtomicReference<String> answered = new AtomicReference<>();
+        router.execute(OP, dispatch(stubs), answered::set);
+        assertEquals("healthy", answered.get());
+    }
+
+    @Test
+    void testHedgesStalledPrimary() {
+        ModelRouter router = newRouter(true, "primary", "secondary");
+        Map<String, StubEndpoint> stubs = new HashMap<>();
+        StubEndpoint primary = new StubEndpoint(() -> 5);
+        stubs.put("primary", primary);
+        stubs.put("secondary", new StubEndpoint(() -> 30));
+
+        // 两个端点各有样本后，primary延迟更低
+        router.execute(OP, dispatch(stubs));
+        router.execute(OP, dispatch(stubs));
+        assertEquals("primary", router.execute(OP, dispatch(stubs)));
+
+        // primary一直阻塞到测试放行，能拿到secondary的结果说明对冲发生在primary返回之前
+        CountDownLatch release = new CountDownLatch(1);
+        primary.latencyMs = () -> blockUntil(release);
+        try {
+            assertEquals("secondary", router.execute(OP, dispatch(stubs)));
+        } finally {
+            release.countDown();
+        }
+        assertEquals(1L, router.getStats().get("hedges"));
+        assertEquals(1L, router.getStats().get("hedgeWins"));
+    }
+
+    @Test
+    void testNoHedgeWithoutSpareCapacity() throws Exception {
+        AiLimiterProperties limiterProperties = new AiLimiterProperties();
+        limiterProperties.setInitialLimit(1);
+        limiterProperties.setMaxLimit(1);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(limiterProperties);
+        ModelRouter router = newRouter(true, limiter, "primary", "secondary");
+        Map<String, StubEndpoint> stubs = new HashMap<>();
+        StubEndpoint primary = new StubEndpoint(() -> 5);
+        StubEndpoint secondary = new StubEndpoint(() -> 30);
+        stubs.put("primary", primary);
+        stubs.put("secondary", secondary);
+        router.execute(OP, dispatch(stubs));
+        router.execute(OP, dispatch(stubs));
+        int secondaryCalls = secondary.calls.get();
+
+        CountDownLatch release = new CountDownLatch(1);
+        primary.latencyMs = () -> blockUntil(release);
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            // 调用方持有唯一的许可，对冲拿不到第二个许可
+            Future<String> result = caller.submit(() -> limiter.execute(() -> router.execute(OP, dispatch(stubs)), null));
+            await(() -> Long.valueOf(1L).equals(router.getStats().get("hedgesSkipped")));
+            release.countDown();
+
+            assertEquals("primary", result.get(5, TimeUnit.SECONDS));
+            assertEquals(0L, router.getStats().get("hedges"));
+            assertEquals(secondaryCalls, secondary.calls.get());
+            assertEquals(0, limiter.getStats().get("inFlight"));
+        } finally {
+            release.countDown();
+            caller.shutdownNow();
+        }
+    }
+
+    @Test
+    void testHedgePermitHeldUntilCallFinishes() throws Exception {
+        AiLimiterProperties limiterProperties = new AiLimiterProperties();
+        limiterProperties.setInitialLimit(2);
+        limiterProperties.setMaxLimit(2);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(limiterProperties);
+        ModelRouter router = newRouter(true, limiter, "primary", "secondary");
+        Map<String, StubEndpoint> stubs = new HashMap<>();
+        StubEndpoint primary = new StubEndpoint(() -> 5);
+        StubEndpoint secondary = new StubEndpoint(() -> 30);
+        stubs.put("primary", primary);
+        stubs.put("secondary", secondary);
+        router.execute(OP, dispatch(stubs));
+        router.execute(OP, dispatch(stubs));
+
+        CountDownLatch releasePrimary = new CountDownLatch(1);
+        CountDownLatch releaseSecondary = new CountDownLatch(1);
+        CountDownLatch hedgeStarted = new CountDownLatch(1);
+        primary.latencyMs = () -> blockUntil(releasePrimary);
+        // 对冲请求忽略中断，模拟取消后仍在进行的HTTP调用
+        secondary.latencyMs = () -> {
+            hedgeStarted.countDown();
+            while (true) {
+                try {
+                    releaseSecondary.await();
+                    return 0;
+                } catch (InterruptedException ignored) {
+                    // 继续等待
+                }
+            }
+        };
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> result = caller.submit(() -> limiter.execute(() -> router.execute(OP, dispatch(stubs)), null));
+            assertTrue(hedgeStarted.await(5, TimeUnit.SECONDS));
+            assertEquals(2, limiter.getStats().get("inFlight"));
+            releasePrimary.countDown();
+            assertEquals("primary", result.get(5, TimeUnit.SECONDS));
+
+            // primary已返回，被取消的对冲仍在调用中，许可不能提前归还
+            assertEquals(1, limiter.getStats().get("inFlight"));
+            releaseSecondary.countDown();
+            await(() -> Integer.valueOf(0).equals(limiter.getStats().get("inFlight")));
+        } finally {
+            releasePrimary.countDown();
+            releaseSecondary.countDown();
+            caller.shutdownNow();
+        }
+    }
+
+    private static long blockUntil(CountDownLatch release) {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+
+    @Test
+    void testIntermittentlyFailingEndpointEjected() {
+        AiRoutingProperties properties = routingProperties(false, "flaky", "healthy");
+        properties.setOutlierMinRequests(4);
+        ModelRouter router = newRouter(properties, new AdaptiveConcurrencyLimiter(new AiLimiterProperties()));
+        Map<String, StubEndpoint> stubs = new HashMap<>();
+        // flaky更快，但每两次失败一次，不会连续失败触发熔断
+        StubEndpoint flaky = new StubEndpoint(() -> 5);
+        flaky.failEvery = 2;
+        stubs.put("flaky", flaky);
+        stubs.put("healthy", new StubEndpoint(() -> 20));
+
+        for (int i = 0; i < 20; i++) {
+            assertNotNull(router.execute(OP, dispatch(stubs)));
+        }
+        assertEquals(1L, router.getStats().get("outlierEjections"));
+
+        int flakyCalls = flaky.calls.get();
+        for (int i = 0; i < 10; i++) {
+            assertEquals("healthy", router.execute(OP, dispatch(stubs)));
+        }
+        assertEquals(flakyCalls, flaky.calls.get());
+    }
+
+    @Test
+    void testSlowOutlierEjectedUntilCooldownExpires() {
+        AiRoutingProperties properties = routingProperties(false, "a", "b", "c");
+        properties.setOutlierMinRequests(1);
+        properties.setOutlierEjectSeconds(30);
+        ModelRouter router = newRouter(properties, new AdaptiveConcurrencyLimiter(new AiLimiterProperties()));
+        Map<String, StubEndpoint> stubs = new HashMap<>();
+        StubEndpoint a = new StubEndpoint(() -> 10);
+        stubs.put("a", a);
+        stubs.put("b", new StubEndpoint(() -> 10));
+        stubs.put("c", new StubEndpoint(() -> 10));
+
+        // 依次探测三个端点，之后a变慢，EWMA超过其他端点中位数的3倍
+        for (int i = 0; i < 3; i++) {
+            router.execute(OP, dispatch(stubs));
+        }
+        a.latencyMs = () -> 200;
+        assertEquals("a", router.execute(OP, dispatch(stubs)));
+        assertEquals(0L, router.getStats().get("outlierEjections"));
+
+        assertEquals("b", router.selectModel(OP));
+        assertEquals(1L, router.getStats().get("outlierEjections"));
+
+        // 剔除期间不会被选中，到期后样本已清空，重新被优先探测
+        clock.addAndGet(29_000);
+        assertEquals("b", router.selectModel(OP));
+        clock.addAndGet(2_000);
+        assertEquals("a", router.selectModel(OP));
+        assertEquals(1L, router.getStats().get("outlierEjections"));
+    }
+
+    @Test
+    void testAllEndpointsFailingPropagatesError() {
+        ModelRouter router = newRouter(true, "a", "b");
+        Map<String, StubEndpoint> stubs = new HashMap<>();
+        StubEndpoint a = new StubEndpoint(() -> 1);
+        StubEndpoint b = new StubEndpoint(() -> 1);
+        a.failing = true;
+        b.failing = true;
+        stubs.put("a", a);
+        stubs.put("b", b);
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> router.execute(OP, dispatch(stubs)));
+        assertEquals("connection reset", e.getMessage());
+        assertEquals(1, a.calls.get());
+        assertEquals(1, b.calls.get());
+    }
+}
@@ -0,0 +1,118 @@
+package io.github.timemachinelab.core.session.infrastructure.web;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import io.github.timemachinelab.config.SseProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LongPollRegistryTest {
+
+    private SseEventLog eventLog;
+    private LongPollRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        SseProperties properties = new SseProperties();
+        properties.setReplayBufferSize(4);
+        eventLog = new SseEventLog(properties);
+        registry = new LongPollRegistry(properties);
+    }
+
+    @Test
+    void testMissedEventsReturnImmediately() {
+        SseEventLog.EventStream stream = eventLog.stream("s1");
+        stream.append("message", "{\"a\":1}");
+        stream.append("message", "{\"a\":2}");
+
+        DeferredResult<ResponseEntity<String>> result = registry.poll("s1", stream, "1");
+
+        JSONObject body = body(result);
+        assertEquals(2L, body.getLongValue("lastEventId"));
+        assertEquals(1, body.getJSONArray("events").size());
+        assertEquals("2", body.getJSONArray("events").getJSONObject(0).getString("id"));
+        assertEquals("{\"a\":2}", body.getJSONArray("events").getJSONObject(0).getString("data"));
+        assertFalse(registry.hasWaiters("s1"));
+    }
+
+    @Test
+    void testParkedPollWokenByAppend() {
+        SseEventLog.EventStream stream = eventLog.stream("s1");
+        stream.append("message", "m1");
+
+        DeferredResult<ResponseEntity<String>> result = registry.poll("s1", stream, "1");
+        assertFalse(result.hasResult());
+        assertTrue(registry.hasWaiters("s1"));
+
+        synchronized (stream) {
+            stream.append("queued", "q");
+            registry.wake("s1", stream);
+        }
+
+        JSONObject body = body(result);
+        assertEquals(2L, body.getLongValue("lastEventId"));
+        assertEquals("queued", body.getJSONArray("events").getJSONObject(0).getString("event"));
+        assertFalse(registry.hasWaiters("s1"));
+        assertEquals(1L, registry.getStats().get("woken"));
+    }
+
+    @Test
+    void testSessionRemovalReleasesWaiters() {
+        SseEventLog.EventStream stream = eventLog.stream("s1");
+        stream.append("message", "m1");
+        DeferredResult<ResponseEntity<String>> first = registry.poll("s1", stream, "1");
+        DeferredResult<ResponseEntity<String>> second = registry.poll("s1", stream, "1");
+
+        assertEquals(2, registry.removeAll("s1"));
+
+        assertEquals(404, ((ResponseEntity<?>) first.getResult()).getStatusCodeValue());
+        assertEquals(404, ((ResponseEntity<?>) second.getResult()).getStatusCodeValue());
+        assertFalse(registry.hasWaiters("s1"));
+        assertEquals(0, registry.getStats().get("waiting"));
+        assertEquals(0, registry.removeAll("s1"));
+    }
+
+    @Test
+    void testWakeOnlyAffectsOwnSession() {
+        SseEventLog.EventStream first = eventLog.stream("s1");
+        SseEventLog.EventStream second = eventLog.stream("s2");
+        first.append("message", "a");
+        second.append("message", "b");
+
+        DeferredResult<ResponseEntity<String>> waiting = registry.poll("s2", second, "1");
+        synchronized (first) {
+            first.append("message", "c");
+            registry.wake("s1", first);
+        }
+
+        assertFalse(waiting.hasResult());
+        assertTrue(registry.hasWaiters("s2"));
+    }
+
+    @Test
+    void testOverrunRequiresResync() {
+        SseEventLog.EventStream stream = eventLog.stream("s1");
+        for (int i = 1; i <= 10; i++) {
+            stream.append("message", "m" + i);
+        }
+
+        JSONObject overrun = body(registry.poll("s1", stream, "2"));
+        assertTrue(overrun.getBooleanValue("resync"));
+        assertEquals(10L, overrun.getLongValue("lastEventId"));
+        assertTrue(overrun.getJSONArray("events").isEmpty());
+
+        // 首次轮询没有since，同样从全量同步开始
+        assertTrue(body(registry.poll("s1", stream, null)).getBooleanValue("resync"));
+    }
+
+    private JSONObject body(DeferredResult<ResponseEntity<String>> result) {
+        assertTrue(result.hasResult());
+        @SuppressWarnings("unchecked")
+        ResponseEntity<String> response = (ResponseEntity<String>) result.getResult();
+        return JSON.parseObject(response.getBody());
+    }
+}
@@ -0,0 +1,66 @@
+package io.github.timemachinelab.core.session.infrastructure.web;
+
+import io.github.timemachinelab.config.SseProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReactiveSseHubTest {
+
+    private ReactiveSseHub hub;
+
+    @BeforeEach
+    void setUp() {
+        SseProperties properties = new SseProperties();
+        properties.setHeartbeatEnabled(false);
+        properties.setReactiveBufferSize(8);
+        hub = new ReactiveSseHub(properties);
+    }
+
+    @Test
+    void testEventsBufferedBeforeSubscribe() {
+        Flux<ServerSentEvent<String>> events = hub.open("s1", SseFrame.ofEvent("connected", "{}"),
+                Collections.singletonList(SseFrame.ofEvent("1", "message", "missed")), SseEventEncoder.Encoding.JSON);
+        assertEquals(1, hub.emit("s1", SseFrame.ofEvent("2", "message", "live")));
+
+        List<ServerSentEvent<String>> received = events.take(3).collectList().block(Duration.ofSeconds(5));
+        assertEquals("connected", received.get(0).event());
+        assertEquals("1", received.get(1).id());
+        assertEquals("live", received.get(2).data());
+        assertFalse(hub.hasSubscribers("s1"));
+    }
+
+    @Test
+    void testOverflowDropsNonCriticalEvents() {
+        Flux<ServerSentEvent<String>> events = hub.open("s1", SseFrame.ofEvent("connected", "{}"), null, SseEventEncoder.Encoding.JSON);
+        for (int i = 1; i <= 7; i++) {
+            hub.emit("s1", SseFrame.ofEvent(String.valueOf(i), "message", "m" + i));
+        }
+        hub.emit("s1", SseFrame.ofEvent("8", "queued", "b"));
+        assertEquals(0, hub.emit("s1", SseFrame.ofEvent("9", "queued", "c")));
+
+        assertEquals(1L, hub.getStats().get("dropped"));
+        assertTrue(hub.hasSubscribers("s1"));
+        List<ServerSentEvent<String>> received = events.take(9).collectList().block(Duration.ofSeconds(5));
+        assertEquals("b", received.get(8).data());
+    }
+
+    @Test
+    void testCriticalOverflowDisconnects() {
+        Flux<ServerSentEvent<String>> events = hub.open("s1", SseFrame.ofEvent("connected", "{}"), null, SseEventEncoder.Encoding.JSON);
+        for (int i = 1; i <= 9; i++) {
+            hub.emit("s1", SseFrame.ofEvent(String.valueOf(i), "message", "m" + i));
+        }
+
+        assertEquals(1L, hub.getStats().get("overflowDisconnects"));
+        assertFalse(hub.hasSubscribers("s1"));
+        assertThrows(IllegalStateException.class, () -> events.collectList().block(Duration.ofSeconds(5)));
+    }
+}
@@ -0,0 +1,144 @@
+package io.github.timemachinelab.core.session.infrastructure.web;
+
+import io.github.timemachinelab.config.SseProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SseBroadcastEngineTest {
+
+    private SseProperties properties;
+    private SseBroadcastEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        properties = new SseProperties();
+        properties.setBroadcastThreads(4);
+        properties.setBroadcastClientTimeoutMs(100);
+        engine = new SseBroadcastEngine(properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    void testFailuresAndSlowClientsIsolated() {
+        List<String> targets = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            targets.add("c" + i);
+        }
+        Set<String> written = ConcurrentHashMap.newKeySet();
+        Set<String> disconnected = ConcurrentHashMap.newKeySet();
+
+        SseBroadcastEngine.BroadcastResult result = engine.broadcast(targets, target -> {
+            if ("c10".equals(target)) {
+                throw new IOException("Broken pipe");
+            }
+            if ("c500".equals(target)) {
+                // 一直阻塞，直到看门狗在写入进行中将其中断
+                new CountDownLatch(1).await();
+            }
+            written.add(target);
+            return true;
+        }, disconnected::add);
+
+        assertEquals(4, result.getPartitions());
+        assertEquals(998, result.getDelivered());
+        assertEquals(1, result.getFailed());
+        assertEquals(1, result.getTimedOut());
+        assertEquals(0, result.getPending());
+        assertEquals(Set.of("c10", "c500"), disconnected);
+        assertEquals(998, written.size());
+        assertTrue(result.getMaxLatencyMs() >= 100);
+        assertEquals(1L, engine.getStats().get("timedOut"));
+    }
+
+    @Test
+    void testRemainingTargetsSkippedAfterDeadline() throws InterruptedException {
+        properties.setBroadcastThreads(1);
+        properties.setBroadcastTimeoutMs(50);
+        properties.setBroadcastClientTimeoutMs(10000);
+        engine.shutdown();
+        engine = new SseBroadcastEngine(properties);
+
+        List<Integer> targets = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            targets.add(i);
+        }
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SseBroadcastEngine.BroadcastResult result = engine.broadcast(targets, target -> {
+            started.countDown();
+            release.await();
+            return true;
+        }, null);
+
+        // 第一个目标写入未结束时广播已到时限，所有目标计为pending
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(0, result.getDelivered());
+        assertEquals(10, result.getPending());
+
+        // 放行后第一个目标写完，其余目标因超过广播时限跳过
+        release.countDown();
+        await(() -> result.getSkipped() == 9);
+        await(() -> result.getDelivered() == 1);
+        assertEquals(0, result.getPending());
+    }
+
+    @Test
+    void testOverflowRejectedInsteadOfRunningOnCaller() throws InterruptedException {
+        properties.setBroadcastThreads(1);
+        engine.shutdown();
+        engine = new SseBroadcastEngine(properties);
+
+        CountDownLatch release = new CountDownLatch(1);
+        Thread caller = Thread.currentThread();
+        Set<Thread> runners = ConcurrentHashMap.newKeySet();
+        assertTrue(engine.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        // 唯一的线程被占用，填满任务队列
+        for (int i = 0; i < 1024; i++) {
+            assertTrue(engine.execute(() -> runners.add(Thread.currentThread())));
+        }
+
+        assertFalse(engine.execute(() -> runners.add(Thread.currentThread())));
+        SseBroadcastEngine.BroadcastResult result = engine.broadcast(List.of("a", "b"), target -> {
+            runners.add(Thread.currentThread());
+            return true;
+        }, null);
+
+        assertEquals(2, result.getSkipped());
+        assertEquals(0, result.getDelivered());
+        assertEquals(2L, engine.getStats().get("rejected"));
+
+        release.countDown();
+        await(() -> runners.size() == 1);
+        assertFalse(runners.contains(caller));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待超时");
+            Thread.sleep(5);
+        }
+    }
+}
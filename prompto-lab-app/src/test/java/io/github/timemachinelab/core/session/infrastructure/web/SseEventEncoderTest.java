@@ -0,0 +1,104 @@
+package io.github.timemachinelab.core.session.infrastructure.web;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONB;
+import com.alibaba.fastjson2.JSONObject;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.timemachinelab.core.qatree.QaTree;
+import io.github.timemachinelab.core.qatree.QaTreeDomain;
+import io.github.timemachinelab.core.question.Option;
+import io.github.timemachinelab.core.question.SingleChoiceQuestion;
+import io.github.timemachinelab.core.session.domain.entity.ConversationSession;
+import io.github.timemachinelab.util.QaTreeSerializeUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SseEventEncoderTest {
+
+    private final SseEventEncoder encoder = new SseEventEncoder();
+
+    @Test
+    void testNullsOmitted() {
+        SingleChoiceQuestion question = new SingleChoiceQuestion();
+        question.setQuestion("选择技术栈");
+        question.setOptions(Arrays.asList(new Option("A", "Java"), new Option("B", "Go")));
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("question", question);
+        data.put("parentNodeId", "1");
+
+        JSONObject encoded = JSON.parseObject(encoder.encode(data));
+        JSONObject encodedQuestion = encoded.getJSONObject("question");
+        assertEquals("single", encodedQuestion.getString("type"));
+        assertFalse(encodedQuestion.containsKey("desc"));
+        assertFalse(encodedQuestion.containsKey("answer"));
+        assertEquals("raw", encoder.encode("raw"));
+    }
+
+    @Test
+    void testJsonbVariantRoundTrip() {
+        String payload = encoder.encode(Map.of("currentNodeId", "2", "parentNodeId", "1"));
+        SseFrame frame = SseFrame.ofEvent("7", "message", payload);
+        SseFrame jsonb = frame.toJsonb();
+
+        assertSame(jsonb, frame.toJsonb());
+        assertEquals("7", jsonb.getId());
+        assertEquals("message", jsonb.getName());
+        Object decoded = JSONB.parse(Base64.getDecoder().decode(jsonb.getData()));
+        assertEquals(JSON.parseObject(payload), decoded);
+        assertEquals("连接失败", JSONB.parse(Base64.getDecoder().decode(SseFrame.ofEvent("error", "连接失败").toJsonb().getData())));
+    }
+
+    @Test
+    void testWelcomeEventBytesFor200NodeTree() throws Exception {
+        ConversationSession session = new ConversationSession("u1", "s1", null);
+        QaTreeDomain qaTreeDomain = new QaTreeDomain();
+        QaTree tree = qaTreeDomain.createTree("你想做什么？", session);
+        session.setQaTree(tree);
+        qaTreeDomain.updateNodeAnswer(tree, "1", "搭建一个个人博客");
+        String parentId = "1";
+        for (int i = 0; i < 199; i++) {
+            SingleChoiceQuestion question = new SingleChoiceQuestion();
+            question.setQuestion("第" + i + "个问题：你更倾向哪种方案？");
+            question.setOptions(Arrays.asList(new Option("A", "方案A"), new Option("B", "方案B"), new Option("C", "方案C")));
+            qaTreeDomain.appendNode(tree, parentId, question, session);
+            // 每隔几层分叉，构造有深度也有宽度的树
+            if (i % 3 == 0) {
+                parentId = String.valueOf(session.getNodeIdCounter().get());
+            }
+        }
+        assertEquals(200, QaTreeSerializeUtil.toJsonNodes(tree).size());
+
+        Map<String, Object> legacy = connectionData(session);
+        legacy.put("qaTree", QaTreeSerializeUtil.serialize(tree));
+        int legacyBytes = SseFrame.ofEvent("connected", new ObjectMapper().writeValueAsString(legacy)).size();
+
+        Map<String, Object> compact = connectionData(session);
+        compact.put("qaTree", QaTreeSerializeUtil.toJsonNodes(tree));
+        SseFrame compactFrame = SseFrame.ofEvent("connected", encoder.encode(compact));
+        int compactBytes = compactFrame.size();
+        SseFrame jsonbFrame = compactFrame.toJsonb();
+
+        assertTrue(compactBytes < legacyBytes);
+        assertTrue(jsonbFrame.size() < legacyBytes);
+        assertEquals(200, JSON.parseObject(compactFrame.getData()).getJSONArray("qaTree").size());
+        JSONObject decoded = (JSONObject) JSONB.parse(Base64.getDecoder().decode(jsonbFrame.getData()));
+        assertEquals(JSON.parseObject(compactFrame.getData()), decoded);
+    }
+
+    private Map<String, Object> connectionData(ConversationSession session) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("sessionId", session.getSessionId());
+        data.put("userId", session.getUserId());
+        data.put("isNewSession", false);
+        data.put("timestamp", System.currentTimeMillis());
+        data.put("nodeId", "1");
+        data.put("treeVersion", session.getQaTree().getVersion());
+        return data;
+    }
+}
@@ -0,0 +1,67 @@
+package io.github.timemachinelab.core.session.infrastructure.web;
+
+import io.github.timemachinelab.config.SseProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SseEventLogTest {
+
+    private SseEventLog eventLog;
+
+    @BeforeEach
+    void setUp() {
+        SseProperties properties = new SseProperties();
+        properties.setReplayBufferSize(4);
+        eventLog = new SseEventLog(properties);
+    }
+
+    @Test
+    void testEventIdsIncreasePerSession() {
+        SseFrame first = eventLog.stream("s1").append("message", "a");
+        SseFrame second = eventLog.stream("s1").append("message", "b");
+        SseFrame other = eventLog.stream("s2").append("message", "c");
+
+        assertEquals("1", first.getId());
+        assertEquals("2", second.getId());
+        assertEquals("1", other.getId());
+        assertEquals("id:2\nevent:message\ndata:b\n\n", new String(second.bytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testReplayOnlyMissedEvents() {
+        SseEventLog.EventStream stream = eventLog.stream("s1");
+        for (int i = 1; i <= 5; i++) {
+            stream.append("message", "m" + i);
+        }
+
+        List<SseFrame> missed = stream.since("3");
+        assertEquals(2, missed.size());
+        assertEquals("4", missed.get(0).getId());
+        assertEquals("5", missed.get(1).getId());
+        assertTrue(stream.since("5").isEmpty());
+        assertEquals(2L, eventLog.getStats().get("replays"));
+        assertEquals(2L, eventLog.getStats().get("replayedEvents"));
+    }
+
+    @Test
+    void testOverrunFallsBackToFullSync() {
+        SseEventLog.EventStream stream = eventLog.stream("s1");
+        for (int i = 1; i <= 10; i++) {
+            stream.append("message", "m" + i);
+        }
+
+        // 缓冲区只保留7~10
+        assertEquals(4, stream.since("6").size());
+        assertNull(stream.since("5"));
+        // 服务重启后客户端的ID大于当前ID
+        assertNull(stream.since("11"));
+        assertNull(stream.since("abc"));
+        assertNull(stream.since(null));
+        assertEquals(2L, eventLog.getStats().get("overruns"));
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.timemachinelab.core.session.infrastructure.web;
+
+import io.github.timemachinelab.config.SseProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SseHeartbeatSchedulerTest {
+
+    private SseProperties properties;
+    private SseHeartbeatScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        properties = new SseProperties();
+        // 由测试手动触发心跳
+        properties.setHeartbeatEnabled(false);
+        properties.setHeartbeatIntervalMs(0);
+        scheduler = new SseHeartbeatScheduler(properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void testDeadEmittersReapedInBulk() {
+        List<String> reapedKeys = new ArrayList<>();
+        scheduler.register("live", new SseEmitter(), () -> reapedKeys.add("live"));
+        scheduler.register("broken", new BrokenEmitter(), () -> reapedKeys.add("broken"));
+        SseEmitter completed = new SseEmitter();
+        completed.complete();
+        scheduler.register("completed", completed, () -> reapedKeys.add("completed"));
+
+        assertEquals(2, scheduler.heartbeat());
+        assertEquals(2, reapedKeys.size());
+        assertFalse(reapedKeys.contains("live"));
+
+        Map<String, Object> stats = scheduler.getStats();
+        assertEquals(1, stats.get("live"));
+        assertEquals(2L, stats.get("reaped"));
+        assertEquals(1L, stats.get("heartbeats"));
+
+        // 已清理的连接不再重复处理
+        assertEquals(0, scheduler.heartbeat());
+        assertEquals(2, reapedKeys.size());
+    }
+
+    @Test
+    void testRecentlyActiveEmitterSkipsHeartbeat() {
+        properties.setHeartbeatIntervalMs(60000);
+        SseEmitter emitter = new SseEmitter();
+        scheduler.register("s1", emitter, null);
+        scheduler.markActive(emitter);
+
+        scheduler.heartbeat();
+        assertEquals(0L, scheduler.getStats().get("heartbeats"));
+
+        scheduler.unregister(emitter);
+        assertEquals(0, scheduler.getStats().get("live"));
+        assertEquals(1L, scheduler.getStats().get("unregistered"));
+    }
+
+    @Test
+    void testIdleCountedByLastBusinessMessage() {
+        properties.setIdleThresholdMs(0);
+        scheduler.register("s1", new SseEmitter(), null);
+
+        assertEquals(1L, scheduler.getStats().get("idle"));
+    }
+
+    private static class BrokenEmitter extends SseEmitter {
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            throw new IOException("Broken pipe");
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package io.github.timemachinelab.core.session.infrastructure.web;
+
+import io.github.timemachinelab.config.SseProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SseSubscriberRegistryTest {
+
+    private SseProperties properties;
+    private SseHeartbeatScheduler heartbeatScheduler;
+    private SseSubscriberRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        properties = new SseProperties();
+        properties.setHeartbeatEnabled(false);
+        heartbeatScheduler = new SseHeartbeatScheduler(properties);
+        registry = new SseSubscriberRegistry(properties, heartbeatScheduler);
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.shutdown();
+        heartbeatScheduler.shutdown();
+    }
+
+    @Test
+    void testSameFrameWrittenToAllSubscribers() throws Exception {
+        RecordingEmitter tab1 = new RecordingEmitter();
+        RecordingEmitter tab2 = new RecordingEmitter();
+        registry.register("s1", tab1);
+        registry.register("s1", tab2);
+
+        SseFrame frame = SseFrame.ofEvent("message", "{\"a\":1}\n{\"b\":2}");
+        assertEquals(2, registry.broadcast("s1", frame));
+        await(() -> tab1.frames.size() == 1 && tab2.frames.size() == 1);
+
+        // 两个连接写出的是同一份已编码字节
+        assertSame(frame.bytes(), tab1.frames.get(0).build().iterator().next().getData());
+        assertSame(frame.bytes(), tab2.frames.get(0).build().iterator().next().getData());
+        assertEquals("event:message\ndata:{\"a\":1}\ndata:{\"b\":2}\n\n", new String(frame.bytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testFailedSubscriberIsolated() throws Exception {
+        RecordingEmitter healthy = new RecordingEmitter();
+        RecordingEmitter broken = new RecordingEmitter();
+        broken.broken = true;
+        registry.register("s1", healthy);
+        registry.register("s1", broken);
+
+        registry.broadcast("s1", SseFrame.ofEvent("message", "1"));
+        await(() -> registry.getStats().get("subscribers").equals(1));
+        assertEquals(1, registry.broadcast("s1", SseFrame.ofEvent("message", "2")));
+
+        // 两帧可能合并为一次写入，按写出的字节判断
+        await(() -> written(healthy).equals("event:message\ndata:1\n\nevent:message\ndata:2\n\n"));
+        assertEquals(1L, registry.getStats().get("writeFailures"));
+    }
+
+    @Test
+    void testSlowSubscriberDoesNotBlockProducer() throws Exception {
+        properties.setOutboundQueueSize(2);
+        RecordingEmitter slow = new RecordingEmitter();
+        slow.gate = new CountDownLatch(1);
+        registry.register("s1", slow);
+
+        // 第一帧被写线程取出后阻塞在网络写入上，之后的投递只入队
+        registry.broadcast("s1", SseFrame.ofEvent("1", "message", "m1"));
+        await(() -> slow.writing);
+
+        // 未发送的排队通知被新通知替换
+        registry.broadcast("s1", SseFrame.ofEvent(null, "queued", "q1"));
+        registry.broadcast("s1", SseFrame.ofEvent(null, "queued", "q2"));
+        assertEquals(1L, registry.getStats().get("coalesced"));
+        assertEquals(1, registry.broadcast("s1", SseFrame.ofEvent("2", "message", "m2")));
+
+        // 队列已满：非关键事件丢弃，关键事件断开连接
+        assertEquals(0, registry.broadcast("s1", SseFrame.ofEvent(null, "progress", "p1")));
+        assertEquals(1L, registry.getStats().get("dropped"));
+        assertEquals(0, registry.broadcast("s1", SseFrame.ofEvent("3", "message", "m3")));
+        assertEquals(1L, registry.getStats().get("overflowDisconnects"));
+        assertFalse(registry.hasSubscribers("s1"));
+
+        slow.gate.countDown();
+        await(() -> slow.completed);
+        assertEquals(1, slow.frames.size());
+    }
+
+    @Test
+    void testStuckWriteDisconnectedByWatchdog() throws Exception {
+        registry.shutdown();
+        properties.setWriterThreads(1);
+        properties.setWriteTimeoutMs(100);
+        registry = new SseSubscriberRegistry(properties, heartbeatScheduler);
+        RecordingEmitter stuck = new RecordingEmitter();
+        stuck.gate = new CountDownLatch(1);
+        RecordingEmitter healthy = new RecordingEmitter();
+        registry.register("s1", stuck);
+        registry.register("s2", healthy);
+
+        // 唯一的写线程卡在s1的写入上
+        registry.broadcast("s1", SseFrame.ofEvent("1", "message", "m1"));
+        await(() -> stuck.writing);
+        registry.broadcast("s2", SseFrame.ofEvent("1", "message", "m1"));
+
+        // 看门狗断开卡住的连接，写线程空出后关闭连接并继续写其他连接
+        await(() -> Long.valueOf(1L).equals(registry.getStats().get("writeTimeouts")));
+        assertFalse(registry.hasSubscribers("s1"));
+        await(() -> stuck.completed);
+        await(() -> healthy.frames.size() == 1);
+        assertTrue(stuck.frames.isEmpty());
+        assertEquals(0, registry.broadcast("s1", SseFrame.ofEvent("2", "message", "m2")));
+        stuck.gate.countDown();
+    }
+
+    @Test
+    void testReconnectStormBoundedBySubscriberLimit() throws Exception {
+        properties.setMaxSubscribersPerSession(4);
+        RecordingEmitter latest = null;
+        for (int i = 0; i < 10000; i++) {
+            latest = new RecordingEmitter();
+            registry.register("s1", latest);
+        }
+
+        assertEquals(4, registry.getStats().get("subscribers"));
+        assertEquals(9996L, registry.getStats().get("evicted"));
+        assertEquals(4, heartbeatScheduler.getStats().get("live"));
+        assertEquals(4, registry.broadcast("s1", SseFrame.ofEvent("message", "x")));
+        RecordingEmitter last = latest;
+        await(() -> last.frames.size() == 1);
+
+        registry.removeAll("s1");
+        assertFalse(registry.hasSubscribers("s1"));
+        assertEquals(0, heartbeatScheduler.getStats().get("live"));
+    }
+
+    @Test
+    void testBurstMergedIntoSingleWrite() throws Exception {
+        properties.setBatchWindowMs(50);
+        RecordingEmitter emitter = new RecordingEmitter();
+        registry.register("s1", emitter);
+
+        registry.broadcast("s1", SseFrame.ofEvent("1", "progress", "p1"));
+        registry.broadcast("s1", SseFrame.ofEvent("2", "progress", "p2"));
+        registry.broadcast("s1", SseFrame.ofEvent("3", "announcement", "a"));
+        await(() -> emitter.frames.size() == 1);
+
+        byte[] bytes = (byte[]) emitter.frames.get(0).build().iterator().next().getData();
+        assertEquals("id:1\nevent:progress\ndata:p1\n\nid:2\nevent:progress\ndata:p2\n\nid:3\nevent:announcement\ndata:a\n\n",
+                new String(bytes, StandardCharsets.UTF_8));
+        assertEquals(3L, registry.getStats().get("framesWritten"));
+        assertEquals(1L, registry.getStats().get("writes"));
+    }
+
+    @Test
+    void testCriticalEventBypassesWindow() throws Exception {
+        properties.setBatchWindowMs(60000);
+        RecordingEmitter emitter = new RecordingEmitter();
+        registry.register("s1", emitter);
+
+        registry.broadcast("s1", SseFrame.ofEvent("1", "progress", "p1"));
+        Thread.sleep(50);
+        assertTrue(emitter.frames.isEmpty());
+
+        // 关键事件连同窗口内积压的事件立即写入
+        registry.broadcast("s1", SseFrame.ofEvent("2", "message", "m1"));
+        await(() -> emitter.frames.size() == 1);
+        byte[] bytes = (byte[]) emitter.frames.get(0).build().iterator().next().getData();
+        assertEquals("id:1\nevent:progress\ndata:p1\n\nid:2\nevent:message\ndata:m1\n\n", new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testWritesPerEventAtTenThousandSessions() throws Exception {
+        properties.setBatchWindowMs(10);
+        int sessions = 10000;
+        int eventsPerSession = 4;
+        RecordingEmitter[] emitters = new RecordingEmitter[sessions];
+        for (int i = 0; i < sessions; i++) {
+            emitters[i] = new RecordingEmitter();
+            registry.register("s" + i, emitters[i]);
+        }
+
+        // 每个会话一轮内连续产生多个事件（如流式增量）
+        for (int i = 0; i < sessions; i++) {
+            for (int e = 0; e < eventsPerSession; e++) {
+                registry.broadcast("s" + i, SseFrame.ofEvent(String.valueOf(e + 1), "progress", "delta-" + e));
+            }
+        }
+        long events = (long) sessions * eventsPerSession;
+        await(() -> registry.getStats().get("framesWritten").equals(events));
+
+        // 同一会话窗口内的事件合并写入，写入次数少于事件数且不丢事件
+        long writes = (Long) registry.getStats().get("writes");
+        assertTrue(writes >= sessions);
+        assertTrue(writes < events);
+        assertEquals(0L, registry.getStats().get("dropped"));
+        assertEquals("id:1\nevent:progress\ndata:delta-0\n\nid:2\nevent:progress\ndata:delta-1\n\n"
+                + "id:3\nevent:progress\ndata:delta-2\n\nid:4\nevent:progress\ndata:delta-3\n\n", written(emitters[sessions - 1]));
+    }
+
+    /**
+     * 连接写出的全部字节
+     */
+    private static String written(RecordingEmitter emitter) {
+        StringBuilder written = new StringBuilder();
+        for (SseEmitter.SseEventBuilder frame : emitter.frames) {
+            written.append(new String((byte[]) frame.build().iterator().next().getData(), StandardCharsets.UTF_8));
+        }
+        return written.toString();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待超时");
+            Thread.sleep(5);
+        }
+    }
+
+    private static class RecordingEmitter extends SseEmitter {
+        private final List<SseEventBuilder> frames = new CopyOnWriteArrayList<>();
+        private volatile boolean broken;
+        private volatile boolean writing;
+        private volatile boolean completed;
+        private volatile CountDownLatch gate;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (broken) {
+                throw new IOException("Broken pipe");
+            }
+            writing = true;
+            if (gate != null) {
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // 与阻塞的网络写入一样，被中断时写入失败
+                    Thread.currentThread().interrupt();
+                    throw new IOException("写入被中断", e);
+                }
+            }
+            frames.add(builder);
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+            super.complete();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package io.github.timemachinelab.core.session.infrastructure.web;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONB;
+import com.alibaba.fastjson2.JSONObject;
+import io.github.timemachinelab.config.SseProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebSocketSessionRegistryTest {
+
+    private WebSocketSessionRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new WebSocketSessionRegistry(new SseProperties());
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.shutdown();
+    }
+
+    @Test
+    void testBroadcastSendsBinaryEnvelope() throws InterruptedException {
+        RecordingSession session = new RecordingSession("ws1");
+        registry.register("s1", "u1", session, SseEventEncoder.Encoding.JSONB);
+
+        SseFrame frame = SseFrame.ofEvent("7", "message", "{\"currentNodeId\":\"2\"}");
+        assertEquals(1, registry.broadcast("s1", frame));
+
+        await(() -> session.sent.size() == 1);
+        ByteBuffer payload = ((BinaryMessage) session.sent.get(0)).getPayload();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        JSONObject envelope = JSONB.parseObject(bytes);
+        assertEquals("7", envelope.getString("id"));
+        assertEquals("message", envelope.getString("event"));
+        // data直接嵌入，不是转义后的字符串
+        assertEquals("2", envelope.getJSONObject("data").getString("currentNodeId"));
+    }
+
+    @Test
+    void testTextFramesWhenJsonNegotiated() throws InterruptedException {
+        RecordingSession session = new RecordingSession("ws1");
+        WebSocketSessionRegistry.Connection connection = registry.register("s1", "u1", session, SseEventEncoder.Encoding.JSON);
+
+        assertTrue(registry.write(connection, SseFrame.ofEvent("ack", "{\"success\":true}")));
+        await(() -> session.sent.size() == 1);
+
+        JSONObject envelope = JSON.parseObject(((TextMessage) session.sent.get(0)).getPayload());
+        assertNull(envelope.get("id"));
+        assertTrue(envelope.getJSONObject("data").getBooleanValue("success"));
+    }
+
+    @Test
+    void testFailedConnectionRemoved() throws InterruptedException {
+        RecordingSession healthy = new RecordingSession("ws1");
+        RecordingSession broken = new RecordingSession("ws2");
+        broken.failing = true;
+        registry.register("s1", "u1", healthy, SseEventEncoder.Encoding.JSONB);
+        registry.register("s1", "u1", broken, SseEventEncoder.Encoding.JSONB);
+
+        assertEquals(2, registry.broadcast("s1", SseFrame.ofEvent("1", "message", "{}")));
+        await(() -> broken.closeStatus == CloseStatus.SESSION_NOT_RELIABLE);
+        assertEquals(1, registry.broadcast("s1", SseFrame.ofEvent("2", "message", "{}")));
+        await(() -> healthy.sent.size() == 2);
+        assertEquals(1L, registry.getStats().get("sendFailures"));
+    }
+
+    @Test
+    void testSlowConnectionDoesNotBlockBroadcast() throws InterruptedException {
+        RecordingSession slow = new RecordingSession("ws1");
+        RecordingSession fast = new RecordingSession("ws2");
+        slow.blocked = new CountDownLatch(1);
+        registry.register("s1", "u1", slow, SseEventEncoder.Encoding.JSONB);
+        registry.register("s2", "u2", fast, SseEventEncoder.Encoding.JSONB);
+        try {
+            // 慢连接的写入阻塞在写线程上，投递方只入队
+            assertEquals(1, registry.broadcast("s1", SseFrame.ofEvent("1", "message", "{}")));
+            assertEquals(1, registry.broadcast("s1", SseFrame.ofEvent("2", "message", "{}")));
+            assertEquals(1, registry.broadcast("s2", SseFrame.ofEvent("1", "message", "{}")));
+            await(() -> fast.sent.size() == 1);
+            assertTrue(slow.sent.isEmpty());
+        } finally {
+            slow.blocked.countDown();
+        }
+        await(() -> slow.sent.size() == 2);
+    }
+
+    @Test
+    void testCriticalOverflowClosesConnection() throws InterruptedException {
+        SseProperties properties = new SseProperties();
+        properties.setOutboundQueueSize(1);
+        registry.shutdown();
+        registry = new WebSocketSessionRegistry(properties);
+        RecordingSession session = new RecordingSession("ws1");
+        session.blocked = new CountDownLatch(1);
+        registry.register("s1", "u1", session, SseEventEncoder.Encoding.JSONB);
+        try {
+            assertEquals(1, registry.broadcast("s1", SseFrame.ofEvent("1", "message", "{}")));
+            await(() -> session.writing);
+            assertEquals(1, registry.broadcast("s1", SseFrame.ofEvent("2", "message", "{}")));
+            // 队列已满
+            assertEquals(0, registry.broadcast("s1", SseFrame.ofEvent("3", "message", "{}")));
+            assertFalse(registry.hasSubscribers("s1"));
+            // 写线程仍阻塞在发送上，连接也立即关闭
+            await(() -> session.closeStatus == CloseStatus.SESSION_NOT_RELIABLE);
+        } finally {
+            session.blocked.countDown();
+        }
+        assertEquals(1L, registry.getStats().get("overflowDisconnects"));
+    }
+
+    @Test
+    void testStuckSendClosedByWatchdog() throws InterruptedException {
+        SseProperties properties = new SseProperties();
+        properties.setWriteTimeoutMs(100);
+        registry.shutdown();
+        registry = new WebSocketSessionRegistry(properties);
+        RecordingSession stuck = new RecordingSession("ws1");
+        RecordingSession healthy = new RecordingSession("ws2");
+        stuck.blocked = new CountDownLatch(1);
+        registry.register("s1", "u1", stuck, SseEventEncoder.Encoding.JSONB);
+        registry.register("s2", "u2", healthy, SseEventEncoder.Encoding.JSONB);
+        try {
+            assertEquals(1, registry.broadcast("s1", SseFrame.ofEvent("1", "message", "{}")));
+            await(() -> stuck.writing);
+            // 发送一直阻塞，看门狗超时后关闭连接并中断写线程
+            await(() -> stuck.closeStatus == CloseStatus.SESSION_NOT_RELIABLE);
+            await(() -> stuck.interrupted);
+            assertFalse(registry.hasSubscribers("s1"));
+            assertEquals(1L, registry.getStats().get("writeTimeouts"));
+
+            // 写线程恢复后继续服务其他连接
+            assertEquals(1, registry.broadcast("s2", SseFrame.ofEvent("1", "message", "{}")));
+            await(() -> healthy.sent.size() == 1);
+        } finally {
+            stuck.blocked.countDown();
+        }
+    }
+
+    @Test
+    void testRemoveLastConnectionClearsSession() {
+        WebSocketSessionRegistry.Connection connection = registry.register("s1", "u1", new RecordingSession("ws1"), SseEventEncoder.Encoding.JSONB);
+        assertTrue(registry.hasSubscribers("s1"));
+
+        assertTrue(registry.remove(connection));
+        assertFalse(registry.remove(connection));
+        assertFalse(registry.hasSubscribers("s1"));
+        assertEquals(0, registry.broadcast("s1", SseFrame.ofEvent("1", "message", "{}")));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待超时");
+            Thread.sleep(5);
+        }
+    }
+
+    private static class RecordingSession implements WebSocketSession {
+        private final String id;
+        private final List<WebSocketMessage<?>> sent = new CopyOnWriteArrayList<>();
+        private final Map<String, Object> attributes = new HashMap<>();
+        private volatile boolean failing;
+        private volatile boolean writing;
+        private volatile boolean interrupted;
+        private volatile CountDownLatch blocked;
+        private volatile CloseStatus closeStatus;
+
+        private RecordingSession(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            if (failing) {
+                throw new IOException("连接已断开");
+            }
+            writing = true;
+            if (blocked != null) {
+                try {
+                    blocked.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    Thread.currentThread().interrupt();
+                }
+            }
+            sent.add(message);
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+            closeStatus = status;
+        }
+
+        @Override
+        public void close() {
+            close(CloseStatus.NORMAL);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return closeStatus == null;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public URI getUri() {
+            return null;
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return null;
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return 0;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return 0;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return Collections.emptyList();
+        }
+    }
+}